@@ -196,6 +196,30 @@ public interface CreditBasedFlowControl extends FlowControl {
      */
     long incrementLimit( int numberOfBytes );
 
+    /**
+     * Atomically reserves credit for sending, thus incrementing the transferred number of bytes by the granted
+     * amount. In contrast to {@link #canSend(int)} followed by {@link #incrementTransferred(int)}, this is safe
+     * to be called by multiple threads concurrently.
+     *
+     * Implementations MUST throw an IllegalArgumentException if the numberOfBytes is BELOW zero.
+     *
+     * @param numberOfBytes the amount the caller wants to send
+     * @return the granted amount, between 0 if no credit is left and numberOfBytes
+     */
+    long tryReserve( long numberOfBytes );
+
+    /**
+     * Raises the limit to the given absolute value, as advertised by a {@link FrameGeneralType#MAX_DATA} or
+     * {@link FrameGeneralType#MAX_STREAM_DATA} frame.
+     * "A sender MUST ignore any MAX_STREAM_DATA or MAX_DATA frames that do
+     * not increase flow control limits."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-4.1
+     *
+     * @param newLimit the new absolute limit
+     * @return true if the limit was raised, false if the given limit was not larger than the current one
+     */
+    boolean raiseLimit( long newLimit );
+
     /**
      * @param numberOfBytes the amount the caller tries to send
      * @return true if the currently transferred number of bytes PLUS the given numberOfBytes does not exceed the limit
@@ -34,4 +34,21 @@
  * @see <a href="https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-19.21">QUIC Spec/Section 19.21</a>
  */
 public interface ExtensionFrame extends Frame {
+
+    /**
+     * Extension frames use frame types which are not known by {@link FrameType}.
+     * Implementations may therefore return null on {@link #getType()}.
+     *
+     * @return the raw value of the frame type, as registered at the IANA registry
+     */
+    long getFrameTypeValue();
+
+    /**
+     * @return always null, because extension frame types are not part of {@link FrameType}
+     * @see #getFrameTypeValue()
+     */
+    @Override
+    default FrameType getType() {
+        return null;
+    }
 }
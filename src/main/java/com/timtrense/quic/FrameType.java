@@ -62,21 +62,41 @@ public long getLongValue() {
         return value.longValue();
     }
 
+    /**
+     * all types indexed by their value, which is possible because the values of the
+     * core frame types are consecutive, starting at zero
+     */
+    private static final FrameType[] BY_VALUE;
+
+    static {
+        FrameType[] types = values();
+        BY_VALUE = new FrameType[types.length];
+        for ( FrameType f : types ) {
+            BY_VALUE[(int)f.getLongValue()] = f;
+        }
+    }
+
     public static FrameType findByValue( int value ) {
-        for ( FrameType f : values() ) {
-            if ( f.value.longValue() == value ) {
-                return f;
-            }
+        return findByValue( (long)value );
+    }
+
+    /**
+     * looks up the frame type in constant time
+     *
+     * @param value the raw value of the frame type
+     * @return the frame type or null if the value does not denote a core frame type
+     */
+    public static FrameType findByValue( long value ) {
+        if ( value < 0 || value >= BY_VALUE.length ) {
+            return null;
         }
-        return null;
+        return BY_VALUE[(int)value];
     }
 
     public static FrameType findByValue( VariableLengthInteger value ) {
-        for ( FrameType f : values() ) {
-            if ( f.value.equals( value ) ) {
-                return f;
-            }
+        if ( value == null ) {
+            return null;
         }
-        return null;
+        return findByValue( value.longValue() );
     }
 }
@@ -1,5 +1,10 @@
 package com.timtrense.quic;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
 /**
  * Ordered Byte-Stream to send and/or receive data.
  *
@@ -93,4 +98,39 @@ public interface Stream {
      */
     CreditBasedFlowControl getReceivingFlowControl();
 
+    /**
+     * Reads data in order, blocking until at least one byte is available.
+     *
+     * @param target the buffer to write the data to
+     * @return the number of read bytes or -1 if the peer ended the stream and all data was read
+     * @throws IOException if the stream was reset or the thread was interrupted while blocked
+     */
+    int read( ByteBuffer target ) throws IOException;
+
+    /**
+     * Writes all remaining bytes of the buffer, blocking while too much written data awaits acknowledgement.
+     * The buffer may be reused after returning.
+     *
+     * @param source the data to write
+     * @return the number of written bytes
+     * @throws IOException if the stream was finished or reset or the thread was interrupted while blocked
+     */
+    int write( ByteBuffer source ) throws IOException;
+
+    /**
+     * Ends the stream (clean termination), resulting in a STREAM frame with the FIN bit set.
+     *
+     * @throws IOException if the stream was reset
+     */
+    void finish() throws IOException;
+
+    /**
+     * @return a blocking view for reading, not null
+     */
+    InputStream getInputStream();
+
+    /**
+     * @return a blocking view for writing, which ends the stream when closed, not null
+     */
+    OutputStream getOutputStream();
 }
@@ -0,0 +1,41 @@
+package com.timtrense.quic;
+
+import lombok.Getter;
+
+/**
+ * The error codes of the transport protocol, as sent in a {@link FrameType#CONNECTION_CLOSE} frame
+ * <p>
+ * "This section lists the defined QUIC transport error codes that can
+ * be used in a CONNECTION_CLOSE frame with a type of 0x1c.  These
+ * errors apply to the entire connection."
+ * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-20.1
+ *
+ * @author Tim Trense
+ * @see <a href="https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-20.1">QUIC Spec/Section 20.1</a>
+ */
+public enum TransportErrorCode {
+
+    NO_ERROR( 0x00 ),
+    INTERNAL_ERROR( 0x01 ),
+    CONNECTION_REFUSED( 0x02 ),
+    FLOW_CONTROL_ERROR( 0x03 ),
+    STREAM_LIMIT_ERROR( 0x04 ),
+    STREAM_STATE_ERROR( 0x05 ),
+    FINAL_SIZE_ERROR( 0x06 ),
+    FRAME_ENCODING_ERROR( 0x07 ),
+    TRANSPORT_PARAMETER_ERROR( 0x08 ),
+    CONNECTION_ID_LIMIT_ERROR( 0x09 ),
+    PROTOCOL_VIOLATION( 0x0a ),
+    INVALID_TOKEN( 0x0b ),
+    APPLICATION_ERROR( 0x0c ),
+    CRYPTO_BUFFER_EXCEEDED( 0x0d ),
+    KEY_UPDATE_ERROR( 0x0e ),
+    AEAD_LIMIT_REACHED( 0x0f );
+
+    @Getter
+    private final VariableLengthInteger value;
+
+    TransportErrorCode( int value ) {
+        this.value = new VariableLengthInteger( value );
+    }
+}
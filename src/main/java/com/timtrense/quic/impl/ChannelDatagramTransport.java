@@ -0,0 +1,61 @@
+package com.timtrense.quic.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+
+/**
+ * The pure-Java {@link DatagramTransport} that sends each segment of a batch by its own
+ * {@link DatagramChannel#send(ByteBuffer, java.net.SocketAddress)} call.
+ * <p>
+ * The JDK offers no equivalent to sendmmsg and a gathering write to a {@link DatagramChannel} would produce
+ * only one datagram, so this transport cannot save system calls. It is therefore not {@link #isBatching()
+ * batching} and serves as the fallback wherever no native transport is available.
+ *
+ * @author Tim Trense
+ */
+public class ChannelDatagramTransport implements DatagramTransport {
+
+    /**
+     * The channel to send to
+     */
+    @Getter
+    @Setter
+    private @NonNull DatagramChannel channel;
+
+    public ChannelDatagramTransport( @NonNull DatagramChannel channel ) {
+        this.channel = channel;
+    }
+
+    @Override
+    public int send( @NonNull DatagramBatch batch ) throws IOException {
+        ByteBuffer buffer = batch.getBuffer();
+        int segmentCount = batch.getSegmentCount();
+        int segmentSize = batch.getSegmentSize();
+        int end = batch.getLength();
+        for ( int i = 0; i < segmentCount; i++ ) {
+            int start = i * segmentSize;
+            buffer.limit( Math.min( start + segmentSize, end ) );
+            buffer.position( start );
+            if ( channel.send( buffer, batch.getDestination() ) == 0 ) {
+                // a non-blocking channel without free space in the socket buffer
+                return i;
+            }
+        }
+        return segmentCount;
+    }
+
+    @Override
+    public boolean send( @NonNull OutgoingDatagram datagram ) throws IOException {
+        // a non-blocking channel without free space in the socket buffer sends nothing
+        return channel.send( datagram.getBuffer(), datagram.getDestination() ) != 0;
+    }
+
+    @Override
+    public boolean isBatching() {
+        return false;
+    }
+}
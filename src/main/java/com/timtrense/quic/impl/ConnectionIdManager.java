@@ -0,0 +1,389 @@
+package com.timtrense.quic.impl;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import lombok.Getter;
+import lombok.NonNull;
+
+import com.timtrense.quic.ConnectionId;
+import com.timtrense.quic.FrameType;
+import com.timtrense.quic.PacketNumberSpace;
+import com.timtrense.quic.StatelessResetToken;
+import com.timtrense.quic.TransportErrorCode;
+import com.timtrense.quic.TransportParameterType;
+import com.timtrense.quic.VariableLengthInteger;
+import com.timtrense.quic.impl.base.ConnectionIdImpl;
+import com.timtrense.quic.impl.exception.QuicTransportException;
+import com.timtrense.quic.impl.frames.NewConnectionIdFrameImpl;
+import com.timtrense.quic.impl.frames.RetireConnectionIdFrameImpl;
+
+/**
+ * Manages the lifecycle of the connection ids of one connection, in both directions.
+ * <p>
+ * Local connection ids are issued to the peer with NEW_CONNECTION_ID frames, up to the peer's
+ * active_connection_id_limit, and registered at the {@link Endpoint} together with their derived stateless
+ * reset token. When the peer retires one with a RETIRE_CONNECTION_ID frame, it is unregistered and replaced.
+ * <p>
+ * Remote connection ids are received with NEW_CONNECTION_ID frames. Their stateless reset tokens are indexed
+ * at the {@link Endpoint#getStatelessResetTokenIndex() endpoint}, and those below the Retire Prior To field
+ * are retired with RETIRE_CONNECTION_ID frames.
+ * <p>
+ * Connection ids are kept by sequence number. The cost of each event only depends on the number of connection ids
+ * of the connection, which is bounded by the active_connection_id_limit, thus rotating connection ids is cheap.
+ * <p>
+ * This class is not thread-safe. It must only be used by the thread of the shard processing the connection.
+ *
+ * @author Tim Trense
+ * @see <a href="https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-5.1">QUIC Spec/Section 5.1</a>
+ */
+public class ConnectionIdManager {
+
+    /**
+     * The number of local connection ids to issue at most, even if the peer accepts more.
+     * Each issued id costs an entry in the endpoint's index.
+     */
+    public static final int MAX_ISSUED_CONNECTION_IDS = 8;
+
+    @Getter
+    private final @NonNull Endpoint endpoint;
+    @Getter
+    private final @NonNull ConnectionImpl connection;
+    /**
+     * the shard encoded into the local connection ids
+     */
+    @Getter
+    private final int shardId;
+    /**
+     * the active local connection ids, by sequence number
+     */
+    private final TreeMap<Long, ConnectionId> localConnectionIds = new TreeMap<>();
+    /**
+     * the sequence number of the next local connection id to issue
+     */
+    @Getter
+    private long nextLocalSequenceNumber;
+    /**
+     * the Retire Prior To field of all NEW_CONNECTION_ID frames sent
+     */
+    @Getter
+    private long localRetirePriorTo;
+    /**
+     * the active_connection_id_limit transport parameter of the peer
+     */
+    @Getter
+    private long peerActiveConnectionIdLimit = 2;
+    /**
+     * the active remote connection ids, by sequence number
+     */
+    private final TreeMap<Long, RemoteConnectionId> remoteConnectionIds = new TreeMap<>();
+    /**
+     * the largest Retire Prior To field of all received NEW_CONNECTION_ID frames
+     */
+    @Getter
+    private long remoteRetirePriorTo;
+    /**
+     * the sequence number of the remote connection id in use as Destination Connection ID
+     */
+    @Getter
+    private long currentRemoteSequenceNumber = -1;
+
+    /**
+     * @param endpoint   the endpoint to register local connection ids and remote stateless reset tokens at
+     * @param connection the connection whose connection ids to manage
+     * @param shardId    the shard encoded into the local connection ids
+     */
+    public ConnectionIdManager( @NonNull Endpoint endpoint, @NonNull ConnectionImpl connection, int shardId ) {
+        this.endpoint = endpoint;
+        this.connection = connection;
+        this.shardId = shardId;
+    }
+
+    /**
+     * @return the active_connection_id_limit transport parameter of this endpoint
+     */
+    public long getLocalActiveConnectionIdLimit() {
+        return ( (Number)endpoint.getConfiguration().getTransportParameters()
+                .getParameter( TransportParameterType.ACTIVE_CONNECTION_ID_LIMIT ).getValue() ).longValue();
+    }
+
+    /**
+     * @return the number of active local connection ids
+     */
+    public int getLocalConnectionIdCount() {
+        return localConnectionIds.size();
+    }
+
+    /**
+     * @return the number of active remote connection ids
+     */
+    public int getRemoteConnectionIdCount() {
+        return remoteConnectionIds.size();
+    }
+
+    /**
+     * Registers the local connection id that this endpoint used as Source Connection ID during the handshake,
+     * which has the sequence number 0
+     *
+     * @param connectionId the Source Connection ID of the handshake
+     */
+    public void setInitialLocalConnectionId( @NonNull ConnectionId connectionId ) {
+        ConnectionId registered = new ConnectionIdImpl( connectionId.getValue(), VariableLengthInteger.ZERO );
+        localConnectionIds.put( 0L, registered );
+        nextLocalSequenceNumber = Math.max( nextLocalSequenceNumber, 1 );
+        endpoint.addConnection( registered, connection );
+        connection.setLocalConnectionId( registered );
+    }
+
+    /**
+     * Registers the remote connection id that the peer used as Source Connection ID during the handshake,
+     * which has the sequence number 0
+     *
+     * @param connectionId        the Source Connection ID of the peer
+     * @param statelessResetToken the stateless_reset_token transport parameter of a server, null if none
+     */
+    public void setInitialRemoteConnectionId( @NonNull ConnectionId connectionId,
+            StatelessResetToken statelessResetToken ) {
+        addRemoteConnectionId( 0, connectionId, statelessResetToken );
+        useRemoteConnectionId( 0 );
+    }
+
+    /**
+     * Applies the active_connection_id_limit transport parameter of the peer and issues connection ids up to it
+     *
+     * @param limit the limit of the peer
+     */
+    public void setPeerActiveConnectionIdLimit( long limit ) {
+        this.peerActiveConnectionIdLimit = limit;
+        issueConnectionIds();
+    }
+
+    /**
+     * Issues new local connection ids until the peer holds as many as it accepts
+     *
+     * @return the number of issued connection ids
+     */
+    public int issueConnectionIds() {
+        int issued = 0;
+        long limit = Math.min( peerActiveConnectionIdLimit, MAX_ISSUED_CONNECTION_IDS );
+        while ( countActiveLocalConnectionIds() < limit ) {
+            issueConnectionId();
+            issued++;
+        }
+        return issued;
+    }
+
+    /**
+     * Replaces all issued local connection ids: new ones are issued and the peer is requested to retire all
+     * older ones, e.g. to prevent linking the activity of a client across networks.
+     * <p>
+     * The rotation is refused while the peer did not yet retire all ids of the previous rotation, so that
+     * no more than twice the issued connection ids are ever registered, even if the peer ignores the
+     * Retire Prior To field.
+     *
+     * @return false if the rotation was refused, because retirements of the previous rotation are pending
+     */
+    public boolean rotateLocalConnectionIds() {
+        if ( !localConnectionIds.headMap( localRetirePriorTo, false ).isEmpty() ) {
+            return false;
+        }
+        localRetirePriorTo = nextLocalSequenceNumber;
+        // "An endpoint MAY send connection IDs that temporarily exceed a peer's limit if the
+        // NEW_CONNECTION_ID frame also requires the retirement of any excess,
+        // by including a sufficiently large value in the Retire Prior To field."
+        // Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-5.1.1
+        issueConnectionIds();
+        return true;
+    }
+
+    /**
+     * Processes a RETIRE_CONNECTION_ID frame of the peer, unregisters the connection id and issues a new one
+     *
+     * @param frame                   the received frame
+     * @param destinationConnectionId the Destination Connection ID of the packet containing the frame
+     * @throws QuicTransportException if the peer retires an id that was never issued or that it addressed
+     *                                the frame to
+     */
+    public void onRetireConnectionIdReceived( @NonNull RetireConnectionIdFrameImpl frame,
+            @NonNull ConnectionId destinationConnectionId ) throws QuicTransportException {
+        long sequenceNumber = frame.getSequenceNumber().longValue();
+        // "Receipt of a RETIRE_CONNECTION_ID frame containing a sequence number
+        // greater than any previously sent to the peer MUST be treated as a
+        // connection error of type PROTOCOL_VIOLATION."
+        // Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-19.16
+        if ( sequenceNumber >= nextLocalSequenceNumber ) {
+            throw new QuicTransportException( TransportErrorCode.PROTOCOL_VIOLATION,
+                    "Retired connection id " + sequenceNumber + " was never issued" );
+        }
+        ConnectionId retired = localConnectionIds.get( sequenceNumber );
+        if ( retired == null ) {
+            // already retired, e.g. a retransmission
+            return;
+        }
+        if ( retired.equals( destinationConnectionId ) ) {
+            throw new QuicTransportException( TransportErrorCode.PROTOCOL_VIOLATION,
+                    "A connection id must not be retired by a packet addressed to it" );
+        }
+        localConnectionIds.remove( sequenceNumber );
+        endpoint.removeConnection( retired );
+        if ( retired.equals( connection.getLocalConnectionId() ) && !localConnectionIds.isEmpty() ) {
+            connection.setLocalConnectionId( localConnectionIds.lastEntry().getValue() );
+        }
+        // "An endpoint SHOULD supply a new connection ID when the peer retires a connection ID."
+        // Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-5.1.1
+        issueConnectionIds();
+    }
+
+    /**
+     * Processes a NEW_CONNECTION_ID frame of the peer and retires all remote connection ids below its
+     * Retire Prior To field
+     *
+     * @param frame the received frame
+     * @throws QuicTransportException if the frame is inconsistent with previous frames or the peer
+     *                                exceeds the active_connection_id_limit of this endpoint
+     */
+    public void onNewConnectionIdReceived( @NonNull NewConnectionIdFrameImpl frame ) throws QuicTransportException {
+        long sequenceNumber = frame.getSequenceNumber().longValue();
+        long retirePriorTo = frame.getRetirePriorTo().longValue();
+        // the peer cannot request retiring the very connection id it issues
+        if ( retirePriorTo > sequenceNumber ) {
+            throw new QuicTransportException( TransportErrorCode.FRAME_ENCODING_ERROR,
+                    "Retire Prior To " + retirePriorTo + " exceeds the sequence number " + sequenceNumber );
+        }
+        ConnectionId connectionId = new ConnectionIdImpl( frame.getConnectionId().getValue(),
+                frame.getSequenceNumber() );
+        RemoteConnectionId known = remoteConnectionIds.get( sequenceNumber );
+        if ( known != null ) {
+            if ( !known.connectionId.equals( connectionId ) ) {
+                throw new QuicTransportException( TransportErrorCode.PROTOCOL_VIOLATION,
+                        "Connection id " + sequenceNumber + " was issued with a different value" );
+            }
+            // a retransmission
+            return;
+        }
+        if ( sequenceNumber < remoteRetirePriorTo ) {
+            // the id was retired before it arrived, thus it is retired right away
+            queueRetireConnectionId( sequenceNumber );
+            return;
+        }
+        for ( RemoteConnectionId remote : remoteConnectionIds.values() ) {
+            if ( remote.connectionId.equals( connectionId ) ) {
+                throw new QuicTransportException( TransportErrorCode.PROTOCOL_VIOLATION,
+                        "Connection id " + sequenceNumber + " was issued before with another sequence number" );
+            }
+        }
+        addRemoteConnectionId( sequenceNumber, connectionId, frame.getStatelessResetToken() );
+        if ( retirePriorTo > remoteRetirePriorTo ) {
+            remoteRetirePriorTo = retirePriorTo;
+            retireRemoteConnectionIdsBelow( retirePriorTo );
+        }
+        if ( remoteConnectionIds.size() > getLocalActiveConnectionIdLimit() ) {
+            throw new QuicTransportException( TransportErrorCode.CONNECTION_ID_LIMIT_ERROR,
+                    "The peer issued more than " + getLocalActiveConnectionIdLimit() + " connection ids" );
+        }
+    }
+
+    /**
+     * Switches to an unused remote connection id and retires the one used so far, so that an observer cannot
+     * link packets sent before and after, e.g. upon migrating to a new path
+     *
+     * @return false if the peer did not issue any spare connection id
+     */
+    public boolean rotateRemoteConnectionId() {
+        Map.Entry<Long, RemoteConnectionId> next = remoteConnectionIds.higherEntry( currentRemoteSequenceNumber );
+        if ( next == null ) {
+            return false;
+        }
+        long retired = currentRemoteSequenceNumber;
+        useRemoteConnectionId( next.getKey() );
+        retireRemoteConnectionId( retired );
+        return true;
+    }
+
+    private void issueConnectionId() {
+        long sequenceNumber = nextLocalSequenceNumber++;
+        VariableLengthInteger sequence = new VariableLengthInteger( sequenceNumber );
+        ConnectionId connectionId = new ConnectionIdImpl( endpoint.createUnusedConnectionId( shardId ), sequence );
+        localConnectionIds.put( sequenceNumber, connectionId );
+        endpoint.addConnection( connectionId, connection );
+
+        NewConnectionIdFrameImpl frame = new NewConnectionIdFrameImpl( FrameType.NEW_CONNECTION_ID );
+        frame.setSequenceNumber( sequence );
+        frame.setRetirePriorTo( new VariableLengthInteger( localRetirePriorTo ) );
+        frame.setLength( connectionId.getValue().length );
+        frame.setConnectionId( connectionId );
+        frame.setStatelessResetToken( endpoint.getStatelessResetTokenGenerator().generate( connectionId ) );
+        connection.queueFrame( PacketNumberSpace.APPLICATION_DATA, frame );
+    }
+
+    /**
+     * @return the number of issued local connection ids that the peer was not requested to retire
+     */
+    private int countActiveLocalConnectionIds() {
+        return localConnectionIds.tailMap( localRetirePriorTo, true ).size();
+    }
+
+    private void addRemoteConnectionId( long sequenceNumber, ConnectionId connectionId,
+            StatelessResetToken statelessResetToken ) {
+        remoteConnectionIds.put( sequenceNumber, new RemoteConnectionId( connectionId, statelessResetToken ) );
+        connection.getRemoteConnectionIds().add( connectionId );
+        if ( statelessResetToken != null ) {
+            endpoint.getStatelessResetTokenIndex().add( statelessResetToken, connection );
+        }
+    }
+
+    private void useRemoteConnectionId( long sequenceNumber ) {
+        currentRemoteSequenceNumber = sequenceNumber;
+        connection.setRemoteConnectionId( remoteConnectionIds.get( sequenceNumber ).connectionId );
+    }
+
+    private void retireRemoteConnectionIdsBelow( long retirePriorTo ) {
+        boolean currentRetired = currentRemoteSequenceNumber < retirePriorTo;
+        Iterator<Map.Entry<Long, RemoteConnectionId>> iterator =
+                remoteConnectionIds.headMap( retirePriorTo, false ).entrySet().iterator();
+        while ( iterator.hasNext() ) {
+            Map.Entry<Long, RemoteConnectionId> entry = iterator.next();
+            iterator.remove();
+            forgetRemoteConnectionId( entry.getValue() );
+            queueRetireConnectionId( entry.getKey() );
+        }
+        if ( currentRetired && !remoteConnectionIds.isEmpty() ) {
+            useRemoteConnectionId( remoteConnectionIds.firstKey() );
+        }
+    }
+
+    private void retireRemoteConnectionId( long sequenceNumber ) {
+        RemoteConnectionId retired = remoteConnectionIds.remove( sequenceNumber );
+        if ( retired != null ) {
+            forgetRemoteConnectionId( retired );
+            queueRetireConnectionId( sequenceNumber );
+        }
+    }
+
+    private void forgetRemoteConnectionId( RemoteConnectionId retired ) {
+        connection.getRemoteConnectionIds().remove( retired.connectionId );
+        if ( retired.statelessResetToken != null ) {
+            endpoint.getStatelessResetTokenIndex().remove( retired.statelessResetToken );
+        }
+    }
+
+    private void queueRetireConnectionId( long sequenceNumber ) {
+        RetireConnectionIdFrameImpl frame = new RetireConnectionIdFrameImpl( FrameType.RETIRE_CONNECTION_ID );
+        frame.setSequenceNumber( new VariableLengthInteger( sequenceNumber ) );
+        connection.queueFrame( PacketNumberSpace.APPLICATION_DATA, frame );
+    }
+
+    /**
+     * A connection id issued by the peer together with its stateless reset token
+     */
+    private static final class RemoteConnectionId {
+
+        private final ConnectionId connectionId;
+        private final StatelessResetToken statelessResetToken;
+
+        private RemoteConnectionId( ConnectionId connectionId, StatelessResetToken statelessResetToken ) {
+            this.connectionId = connectionId;
+            this.statelessResetToken = statelessResetToken;
+        }
+    }
+}
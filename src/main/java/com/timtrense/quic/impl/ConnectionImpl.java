@@ -0,0 +1,1215 @@
+package com.timtrense.quic.impl;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+
+import com.timtrense.quic.ConnectionId;
+import com.timtrense.quic.EncryptionLevel;
+import com.timtrense.quic.EndpointRole;
+import com.timtrense.quic.Frame;
+import com.timtrense.quic.FrameGeneralType;
+import com.timtrense.quic.FrameType;
+import com.timtrense.quic.PacketNumberSpace;
+import com.timtrense.quic.ProtocolVersion;
+import com.timtrense.quic.StreamId;
+import com.timtrense.quic.TransportParameterType;
+import com.timtrense.quic.VariableLengthInteger;
+import com.timtrense.quic.impl.base.AmplificationLimit;
+import com.timtrense.quic.impl.base.FlowControlImpl;
+import com.timtrense.quic.impl.base.ReceiveWindowTuner;
+import com.timtrense.quic.impl.base.ReceivedPacketTracker;
+import com.timtrense.quic.impl.base.StreamEventListener;
+import com.timtrense.quic.impl.base.StreamImpl;
+import com.timtrense.quic.impl.base.StreamSendScheduler;
+import com.timtrense.quic.impl.base.TransportParameterCollection;
+import com.timtrense.quic.impl.frames.AckFrameImpl;
+import com.timtrense.quic.impl.frames.MaxDataFrameImpl;
+import com.timtrense.quic.impl.frames.MaxStreamDataFrameImpl;
+import com.timtrense.quic.impl.frames.PathChallangeFrameImpl;
+import com.timtrense.quic.impl.frames.PathResponseFrameImpl;
+import com.timtrense.quic.impl.frames.PingFrameImpl;
+import com.timtrense.quic.impl.frames.StreamFrameImpl;
+import com.timtrense.quic.impl.recovery.CongestionControlAlgorithm;
+import com.timtrense.quic.impl.recovery.CongestionController;
+import com.timtrense.quic.impl.recovery.LossDetectionListener;
+import com.timtrense.quic.impl.recovery.LossDetector;
+import com.timtrense.quic.impl.recovery.Pacer;
+import com.timtrense.quic.impl.recovery.RttEstimator;
+import com.timtrense.quic.impl.recovery.SentPacketHistory;
+
+/**
+ * The state of one QUIC connection as held by an {@link Endpoint}
+ * <p>
+ * The timers of a connection are armed at the {@link TimerWheel} of the shard that processes the connection.
+ * All methods dealing with timers must thus only be called by the thread of that shard.
+ *
+ * @author Tim Trense
+ */
+@Getter
+public class ConnectionImpl implements Connection, LossDetectionListener, StreamEventListener {
+
+    /**
+     * the role of the endpoint holding this connection
+     */
+    private final @NonNull EndpointRole role;
+    /**
+     * the negotiated version of the protocol
+     */
+    @Setter
+    private @NonNull ProtocolVersion version = ProtocolVersion.ONE;
+    /**
+     * the connection id that this endpoint sends as Source Connection ID
+     */
+    @Setter
+    private ConnectionId localConnectionId;
+    /**
+     * the connection id that this endpoint currently sends as Destination Connection ID
+     */
+    @Setter
+    private ConnectionId remoteConnectionId;
+    /**
+     * the Destination Connection ID of the first Initial packet of the client, which a server sends as the
+     * original_destination_connection_id transport parameter, null if unknown
+     */
+    @Setter
+    private ConnectionId originalDestinationConnectionId;
+    /**
+     * the Source Connection ID of the Retry packet that the client answered, which a server sends as the
+     * retry_source_connection_id transport parameter, null if no Retry packet was sent
+     */
+    @Setter
+    private ConnectionId retrySourceConnectionId;
+    /**
+     * the token to send within Initial packets, empty if none
+     */
+    @Setter
+    private @NonNull byte[] initialToken = new byte[0];
+    private final Set<ConnectionId> remoteConnectionIds = new HashSet<>();
+    /**
+     * all currently known protections, by their level
+     */
+    private final Map<EncryptionLevel, PacketProtection> packetProtections = new EnumMap<>( EncryptionLevel.class );
+    /**
+     * the receiving side of acknowledgements, by the ordinal of the {@link PacketNumberSpace}
+     */
+    private final ReceivedPacketTracker[] receivedPacketTrackers;
+    /**
+     * frames yet to send, by the {@link PacketNumberSpace} to send them in.
+     * Frames may be queued from any thread.
+     */
+    private final Map<PacketNumberSpace, Queue<Frame>> pendingFrames = new EnumMap<>( PacketNumberSpace.class );
+    /**
+     * the packet number to use for the next sent packet, by the ordinal of the {@link PacketNumberSpace}
+     */
+    private final long[] nextPacketNumbers = new long[PacketNumberSpace.values().length];
+    /**
+     * the largest packet number acknowledged by the peer, by the ordinal of the {@link PacketNumberSpace}
+     */
+    private final long[] largestAcknowledgedPacketNumbers = new long[PacketNumberSpace.values().length];
+    /**
+     * the number of the sent packet whose ACK frame awaits being acknowledged itself, -1 if none,
+     * by the ordinal of the {@link PacketNumberSpace}. Only one ACK frame per space is awaited at a time,
+     * which bounds the state while still confirming the receipt of ACK frames about once per round trip.
+     */
+    private final long[] ackFramePacketNumbers = new long[PacketNumberSpace.values().length];
+    /**
+     * the Largest Acknowledged field of the awaited ACK frame, by the ordinal of the {@link PacketNumberSpace}
+     */
+    private final long[] ackFrameLargestAcknowledged = new long[PacketNumberSpace.values().length];
+    /**
+     * the wheel of the shard that processes this connection, null if not yet attached to a shard
+     */
+    private TimerWheel timerWheel;
+    /**
+     * all timers of this connection, allocated once, by the ordinal of the {@link ConnectionTimerType}
+     */
+    private final WheelTimer[] timers;
+    /**
+     * the effective idle timeout in nanoseconds, 0 if disabled
+     */
+    private long idleTimeoutNanos;
+    /**
+     * the max_ack_delay transport parameter of this endpoint in nanoseconds
+     */
+    private long maxAckDelayNanos = TimeUnit.MILLISECONDS.toNanos( 25 );
+    /**
+     * the ack_delay_exponent transport parameter of the peer
+     */
+    private int peerAckDelayExponent = 3;
+    /**
+     * the loss detection and RTT estimation of the packets sent by this endpoint
+     */
+    private final LossDetector lossDetector;
+    /**
+     * creates the congestion controller of each new path to the peer
+     */
+    @Setter
+    private @NonNull Supplier<CongestionController> congestionControllerFactory;
+    /**
+     * the source of the unpredictable data of PATH_CHALLENGE frames
+     */
+    @Setter
+    private @NonNull Random random = new SecureRandom();
+    /**
+     * all recently used paths to the peer, including the active one
+     */
+    private final List<NetworkPath> paths = new ArrayList<>( MAX_PATHS );
+    /**
+     * the path to send datagrams on
+     */
+    private @NonNull NetworkPath activePath;
+    /**
+     * the path that was active before the last migration, which is accounted the packets sent before it,
+     * or null if the connection never migrated
+     */
+    private NetworkPath previousPath;
+    /**
+     * the last path that was validated when the active path became active, to revert to if validating the
+     * active path fails, or null if none
+     */
+    private NetworkPath lastValidatedPath;
+    /**
+     * the endpoint that accepted this connection, to notify about its confirmed handshake and its discard,
+     * null if none
+     */
+    @Setter
+    private Endpoint endpoint;
+    /**
+     * issues and retires the connection ids of this connection, null if they are not managed
+     */
+    @Setter
+    private ConnectionIdManager connectionIdManager;
+    /**
+     * whether this endpoint sent the disable_active_migration transport parameter
+     */
+    private boolean activeMigrationDisabled;
+    /**
+     * the pacer of in-flight packets, null to send without pacing
+     */
+    @Setter
+    private Pacer pacer;
+    /**
+     * the assembler of the shard processing this connection, to send with whenever a timer makes something
+     * sendable, e.g. once the pacer allows it, null if nothing is sent on timers
+     */
+    @Setter
+    private DatagramAssembler datagramAssembler;
+    /**
+     * the number of ack-eliciting packets that may be sent regardless of the congestion window,
+     * because a probe timeout expired
+     */
+    private int probePacketsPending;
+    /**
+     * whether an ack-eliciting packet was sent since the last packet was received
+     */
+    private boolean ackElicitingPacketSentSinceLastReceived;
+    /**
+     * the connection level flow control of received stream data
+     */
+    private final FlowControlImpl receivingFlowControl;
+    /**
+     * the auto-tuning of the connection level receive window
+     */
+    private ReceiveWindowTuner receiveWindowTuner;
+    /**
+     * the connection window is kept at least this many times the window of any of its streams,
+     * so that a single fast stream is not limited by the connection
+     */
+    private static final double CONNECTION_TO_STREAM_WINDOW_RATIO = 1.5;
+    /**
+     * the number of paths to the peer to remember, bounding the state a peer can make this endpoint hold
+     */
+    public static final int MAX_PATHS = 4;
+    /**
+     * the number of ack-eliciting packets sent as probes upon a probe timeout
+     */
+    public static final int MAX_PROBE_PACKETS = 2;
+    /**
+     * decides which of the active streams fills the next packet
+     */
+    private final StreamSendScheduler streamSendScheduler = new StreamSendScheduler();
+    /**
+     * streams written to by application threads, to be activated in the scheduler by the connection's thread
+     */
+    private final Queue<StreamImpl> writtenStreams = new ConcurrentLinkedQueue<>();
+    /**
+     * guards the receive window tuning, which is triggered by application threads reading from streams
+     */
+    private final ReentrantLock receiveWindowLock = new ReentrantLock();
+    /**
+     * the STREAM frames written to the 1-RTT packet being assembled, which are attached to its entry of the
+     * {@link SentPacketHistory} once it is sent, null if none
+     */
+    @Getter( AccessLevel.NONE )
+    private SentStreamFrame unsentStreamFrames;
+    /**
+     * the number of the packet that {@link #unsentStreamFrames} were written to
+     */
+    @Getter( AccessLevel.NONE )
+    private long unsentStreamFramesPacketNumber = -1;
+    /**
+     * whether the connection was silently closed because it was idle for too long
+     */
+    private boolean idleTimeoutExpired;
+    /**
+     * whether the peer reset the connection with a stateless reset, because it lost the connection state
+     */
+    private volatile boolean statelessResetReceived;
+
+    /**
+     * Creates a new connection, controlling congestion with {@link CongestionControlAlgorithm#NEW_RENO}
+     *
+     * @param role the role of the endpoint holding this connection
+     */
+    public ConnectionImpl( @NonNull EndpointRole role ) {
+        this( role, CongestionControlAlgorithm.NEW_RENO.createController(
+                DatagramAssembler.MIN_INITIAL_DATAGRAM_SIZE ) );
+    }
+
+    /**
+     * Creates a new connection, applying the transport parameters and congestion control algorithm of
+     * the configuration
+     *
+     * @param role          the role of the endpoint holding this connection
+     * @param configuration the configuration of the endpoint holding this connection
+     */
+    public ConnectionImpl( @NonNull EndpointRole role, @NonNull EndpointConfiguration configuration ) {
+        this( role, configuration.getCongestionControlAlgorithm()
+                .createController( configuration.getMaxDatagramSize() ) );
+        this.congestionControllerFactory = () -> configuration.getCongestionControlAlgorithm()
+                .createController( configuration.getMaxDatagramSize() );
+        this.random = configuration.getRandom();
+        applyTransportParameters( configuration.getTransportParameters(), null );
+        this.receiveWindowTuner = new ReceiveWindowTuner( receivingFlowControl,
+                configuration.getMaxConnectionReceiveWindow() );
+        if ( configuration.isPacingEnabled() ) {
+            this.pacer = new Pacer( (long)configuration.getPacingBurstDatagrams() * configuration.getMaxDatagramSize() );
+        }
+    }
+
+    /**
+     * @param role                 the role of the endpoint holding this connection
+     * @param congestionController the limit on the sending rate
+     */
+    public ConnectionImpl( @NonNull EndpointRole role, @NonNull CongestionController congestionController ) {
+        this.role = role;
+        this.congestionControllerFactory = () -> CongestionControlAlgorithm.NEW_RENO.createController(
+                DatagramAssembler.MIN_INITIAL_DATAGRAM_SIZE );
+        this.receivingFlowControl = new FlowControlImpl( 0 );
+        this.receiveWindowTuner = new ReceiveWindowTuner( receivingFlowControl, 0 );
+        ConnectionTimerType[] timerTypes = ConnectionTimerType.values();
+        this.timers = new WheelTimer[timerTypes.length];
+        for ( ConnectionTimerType timerType : timerTypes ) {
+            timers[timerType.ordinal()] = new WheelTimer( this::onTimerExpired, timerType );
+        }
+        this.lossDetector = new LossDetector( role, getTimer( ConnectionTimerType.LOSS_DETECTION ) );
+        lossDetector.setListener( this );
+        // the address of the server is validated for the client from the start
+        this.activePath = new NetworkPath( null, lossDetector.getRttEstimator(), congestionController,
+                role == EndpointRole.CLIENT );
+        paths.add( activePath );
+        PacketNumberSpace[] spaces = PacketNumberSpace.values();
+        this.receivedPacketTrackers = new ReceivedPacketTracker[spaces.length];
+        for ( PacketNumberSpace space : spaces ) {
+            receivedPacketTrackers[space.ordinal()] = new ReceivedPacketTracker( space );
+            pendingFrames.put( space, new ConcurrentLinkedQueue<>() );
+            largestAcknowledgedPacketNumbers[space.ordinal()] = -1;
+            ackFramePacketNumbers[space.ordinal()] = -1;
+        }
+    }
+
+    @Override
+    public PacketProtection getPacketProtection( @NonNull EncryptionLevel encryptionLevel ) {
+        return packetProtections.get( encryptionLevel );
+    }
+
+    /**
+     * Installs the protection for the given level, replacing any previous one
+     *
+     * @param encryptionLevel the level to protect packets at
+     * @param protection      the protection to use or null to discard the keys of that level
+     */
+    public void setPacketProtection( @NonNull EncryptionLevel encryptionLevel, PacketProtection protection ) {
+        if ( protection == null ) {
+            if ( packetProtections.remove( encryptionLevel ) != null
+                    && encryptionLevel != EncryptionLevel.APPLICATION_DATA ) {
+                lossDetector.discardSpace( encryptionLevel == EncryptionLevel.INITIAL
+                        ? PacketNumberSpace.INITIAL : PacketNumberSpace.HANDSHAKE, System.nanoTime() );
+            }
+        }
+        else {
+            packetProtections.put( encryptionLevel, protection );
+        }
+        lossDetector.setHandshakeKeysAvailable( packetProtections.containsKey( EncryptionLevel.HANDSHAKE ) );
+    }
+
+    /**
+     * Attaches this connection to the wheel of the shard that processes it
+     *
+     * @param timerWheel the wheel to arm all timers at
+     */
+    public void setTimerWheel( TimerWheel timerWheel ) {
+        this.timerWheel = timerWheel;
+        lossDetector.setTimerWheel( timerWheel );
+    }
+
+    /**
+     * Marks the handshake as confirmed, which enables probe timeouts for application data
+     *
+     * @param handshakeConfirmed whether the handshake is confirmed
+     */
+    public void setHandshakeConfirmed( boolean handshakeConfirmed ) {
+        lossDetector.setHandshakeConfirmed( handshakeConfirmed );
+        if ( handshakeConfirmed && endpoint != null ) {
+            endpoint.onHandshakeConfirmed( this );
+        }
+    }
+
+    /**
+     * @param space the space to get the tracker of
+     * @return the tracker of received packet numbers within that space
+     */
+    public ReceivedPacketTracker getReceivedPacketTracker( @NonNull PacketNumberSpace space ) {
+        return receivedPacketTrackers[space.ordinal()];
+    }
+
+    /**
+     * @param space the space to get the queue of
+     * @return the queue of frames yet to send within that space
+     */
+    public Queue<Frame> getPendingFrames( @NonNull PacketNumberSpace space ) {
+        return pendingFrames.get( space );
+    }
+
+    /**
+     * Queues a frame for being sent within the given space
+     *
+     * @param space the space to send the frame in
+     * @param frame the frame to send
+     */
+    public void queueFrame( @NonNull PacketNumberSpace space, @NonNull Frame frame ) {
+        pendingFrames.get( space ).add( frame );
+    }
+
+    /**
+     * @param space the space to get the packet number for
+     * @return the packet number of the next packet sent within that space, without consuming it
+     */
+    public long getNextPacketNumber( @NonNull PacketNumberSpace space ) {
+        return nextPacketNumbers[space.ordinal()];
+    }
+
+    /**
+     * Consumes a packet number within the given space
+     *
+     * @param space the space to consume the packet number from
+     * @return the packet number to use for the packet that is sent next
+     */
+    public long takeNextPacketNumber( @NonNull PacketNumberSpace space ) {
+        return nextPacketNumbers[space.ordinal()]++;
+    }
+
+    /**
+     * @param space the space to get the largest acknowledged packet number of
+     * @return the largest packet number that the peer acknowledged within that space or -1 if none
+     */
+    public long getLargestAcknowledgedPacketNumber( @NonNull PacketNumberSpace space ) {
+        return largestAcknowledgedPacketNumbers[space.ordinal()];
+    }
+
+    /**
+     * Records the largest acknowledged packet number, if larger than the previously known
+     *
+     * @param space               the space of the packet number
+     * @param largestAcknowledged the Largest Acknowledged field of a received ACK frame
+     */
+    public void onPacketNumberAcknowledged( @NonNull PacketNumberSpace space, long largestAcknowledged ) {
+        int index = space.ordinal();
+        if ( largestAcknowledged > largestAcknowledgedPacketNumbers[index] ) {
+            largestAcknowledgedPacketNumbers[index] = largestAcknowledged;
+        }
+    }
+
+    /**
+     * @param timerType the kind of timer
+     * @return the timer of this connection of that kind
+     */
+    public WheelTimer getTimer( @NonNull ConnectionTimerType timerType ) {
+        return timers[timerType.ordinal()];
+    }
+
+    /**
+     * Derives the timeouts of this connection from the transport parameters of both endpoints.
+     * <p>
+     * "Each endpoint advertises a max_idle_timeout, but the effective value
+     * at an endpoint is computed as the minimum of the two advertised
+     * values."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-10.1
+     *
+     * @param local the transport parameters of this endpoint
+     * @param peer  the transport parameters of the peer, null if not yet known
+     */
+    public void applyTransportParameters( @NonNull TransportParameterCollection local,
+            TransportParameterCollection peer ) {
+        long idleTimeout = getLongParameter( local, TransportParameterType.MAX_IDLE_TIMEOUT );
+        if ( peer != null ) {
+            long peerIdleTimeout = getLongParameter( peer, TransportParameterType.MAX_IDLE_TIMEOUT );
+            // a value of 0 disables the idle timeout of that endpoint
+            if ( idleTimeout == 0 || ( peerIdleTimeout != 0 && peerIdleTimeout < idleTimeout ) ) {
+                idleTimeout = peerIdleTimeout;
+            }
+        }
+        idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos( idleTimeout );
+        activeMigrationDisabled = Boolean.TRUE.equals(
+                local.getParameter( TransportParameterType.DISABLE_ACTIVE_MIGRATION ).getValue() );
+        receivingFlowControl.raiseLimit( getLongParameter( local, TransportParameterType.INITIAL_MAX_DATA ) );
+        maxAckDelayNanos = TimeUnit.MILLISECONDS.toNanos(
+                getLongParameter( local, TransportParameterType.MAX_ACK_DELAY ) );
+        if ( peer != null ) {
+            lossDetector.setPeerMaxAckDelay( TimeUnit.MILLISECONDS.toNanos(
+                    getLongParameter( peer, TransportParameterType.MAX_ACK_DELAY ) ) );
+            peerAckDelayExponent = (int)getLongParameter( peer, TransportParameterType.ACK_DELAY_EXPONENT );
+            if ( connectionIdManager != null ) {
+                connectionIdManager.setPeerActiveConnectionIdLimit(
+                        getLongParameter( peer, TransportParameterType.ACTIVE_CONNECTION_ID_LIMIT ) );
+            }
+        }
+    }
+
+    /**
+     * Records the receipt of a packet, restarts the idle timer and schedules the acknowledgement
+     *
+     * @param space            the space of the packet
+     * @param packetNumber     the full, decoded packet number
+     * @param ackEliciting     whether the packet contained ack-eliciting frames
+     * @param receiveTimeNanos the time of receipt, as given by {@link System#nanoTime()}
+     * @return false if the packet is a duplicate and should be dropped
+     */
+    public boolean onPacketReceived( @NonNull PacketNumberSpace space, long packetNumber, boolean ackEliciting,
+            long receiveTimeNanos ) {
+        ReceivedPacketTracker tracker = getReceivedPacketTracker( space );
+        if ( !tracker.onPacketReceived( packetNumber, ackEliciting, receiveTimeNanos ) ) {
+            return false;
+        }
+        ackElicitingPacketSentSinceLastReceived = false;
+        restartIdleTimer( receiveTimeNanos );
+        // "In particular, receipt of a packet protected with Handshake keys
+        // confirms that the peer successfully processed an Initial packet."
+        // Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-8.1
+        if ( space == PacketNumberSpace.HANDSHAKE && !getAmplificationLimit().isValidated() ) {
+            onAddressValidated( receiveTimeNanos );
+        }
+        if ( timerWheel != null && tracker.isAckPending() && !tracker.isAckImmediatelyRequired() ) {
+            WheelTimer ackDelayTimer = getTimer( ConnectionTimerType.ACK_DELAY );
+            if ( !ackDelayTimer.isArmed() ) {
+                timerWheel.armAfter( ackDelayTimer, receiveTimeNanos, maxAckDelayNanos );
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the address of the peer to send datagrams to, the address of the {@link #getActivePath() active path}
+     */
+    public SocketAddress getRemoteAddress() {
+        return activePath.getRemoteAddress();
+    }
+
+    /**
+     * @param remoteAddress the address of the peer to send datagrams to, without migrating to a new path
+     */
+    public void setRemoteAddress( SocketAddress remoteAddress ) {
+        activePath.setRemoteAddress( remoteAddress );
+    }
+
+    /**
+     * @return the limit on the sending rate of the {@link #getActivePath() active path}
+     */
+    public CongestionController getCongestionController() {
+        return activePath.getCongestionController();
+    }
+
+    /**
+     * @param congestionController the limit on the sending rate of the {@link #getActivePath() active path}
+     */
+    public void setCongestionController( @NonNull CongestionController congestionController ) {
+        activePath.setCongestionController( congestionController );
+    }
+
+    /**
+     * @return the anti-amplification limit of the {@link #getActivePath() active path},
+     * which is validated from the start for a client
+     */
+    public AmplificationLimit getAmplificationLimit() {
+        return activePath.getAmplificationLimit();
+    }
+
+    /**
+     * Accounts a datagram received from the peer towards the anti-amplification limit of its path.
+     * A datagram from a new address creates a path for it, but the connection only migrates to that path
+     * upon a {@link #onNonProbingPacketReceived(SocketAddress, long, long) non-probing packet}.
+     *
+     * @param source           the address the datagram was received from
+     * @param bytes            the payload length of the datagram
+     * @param receiveTimeNanos the time of receipt, as given by {@link System#nanoTime()}
+     */
+    public void onDatagramReceived( @NonNull SocketAddress source, int bytes, long receiveTimeNanos ) {
+        NetworkPath path = findOrCreatePath( source );
+        if ( path == null ) {
+            return;
+        }
+        path.getAmplificationLimit().onBytesReceived( bytes );
+        if ( path == activePath ) {
+            lossDetector.setAmplificationLimited( path.getAmplificationLimit().isBlocked(), receiveTimeNanos );
+        }
+    }
+
+    /**
+     * Accounts a datagram sent to the peer towards the anti-amplification limit
+     *
+     * @param bytes     the payload length of the datagram
+     * @param sentNanos the time of sending, as given by {@link System#nanoTime()}
+     */
+    public void onDatagramSent( int bytes, long sentNanos ) {
+        AmplificationLimit amplificationLimit = getAmplificationLimit();
+        amplificationLimit.onBytesSent( bytes );
+        if ( amplificationLimit.isBlocked() ) {
+            lossDetector.setAmplificationLimited( true, sentNanos );
+        }
+    }
+
+    /**
+     * Lifts the anti-amplification limit, because the address of the peer was validated,
+     * e.g. by a valid token within its Initial packet or by receiving a Handshake packet
+     *
+     * @param nowNanos the current time, as given by {@link System#nanoTime()}
+     */
+    public void onAddressValidated( long nowNanos ) {
+        activePath.onValidated();
+        lossDetector.setAmplificationLimited( false, nowNanos );
+    }
+
+    /**
+     * Migrates to the path of the source address, if the packet is the highest-numbered non-probing packet
+     * received so far. The packet must have been {@link #onPacketReceived(PacketNumberSpace, long, boolean, long)
+     * recorded} before.
+     * <p>
+     * "An endpoint only changes the address to which it sends packets in
+     * response to the highest-numbered non-probing packet."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-9.3
+     *
+     * @param source           the address the packet was received from
+     * @param packetNumber     the full, decoded packet number of the 1-RTT packet
+     * @param receiveTimeNanos the time of receipt, as given by {@link System#nanoTime()}
+     * @return true if the connection migrated to a new path
+     */
+    public boolean onNonProbingPacketReceived( @NonNull SocketAddress source, long packetNumber,
+            long receiveTimeNanos ) {
+        if ( source.equals( activePath.getRemoteAddress() ) || activePath.getRemoteAddress() == null ) {
+            return false;
+        }
+        long largest = getReceivedPacketTracker( PacketNumberSpace.APPLICATION_DATA )
+                .getReceivedPacketNumbers().getLargest();
+        NetworkPath path = findOrCreatePath( source );
+        if ( packetNumber < largest || path == null ) {
+            return false;
+        }
+        migrate( path, receiveTimeNanos );
+        return true;
+    }
+
+    /**
+     * Answers a PATH_CHALLENGE frame by echoing its data in a PATH_RESPONSE frame
+     *
+     * @param frame the received frame
+     */
+    public void onPathChallengeReceived( @NonNull PathChallangeFrameImpl frame ) {
+        PathResponseFrameImpl response = new PathResponseFrameImpl( FrameType.PATH_RESPONSE );
+        response.setData( frame.getData().clone() );
+        queueFrame( PacketNumberSpace.APPLICATION_DATA, response );
+    }
+
+    /**
+     * Completes the validation of the active path if the frame echoes one of its challenges
+     *
+     * @param frame            the received frame
+     * @param receiveTimeNanos the time of receipt, as given by {@link System#nanoTime()}
+     * @return true if the active path was validated by the frame
+     */
+    public boolean onPathResponseReceived( @NonNull PathResponseFrameImpl frame, long receiveTimeNanos ) {
+        if ( frame.getData() == null || !activePath.onPathResponse( frame.getData() ) ) {
+            return false;
+        }
+        getTimer( ConnectionTimerType.PATH_VALIDATION ).cancel();
+        lossDetector.setAmplificationLimited( false, receiveTimeNanos );
+        return true;
+    }
+
+    /**
+     * Makes the path the active one and starts its validation, unless it is validated already.
+     * <p>
+     * A path to a new address starts with the initial congestion window and RTT estimation, so that
+     * the connection does not send at the rate of the old path into a network it knows nothing about.
+     * If only the port of the peer changed, which usually is a NAT rebinding rather than a new network,
+     * the path continues the congestion control and RTT estimation of the old path.
+     *
+     * @param path     the path to migrate to
+     * @param nowNanos the current time, as given by {@link System#nanoTime()}
+     */
+    private void migrate( NetworkPath path, long nowNanos ) {
+        if ( activePath.isValidated() ) {
+            lastValidatedPath = activePath;
+        }
+        previousPath = activePath;
+        activePath = path;
+        path.setActivatedNanos( nowNanos );
+        lossDetector.setRttEstimator( path.getRttEstimator() );
+        lossDetector.setAmplificationLimited( path.getAmplificationLimit().isBlocked(), nowNanos );
+        if ( !path.isValidated() ) {
+            sendPathChallenge( nowNanos );
+        }
+    }
+
+    /**
+     * Queues the next PATH_CHALLENGE for the active path and arms the timer to repeat it,
+     * or reverts to the last validated path if the peer never responded
+     */
+    private void sendPathChallenge( long nowNanos ) {
+        byte[] data = activePath.nextChallenge( random, nowNanos );
+        if ( data == null ) {
+            onPathValidationFailed( nowNanos );
+            return;
+        }
+        PathChallangeFrameImpl challenge = new PathChallangeFrameImpl( FrameType.PATH_CHALLENGE );
+        challenge.setData( data );
+        queueFrame( PacketNumberSpace.APPLICATION_DATA, challenge );
+        if ( timerWheel != null ) {
+            // the path may be new, thus its RTT is not known and challenges are repeated no sooner than
+            // twice the initial RTT, for which the validation lasts three times this interval
+            long interval = Math.max( lossDetector.getProbeTimeout(), 2 * RttEstimator.INITIAL_RTT );
+            timerWheel.armAfter( getTimer( ConnectionTimerType.PATH_VALIDATION ), nowNanos, interval );
+        }
+    }
+
+    /**
+     * "If path validation fails, the path is deemed unusable."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-8.2.4
+     */
+    private void onPathValidationFailed( long nowNanos ) {
+        NetworkPath failed = activePath;
+        failed.onValidationFailed();
+        paths.remove( failed );
+        NetworkPath fallback = lastValidatedPath != null && paths.contains( lastValidatedPath )
+                ? lastValidatedPath : null;
+        if ( fallback == null ) {
+            // no validated path is known, thus the connection stays on the failed path until it times out
+            paths.add( failed );
+            return;
+        }
+        previousPath = failed;
+        activePath = fallback;
+        lastValidatedPath = null;
+        fallback.setActivatedNanos( nowNanos );
+        lossDetector.setRttEstimator( fallback.getRttEstimator() );
+        lossDetector.setAmplificationLimited( false, nowNanos );
+    }
+
+    /**
+     * @param source the address of the peer
+     * @return the path to that address, a new one if the address is new, or null if the peer may not use
+     * a new address
+     */
+    private NetworkPath findOrCreatePath( SocketAddress source ) {
+        if ( activePath.getRemoteAddress() == null ) {
+            activePath.setRemoteAddress( source );
+            return activePath;
+        }
+        for ( NetworkPath path : paths ) {
+            if ( source.equals( path.getRemoteAddress() ) ) {
+                return path;
+            }
+        }
+        // a peer must not migrate before the handshake is confirmed or after this endpoint disabled
+        // active migration, thus datagrams from new addresses are ignored then
+        if ( activeMigrationDisabled || !lossDetector.isHandshakeConfirmed() ) {
+            return null;
+        }
+        if ( paths.size() >= MAX_PATHS ) {
+            for ( int i = 0; i < paths.size(); i++ ) {
+                NetworkPath evicted = paths.get( i );
+                if ( evicted != activePath && evicted != previousPath && evicted != lastValidatedPath ) {
+                    paths.remove( i );
+                    break;
+                }
+            }
+            if ( paths.size() >= MAX_PATHS ) {
+                return null;
+            }
+        }
+        NetworkPath path;
+        if ( isSameHost( source, activePath.getRemoteAddress() ) ) {
+            path = new NetworkPath( source, activePath.getRttEstimator(), activePath.getCongestionController(),
+                    false );
+        }
+        else {
+            path = new NetworkPath( source, new RttEstimator(), congestionControllerFactory.get(), false );
+        }
+        paths.add( path );
+        return path;
+    }
+
+    private static boolean isSameHost( SocketAddress a, SocketAddress b ) {
+        return a instanceof InetSocketAddress && b instanceof InetSocketAddress
+                && Objects.equals( ( (InetSocketAddress)a ).getAddress(), ( (InetSocketAddress)b ).getAddress() );
+    }
+
+    /**
+     * @param sentTimeNanos the time a packet was sent at
+     * @return the congestion controller of the path that the packet was sent on
+     */
+    private CongestionController getCongestionController( long sentTimeNanos ) {
+        if ( previousPath != null && sentTimeNanos - activePath.getActivatedNanos() < 0 ) {
+            return previousPath.getCongestionController();
+        }
+        return activePath.getCongestionController();
+    }
+
+    /**
+     * Enters the draining period after the peer sent a stateless reset. No further packets are sent on this
+     * connection. May be called by any thread, the timers are cancelled by the shard as soon as one expires.
+     */
+    public void onStatelessResetReceived() {
+        statelessResetReceived = true;
+    }
+
+    /**
+     * @return true if the connection ended without any further packet to be sent,
+     * because it was idle for too long or the peer reset it
+     */
+    public boolean isClosedSilently() {
+        return idleTimeoutExpired || statelessResetReceived;
+    }
+
+    /**
+     * Called after a packet was sent
+     *
+     * @param space        the space of the packet
+     * @param packetNumber the packet number
+     * @param sentBytes    the size of the packet
+     * @param ackEliciting whether the packet contained ack-eliciting frames
+     * @param inFlight     whether the packet counts towards bytes in flight
+     * @param containedAck whether the packet contained an ACK frame
+     * @param sentNanos    the time of sending, as given by {@link System#nanoTime()}
+     */
+    public void onPacketSent( @NonNull PacketNumberSpace space, long packetNumber, int sentBytes,
+            boolean ackEliciting, boolean inFlight, boolean containedAck, long sentNanos ) {
+        lossDetector.onPacketSent( space, packetNumber, sentBytes, ackEliciting, inFlight, sentNanos );
+        if ( space == PacketNumberSpace.APPLICATION_DATA && unsentStreamFrames != null
+                && unsentStreamFramesPacketNumber == packetNumber ) {
+            lossDetector.getSentPackets( space ).setAttachment( packetNumber, unsentStreamFrames );
+            unsentStreamFrames = null;
+        }
+        if ( inFlight ) {
+            getCongestionController().onPacketSent( sentBytes, sentNanos );
+            if ( pacer != null ) {
+                pacer.onPacketSent( sentNanos, sentBytes, getPacingRate() );
+            }
+        }
+        if ( ackEliciting && probePacketsPending > 0 ) {
+            probePacketsPending--;
+        }
+        if ( containedAck && space == PacketNumberSpace.APPLICATION_DATA ) {
+            getTimer( ConnectionTimerType.ACK_DELAY ).cancel();
+        }
+        if ( containedAck && ackFramePacketNumbers[space.ordinal()] < 0 ) {
+            ackFramePacketNumbers[space.ordinal()] = packetNumber;
+            ackFrameLargestAcknowledged[space.ordinal()] = getReceivedPacketTracker( space )
+                    .getReceivedPacketNumbers().getLargest();
+        }
+        // "An endpoint also restarts its idle timer when sending an ack-eliciting
+        // packet if no other ack-eliciting packets have been sent since last
+        // receiving and processing a packet."
+        // Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-10.1
+        if ( ackEliciting && !ackElicitingPacketSentSinceLastReceived ) {
+            ackElicitingPacketSentSinceLastReceived = true;
+            restartIdleTimer( sentNanos );
+        }
+    }
+
+    /**
+     * Processes an ACK frame received from the peer
+     *
+     * @param space            the space the frame was received in
+     * @param frame            the received frame
+     * @param receiveTimeNanos the time of receipt, as given by {@link System#nanoTime()}
+     */
+    public void onAckFrameReceived( @NonNull PacketNumberSpace space, @NonNull AckFrameImpl frame,
+            long receiveTimeNanos ) {
+        long ackDelayNanos = TimeUnit.MICROSECONDS.toNanos( frame.getDelay() << peerAckDelayExponent );
+        lossDetector.onAckReceived( space, frame.getAcknowledgedRanges(), ackDelayNanos, receiveTimeNanos );
+        onPacketNumberAcknowledged( space, frame.getLargestAcknowledged() );
+    }
+
+    /**
+     * Dispatches the frames of a packet that was {@link #onPacketReceived(PacketNumberSpace, long, boolean, long)
+     * recorded} before to the processing of their types. A 1-RTT packet with any non-probing frame
+     * may migrate the connection to the path of its source address before its frames are processed.
+     *
+     * @param source           the address the packet was received from
+     * @param space            the space of the packet
+     * @param packetNumber     the full, decoded packet number of the packet
+     * @param frames           the frames of the packet
+     * @param receiveTimeNanos the time of receipt, as given by {@link System#nanoTime()}
+     */
+    public void onFramesReceived( @NonNull SocketAddress source, @NonNull PacketNumberSpace space,
+            long packetNumber, @NonNull List<Frame> frames, long receiveTimeNanos ) {
+        if ( space == PacketNumberSpace.APPLICATION_DATA ) {
+            for ( Frame frame : frames ) {
+                if ( !isProbingFrame( frame ) ) {
+                    onNonProbingPacketReceived( source, packetNumber, receiveTimeNanos );
+                    break;
+                }
+            }
+        }
+        for ( Frame frame : frames ) {
+            if ( frame instanceof AckFrameImpl ) {
+                onAckFrameReceived( space, (AckFrameImpl)frame, receiveTimeNanos );
+            }
+            else if ( frame instanceof PathChallangeFrameImpl ) {
+                onPathChallengeReceived( (PathChallangeFrameImpl)frame );
+            }
+            else if ( frame instanceof PathResponseFrameImpl ) {
+                onPathResponseReceived( (PathResponseFrameImpl)frame, receiveTimeNanos );
+            }
+        }
+    }
+
+    /**
+     * "PATH_CHALLENGE, PATH_RESPONSE, NEW_CONNECTION_ID, and PADDING frames
+     * are "probing frames", and all other frames are "non-probing frames"."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-9.1
+     *
+     * @param frame the frame to check
+     * @return true if the frame is a probing frame
+     */
+    static boolean isProbingFrame( @NonNull Frame frame ) {
+        FrameType type = frame.getType();
+        if ( type == null ) {
+            // extension frames
+            return false;
+        }
+        FrameGeneralType generalType = type.getGeneralType();
+        return generalType == FrameGeneralType.PATH_CHALLENGE
+                || generalType == FrameGeneralType.PATH_RESPONSE
+                || generalType == FrameGeneralType.NEW_CONNECTION_ID
+                || generalType == FrameGeneralType.PADDING;
+    }
+
+    /**
+     * Records data of a stream that the application consumed. Grows the receive windows of the stream and
+     * the connection as needed and queues MAX_STREAM_DATA and MAX_DATA frames for meaningful updates.
+     *
+     * @param streamId      the stream the data was read from
+     * @param streamTuner   the receive window of that stream, or null if the application grants credit on demand
+     * @param numberOfBytes the number of consumed bytes
+     * @param nowNanos      the current time, as given by {@link System#nanoTime()}
+     */
+    public void onStreamDataConsumed( @NonNull StreamId streamId, ReceiveWindowTuner streamTuner,
+            long numberOfBytes, long nowNanos ) {
+        receiveWindowLock.lock();
+        try {
+            long smoothedRtt = lossDetector.getRttEstimator().getSmoothedRtt();
+            long newStreamLimit = -1;
+            if ( streamTuner != null ) {
+                streamTuner.onDataConsumed( numberOfBytes );
+                newStreamLimit = streamTuner.update( nowNanos, smoothedRtt );
+            }
+            if ( newStreamLimit >= 0 ) {
+                MaxStreamDataFrameImpl frame = new MaxStreamDataFrameImpl( FrameType.MAX_STREAM_DATA );
+                frame.setStreamId( streamId );
+                frame.setMaximumStreamData( new VariableLengthInteger( newStreamLimit ) );
+                queueFrame( PacketNumberSpace.APPLICATION_DATA, frame );
+                receiveWindowTuner.ensureWindow(
+                        (long)( streamTuner.getWindow() * CONNECTION_TO_STREAM_WINDOW_RATIO ) );
+            }
+            receiveWindowTuner.onDataConsumed( numberOfBytes );
+            long newConnectionLimit = receiveWindowTuner.update( nowNanos, smoothedRtt );
+            if ( newConnectionLimit >= 0 ) {
+                MaxDataFrameImpl frame = new MaxDataFrameImpl( FrameType.MAX_DATA );
+                frame.setMaximumData( new VariableLengthInteger( newConnectionLimit ) );
+                queueFrame( PacketNumberSpace.APPLICATION_DATA, frame );
+            }
+        }
+        finally {
+            receiveWindowLock.unlock();
+        }
+    }
+
+    @Override
+    public void onStreamDataRead( StreamImpl stream, int numberOfBytes ) {
+        onStreamDataConsumed( stream.getId(), stream.getReceiveWindowTuner(), numberOfBytes, System.nanoTime() );
+    }
+
+    @Override
+    public void onStreamCreditGranted( StreamImpl stream, long newLimit ) {
+        MaxStreamDataFrameImpl frame = new MaxStreamDataFrameImpl( FrameType.MAX_STREAM_DATA );
+        frame.setStreamId( stream.getId() );
+        frame.setMaximumStreamData( new VariableLengthInteger( newLimit ) );
+        queueFrame( PacketNumberSpace.APPLICATION_DATA, frame );
+    }
+
+    @Override
+    public void onStreamDataWritten( StreamImpl stream ) {
+        writtenStreams.add( stream );
+    }
+
+    /**
+     * Activates all streams in the {@link #getStreamSendScheduler() scheduler} that application threads wrote to
+     * since the last call. Must be called by the thread that assembles packets for this connection.
+     */
+    public void scheduleWrittenStreams() {
+        StreamImpl stream;
+        while ( ( stream = writtenStreams.poll() ) != null ) {
+            streamSendScheduler.activate( stream );
+        }
+    }
+
+    /**
+     * Remembers a STREAM frame written to a 1-RTT packet, such that its data is released once the packet was
+     * acknowledged or retransmitted once it was lost
+     *
+     * @param packetNumber the number of the packet containing the frame
+     * @param stream       the stream that the frame was taken from
+     * @param frame        the frame
+     */
+    public void onStreamFrameSent( long packetNumber, @NonNull StreamImpl stream, @NonNull StreamFrameImpl frame ) {
+        if ( unsentStreamFrames != null && unsentStreamFramesPacketNumber != packetNumber ) {
+            // the previous packet was never sent, thus its data must be sent again
+            onStreamFramesLost( unsentStreamFrames );
+        }
+        unsentStreamFrames = new SentStreamFrame( stream, frame, unsentStreamFramesPacketNumber == packetNumber
+                ? unsentStreamFrames : null );
+        unsentStreamFramesPacketNumber = packetNumber;
+    }
+
+    /**
+     * "Probe packets MUST NOT be blocked by the congestion controller."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-recovery-32#section-7.5
+     * <p>
+     * If the {@link #getPacer() pacer} delays the packet, the pacing timer is armed to resume sending
+     * through the {@link #getDatagramAssembler() assembler}.
+     *
+     * @param sentBytes the size of the packet to send
+     * @param nowNanos  the current time, as given by {@link System#nanoTime()}
+     * @return true if an ack-eliciting packet of that size may be sent now
+     */
+    public boolean canSendAckEliciting( int sentBytes, long nowNanos ) {
+        if ( probePacketsPending > 0 ) {
+            return true;
+        }
+        if ( !getCongestionController().canSend( sentBytes ) ) {
+            return false;
+        }
+        if ( pacer == null ) {
+            return true;
+        }
+        long delay = pacer.getDelay( nowNanos, sentBytes, getPacingRate() );
+        if ( delay == 0 ) {
+            return true;
+        }
+        if ( timerWheel != null && datagramAssembler != null && delay != Long.MAX_VALUE ) {
+            WheelTimer pacingTimer = getTimer( ConnectionTimerType.PACING );
+            if ( !pacingTimer.isArmed() ) {
+                timerWheel.armAfter( pacingTimer, nowNanos, delay );
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the rate to pace packets at, in bytes per second
+     */
+    public long getPacingRate() {
+        return getCongestionController().getPacingRate( lossDetector.getRttEstimator() );
+    }
+
+    @Override
+    public void onPacketAcknowledged( PacketNumberSpace space, long packetNumber, int sentBytes,
+            long sentTimeNanos, boolean inFlight, long nowNanos ) {
+        if ( packetNumber == ackFramePacketNumbers[space.ordinal()] ) {
+            // the peer received the ACK frame, thus need not be told about smaller packet numbers anymore
+            getReceivedPacketTracker( space ).onAckFrameAcknowledged( ackFrameLargestAcknowledged[space.ordinal()] );
+            ackFramePacketNumbers[space.ordinal()] = -1;
+        }
+        if ( space == PacketNumberSpace.APPLICATION_DATA ) {
+            SentStreamFrame sent = (SentStreamFrame)lossDetector.getSentPackets( space ).getAttachment( packetNumber );
+            for ( ; sent != null; sent = sent.next ) {
+                sent.stream.onFrameAcknowledged( sent.frame );
+            }
+            PacketProtection protection = packetProtections.get( EncryptionLevel.APPLICATION_DATA );
+            if ( protection != null ) {
+                protection.onPacketAcknowledged( packetNumber );
+            }
+        }
+        if ( inFlight ) {
+            getCongestionController( sentTimeNanos ).onPacketAcknowledged( sentBytes, sentTimeNanos,
+                    lossDetector.getRttEstimator(), nowNanos );
+        }
+    }
+
+    @Override
+    public void onPacketLost( PacketNumberSpace space, long packetNumber, int sentBytes, long sentTimeNanos,
+            boolean inFlight, long nowNanos ) {
+        if ( packetNumber == ackFramePacketNumbers[space.ordinal()] ) {
+            // await the ACK frame of a later packet instead
+            ackFramePacketNumbers[space.ordinal()] = -1;
+        }
+        if ( space == PacketNumberSpace.APPLICATION_DATA ) {
+            onStreamFramesLost( (SentStreamFrame)lossDetector.getSentPackets( space ).getAttachment( packetNumber ) );
+        }
+        if ( inFlight ) {
+            getCongestionController( sentTimeNanos ).onPacketLost( sentBytes, sentTimeNanos, nowNanos );
+        }
+    }
+
+    private void onStreamFramesLost( SentStreamFrame sent ) {
+        for ( ; sent != null; sent = sent.next ) {
+            sent.stream.onFrameLost( sent.frame );
+            streamSendScheduler.activate( sent.stream );
+        }
+    }
+
+    @Override
+    public void onPersistentCongestion( PacketNumberSpace space, long nowNanos ) {
+        getCongestionController().onPersistentCongestion( nowNanos );
+    }
+
+    @Override
+    public void onPacketsDiscarded( PacketNumberSpace space, long discardedBytesInFlight ) {
+        getCongestionController().onPacketsDiscarded( discardedBytesInFlight );
+    }
+
+    /**
+     * "When a PTO timer expires, a sender MUST send at least one ack-
+     * eliciting packet in the packet number space as a probe.  An endpoint
+     * MAY send up to two full-sized datagrams containing ack-eliciting
+     * packets, to avoid an expensive consecutive PTO expiration due to a
+     * single lost datagram or transmit data from multiple packet number
+     * spaces."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-recovery-32#section-6.2.4
+     * <p>
+     * No received datagram triggers sending the probes, thus they are assembled right away.
+     */
+    @Override
+    public void onProbeTimeout( PacketNumberSpace space, long nowNanos ) {
+        if ( getPacketProtection( DatagramAssembler.getEncryptionLevel( space ) ) == null ) {
+            return;
+        }
+        probePacketsPending = MAX_PROBE_PACKETS;
+        // a PING frame per probe, because all pending frames that fit are coalesced into one packet
+        do {
+            queueFrame( space, new PingFrameImpl() );
+        } while ( assembleAndQueue( nowNanos ) > 0 && probePacketsPending > 0 );
+    }
+
+    private void restartIdleTimer( long nowNanos ) {
+        if ( timerWheel != null && idleTimeoutNanos > 0 && !idleTimeoutExpired ) {
+            // "endpoints MUST increase the idle timeout period to be at least three times the current
+            // Probe Timeout (PTO)"
+            // Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-10.1
+            long timeout = Math.max( idleTimeoutNanos, 3 * lossDetector.getProbeTimeout() );
+            timerWheel.armAfter( getTimer( ConnectionTimerType.IDLE ), nowNanos, timeout );
+        }
+    }
+
+    private void onTimerExpired( WheelTimer timer, long nowNanos ) {
+        if ( statelessResetReceived ) {
+            for ( WheelTimer other : timers ) {
+                other.cancel();
+            }
+            return;
+        }
+        switch ( (ConnectionTimerType)timer.getAttachment() ) {
+            case IDLE:
+                idleTimeoutExpired = true;
+                for ( WheelTimer other : timers ) {
+                    other.cancel();
+                }
+                if ( endpoint != null ) {
+                    endpoint.discardConnection( this );
+                }
+                break;
+            case ACK_DELAY:
+                getReceivedPacketTracker( PacketNumberSpace.APPLICATION_DATA ).onAckDelayElapsed();
+                assembleAndQueue( nowNanos );
+                break;
+            case LOSS_DETECTION:
+                lossDetector.onLossDetectionTimeout( nowNanos );
+                break;
+            case PATH_VALIDATION:
+                sendPathChallenge( nowNanos );
+                break;
+            case PACING:
+                assembleAndQueue( nowNanos );
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Sends whatever became sendable on a timer, as no received datagram would trigger sending it
+     *
+     * @return the number of queued datagrams
+     */
+    private int assembleAndQueue( long nowNanos ) {
+        if ( datagramAssembler == null ) {
+            return 0;
+        }
+        try {
+            return datagramAssembler.assembleAndQueue( this, nowNanos );
+        }
+        catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+        catch ( IOException e ) {
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    private static long getLongParameter( TransportParameterCollection parameters, TransportParameterType type ) {
+        return ( (Number)parameters.getParameter( type ).getValue() ).longValue();
+    }
+
+    /**
+     * A STREAM frame within a sent packet together with its stream, linked to the other frames of that packet
+     */
+    @RequiredArgsConstructor
+    private static final class SentStreamFrame {
+
+        private final StreamImpl stream;
+        private final StreamFrameImpl frame;
+        private final SentStreamFrame next;
+    }
+}
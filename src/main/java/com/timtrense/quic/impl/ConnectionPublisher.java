@@ -0,0 +1,55 @@
+package com.timtrense.quic.impl;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import lombok.NonNull;
+
+import com.timtrense.quic.impl.base.BaseSingleSubscriberPublisher;
+
+/**
+ * Publishes the new connections of an {@link Endpoint} to the application.
+ * <p>
+ * A connection is only accepted if the subscriber demanded it. Without demand, {@link #offer(Connection)} fails
+ * and the endpoint refuses the connection, so that a slow application does not make the endpoint
+ * hold an unbounded number of connections.
+ *
+ * @author Tim Trense
+ */
+public class ConnectionPublisher extends BaseSingleSubscriberPublisher<Connection> {
+
+    /**
+     * the accepted connections not yet delivered, bounded by the demand
+     */
+    private final Queue<Connection> accepted = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param executor the executor to signal the subscriber on
+     */
+    public ConnectionPublisher( @NonNull Executor executor ) {
+        super( executor );
+    }
+
+    /**
+     * Offers a new connection to the subscriber
+     *
+     * @param connection the new connection
+     * @return false if the subscriber did not demand another connection, which should thus be refused
+     */
+    public boolean offer( @NonNull Connection connection ) {
+        if ( !tryConsumeDemand() ) {
+            return false;
+        }
+        accepted.add( connection );
+        signal();
+        return true;
+    }
+
+    @Override
+    protected void drain() {
+        Connection connection;
+        while ( !isTerminated() && ( connection = accepted.poll() ) != null ) {
+            emit( connection );
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.timtrense.quic.impl;
+
+/**
+ * The kinds of timers that each {@link ConnectionImpl connection} arms at the {@link TimerWheel} of its shard
+ *
+ * @author Tim Trense
+ */
+public enum ConnectionTimerType {
+
+    /**
+     * "If a max_idle_timeout is specified by either peer in its transport
+     * parameters (Section 18.2), the connection is silently closed and its
+     * state is discarded when it remains idle for longer than the minimum
+     * of both peers max_idle_timeout values."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-10.1
+     */
+    IDLE,
+    /**
+     * Expires when an ack-eliciting 1-RTT packet was not acknowledged within max_ack_delay.
+     *
+     * @see com.timtrense.quic.impl.base.ReceivedPacketTracker
+     */
+    ACK_DELAY,
+    /**
+     * Expires when sent packets are to be declared lost or a probe timeout elapsed
+     */
+    LOSS_DETECTION,
+    /**
+     * Expires when the PATH_CHALLENGE validating the active path is to be sent again or the validation fails
+     *
+     * @see NetworkPath
+     */
+    PATH_VALIDATION,
+    /**
+     * Expires when the next packet may be sent without exceeding the pacing rate
+     */
+    PACING
+}
@@ -0,0 +1,489 @@
+package com.timtrense.quic.impl;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+
+import com.timtrense.quic.ConnectionId;
+import com.timtrense.quic.EncryptionLevel;
+import com.timtrense.quic.EndpointRole;
+import com.timtrense.quic.Frame;
+import com.timtrense.quic.FrameGeneralType;
+import com.timtrense.quic.FrameType;
+import com.timtrense.quic.LongHeaderPacketType;
+import com.timtrense.quic.PacketNumberSpace;
+import com.timtrense.quic.TransportParameterType;
+import com.timtrense.quic.impl.base.PacketNumberEncoder;
+import com.timtrense.quic.impl.base.ReceivedPacketTracker;
+import com.timtrense.quic.impl.base.StreamImpl;
+import com.timtrense.quic.impl.base.StreamSendScheduler;
+import com.timtrense.quic.impl.base.VariableLengthIntegerEncoder;
+import com.timtrense.quic.impl.frames.AckFrameImpl;
+import com.timtrense.quic.impl.frames.StreamFrameImpl;
+
+/**
+ * Assembles the {@link OutgoingDatagram datagrams} to send from the frames queued at a {@link ConnectionImpl}.
+ * <p>
+ * Packets of all packet number spaces that have something to send are coalesced into one datagram,
+ * in the order Initial, Handshake and 1-RTT:
+ * "Senders SHOULD coalesce packets in order of increasing encryption levels"
+ * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-12.2
+ * <p>
+ * Frames are serialized directly into a pooled buffer, which is then protected in place. Assembled datagrams are
+ * offered to the {@link #getSendQueue() send queue} which a {@link Sender} writes to the network from.
+ * Connections with a {@link com.timtrense.quic.impl.recovery.Pacer} only get datagrams with ack-eliciting frames
+ * assembled when the pacer allows it, otherwise their pacing timer resumes the assembly later.
+ * <p>
+ * This class is not thread-safe. Each assembler is expected to be driven by exactly one thread.
+ *
+ * @author Tim Trense
+ */
+public class DatagramAssembler {
+
+    /**
+     * "A client MUST expand the payload of all UDP datagrams carrying
+     * Initial packets to at least the smallest allowed maximum datagram
+     * size of 1200 bytes"
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-14.1
+     */
+    public static final int MIN_INITIAL_DATAGRAM_SIZE = 1200;
+
+    /**
+     * The header protection sample is taken 4 bytes after the start of the packet number.
+     * The payload thus needs to be at least that long, minus the length of the packet number.
+     */
+    private static final int MIN_SAMPLE_OFFSET = 4;
+
+    /**
+     * The maximum length of a STREAM frame without its data: the type, an 8 byte stream id, an 8 byte offset
+     * and a Length field of 2 bytes, which suffices for any datagram
+     */
+    private static final int MAX_STREAM_FRAME_OVERHEAD = 1 + 8 + 8 + 2;
+
+    /**
+     * The Length field of long header packets is always encoded in 2 bytes, which suffices for any datagram
+     * and allows writing it after the payload.
+     */
+    private static final int LENGTH_FIELD_LENGTH = 2;
+
+    private static final byte[] EMPTY_CONNECTION_ID = new byte[0];
+
+    /**
+     * cached, because {@link PacketNumberSpace#values()} copies the array on each call
+     */
+    private static final PacketNumberSpace[] PACKET_NUMBER_SPACES = PacketNumberSpace.values();
+
+    /**
+     * The pool to take empty, yet to assemble, datagrams from
+     */
+    @Getter
+    private final OutgoingDatagramPool datagramPool;
+    /**
+     * The queue to offer assembled datagrams to
+     */
+    @Getter
+    private final @NonNull BlockingQueue<OutgoingDatagram> sendQueue;
+    /**
+     * The number of milliseconds the {@link #getSendQueue() send queue} may block before allowing
+     * the {@link DatagramAssembler} to offer a new, assembled datagram.
+     */
+    @Getter
+    private int sendQueueBlockTimeout;
+    /**
+     * The maximum number of bytes of each assembled datagram
+     */
+    @Getter
+    private final int maxDatagramSize;
+    /**
+     * The algorithm used to serialize frames
+     */
+    @Getter
+    @Setter
+    private @NonNull FrameSerializer frameSerializer;
+    /**
+     * the ack_delay_exponent transport parameter of this endpoint
+     */
+    private final int ackDelayExponent;
+    /**
+     * reused for every acknowledgement
+     */
+    private final AckFrameImpl ackFrame = new AckFrameImpl( FrameType.ACK );
+
+    /**
+     * Creates a new assembler, writing to an internally created send queue
+     *
+     * @param configuration the initial configuration
+     */
+    public DatagramAssembler( @NonNull EndpointConfiguration configuration ) {
+        this( new LinkedBlockingQueue<>( configuration.getSendDatagramQueueSizeLimit() ), configuration );
+    }
+
+    /**
+     * Creates a new assembler, writing to the given send queue
+     *
+     * @param sendQueue     the queue to offer assembled datagrams to
+     * @param configuration the initial configuration
+     */
+    public DatagramAssembler(
+            @NonNull BlockingQueue<OutgoingDatagram> sendQueue,
+            @NonNull EndpointConfiguration configuration
+    ) {
+        this.sendQueue = sendQueue;
+        this.maxDatagramSize = configuration.getMaxDatagramSize();
+        this.datagramPool = new OutgoingDatagramPool(
+                configuration.getSendDatagramQueueSizeLimit(),
+                maxDatagramSize
+        );
+        this.frameSerializer = new FrameSerializerImpl();
+        this.ackDelayExponent = ( (Number)configuration.getTransportParameters()
+                .getParameter( TransportParameterType.ACK_DELAY_EXPONENT ).getValue() ).intValue();
+        setSendQueueBlockTimeout( configuration.getAssemblerSendQueueBlockTimeout() );
+    }
+
+    /**
+     * Assembles datagrams for the connection until nothing is left to send and offers them to the
+     * {@link #getSendQueue() send queue}.
+     *
+     * @param connection the connection to send for
+     * @param nowNanos   the current time, as given by {@link System#nanoTime()}
+     * @return the number of queued datagrams
+     * @throws IOException              if the send queue did not accept a datagram within the
+     *                                  {@link #getSendQueueBlockTimeout() timeout} or protection failed
+     * @throws InterruptedException     if interrupted while waiting for the send queue
+     */
+    public int assembleAndQueue( @NonNull ConnectionImpl connection, long nowNanos )
+            throws IOException, InterruptedException {
+        int count = 0;
+        OutgoingDatagram datagram;
+        while ( ( datagram = assemble( connection, nowNanos ) ) != null ) {
+            boolean offered = sendQueue.offer( datagram, sendQueueBlockTimeout, TimeUnit.MILLISECONDS );
+            if ( !offered ) {
+                datagramPool.giveBack( datagram );
+                throw new IOException( "Timeout on offering an OutgoingDatagram to the send queue" );
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Queues a datagram that is sent without any connection state, like a Retry packet.
+     * Such responses are triggered by unauthenticated datagrams and therefore must never block the
+     * caller: if the send queue is full, the datagram is dropped.
+     *
+     * @param destination the address to send to
+     * @param writer      writes the content of the datagram to the given buffer
+     * @return false if the datagram was dropped
+     */
+    public boolean queueStatelessDatagram( @NonNull SocketAddress destination, @NonNull Consumer<ByteBuffer> writer ) {
+        OutgoingDatagram datagram = datagramPool.take();
+        ByteBuffer buffer = datagram.getBuffer();
+        buffer.limit( Math.min( buffer.capacity(), maxDatagramSize ) );
+        writer.accept( buffer );
+        buffer.flip();
+        datagram.setDestination( destination );
+        if ( buffer.remaining() == 0 || !sendQueue.offer( datagram ) ) {
+            datagramPool.giveBack( datagram );
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Assembles the next datagram for the connection
+     *
+     * @param connection the connection to send for
+     * @param nowNanos   the current time, as given by {@link System#nanoTime()}
+     * @return the assembled datagram, flipped for reading, or null if there is nothing to send
+     * @throws IOException if a packet cannot be protected
+     */
+    public OutgoingDatagram assemble( @NonNull ConnectionImpl connection, long nowNanos ) throws IOException {
+        if ( connection.isClosedSilently() ) {
+            return null;
+        }
+        int lastSpace = -1;
+        for ( PacketNumberSpace space : PACKET_NUMBER_SPACES ) {
+            if ( hasSomethingToSend( connection, space, nowNanos ) ) {
+                lastSpace = space.ordinal();
+            }
+        }
+        if ( lastSpace < 0 ) {
+            return null;
+        }
+        boolean padDatagram = hasSomethingToSend( connection, PacketNumberSpace.INITIAL, nowNanos )
+                && ( connection.getRole() == EndpointRole.CLIENT
+                || !connection.getPendingFrames( PacketNumberSpace.INITIAL ).isEmpty() );
+        // a server must not exceed the anti-amplification limit, not even to pad its Initial packets
+        long allowance = connection.getAmplificationLimit().getAllowance();
+        if ( allowance == 0 || ( padDatagram && allowance < MIN_INITIAL_DATAGRAM_SIZE ) ) {
+            return null;
+        }
+
+        OutgoingDatagram datagram = datagramPool.take();
+        ByteBuffer buffer = datagram.getBuffer();
+        buffer.limit( (int)Math.min( Math.min( buffer.capacity(), maxDatagramSize ), allowance ) );
+        try {
+            for ( int i = 0; i <= lastSpace; i++ ) {
+                PacketNumberSpace space = PACKET_NUMBER_SPACES[i];
+                if ( !hasSomethingToSend( connection, space, nowNanos ) ) {
+                    continue;
+                }
+                int minDatagramLength = ( padDatagram && i == lastSpace ) ? MIN_INITIAL_DATAGRAM_SIZE : 0;
+                if ( !writePacket( connection, space, buffer, minDatagramLength, nowNanos ) ) {
+                    // no more space left within this datagram
+                    break;
+                }
+            }
+        }
+        catch ( GeneralSecurityException e ) {
+            datagramPool.giveBack( datagram );
+            throw new IOException( "Cannot protect packet", e );
+        }
+        if ( buffer.position() == 0 ) {
+            datagramPool.giveBack( datagram );
+            return null;
+        }
+        buffer.flip();
+        datagram.setDestination( connection.getRemoteAddress() );
+        connection.onDatagramSent( buffer.remaining(), nowNanos );
+        return datagram;
+    }
+
+    /**
+     * sets the value corresponding to {@link #getSendQueueBlockTimeout()}
+     *
+     * @param sendQueueBlockTimeout the positive timeout in milliseconds to set
+     */
+    public void setSendQueueBlockTimeout( int sendQueueBlockTimeout ) {
+        if ( sendQueueBlockTimeout <= 0 ) {
+            throw new IllegalArgumentException( "Cannot set a non-positive" +
+                    " sendQueueBlockTimeout for a DatagramAssembler" );
+        }
+        this.sendQueueBlockTimeout = sendQueueBlockTimeout;
+    }
+
+    /**
+     * @param space the packet number space
+     * @return the level to protect packets of that space with
+     */
+    public static EncryptionLevel getEncryptionLevel( @NonNull PacketNumberSpace space ) {
+        switch ( space ) {
+            case INITIAL:
+                return EncryptionLevel.INITIAL;
+            case HANDSHAKE:
+                return EncryptionLevel.HANDSHAKE;
+            default:
+                return EncryptionLevel.APPLICATION_DATA;
+        }
+    }
+
+    private boolean hasSomethingToSend( ConnectionImpl connection, PacketNumberSpace space, long nowNanos ) {
+        if ( connection.getPacketProtection( getEncryptionLevel( space ) ) == null ) {
+            return false;
+        }
+        // a delayed acknowledgement is sent by the ACK_DELAY timer of the connection
+        return connection.getReceivedPacketTracker( space ).isAckImmediatelyRequired()
+                || ( !connection.getPendingFrames( space ).isEmpty()
+                && connection.canSendAckEliciting( maxDatagramSize, nowNanos ) );
+    }
+
+    /**
+     * Writes one protected packet to the end of the buffer
+     *
+     * @param connection        the connection to send for
+     * @param space             the space to send a packet in
+     * @param buffer            the datagram buffer, positioned at the end of the previous packet
+     * @param minDatagramLength the length that the datagram must have after writing this packet, 0 for none
+     * @param nowNanos          the current time
+     * @return false if not even one frame fitted into the remaining datagram, thus no packet was written
+     * @throws GeneralSecurityException if the packet cannot be protected
+     */
+    private boolean writePacket( ConnectionImpl connection, PacketNumberSpace space, ByteBuffer buffer,
+            int minDatagramLength, long nowNanos ) throws GeneralSecurityException {
+        PacketProtection protection = connection.getPacketProtection( getEncryptionLevel( space ) );
+        int tagLength = protection.getAeadTagLength();
+        long packetNumber = connection.getNextPacketNumber( space );
+        int packetNumberLength = PacketNumberEncoder.getPacketNumberLength(
+                packetNumber, connection.getLargestAcknowledgedPacketNumber( space ) );
+
+        int packetStart = buffer.position();
+        int lengthOffset = writeHeader( connection, space, buffer, packetNumberLength );
+        if ( lengthOffset == -2 ) {
+            buffer.position( packetStart );
+            return false;
+        }
+        int packetNumberOffset = buffer.position();
+        if ( packetNumberOffset + packetNumberLength + MIN_SAMPLE_OFFSET + tagLength > buffer.limit() ) {
+            buffer.position( packetStart );
+            return false;
+        }
+        VariableLengthIntegerEncoder.encodeFixedLengthInteger( packetNumber, buffer.array(),
+                buffer.arrayOffset() + packetNumberOffset, packetNumberLength );
+        buffer.position( packetNumberOffset + packetNumberLength );
+        int payloadStart = buffer.position();
+        int payloadLimit = buffer.limit() - tagLength;
+
+        boolean hasFrames = false;
+        boolean containsAck = false;
+        boolean ackEliciting = false;
+        ReceivedPacketTracker tracker = connection.getReceivedPacketTracker( space );
+        if ( tracker.isAckImmediatelyRequired() ) {
+            int positionBeforeAck = buffer.position();
+            tracker.populateAckFrame( ackFrame, nowNanos, ackDelayExponent );
+            if ( positionBeforeAck + ackFrame.getFrameLength() <= payloadLimit ) {
+                frameSerializer.serializeFrame( ackFrame, buffer );
+                tracker.onAckFrameSent();
+                hasFrames = true;
+                containsAck = true;
+            }
+        }
+        Queue<Frame> pendingFrames = connection.getPendingFrames( space );
+        // ACK frames are neither congestion controlled nor paced, all other frames are
+        boolean congestionBlocked = !connection.canSendAckEliciting(
+                Math.min( maxDatagramSize, buffer.limit() - packetStart ), nowNanos );
+        Frame frame;
+        while ( !congestionBlocked && ( frame = pendingFrames.peek() ) != null ) {
+            if ( buffer.position() + frame.getFrameLength() > payloadLimit ) {
+                break;
+            }
+            frameSerializer.serializeFrame( frame, buffer );
+            pendingFrames.poll();
+            hasFrames = true;
+            ackEliciting |= isAckEliciting( frame );
+        }
+        if ( space == PacketNumberSpace.APPLICATION_DATA && !congestionBlocked ) {
+            StreamSendScheduler scheduler = connection.getStreamSendScheduler();
+            connection.scheduleWrittenStreams();
+            StreamImpl stream;
+            while ( ( stream = scheduler.next() ) != null ) {
+                int maxLength = payloadLimit - buffer.position() - MAX_STREAM_FRAME_OVERHEAD;
+                if ( maxLength <= 0 ) {
+                    break;
+                }
+                StreamFrameImpl streamFrame = stream.nextFrame( maxLength );
+                if ( streamFrame == null ) {
+                    // blocked by flow control, activated again once credit is granted
+                    scheduler.deactivate( stream );
+                    continue;
+                }
+                frameSerializer.serializeFrame( streamFrame, buffer );
+                streamFrame.releaseChunk();
+                connection.onStreamFrameSent( packetNumber, stream, streamFrame );
+                scheduler.onDataSent( stream, streamFrame.getDataLength() );
+                if ( !stream.hasDataToSend() ) {
+                    scheduler.deactivate( stream );
+                }
+                hasFrames = true;
+                ackEliciting = true;
+            }
+        }
+        if ( !hasFrames ) {
+            buffer.position( packetStart );
+            return false;
+        }
+
+        // PADDING frames for header protection sampling and for the minimum datagram size
+        int paddingStart = buffer.position();
+        int paddingEnd = Math.max( packetNumberOffset + MIN_SAMPLE_OFFSET, minDatagramLength - tagLength );
+        paddingEnd = Math.min( paddingEnd, payloadLimit );
+        while ( buffer.position() < paddingEnd ) {
+            buffer.put( (byte)0x00 );
+        }
+        int payloadLength = buffer.position() - payloadStart;
+
+        if ( lengthOffset >= 0 ) {
+            // the Length field covers the packet number and the protected payload
+            int length = packetNumberLength + payloadLength + tagLength;
+            buffer.put( lengthOffset, (byte)( ( length >> 8 ) | 0x40 ) );
+            buffer.put( lengthOffset + 1, (byte)length );
+        }
+
+        int protectedPayloadLength = protection.protectPacket( buffer.array(),
+                buffer.arrayOffset() + packetStart, buffer.arrayOffset() + packetNumberOffset,
+                packetNumberLength, payloadLength, packetNumber );
+        buffer.position( payloadStart + protectedPayloadLength );
+        connection.takeNextPacketNumber( space );
+        // "Packets are considered in-flight when they are ack-eliciting or contain a PADDING frame"
+        boolean inFlight = ackEliciting || payloadLength > paddingStart - payloadStart;
+        connection.onPacketSent( space, packetNumber, buffer.position() - packetStart, ackEliciting, inFlight,
+                containsAck, nowNanos );
+        return true;
+    }
+
+    /**
+     * "Ack-eliciting Packet:  A QUIC packet that contains frames other than
+     * ACK, PADDING, and CONNECTION_CLOSE."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-1.2
+     *
+     * @param frame the frame to check
+     * @return true if the frame makes the packet ack-eliciting
+     */
+    static boolean isAckEliciting( Frame frame ) {
+        FrameType type = frame.getType();
+        if ( type == null ) {
+            // extension frames
+            return true;
+        }
+        FrameGeneralType generalType = type.getGeneralType();
+        return generalType != FrameGeneralType.ACK
+                && generalType != FrameGeneralType.PADDING
+                && generalType != FrameGeneralType.CONNECTION_CLOSE;
+    }
+
+    /**
+     * Writes the unprotected header up to, but excluding, the packet number
+     *
+     * @return the offset of the Length field for long headers, -1 for short headers or -2 if the header does
+     * not fit into the buffer
+     */
+    private int writeHeader( ConnectionImpl connection, PacketNumberSpace space, ByteBuffer buffer,
+            int packetNumberLength ) {
+        ConnectionId destination = connection.getRemoteConnectionId();
+        byte[] destinationId = destination == null ? EMPTY_CONNECTION_ID : destination.getValue();
+        if ( space == PacketNumberSpace.APPLICATION_DATA ) {
+            if ( buffer.remaining() < 1 + destinationId.length ) {
+                return -2;
+            }
+            // Header Form 0, Fixed Bit 1, Spin Bit 0, Reserved 00, Key Phase 0, Packet Number Length
+            buffer.put( (byte)( 0x40 | ( packetNumberLength - 1 ) ) );
+            buffer.put( destinationId );
+            return -1;
+        }
+
+        ConnectionId source = connection.getLocalConnectionId();
+        byte[] sourceId = source == null ? EMPTY_CONNECTION_ID : source.getValue();
+        LongHeaderPacketType type = space == PacketNumberSpace.INITIAL
+                ? LongHeaderPacketType.INITIAL : LongHeaderPacketType.HANDSHAKE;
+        byte[] token = connection.getInitialToken();
+        int headerLength = 1 + 4 + 1 + destinationId.length + 1 + sourceId.length + LENGTH_FIELD_LENGTH;
+        if ( type == LongHeaderPacketType.INITIAL ) {
+            headerLength += VariableLengthIntegerEncoder.getLengthInBytes( token.length ) + token.length;
+        }
+        if ( buffer.remaining() < headerLength ) {
+            return -2;
+        }
+        // Header Form 1, Fixed Bit 1, Long Packet Type, Reserved 00, Packet Number Length
+        buffer.put( (byte)( 0xc0 | ( type.getId() << 4 ) | ( packetNumberLength - 1 ) ) );
+        buffer.putInt( connection.getVersion().getValue() );
+        buffer.put( (byte)destinationId.length );
+        buffer.put( destinationId );
+        buffer.put( (byte)sourceId.length );
+        buffer.put( sourceId );
+        if ( type == LongHeaderPacketType.INITIAL ) {
+            VariableLengthIntegerEncoder.encode( token.length, buffer );
+            buffer.put( token );
+        }
+        int lengthOffset = buffer.position();
+        buffer.position( lengthOffset + LENGTH_FIELD_LENGTH );
+        return lengthOffset;
+    }
+}
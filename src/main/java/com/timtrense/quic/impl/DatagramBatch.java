@@ -0,0 +1,143 @@
+package com.timtrense.quic.impl;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.ToString;
+
+/**
+ * Consecutive datagrams to the same destination, held in one contiguous buffer.
+ * <p>
+ * The layout matches that of UDP generic segmentation offload: All datagrams (segments) have the same
+ * {@link #getSegmentSize() size}, given by the first appended datagram, except for the last one which may
+ * be shorter. The datagram with index i thus starts at i * segmentSize. This allows a {@link DatagramTransport}
+ * to send the whole batch with one system call where the platform supports it.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @author Tim Trense
+ */
+@ToString( exclude = "buffer" )
+public class DatagramBatch {
+
+    /**
+     * The direct buffer holding all segments, from index 0 to {@link #getLength()}
+     */
+    @Getter
+    private final @NonNull ByteBuffer buffer;
+    /**
+     * The maximum number of segments within this batch
+     */
+    @Getter
+    private final int maxSegments;
+    /**
+     * the address of the peer to send all segments to, null while empty
+     */
+    @Getter
+    private SocketAddress destination;
+    /**
+     * the number of bytes of each segment, except the last one, or 0 while empty
+     */
+    @Getter
+    private int segmentSize;
+    /**
+     * the number of appended segments
+     */
+    @Getter
+    private int segmentCount;
+    /**
+     * the total number of bytes of all segments
+     */
+    @Getter
+    private int length;
+
+    /**
+     * @param maxSegments     the maximum number of datagrams to hold
+     * @param maxDatagramSize the maximum number of bytes of each datagram
+     */
+    public DatagramBatch( int maxSegments, int maxDatagramSize ) {
+        if ( maxSegments <= 0 ) {
+            throw new IllegalArgumentException( "Cannot set a non-positive maxSegments" );
+        }
+        if ( maxDatagramSize <= 0 ) {
+            throw new IllegalArgumentException( "Cannot set a non-positive maxDatagramSize" );
+        }
+        this.maxSegments = maxSegments;
+        this.buffer = ByteBuffer.allocateDirect( maxSegments * maxDatagramSize );
+    }
+
+    /**
+     * Copies the datagram to the end of this batch, if it fits the layout.
+     * It does not fit if it is sent to another destination, if it is larger than the
+     * {@link #getSegmentSize() segment size}, if the last segment is shorter than the segment size or if
+     * the batch is full.
+     *
+     * @param datagram the datagram to append, flipped for reading. Its buffer is not modified.
+     * @return true if appended, false if the batch needs to be sent first
+     */
+    public boolean append( @NonNull OutgoingDatagram datagram ) {
+        ByteBuffer source = datagram.getBuffer();
+        int datagramLength = source.remaining();
+        if ( datagramLength == 0 || datagramLength > buffer.capacity() / maxSegments ) {
+            throw new IllegalArgumentException( "Cannot batch a datagram of " + datagramLength + " bytes" );
+        }
+        if ( segmentCount == 0 ) {
+            destination = datagram.getDestination();
+            segmentSize = datagramLength;
+        }
+        else if ( segmentCount == maxSegments
+                || datagramLength > segmentSize
+                || length != segmentCount * segmentSize
+                || !Objects.equals( destination, datagram.getDestination() ) ) {
+            return false;
+        }
+        buffer.limit( buffer.capacity() );
+        buffer.position( length );
+        buffer.put( source.duplicate() );
+        length += datagramLength;
+        segmentCount++;
+        return true;
+    }
+
+    /**
+     * Removes the first segments, e.g. because a transport sent only those, and moves the remaining ones
+     * to the front of the buffer
+     *
+     * @param count the number of segments to remove
+     */
+    public void removeFirstSegments( int count ) {
+        if ( count < 0 || count > segmentCount ) {
+            throw new IllegalArgumentException( "Cannot remove " + count + " of " + segmentCount + " segments" );
+        }
+        if ( count == segmentCount ) {
+            clear();
+            return;
+        }
+        int removedLength = count * segmentSize;
+        buffer.limit( length );
+        buffer.position( removedLength );
+        buffer.compact();
+        length -= removedLength;
+        segmentCount -= count;
+    }
+
+    /**
+     * @return true if no datagram was appended since the last {@link #clear()}
+     */
+    public boolean isEmpty() {
+        return segmentCount == 0;
+    }
+
+    /**
+     * Prepares this batch to take new datagrams
+     */
+    public void clear() {
+        buffer.clear();
+        destination = null;
+        segmentSize = 0;
+        segmentCount = 0;
+        length = 0;
+    }
+}
@@ -16,11 +16,16 @@
 
 import com.timtrense.quic.ConnectionId;
 import com.timtrense.quic.Packet;
+import com.timtrense.quic.impl.exception.DroppedPacketException;
 import com.timtrense.quic.impl.exception.MalformedDatagramException;
 import com.timtrense.quic.impl.exception.OutOfOrderProtectedPacketException;
+import com.timtrense.quic.impl.packets.InitialPacketImpl;
 
 /**
  * A Parser to extract {@link Packet packets} from {@link ReceivedDatagram received datagrams}
+ * <p>
+ * Each parser is the event loop of one shard of connections. It advances the {@link #getTimerWheel() timer wheel}
+ * shared by those connections, waking up at least once per tick while any timer is armed.
  *
  * @author Tim Trense
  */
@@ -48,10 +53,15 @@ public class DatagramParser implements Runnable {
      * The number of milliseconds the {@link #getParsedQueue() parsed queue} may block before allowing
      * the {@link DatagramParser} to offer a new, parsed {@link Packet}.
      * If this timeout elapses before the parser can put
-     * the new packet to the queue, the parser will go to {@link DatagramParserState#ERROR} and will be stopped
+     * the new packet to the queue, the {@link #getOverloadHandler() overload policy} applies
      */
     @Getter
     private int parsedQueueBlockTimeout;
+    /**
+     * applies the overload policy to packets that cannot be queued and counts the dropped ones
+     */
+    @Getter
+    private final @NonNull QueueOverloadHandler<Packet> overloadHandler;
     /**
      * the current state
      */
@@ -62,6 +72,19 @@ public class DatagramParser implements Runnable {
      */
     private final Set<DatagramParserStateListener> stateListenerSet = new HashSet<>();
 
+    /**
+     * The shard of connections that this parser processes, which is encoded into their local connection ids
+     */
+    @Getter
+    @Setter
+    private int shardId;
+
+    /**
+     * The timers of all connections of this shard. Must only be accessed by the thread running this parser.
+     */
+    @Getter
+    private final @NonNull TimerWheel timerWheel;
+
     /**
      * The algorithm used to parse packets
      */
@@ -83,7 +106,18 @@ public DatagramParser(
         this.parsedQueue = targetReceivedQueue;
         this.parseQueue = new LinkedBlockingQueue<>( configuration.getParseDatagramQueueSizeLimit() );
         this.packetParser = packetParser;
+        this.timerWheel = new TimerWheel(
+                TimeUnit.MICROSECONDS.toNanos( configuration.getTimerWheelTickDuration() ),
+                System.nanoTime()
+        );
         setParsedQueueBlockTimeout( configuration.getParsedTargetBlockingTimeout() );
+        this.overloadHandler = new QueueOverloadHandler<>(
+                configuration.getQueueOverloadPolicy(),
+                // retransmitted Initial packets belong to connections that exist already
+                p -> p instanceof InitialPacketImpl && ( (InitialPacketImpl)p ).isOpeningConnection(),
+                p -> {
+                }
+        );
         this.state = DatagramParserState.NEW;
     }
 
@@ -100,11 +134,22 @@ public void run() {
                     if ( datagramRecycler != null && datagram != null ) {
                         datagramRecycler.giveBack( datagram );
                     }
+                    datagram = null;
                     packets.clear();
 
                     ReceivedDatagram receivedDatagram;
-                    receivedDatagram = parseQueue.take();
+                    if ( timerWheel.isEmpty() ) {
+                        receivedDatagram = parseQueue.take();
+                    }
+                    else {
+                        receivedDatagram = parseQueue.poll( timerWheel.getTickNanos(), TimeUnit.NANOSECONDS );
+                    }
+                    timerWheel.advance( System.nanoTime() );
+                    if ( receivedDatagram == null ) {
+                        continue /*parsingPackets*/;
+                    }
                     datagram = receivedDatagram.getDatagram();
+                    receivedDatagram.setShardId( shardId );
 
                     try {
                         ByteBuffer data = ByteBuffer.wrap( datagram.getData(),
@@ -130,7 +175,18 @@ public void run() {
                         }
                         continue /*parsingPackets*/;
                     }
+                    catch ( DroppedPacketException ignored ) {
+                        // deliberately dropped, e.g. answered statelessly
+                        continue /*parsingPackets*/;
+                    }
                     catch ( Exception e ) {
+                        // a short header packet that cannot be decrypted may be a stateless reset
+                        if ( datagram.getLength() > 0
+                                && ( datagram.getData()[datagram.getOffset()] & 0b10000000 ) == 0
+                                && packetParser.getContext().detectStatelessReset(
+                                datagram.getData(), datagram.getOffset(), datagram.getLength() ) ) {
+                            continue /*parsingPackets*/;
+                        }
                         e.printStackTrace();
                         // if datagrams are unable to be FULLY parsed, just drop them
                         continue /*parsingPackets*/;
@@ -150,9 +206,15 @@ else if ( !connectionForDatagram.equals( p.getDestinationConnectionId() ) ) {
                             continue parsingPackets; // drop entire datagram
                         }
                     }
+                    if ( connectionForDatagram != null ) {
+                        packetParser.getContext().onDatagramReceived( receivedDatagram, connectionForDatagram );
+                    }
                     for ( Packet p : packets ) {
+                        if ( !packetParser.getContext().onPacketReceived( receivedDatagram, p ) ) {
+                            continue /*with the next packet*/;
+                        }
                         synchronized( parsedQueue ) {
-                            offered = parsedQueue.offer( p, parsedQueueBlockTimeout, TimeUnit.MILLISECONDS );
+                            offered = overloadHandler.offer( parsedQueue, p, parsedQueueBlockTimeout );
                         }
                         if ( !offered ) {
                             throw new IOException( "Timeout on offering a Packet to the target queue" );
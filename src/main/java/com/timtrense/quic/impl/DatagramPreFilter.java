@@ -0,0 +1,202 @@
+package com.timtrense.quic.impl;
+
+import java.net.DatagramPacket;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.Getter;
+import lombok.NonNull;
+
+import com.timtrense.quic.ConnectionId;
+import com.timtrense.quic.EndpointRole;
+import com.timtrense.quic.ProtocolVersion;
+import com.timtrense.quic.VariableLengthInteger;
+import com.timtrense.quic.impl.base.ConnectionIdImpl;
+import com.timtrense.quic.impl.packets.VersionNegotiationPacketImpl;
+
+/**
+ * Inspects only the first bytes of each received datagram and drops those that would be rejected anyway,
+ * before they are queued for the {@link DatagramParser} and long before any key derivation or decryption.
+ * <p>
+ * Dropped are datagrams
+ * <ul>
+ *     <li>of versions that are not {@link EndpointConfiguration#getSupportedVersions() supported},
+ *     to which a server responds with a Version Negotiation packet if the datagram is large enough</li>
+ *     <li>whose Initial packet a server receives in a datagram smaller than 1200 bytes or
+ *     with a Destination Connection ID shorter than 8 bytes</li>
+ *     <li>whose short header packet is addressed to a connection id that was definitely
+ *     not issued by this endpoint. Such a datagram is either a stateless reset for one of the connections,
+ *     or it is answered with a stateless reset</li>
+ *     <li>that are too short to hold the header they announce</li>
+ * </ul>
+ * Only the first packet of a coalesced datagram is inspected, the {@link DatagramParser} checks the others.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author Tim Trense
+ */
+public class DatagramPreFilter {
+
+    /**
+     * "This Destination Connection ID MUST be at least 8 bytes in length."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-7.2
+     */
+    public static final int MIN_INITIAL_DESTINATION_CONNECTION_ID_LENGTH = 8;
+
+    /**
+     * the endpoint to filter for
+     */
+    @Getter
+    private final @NonNull Endpoint endpoint;
+    /**
+     * the number of datagrams dropped by this filter
+     */
+    private final AtomicLong droppedDatagrams = new AtomicLong();
+    /**
+     * the number of Version Negotiation packets queued for sending
+     */
+    private final AtomicLong versionNegotiationPackets = new AtomicLong();
+
+    /**
+     * @param endpoint {@link #getEndpoint()}
+     */
+    public DatagramPreFilter( @NonNull Endpoint endpoint ) {
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * Checks whether the datagram is worth being parsed
+     *
+     * @param datagram a received datagram
+     * @return false if the datagram must be dropped
+     */
+    public boolean accept( @NonNull DatagramPacket datagram ) {
+        if ( !inspect( datagram ) ) {
+            droppedDatagrams.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private boolean inspect( DatagramPacket datagram ) {
+        byte[] data = datagram.getData();
+        int offset = datagram.getOffset();
+        int length = datagram.getLength();
+        if ( length < 1 ) {
+            return false;
+        }
+        byte flags = data[offset];
+
+        if ( ( flags & 0b10000000 ) == 0 ) {
+            // short header: the Destination Connection ID has the length of the ids this endpoint issues
+            int idLength = endpoint.getLocalConnectionIdLength();
+            if ( length >= 1 + idLength
+                    && endpoint.getConnectionIdFilter().mightContain( data, offset + 1, idLength ) ) {
+                return true;
+            }
+            // a stateless reset is addressed to no connection, then the peer may have lost the connection
+            if ( !endpoint.detectStatelessReset( data, offset, length ) ) {
+                endpoint.sendStatelessReset( datagram );
+            }
+            return false;
+        }
+
+        // long header: flags, version, DCID length, DCID, SCID length, SCID
+        if ( length < 7 ) {
+            return false;
+        }
+        int version = readInt( data, offset + 1 );
+        int dcidLength = data[offset + 5] & 0xFF;
+        int scidLengthOffset = offset + 6 + dcidLength;
+        if ( length < 7 + dcidLength ) {
+            return false;
+        }
+        int scidLength = data[scidLengthOffset] & 0xFF;
+        if ( length < 7 + dcidLength + scidLength ) {
+            return false;
+        }
+        boolean server = endpoint.getRole() == EndpointRole.SERVER;
+
+        if ( version == ProtocolVersion.RESERVED_FOR_VERSION_NEGOTIATION.getValue() ) {
+            // "The Version Negotiation packet is a response to a client packet that
+            // contains a version that is not supported by the server, and is only
+            // sent by servers."
+            // Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-17.2.1
+            return !server;
+        }
+        ProtocolVersion protocolVersion = ProtocolVersion.findByValue( version );
+        List<ProtocolVersion> supportedVersions = endpoint.getConfiguration().getSupportedVersions();
+        if ( protocolVersion == null || !supportedVersions.contains( protocolVersion ) ) {
+            // "If the version selected by the client is not acceptable to the
+            // server, the server responds with a Version Negotiation packet"
+            // Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-6.1
+            // Small datagrams are not answered, so that the response cannot amplify a spoofed datagram.
+            if ( server && length >= DatagramAssembler.MIN_INITIAL_DATAGRAM_SIZE ) {
+                sendVersionNegotiation( datagram, data, offset + 6, dcidLength,
+                        scidLengthOffset + 1, scidLength );
+            }
+            return false;
+        }
+        // "In QUIC version 1, this value MUST NOT exceed 20."
+        // Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-17.2
+        if ( dcidLength > 20 || scidLength > 20 ) {
+            return false;
+        }
+        boolean initial = ( flags & 0b00110000 ) == 0;
+        if ( server && initial ) {
+            // "A server MUST discard an Initial packet that is carried in a UDP
+            // datagram with a payload that is smaller than the smallest allowed
+            // maximum datagram size of 1200 bytes."
+            // Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-14.1
+            return length >= DatagramAssembler.MIN_INITIAL_DATAGRAM_SIZE
+                    && dcidLength >= MIN_INITIAL_DESTINATION_CONNECTION_ID_LENGTH;
+        }
+        return true;
+    }
+
+    /**
+     * Queues a Version Negotiation packet, echoing the connection ids of the received packet swapped
+     */
+    private void sendVersionNegotiation( DatagramPacket datagram, byte[] data,
+            int dcidOffset, int dcidLength, int scidOffset, int scidLength ) {
+        DatagramAssembler assembler = endpoint.getDatagramAssembler();
+        if ( assembler == null ) {
+            return;
+        }
+        VersionNegotiationPacketImpl packet = new VersionNegotiationPacketImpl();
+        // the long header bit is set, all other bits are unused and set to a random value
+        packet.setFlags( (byte)( 0b10000000 | endpoint.getConfiguration().getRandom().nextInt( 0b10000000 ) ) );
+        packet.setDestinationConnectionIdLength( scidLength );
+        packet.setDestinationConnectionId( copyConnectionId( data, scidOffset, scidLength ) );
+        packet.setSourceConnectionIdLength( dcidLength );
+        packet.setSourceConnectionId( copyConnectionId( data, dcidOffset, dcidLength ) );
+        packet.getSupportedVersions().addAll( endpoint.getConfiguration().getSupportedVersions() );
+        if ( assembler.queueStatelessDatagram( datagram.getSocketAddress(), packet::write ) ) {
+            versionNegotiationPackets.incrementAndGet();
+        }
+    }
+
+    private static ConnectionId copyConnectionId( byte[] data, int offset, int length ) {
+        byte[] value = new byte[length];
+        System.arraycopy( data, offset, value, 0, length );
+        return new ConnectionIdImpl( value, VariableLengthInteger.ZERO );
+    }
+
+    private static int readInt( byte[] data, int offset ) {
+        return ( data[offset] & 0xFF ) << 24 | ( data[offset + 1] & 0xFF ) << 16
+                | ( data[offset + 2] & 0xFF ) << 8 | ( data[offset + 3] & 0xFF );
+    }
+
+    /**
+     * @return the number of datagrams dropped by this filter
+     */
+    public long getDroppedDatagrams() {
+        return droppedDatagrams.get();
+    }
+
+    /**
+     * @return the number of Version Negotiation packets queued for sending
+     */
+    public long getVersionNegotiationPackets() {
+        return versionNegotiationPackets.get();
+    }
+}
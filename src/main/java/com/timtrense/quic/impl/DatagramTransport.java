@@ -0,0 +1,46 @@
+package com.timtrense.quic.impl;
+
+import java.io.IOException;
+
+/**
+ * The means by which a {@link Sender} writes {@link DatagramBatch batches of datagrams} to the network.
+ * <p>
+ * The default {@link ChannelDatagramTransport} writes each datagram of a batch through a
+ * {@link java.nio.channels.DatagramChannel}. Native transports may hand over the whole contiguous buffer of a
+ * batch within one system call, like Linux does with sendmmsg or UDP generic segmentation offload (GSO),
+ * in which the kernel splits the buffer into datagrams of {@link DatagramBatch#getSegmentSize() segment size}.
+ * <p>
+ * Transports that cannot save system calls by batching tell so by {@link #isBatching()}, and get each
+ * datagram handed over on its own instead, which spares copying it into a batch.
+ *
+ * @author Tim Trense
+ */
+public interface DatagramTransport {
+
+    /**
+     * Sends all datagrams of the batch. The batch is not modified, except for its buffers position and limit.
+     *
+     * @param batch the datagrams to send, all having the same destination
+     * @return the number of sent datagrams, which is less than the {@link DatagramBatch#getSegmentCount() count}
+     * of datagrams within the batch if the transport could not send the remaining ones without blocking
+     * @throws IOException if the underlying network failed
+     */
+    int send( DatagramBatch batch ) throws IOException;
+
+    /**
+     * Sends a single datagram, if this transport is not {@link #isBatching() batching}
+     *
+     * @param datagram the datagram to send, flipped for reading
+     * @return false if the transport could not send the datagram without blocking
+     * @throws IOException if the underlying network failed
+     */
+    boolean send( OutgoingDatagram datagram ) throws IOException;
+
+    /**
+     * @return true if sending a {@link DatagramBatch batch} saves system calls over sending each datagram
+     * on its own, false to get each datagram handed over by {@link #send(OutgoingDatagram)} instead
+     */
+    default boolean isBatching() {
+        return true;
+    }
+}
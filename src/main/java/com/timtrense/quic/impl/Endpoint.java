@@ -1,14 +1,38 @@
 package com.timtrense.quic.impl;
 
-import java.util.HashMap;
+import java.net.DatagramPacket;
+import java.net.SocketAddress;
+import java.security.GeneralSecurityException;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import lombok.AccessLevel;
 import lombok.Data;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 
 import com.timtrense.quic.ConnectionId;
 import com.timtrense.quic.EncryptionLevel;
 import com.timtrense.quic.EndpointRole;
+import com.timtrense.quic.Frame;
+import com.timtrense.quic.FrameContainingPacket;
+import com.timtrense.quic.NumberedPacket;
+import com.timtrense.quic.Packet;
+import com.timtrense.quic.PacketNumberSpace;
+import com.timtrense.quic.ProtocolVersion;
+import com.timtrense.quic.VariableLengthInteger;
+import com.timtrense.quic.impl.base.ConnectionIdFilter;
+import com.timtrense.quic.impl.base.ConnectionIdGenerator;
+import com.timtrense.quic.impl.base.ConnectionIdImpl;
+import com.timtrense.quic.impl.base.ReassemblyMemoryBudget;
+import com.timtrense.quic.impl.base.StatelessResetTokenGenerator;
+import com.timtrense.quic.impl.base.StatelessResetTokenIndex;
+import com.timtrense.quic.impl.packets.HandshakePacketImpl;
+import com.timtrense.quic.impl.packets.InitialPacketImpl;
 
 /**
  * An endpoint is the most high level access for an application to use QUIC.
@@ -19,15 +43,204 @@
 @RequiredArgsConstructor
 public class Endpoint implements ParsingContext {
 
+    /**
+     * The length of the stateless resets sent by this endpoint, unless the triggering packet was shorter.
+     * Resets of this size resemble short header packets with a small payload.
+     */
+    public static final int MAX_STATELESS_RESET_LENGTH = 43;
+
     private @NonNull EndpointRole role;
     /**
-     * all configuration parameters of this endpoint
+     * all configuration parameters of this endpoint.
+     * The components derived from it are rebuilt by {@link #setConfiguration(EndpointConfiguration)}
+     * and {@link #applyConfiguration()}.
      */
     private @NonNull EndpointConfiguration configuration = new EndpointConfiguration();
     /**
-     * Maps local {@link ConnectionId connection IDs} to the connection
+     * Maps local {@link ConnectionId connection IDs} to the connection.
+     * Concurrent, because the receiver thread discards connections upon stateless resets while shards look them up.
+     */
+    private @NonNull Map<ConnectionId, Connection> connections = new ConcurrentHashMap<>();
+    /**
+     * The local connection ids within {@link #getConnections() connections}, by their connection,
+     * to discard a connection without scanning all others
+     */
+    private @NonNull Map<Connection, Set<ConnectionId>> localConnectionIds = new ConcurrentHashMap<>();
+    /**
+     * The accepted connections whose handshake is not yet confirmed, as counted by the
+     * {@link #getInitialFloodGuard() flood guard}
+     */
+    private @NonNull Set<Connection> halfOpenConnections = ConcurrentHashMap.newKeySet();
+    /**
+     * The probabilistic set of all local connection ids within {@link #getConnections() connections}
+     */
+    private @NonNull ConnectionIdFilter connectionIdFilter =
+            new ConnectionIdFilter( configuration.getExpectedConnectionIds(), configuration.getRandom() );
+    /**
+     * The memory budget for received stream data, shared among all streams of all connections
+     */
+    private @NonNull ReassemblyMemoryBudget reassemblyMemoryBudget =
+            new ReassemblyMemoryBudget( configuration.getMaxReassemblyMemory() );
+    /**
+     * Publishes new connections to the application as it demands them
+     */
+    private @NonNull ConnectionPublisher connectionPublisher = new ConnectionPublisher( ForkJoinPool.commonPool() );
+    /**
+     * Decides when a server answers Initial packets with Retry packets
+     */
+    private @NonNull InitialFloodGuard initialFloodGuard = new InitialFloodGuard( configuration );
+    /**
+     * Issues and validates the tokens of Retry packets
+     */
+    private @NonNull RetryTokenManager retryTokenManager = new RetryTokenManager( configuration.getRandom(),
+            configuration.getRetryTokenLifetime(), configuration.getRetryReplayFilterCapacity() );
+    /**
+     * Derives the stateless reset tokens of the connection ids issued by this endpoint
+     */
+    private @NonNull StatelessResetTokenGenerator statelessResetTokenGenerator =
+            new StatelessResetTokenGenerator( createStatelessResetKey( configuration ) );
+    /**
+     * The stateless reset tokens issued by the peers of all connections
+     */
+    private @NonNull StatelessResetTokenIndex<Connection> statelessResetTokenIndex =
+            new StatelessResetTokenIndex<>( configuration.getRandom() );
+    /**
+     * The assembler to queue stateless responses like Retry packets to, or null to never send any.
+     * Queueing stateless datagrams is safe from any thread, thus all shards share the assembler of shard 0.
+     */
+    private DatagramAssembler datagramAssembler;
+    /**
+     * The parsers of all shards, by shard id, empty until {@link #start(DatagramTransport, BlockingQueue) started}
+     */
+    @Setter( AccessLevel.NONE )
+    private @NonNull DatagramParser[] datagramParsers = new DatagramParser[0];
+    /**
+     * The assemblers of all shards, by shard id, which the connections of each shard send through
+     */
+    @Setter( AccessLevel.NONE )
+    private @NonNull DatagramAssembler[] datagramAssemblers = new DatagramAssembler[0];
+    /**
+     * The threads running the {@link #getDatagramParsers() parsers} and the senders of all shards
+     */
+    @Setter( AccessLevel.NONE )
+    private @NonNull Thread[] shardThreads = new Thread[0];
+
+    /**
+     * Replaces the configuration and rebuilds all components derived from it
+     *
+     * @param configuration the new configuration
+     * @throws IllegalStateException if this endpoint already has connections
+     */
+    public void setConfiguration( @NonNull EndpointConfiguration configuration ) {
+        this.configuration = configuration;
+        applyConfiguration();
+    }
+
+    /**
+     * Rebuilds all components derived from the {@link #getConfiguration() configuration}, which is required
+     * after changing the configuration in place. The components hold per-connection state, thus this is only
+     * possible before the first connection was added and before this endpoint was started.
+     *
+     * @throws IllegalStateException if this endpoint already has connections or was started
+     */
+    public void applyConfiguration() {
+        if ( !connections.isEmpty() || shardThreads.length > 0 ) {
+            throw new IllegalStateException( "Cannot reconfigure an endpoint that already has connections" );
+        }
+        connectionIdFilter = new ConnectionIdFilter( configuration.getExpectedConnectionIds(),
+                configuration.getRandom() );
+        reassemblyMemoryBudget = new ReassemblyMemoryBudget( configuration.getMaxReassemblyMemory() );
+        initialFloodGuard = new InitialFloodGuard( configuration );
+        retryTokenManager = new RetryTokenManager( configuration.getRandom(),
+                configuration.getRetryTokenLifetime(), configuration.getRetryReplayFilterCapacity() );
+        statelessResetTokenGenerator = new StatelessResetTokenGenerator( createStatelessResetKey( configuration ) );
+        statelessResetTokenIndex = new StatelessResetTokenIndex<>( configuration.getRandom() );
+    }
+
+    /**
+     * Builds and starts the {@link EndpointConfiguration#getShardCount() shards} of this endpoint. Each shard
+     * consists of a {@link DatagramParser} that runs on its own thread and a {@link DatagramAssembler} whose
+     * datagrams a {@link Sender} writes to the transport. Connections accepted by a shard send through the
+     * assembler of that shard.
+     * <p>
+     * Received datagrams are to be offered to the {@link DatagramParser#getParseQueue() parse queue} of the shard
+     * found by {@link #findShardId(byte[], int, int)}, or of any shard if the datagram encodes none.
+     *
+     * @param transport   the transport that the senders of all shards write to
+     * @param parsedQueue the queue that the parsers of all shards offer the parsed packets to
+     * @throws IllegalStateException if this endpoint was started before
+     */
+    public synchronized void start( @NonNull DatagramTransport transport, @NonNull BlockingQueue<Packet> parsedQueue ) {
+        if ( shardThreads.length > 0 ) {
+            throw new IllegalStateException( "Cannot start an endpoint twice" );
+        }
+        int shardCount = configuration.getShardCount();
+        if ( shardCount <= 0 ) {
+            throw new IllegalArgumentException( "Cannot start an endpoint with a non-positive shardCount" );
+        }
+        DatagramParser[] parsers = new DatagramParser[shardCount];
+        DatagramAssembler[] assemblers = new DatagramAssembler[shardCount];
+        Thread[] threads = new Thread[2 * shardCount];
+        for ( int shardId = 0; shardId < shardCount; shardId++ ) {
+            parsers[shardId] = new DatagramParser( parsedQueue, configuration, new PacketParserImpl( this ) );
+            parsers[shardId].setShardId( shardId );
+            assemblers[shardId] = new DatagramAssembler( configuration );
+            Thread parserThread = new Thread( parsers[shardId],
+                    configuration.getEndpointName() + ".DatagramParser" + shardId );
+            parserThread.setDaemon( true );
+            Sender sender = new Sender( transport, assemblers[shardId], configuration );
+            sender.setName( sender.getName() + shardId );
+            threads[2 * shardId] = parserThread;
+            threads[2 * shardId + 1] = sender;
+        }
+        datagramParsers = parsers;
+        datagramAssemblers = assemblers;
+        datagramAssembler = assemblers[0];
+        shardThreads = threads;
+        for ( Thread thread : threads ) {
+            thread.start();
+        }
+    }
+
+    /**
+     * Interrupts the parsers and senders of all shards
+     */
+    public synchronized void stop() {
+        for ( Thread thread : shardThreads ) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Registers a connection under one of its local connection ids
+     *
+     * @param connectionId a local connection id issued to the peer
+     * @param connection   the connection to route packets with that id to
+     */
+    public void addConnection( @NonNull ConnectionId connectionId, @NonNull Connection connection ) {
+        if ( connections.put( connectionId, connection ) == null ) {
+            connectionIdFilter.add( connectionId.getValue() );
+        }
+        localConnectionIds.computeIfAbsent( connection, c -> ConcurrentHashMap.newKeySet() ).add( connectionId );
+    }
+
+    /**
+     * Unregisters a local connection id, e.g. because it was retired or its connection closed
+     *
+     * @param connectionId a local connection id
+     * @return the connection that was registered under that id, or null
      */
-    private @NonNull Map<ConnectionId, Connection> connections = new HashMap<>();
+    public Connection removeConnection( @NonNull ConnectionId connectionId ) {
+        Connection connection = connections.remove( connectionId );
+        if ( connection != null ) {
+            connectionIdFilter.remove( connectionId.getValue() );
+            Set<ConnectionId> ids = localConnectionIds.get( connection );
+            if ( ids != null ) {
+                ids.remove( connectionId );
+            }
+        }
+        return connection;
+    }
 
     /**
      * Searches the connection from one of the given local connection ids
@@ -36,12 +249,7 @@ public class Endpoint implements ParsingContext {
      * @return the connection if found
      */
     Connection findConnectionByLocalId( @NonNull ConnectionId connectionId ) {
-        for ( Map.Entry<ConnectionId, Connection> entries : connections.entrySet() ) {
-            if ( entries.getKey().equals( connectionId ) ) {
-                return entries.getValue();
-            }
-        }
-        return null;
+        return connections.get( connectionId );
     }
 
     /**
@@ -51,12 +259,40 @@ Connection findConnectionByLocalId( @NonNull ConnectionId connectionId ) {
      * @return the connection if found
      */
     Connection findConnectionByLocalId( @NonNull byte[] connectionId ) {
-        for ( Map.Entry<ConnectionId, Connection> entries : connections.entrySet() ) {
-            if ( entries.getKey().equalsValue( connectionId ) ) {
-                return entries.getValue();
-            }
+        // connection ids are equal by value only, thus the sequence number does not matter for the lookup
+        return connections.get( new ConnectionIdImpl( connectionId, VariableLengthInteger.ZERO ) );
+    }
+
+    /**
+     * @return the length of all connection ids issued by this endpoint, which is required to parse short headers
+     */
+    public int getLocalConnectionIdLength() {
+        return configuration.getConnectionIdGenerator().getConnectionIdLength();
+    }
+
+    /**
+     * Decodes the shard that processes the connection of the datagram from its Destination Connection ID,
+     * without looking the connection up
+     *
+     * @param data   the array holding the datagram
+     * @param offset the start of the datagram within the array
+     * @param length the length of the datagram
+     * @return the shard, or -1 if the datagram is not addressed to a connection id that encodes a shard,
+     * like the first Initial packets of a client
+     */
+    public int findShardId( @NonNull byte[] data, int offset, int length ) {
+        if ( length < 1 ) {
+            return -1;
+        }
+        ConnectionIdGenerator generator = configuration.getConnectionIdGenerator();
+        if ( ( data[offset] & 0b10000000 ) == 0 ) {
+            return generator.decodeShardId( data, offset + 1, length - 1 );
+        }
+        // long header: flags, version, DCID length, DCID
+        if ( length < 6 || ( data[offset + 5] & 0xFF ) != generator.getConnectionIdLength() ) {
+            return -1;
         }
-        return null;
+        return generator.decodeShardId( data, offset + 6, length - 6 );
     }
 
     @Override
@@ -69,14 +305,330 @@ public PacketProtection getPacketProtection( ConnectionId connectionId, Encrypti
     }
 
     /**
-     * @return a yet-unused 8 byte length connection id in serialized form
+     * Admits all Initial packets of existing connections and those with a valid Retry token.
+     * A server answers other Initial packets with a Retry packet while the {@link #getInitialFloodGuard()
+     * flood guard} requires so, which keeps spoofed Initial packets from costing any key derivation.
+     * Without a {@link #getDatagramAssembler() datagram assembler} to send Retry packets through, those
+     * packets are admitted anyway rather than starving all clients.
+     * <p>
+     * "A server MUST discard an Initial packet that is carried in a UDP
+     * datagram with a payload that is smaller than the smallest allowed
+     * maximum datagram size of 1200 bytes."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-14.1
+     * <p>
+     * "If a server receives a client Initial that contains an invalid
+     * Retry token but is otherwise valid, it knows the client will not
+     * accept another Retry token. The server can discard such a packet
+     * and allow the client to time out to detect handshake failure"
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-8.1.3
+     */
+    @Override
+    public boolean isInitialPacketAdmitted(
+            ReceivedDatagram datagram,
+            ProtocolVersion version,
+            ConnectionId destinationConnectionId,
+            ConnectionId sourceConnectionId,
+            byte[] token
+    ) {
+        if ( role != EndpointRole.SERVER || datagram == null
+                || findConnectionByLocalId( destinationConnectionId ) != null ) {
+            return true;
+        }
+        if ( datagram.getDatagram().getLength() < DatagramAssembler.MIN_INITIAL_DATAGRAM_SIZE ) {
+            return false;
+        }
+        SocketAddress clientAddress = datagram.getDatagram().getSocketAddress();
+        if ( token.length > 0 && token[0] == RetryTokenManager.TOKEN_TYPE_RETRY ) {
+            return retryTokenManager.validateToken( token, clientAddress, destinationConnectionId,
+                    sourceConnectionId, System.currentTimeMillis() ) != null;
+        }
+        if ( !initialFloodGuard.onInitialPacket( System.nanoTime() ) || datagramAssembler == null ) {
+            return true;
+        }
+        sendRetry( clientAddress, version, destinationConnectionId, sourceConnectionId, datagram.getShardId() );
+        return false;
+    }
+
+    /**
+     * Accepts the connection of a new client once its first Initial packet proved to be authentic, and marks
+     * that packet as {@link InitialPacketImpl#isOpeningConnection() opening} the connection.
+     * The Retry token was already validated on {@link #isInitialPacketAdmitted admission}, and validating it
+     * again yields the original Destination Connection ID, because the token was issued for exactly these
+     * connection ids.
+     */
+    @Override
+    public boolean onInitialPacketDecrypted( ReceivedDatagram datagram, InitialPacketImpl packet ) {
+        ConnectionId destinationConnectionId = packet.getDestinationConnectionId();
+        if ( role != EndpointRole.SERVER || datagram == null
+                || findConnectionByLocalId( destinationConnectionId ) != null ) {
+            return true;
+        }
+        ConnectionId originalDestinationConnectionId = null;
+        byte[] token = packet.getToken();
+        if ( token.length > 0 && token[0] == RetryTokenManager.TOKEN_TYPE_RETRY ) {
+            originalDestinationConnectionId = retryTokenManager.validateToken( token,
+                    datagram.getDatagram().getSocketAddress(), destinationConnectionId,
+                    packet.getSourceConnectionId(), System.currentTimeMillis() );
+            if ( originalDestinationConnectionId == null ) {
+                return false;
+            }
+        }
+        if ( acceptConnection( datagram, packet.getVersion(), destinationConnectionId,
+                packet.getSourceConnectionId(), originalDestinationConnectionId ) == null ) {
+            return false;
+        }
+        packet.setOpeningConnection( true );
+        return true;
+    }
+
+    /**
+     * Creates the connection of a client whose first Initial packet was decrypted and publishes it to the
+     * application. The connection is refused if the application did not demand another one. Otherwise it counts
+     * as half-open for the {@link #getInitialFloodGuard() flood guard} until its handshake is confirmed or it is
+     * discarded.
+     * <p>
+     * A valid Retry token proves that the client received the Retry packet at its address, which thus counts as
+     * validated. The connection ids of the Retry exchange are kept for the transport parameters of the server.
+     *
+     * @param datagram                        the datagram carrying the Initial packet
+     * @param version                         the version of the Initial packet
+     * @param destinationConnectionId         the Destination Connection ID of the Initial packet
+     * @param sourceConnectionId              the Source Connection ID of the client
+     * @param originalDestinationConnectionId the original Destination Connection ID from a valid Retry token,
+     *                                        or null if the Initial packet carried none
+     * @return the new connection, or null if it was refused
+     */
+    public ConnectionImpl acceptConnection(
+            @NonNull ReceivedDatagram datagram,
+            @NonNull ProtocolVersion version,
+            @NonNull ConnectionId destinationConnectionId,
+            @NonNull ConnectionId sourceConnectionId,
+            ConnectionId originalDestinationConnectionId
+    ) {
+        ConnectionImpl connection = new ConnectionImpl( role, configuration );
+        connection.setVersion( version );
+        connection.setEndpoint( this );
+        if ( originalDestinationConnectionId != null ) {
+            // the client addresses the Initial packet answering a Retry to the Retry connection id
+            connection.setOriginalDestinationConnectionId( originalDestinationConnectionId );
+            connection.setRetrySourceConnectionId( destinationConnectionId );
+            connection.onAddressValidated( System.nanoTime() );
+        }
+        else {
+            connection.setOriginalDestinationConnectionId( destinationConnectionId );
+        }
+        int shardId = datagram.getShardId();
+        ConnectionIdManager connectionIdManager = new ConnectionIdManager( this, connection, shardId );
+        connection.setConnectionIdManager( connectionIdManager );
+        connectionIdManager.setInitialLocalConnectionId( new ConnectionIdImpl( createUnusedConnectionId( shardId ),
+                VariableLengthInteger.ZERO ) );
+        connectionIdManager.setInitialRemoteConnectionId( sourceConnectionId, null );
+        if ( shardId < datagramAssemblers.length ) {
+            connection.setDatagramAssembler( datagramAssemblers[shardId] );
+            connection.setTimerWheel( datagramParsers[shardId].getTimerWheel() );
+        }
+        // the client keeps addressing its Initial packets to the id of its choice until it learns ours
+        addConnection( destinationConnectionId, connection );
+        if ( !connectionPublisher.offer( connection ) ) {
+            discardConnection( connection );
+            return null;
+        }
+        halfOpenConnections.add( connection );
+        initialFloodGuard.onConnectionAccepted();
+        return connection;
+    }
+
+    /**
+     * Called when the handshake of a connection is confirmed, which ends it being half-open
+     *
+     * @param connection the connection whose handshake was confirmed
+     */
+    public void onHandshakeConfirmed( @NonNull Connection connection ) {
+        if ( halfOpenConnections.remove( connection ) ) {
+            initialFloodGuard.onHalfOpenConnectionClosed();
+        }
+    }
+
+    @Override
+    public void onDatagramReceived( ReceivedDatagram datagram, ConnectionId destinationConnectionId ) {
+        Connection connection = findConnectionByLocalId( destinationConnectionId );
+        if ( connection instanceof ConnectionImpl ) {
+            DatagramPacket packet = datagram.getDatagram();
+            ( (ConnectionImpl)connection ).onDatagramReceived( packet.getSocketAddress(), packet.getLength(),
+                    System.nanoTime() );
+        }
+    }
+
+    @Override
+    public boolean onPacketReceived( ReceivedDatagram datagram, Packet packet ) {
+        Connection connection = findConnectionByLocalId( packet.getDestinationConnectionId() );
+        PacketNumberSpace space = getPacketNumberSpace( packet );
+        if ( !( connection instanceof ConnectionImpl ) || space == null ) {
+            return true;
+        }
+        List<Frame> frames = ( (FrameContainingPacket)packet ).getPayload();
+        boolean ackEliciting = false;
+        for ( Frame frame : frames ) {
+            if ( DatagramAssembler.isAckEliciting( frame ) ) {
+                ackEliciting = true;
+                break;
+            }
+        }
+        long packetNumber = ( (NumberedPacket)packet ).getPacketNumber().getValue();
+        long now = System.nanoTime();
+        ConnectionImpl connectionImpl = (ConnectionImpl)connection;
+        if ( !connectionImpl.onPacketReceived( space, packetNumber, ackEliciting, now ) ) {
+            return false;
+        }
+        connectionImpl.onFramesReceived( datagram.getDatagram().getSocketAddress(), space, packetNumber, frames,
+                now );
+        return true;
+    }
+
+    /**
+     * @param packet the received packet
+     * @return the space of the numbered packet that carries frames, or null for any other packet
+     */
+    private static PacketNumberSpace getPacketNumberSpace( Packet packet ) {
+        if ( !( packet instanceof NumberedPacket ) || !( packet instanceof FrameContainingPacket ) ) {
+            return null;
+        }
+        if ( packet instanceof InitialPacketImpl ) {
+            return PacketNumberSpace.INITIAL;
+        }
+        if ( packet instanceof HandshakePacketImpl ) {
+            return PacketNumberSpace.HANDSHAKE;
+        }
+        // 0-RTT and 1-RTT packets
+        return PacketNumberSpace.APPLICATION_DATA;
+    }
+
+    @Override
+    public boolean detectStatelessReset( byte[] data, int offset, int length ) {
+        Connection connection = statelessResetTokenIndex.find( data, offset, length );
+        if ( connection == null ) {
+            return false;
+        }
+        // "If the last 16 bytes of the datagram are identical in value to a
+        // Stateless Reset Token, the endpoint MUST enter the draining period
+        // and not send any further packets on this connection."
+        // Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-10.3.1
+        if ( connection instanceof ConnectionImpl ) {
+            ( (ConnectionImpl)connection ).onStatelessResetReceived();
+        }
+        discardConnection( connection );
+        return true;
+    }
+
+    /**
+     * Forgets all connection ids and stateless reset tokens of a connection that is gone.
+     * May be called from any thread, the cost depends only on the number of ids of that connection.
+     *
+     * @param connection the connection to discard
+     */
+    public void discardConnection( @NonNull Connection connection ) {
+        Set<ConnectionId> ids = localConnectionIds.remove( connection );
+        if ( ids != null ) {
+            for ( ConnectionId id : ids ) {
+                // another thread may have removed or re-registered the id meanwhile
+                if ( connections.remove( id, connection ) ) {
+                    connectionIdFilter.remove( id.getValue() );
+                }
+            }
+        }
+        statelessResetTokenIndex.removeAll( connection );
+        if ( halfOpenConnections.remove( connection ) ) {
+            initialFloodGuard.onHalfOpenConnectionClosed();
+        }
+    }
+
+    /**
+     * Queues a stateless reset in response to a short header packet addressed to an unknown connection id.
+     * The token is derived from that id, so the peer recognizes the reset if the connection was lost.
+     * <p>
+     * "An endpoint MUST ensure that every Stateless Reset that it sends is
+     * smaller than the packet that triggered it, unless it maintains other
+     * means to prevent looping."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-10.3.3
+     *
+     * @param datagram the received datagram
+     * @return false if no stateless reset was queued
+     */
+    public boolean sendStatelessReset( @NonNull DatagramPacket datagram ) {
+        int resetLength = Math.min( datagram.getLength() - 1, MAX_STATELESS_RESET_LENGTH );
+        if ( !configuration.isStatelessResetEnabled() || datagramAssembler == null
+                || resetLength < StatelessResetTokenIndex.MIN_STATELESS_RESET_LENGTH
+                || datagram.getLength() < 1 + getLocalConnectionIdLength() ) {
+            return false;
+        }
+        byte[] token = statelessResetTokenGenerator.generate( datagram.getData(), datagram.getOffset() + 1,
+                getLocalConnectionIdLength() );
+        return datagramAssembler.queueStatelessDatagram( datagram.getSocketAddress(), buffer -> {
+            byte[] unpredictable = new byte[resetLength - token.length];
+            configuration.getRandom().nextBytes( unpredictable );
+            // looks like a short header packet: header form 0, fixed bit 1
+            unpredictable[0] = (byte)( 0b01000000 | ( unpredictable[0] & 0b00111111 ) );
+            buffer.put( unpredictable ).put( token );
+        } );
+    }
+
+    /**
+     * @param configuration the configuration of the endpoint
+     * @return the configured stateless reset key or a new random one
+     */
+    private static byte[] createStatelessResetKey( EndpointConfiguration configuration ) {
+        if ( configuration.getStatelessResetKey() != null ) {
+            return configuration.getStatelessResetKey();
+        }
+        byte[] key = new byte[32];
+        configuration.getRandom().nextBytes( key );
+        return key;
+    }
+
+    /**
+     * Queues a Retry packet in response to an Initial packet
+     *
+     * @param clientAddress                   the address that the client sent its Initial packet from
+     * @param version                         the version of the Initial packet
+     * @param originalDestinationConnectionId the Destination Connection ID of the Initial packet
+     * @param clientConnectionId              the Source Connection ID of the Initial packet
+     * @param shardId                         the shard that processed the Initial packet, which the client
+     *                                        addresses its next Initial packet to by the Retry connection id
+     */
+    private void sendRetry(
+            SocketAddress clientAddress,
+            ProtocolVersion version,
+            ConnectionId originalDestinationConnectionId,
+            ConnectionId clientConnectionId,
+            int shardId
+    ) {
+        ConnectionId retryConnectionId = new ConnectionIdImpl( createUnusedConnectionId( shardId ),
+                VariableLengthInteger.ZERO );
+        datagramAssembler.queueStatelessDatagram( clientAddress, buffer -> {
+            try {
+                byte[] token = retryTokenManager.issueToken( clientAddress, originalDestinationConnectionId,
+                        retryConnectionId, System.currentTimeMillis() );
+                RetryPacketWriter.writeRetryPacket( buffer, version, clientConnectionId, retryConnectionId,
+                        originalDestinationConnectionId, token, configuration.getRandom() );
+            }
+            catch ( GeneralSecurityException e ) {
+                // nothing written, thus nothing sent
+                buffer.position( 0 );
+            }
+        } );
+    }
+
+    /**
+     * @param shardId the shard that processes the connection
+     * @return a yet-unused connection id of {@link #getLocalConnectionIdLength()} in serialized form
+     * @see EndpointConfiguration#getConnectionIdGenerator()
      */
-    public byte[] createRandomUnusedConnectionId() {
-        byte[] cid = new byte[8];
+    public byte[] createUnusedConnectionId( int shardId ) {
+        byte[] cid;
         do {
-            configuration.getRandom().nextBytes( cid );
+            cid = configuration.getConnectionIdGenerator().generateConnectionId( shardId );
             // this loop will not repeat in real life, because chances of
-            // having a colliding 256-pow-8 random value are near to zero
+            // having a colliding random nonce of at least 3 bytes are near to zero
         } while ( findConnectionByLocalId( cid ) != null );
         return cid;
     }
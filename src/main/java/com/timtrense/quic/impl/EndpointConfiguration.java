@@ -1,13 +1,19 @@
 package com.timtrense.quic.impl;
 
 import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
 import lombok.Data;
 import lombok.NonNull;
 
+import com.timtrense.quic.ProtocolVersion;
 import com.timtrense.quic.TransportParameter;
+import com.timtrense.quic.impl.base.ConnectionIdGenerator;
+import com.timtrense.quic.impl.base.RandomConnectionIdGenerator;
 import com.timtrense.quic.impl.base.TransportParameterCollection;
 import com.timtrense.quic.impl.base.TransportParameterCollectionImpl;
+import com.timtrense.quic.impl.recovery.CongestionControlAlgorithm;
 
 /**
  * All configuration parameters for an {@link Endpoint}
@@ -27,12 +33,48 @@ public class EndpointConfiguration {
      */
     private @NonNull TransportParameterCollection transportParameters = new TransportParameterCollectionImpl();
 
+    /**
+     * Generates the connection ids that the endpoint issues, which also determines their length.
+     * Default = 8 random bytes, which a load balancer cannot route
+     *
+     * @see com.timtrense.quic.impl.base.QuicLbConnectionIdGenerator
+     */
+    private @NonNull ConnectionIdGenerator connectionIdGenerator = new RandomConnectionIdGenerator( random, 8 );
+
     /**
      * The maximum amount of bytes a datagram may carry.
      * Default = 1600, because most networks MTU is 1500 + a little buffer
      */
     private int maxDatagramSize = 1600;
 
+    /**
+     * The algorithm to limit the sending rate of each new connection with
+     */
+    private @NonNull CongestionControlAlgorithm congestionControlAlgorithm = CongestionControlAlgorithm.NEW_RENO;
+
+    /**
+     * The maximum number of bytes that the receive window of a connection may grow to
+     *
+     * @see com.timtrense.quic.impl.base.ReceiveWindowTuner
+     */
+    private long maxConnectionReceiveWindow = 24L * 1024 * 1024;
+
+    /**
+     * The maximum number of bytes that the receive window of a stream may grow to
+     *
+     * @see com.timtrense.quic.impl.base.ReceiveWindowTuner
+     */
+    private long maxStreamReceiveWindow = 16L * 1024 * 1024;
+
+    /**
+     * The maximum number of bytes of received stream data that all streams of the endpoint may hold until the
+     * application reads them. The receive buffer of each stream is further bounded by
+     * {@link #getMaxStreamReceiveWindow()}.
+     *
+     * @see com.timtrense.quic.impl.base.StreamReceiveBuffer
+     */
+    private long maxReassemblyMemory = 64L * 1024 * 1024;
+
     /**
      * @see Receiver#getDatagramPool()
      * @see DatagramPool#getPoolSizeLimit()
@@ -41,10 +83,32 @@ public class EndpointConfiguration {
 
     /**
      * @see DatagramAssembler#getDatagramPool()
-     * @see DatagramPool#getPoolSizeLimit()
+     * @see OutgoingDatagramPool#getPoolSizeLimit()
      */
     private int sendDatagramQueueSizeLimit = 3;
 
+    /**
+     * The maximum number of datagrams to the same destination that a {@link Sender} hands over to its
+     * {@link DatagramTransport} at once.
+     *
+     * @see DatagramBatch#getMaxSegments()
+     */
+    private int maxSendBatchSegments = 16;
+
+    /**
+     * The maximum number of destinations that a {@link Sender} accumulates {@link DatagramBatch batches} for
+     * at the same time
+     */
+    private int maxSendBatchDestinations = 4;
+
+    /**
+     * The number of shards that an {@link Endpoint} distributes its connections to. Each shard has its own
+     * {@link DatagramParser} thread with a {@link TimerWheel}, its own {@link DatagramAssembler} and {@link Sender}.
+     *
+     * @see Endpoint#start(DatagramTransport, java.util.concurrent.BlockingQueue)
+     */
+    private int shardCount = 1;
+
     /**
      * @see DatagramParser#getParseDatagramQueueSizeLimit()
      */
@@ -55,6 +119,68 @@ public class EndpointConfiguration {
      */
     private int receiverReceivedQueueBlockTimeout = 1000;
 
+    /**
+     * What the {@link Receiver} and the {@link DatagramParser} do with datagrams and packets that they cannot
+     * queue within their block timeouts
+     *
+     * @see QueueOverloadHandler
+     */
+    private @NonNull OverloadPolicy queueOverloadPolicy = OverloadPolicy.SHED_NEW_CONNECTIONS;
+
+    /**
+     * The versions that this endpoint speaks, in the order of preference.
+     * Datagrams of other versions are dropped by the {@link DatagramPreFilter}.
+     */
+    private @NonNull List<ProtocolVersion> supportedVersions = Collections.singletonList( ProtocolVersion.ONE );
+
+    /**
+     * The number of simultaneously issued local connection ids that the {@link DatagramPreFilter} is
+     * dimensioned for. More ids raise the rate of packets to unknown connections passing the filter.
+     *
+     * @see com.timtrense.quic.impl.base.ConnectionIdFilter
+     */
+    private int expectedConnectionIds = 16384;
+
+    /**
+     * The static key to derive stateless reset tokens from, at least 16 bytes. Endpoints sharing the key can
+     * reset each other's connections. Null to use a random key that is unique to the endpoint.
+     *
+     * @see com.timtrense.quic.impl.base.StatelessResetTokenGenerator
+     */
+    private byte[] statelessResetKey;
+
+    /**
+     * Whether short header packets addressed to unknown connection ids are answered with a stateless reset
+     */
+    private boolean statelessResetEnabled = true;
+
+    /**
+     * When a server answers Initial packets without a valid token with a Retry packet
+     *
+     * @see InitialFloodGuard
+     */
+    private @NonNull RetryMode retryMode = RetryMode.AUTOMATIC;
+
+    /**
+     * @see InitialFloodGuard#getInitialRateThreshold()
+     */
+    private int retryInitialRateThreshold = 1000;
+
+    /**
+     * @see InitialFloodGuard#getHalfOpenConnectionThreshold()
+     */
+    private int retryHalfOpenConnectionThreshold = 256;
+
+    /**
+     * @see RetryTokenManager#getTokenLifetime()
+     */
+    private long retryTokenLifetime = 10_000;
+
+    /**
+     * @see RetryTokenManager#getReplayFilterCapacity()
+     */
+    private int retryReplayFilterCapacity = 65536;
+
     /**
      * @see DatagramAssembler#getSendQueueBlockTimeout()
      */
@@ -65,6 +191,28 @@ public class EndpointConfiguration {
      */
     private int parsedTargetBlockingTimeout = 1000;
 
+    /**
+     * The number of microseconds of one tick of the {@link TimerWheel} of each {@link DatagramParser},
+     * thus the precision of all connection timers including the pacing of packets
+     *
+     * @see DatagramParser#getTimerWheel()
+     */
+    private int timerWheelTickDuration = 250;
+
+    /**
+     * Whether new connections pace their in-flight packets
+     *
+     * @see com.timtrense.quic.impl.recovery.Pacer
+     */
+    private boolean pacingEnabled = true;
+
+    /**
+     * The number of datagrams that a paced connection may send at once
+     *
+     * @see com.timtrense.quic.impl.recovery.Pacer#getMaxBurstBytes()
+     */
+    private int pacingBurstDatagrams = 4;
+
     /**
      * A name of the endpoint that may be used to identify it within: thread names, log messages etc.
      */
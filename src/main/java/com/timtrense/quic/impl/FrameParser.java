@@ -4,7 +4,6 @@
 import java.util.LinkedList;
 import java.util.List;
 
-import com.timtrense.quic.FrameType;
 import lombok.NonNull;
 
 import com.timtrense.quic.Frame;
@@ -54,14 +53,14 @@ default List<Frame> parseFrames(
         }
         List<Frame> payload = new LinkedList<>();
         for ( int packetIndex = 0; packetLength > 0; packetIndex++ ) {
+            int frameStart = data.position();
             Frame f = parseFrame( containingPacket, data, packetIndex, packetLength );
             if ( f == null ) {
                 payload = null;
                 break;
             }
-            if(f.getType() == FrameType.CRYPTO)
-                payload.add( f );
-            packetLength -= f.getFrameLength();
+            payload.add( f );
+            packetLength -= data.position() - frameStart;
         }
         return payload;
     }
@@ -1,31 +1,111 @@
 package com.timtrense.quic.impl;
 
 import java.nio.ByteBuffer;
-
-import com.timtrense.quic.impl.frames.PingFrameImpl;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.NonNull;
+import lombok.Setter;
+import lombok.ToString;
 
+import com.timtrense.quic.ExtensionFrame;
 import com.timtrense.quic.Frame;
 import com.timtrense.quic.FrameType;
 import com.timtrense.quic.Packet;
+import com.timtrense.quic.StreamId;
 import com.timtrense.quic.VariableLengthInteger;
+import com.timtrense.quic.impl.base.ConnectionIdImpl;
+import com.timtrense.quic.impl.base.EcnCountImpl;
+import com.timtrense.quic.impl.base.PacketNumberRangeSet;
+import com.timtrense.quic.impl.base.StatelessResetTokenImpl;
+import com.timtrense.quic.impl.base.StreamIdImpl;
 import com.timtrense.quic.impl.base.VariableLengthIntegerEncoder;
 import com.timtrense.quic.impl.exception.MalformedFrameException;
 import com.timtrense.quic.impl.exception.QuicParsingException;
+import com.timtrense.quic.impl.frames.AckFrameImpl;
+import com.timtrense.quic.impl.frames.ConnectionCloseFrameImpl;
 import com.timtrense.quic.impl.frames.CryptoFrameImpl;
+import com.timtrense.quic.impl.frames.DataBlockedFrameImpl;
+import com.timtrense.quic.impl.frames.HandshakeDoneFrameImpl;
+import com.timtrense.quic.impl.frames.MaxDataFrameImpl;
+import com.timtrense.quic.impl.frames.MaxStreamDataFrameImpl;
+import com.timtrense.quic.impl.frames.MaxStreamsFrameImpl;
 import com.timtrense.quic.impl.frames.MultiPaddingFrameImpl;
+import com.timtrense.quic.impl.frames.NewConnectionIdFrameImpl;
+import com.timtrense.quic.impl.frames.NewTokenFrameImpl;
+import com.timtrense.quic.impl.frames.PathChallangeFrameImpl;
+import com.timtrense.quic.impl.frames.PathResponseFrameImpl;
+import com.timtrense.quic.impl.frames.PingFrameImpl;
+import com.timtrense.quic.impl.frames.ResetStreamFrameImpl;
+import com.timtrense.quic.impl.frames.RetireConnectionIdFrameImpl;
+import com.timtrense.quic.impl.frames.StopSendingFrameImpl;
+import com.timtrense.quic.impl.frames.StreamDataBlockedFrameImpl;
+import com.timtrense.quic.impl.frames.StreamFrameImpl;
+import com.timtrense.quic.impl.frames.StreamsBlockedFrameImpl;
 
 /**
- * Parsing algorithm for frames within a packet
+ * Parsing algorithm for frames within a packet.
+ * <p>
+ * The parser dispatches on the frame type through a table of {@link FrameTypeParser parsers} that is indexed by
+ * the value of the frame type. All core frame types of QUIC version 1 are registered on construction.
+ * Parsers for {@link ExtensionFrame extension frames} may be registered using
+ * {@link #registerExtensionFrameParser(long, FrameTypeParser)}.
  *
  * @author Tim Trense
  */
 @Data
 public class FrameParserImpl implements FrameParser {
 
+    /**
+     * The largest frame type value that is dispatched through the array-based dispatch table.
+     * This covers all frame types that are encoded as 1- or 2-byte {@link VariableLengthInteger}.
+     * Parsers for larger extension frame types are looked up in a map instead.
+     */
+    public static final int MAX_INDEXED_FRAME_TYPE = (int)VariableLengthIntegerEncoder.MAX_VALUE_2_BYTE;
+
+    /**
+     * "This value cannot exceed 2^60, as it is not possible
+     * to encode stream IDs larger than 2^62-1."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-19.11
+     */
+    private static final long MAX_STREAMS_LIMIT = 1L << 60;
+
     private @NonNull ParsingContext context;
 
+    /**
+     * parsers indexed by the value of the frame type they parse
+     */
+    @Getter( AccessLevel.NONE )
+    @Setter( AccessLevel.NONE )
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private FrameTypeParser[] dispatchTable;
+
+    /**
+     * parsers for frame types larger than {@link #MAX_INDEXED_FRAME_TYPE}
+     */
+    @Getter( AccessLevel.NONE )
+    @Setter( AccessLevel.NONE )
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private final Map<Long, FrameTypeParser> largeFrameTypeParsers = new HashMap<>();
+
+    /**
+     * Creates a new parser with all core frame types being registered
+     *
+     * @param context the context in which parsing happens
+     */
+    public FrameParserImpl( @NonNull ParsingContext context ) {
+        this.context = context;
+        this.dispatchTable = new FrameTypeParser[FrameType.values().length];
+        registerCoreFrameParsers();
+    }
+
     @Override
     public Frame parseFrame(
             @NonNull Packet containingPacket,
@@ -33,58 +113,265 @@ public Frame parseFrame(
             int frameIndex,
             int maxLength )
             throws QuicParsingException {
+        int typeStart = data.position();
         long frameTypeRaw = VariableLengthIntegerEncoder.decode( data );
-        FrameType frameType = FrameType.findByValue( (int)frameTypeRaw );
-        if ( frameType == null ) {
+        if ( frameTypeRaw < 0 ) {
+            throw new MalformedFrameException( "Frame Type is no valid VariableLengthInteger",
+                    containingPacket, data, frameIndex );
+        }
+        FrameTypeParser parser = findFrameTypeParser( frameTypeRaw );
+        if ( parser == null ) {
             throw new MalformedFrameException( "Unknown Frame Type: " + frameTypeRaw,
                     containingPacket, data, frameIndex );
         }
 
-        maxLength -= frameType.getValue().getEncodedLengthInBytes(); // because we just parsed a varint
-
-        Frame result;
-        switch ( frameType.getGeneralType() ) {
-            case PING:
-                result = new PingFrameImpl();
-                break;
-            case PADDING:
-                // we just detected the start of AT LEAST one padding frame.
-                // lets try finding more consecutive paddings to reduce
-                // amount of instantiated padding frame objects
-                result = new MultiPaddingFrameImpl();
-                break;
-            case CRYPTO:
-                result = new CryptoFrameImpl( frameType );
-                parseFrame( (CryptoFrameImpl)result, containingPacket, data, frameIndex, maxLength );
-                break;
-            //TODO implement remaining frame types
-            default:
-                throw new MalformedFrameException( "Unimplemented Frame Type: " + frameType,
-                        containingPacket, data, frameIndex );
+        maxLength -= data.position() - typeStart; // because we just parsed a varint
+
+        return parser.parseFrameBody( frameTypeRaw, containingPacket, data, frameIndex, maxLength );
+    }
+
+    /**
+     * Registers the parser for an extension frame type.
+     * A previously registered parser for that frame type gets replaced.
+     * <p>
+     * This method is not thread-safe. Parsers should be registered before parsing the first frame.
+     *
+     * @param frameType the raw value of the extension frame type
+     * @param parser    the parser in charge of that frame type
+     * @throws IllegalArgumentException if the frame type is a core frame type or cannot be encoded as a
+     *                                  {@link VariableLengthInteger}
+     */
+    public void registerExtensionFrameParser( long frameType, @NonNull FrameTypeParser parser ) {
+        if ( FrameType.findByValue( frameType ) != null ) {
+            throw new IllegalArgumentException( "Cannot replace the parser of a core Frame Type: " + frameType );
+        }
+        if ( VariableLengthIntegerEncoder.getLengthInBytes( frameType ) == 0 ) {
+            throw new IllegalArgumentException( "Cannot register a Frame Type that is not encodable as a "
+                    + "VariableLengthInteger: " + frameType );
         }
-        return result;
+        registerFrameTypeParser( frameType, parser );
     }
 
-    private Frame parseMultiPaddingFrame(ByteBuffer data, int maxLength, boolean isPing) {
-        byte[] rawData = data.array();
-        int offset = data.position();
-        int paddingCount;
-        if(!isPing)
-            for ( paddingCount = 0; paddingCount < maxLength; paddingCount++ ) {
-                if ( rawData[offset + paddingCount] != FrameType.PADDING.getLongValue() ) {
+    /**
+     * Removes the parser for an extension frame type, thus making that frame type unknown to this parser.
+     *
+     * @param frameType the raw value of the extension frame type
+     * @return true if a parser was registered for that frame type
+     */
+    public boolean unregisterExtensionFrameParser( long frameType ) {
+        if ( FrameType.findByValue( frameType ) != null ) {
+            return false;
+        }
+        if ( frameType >= 0 && frameType <= MAX_INDEXED_FRAME_TYPE ) {
+            if ( frameType >= dispatchTable.length || dispatchTable[(int)frameType] == null ) {
+                return false;
+            }
+            dispatchTable[(int)frameType] = null;
+            return true;
+        }
+        return largeFrameTypeParsers.remove( frameType ) != null;
+    }
+
+    /**
+     * @param frameType the raw value of the frame type
+     * @return the parser in charge or null if that frame type is unknown
+     */
+    public FrameTypeParser findFrameTypeParser( long frameType ) {
+        if ( frameType < dispatchTable.length ) {
+            // frameType cannot be negative, because it was decoded as a VariableLengthInteger
+            return dispatchTable[(int)frameType];
+        }
+        if ( frameType <= MAX_INDEXED_FRAME_TYPE || largeFrameTypeParsers.isEmpty() ) {
+            return null;
+        }
+        return largeFrameTypeParsers.get( frameType );
+    }
+
+    private void registerFrameTypeParser( long frameType, FrameTypeParser parser ) {
+        if ( frameType > MAX_INDEXED_FRAME_TYPE ) {
+            largeFrameTypeParsers.put( frameType, parser );
+            return;
+        }
+        if ( frameType >= dispatchTable.length ) {
+            dispatchTable = Arrays.copyOf( dispatchTable, (int)frameType + 1 );
+        }
+        dispatchTable[(int)frameType] = parser;
+    }
+
+    private void registerCoreFrameParsers() {
+        for ( FrameType frameType : FrameType.values() ) {
+            FrameTypeParser parser;
+            switch ( frameType.getGeneralType() ) {
+                case PADDING:
+                    parser = this::parsePaddingFrame;
+                    break;
+                case PING:
+                    parser = this::parsePingFrame;
+                    break;
+                case ACK:
+                    parser = this::parseAckFrame;
+                    break;
+                case RESET_STREAM:
+                    parser = this::parseResetStreamFrame;
+                    break;
+                case STOP_SENDING:
+                    parser = this::parseStopSendingFrame;
+                    break;
+                case CRYPTO:
+                    parser = this::parseCryptoFrame;
+                    break;
+                case NEW_TOKEN:
+                    parser = this::parseNewTokenFrame;
+                    break;
+                case STREAM:
+                    parser = this::parseStreamFrame;
+                    break;
+                case MAX_DATA:
+                    parser = this::parseMaxDataFrame;
+                    break;
+                case MAX_STREAM_DATA:
+                    parser = this::parseMaxStreamDataFrame;
+                    break;
+                case MAX_STREAMS:
+                    parser = this::parseMaxStreamsFrame;
+                    break;
+                case DATA_BLOCKED:
+                    parser = this::parseDataBlockedFrame;
+                    break;
+                case STREAM_DATA_BLOCKED:
+                    parser = this::parseStreamDataBlockedFrame;
                     break;
-                }
+                case STREAMS_BLOCKED:
+                    parser = this::parseStreamsBlockedFrame;
+                    break;
+                case NEW_CONNECTION_ID:
+                    parser = this::parseNewConnectionIdFrame;
+                    break;
+                case RETIRE_CONNECTION_ID:
+                    parser = this::parseRetireConnectionIdFrame;
+                    break;
+                case PATH_CHALLENGE:
+                    parser = this::parsePathChallengeFrame;
+                    break;
+                case PATH_RESPONSE:
+                    parser = this::parsePathResponseFrame;
+                    break;
+                case CONNECTION_CLOSE:
+                    parser = this::parseConnectionCloseFrame;
+                    break;
+                case HANDSHAKE_DONE:
+                    parser = this::parseHandshakeDoneFrame;
+                    break;
+                default:
+                    throw new IllegalStateException( "No parser for Frame Type: " + frameType );
             }
-        else
-            paddingCount = 0;
-        paddingCount++; // because already one Padding Frame was parsed by top parseFrame()
-        return new MultiPaddingFrameImpl( paddingCount );
+            registerFrameTypeParser( frameType.getLongValue(), parser );
+        }
     }
 
-    private void parseFrame( CryptoFrameImpl frame, Packet containingPacket,
+    // <editor-fold desc="Core Frame Parsers">
+
+    private Frame parsePaddingFrame( long frameType, Packet containingPacket,
+            ByteBuffer data, int frameIndex, int maxLength ) {
+        // we just detected the start of AT LEAST one padding frame.
+        // lets try finding more consecutive paddings to reduce
+        // amount of instantiated padding frame objects
+        int offset = data.position();
+        int limit = Math.min( data.limit(), offset + maxLength );
+        int paddingEnd = offset;
+        while ( paddingEnd < limit && data.get( paddingEnd ) == 0x00 ) {
+            paddingEnd++;
+        }
+        data.position( paddingEnd );
+        // plus one, because already one Padding Frame was parsed by top parseFrame()
+        return new MultiPaddingFrameImpl( paddingEnd - offset + 1 );
+    }
+
+    private Frame parsePingFrame( long frameType, Packet containingPacket,
+            ByteBuffer data, int frameIndex, int maxLength ) {
+        return new PingFrameImpl();
+    }
+
+    private Frame parseAckFrame( long frameType, Packet containingPacket,
             ByteBuffer data, int frameIndex, int maxLength ) throws QuicParsingException {
-        long offset = VariableLengthIntegerEncoder.decode( data );
-        long length = VariableLengthIntegerEncoder.decode( data );
+        AckFrameImpl frame = new AckFrameImpl( FrameType.findByValue( frameType ) );
+        int bodyStart = data.position();
+        long largestAcknowledged = decodeField( "ACK Largest Acknowledged", containingPacket, data, frameIndex );
+        long delay = decodeField( "ACK Delay", containingPacket, data, frameIndex );
+        long rangeCount = decodeField( "ACK Range Count", containingPacket, data, frameIndex );
+        long firstAckRange = decodeField( "ACK First Range", containingPacket, data, frameIndex );
+
+        // each Gap and ACK Range takes at least one byte, which bounds the number of ranges before parsing them
+        if ( rangeCount * 2 > remaining( data, bodyStart, maxLength ) ) {
+            throw new MalformedFrameException( "ACK Range Count states more ranges than contained in the packet: "
+                    + rangeCount, containingPacket, data, frameIndex );
+        }
+        /*
+        "If any computed packet number is negative, an endpoint MUST generate
+        a connection error of type FRAME_ENCODING_ERROR."
+        Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-19.3.1
+         */
+        long smallest = largestAcknowledged - firstAckRange;
+        if ( smallest < 0 ) {
+            throw new MalformedFrameException( "ACK First Range exceeds the Largest Acknowledged",
+                    containingPacket, data, frameIndex );
+        }
+        PacketNumberRangeSet acknowledgedRanges = frame.getAcknowledgedRanges();
+        acknowledgedRanges.addRange( smallest, largestAcknowledged );
+        for ( long i = 0; i < rangeCount; i++ ) {
+            long gap = decodeField( "ACK Gap", containingPacket, data, frameIndex );
+            long length = decodeField( "ACK Range Length", containingPacket, data, frameIndex );
+            long largest = smallest - gap - 2;
+            smallest = largest - length;
+            if ( smallest < 0 ) {
+                throw new MalformedFrameException( "ACK Range acknowledges a negative packet number",
+                        containingPacket, data, frameIndex );
+            }
+            acknowledgedRanges.addRange( smallest, largest );
+        }
+        frame.setDelay( delay );
+
+        if ( frame.isEcnBitSet() ) {
+            long ect0 = decodeField( "ACK ECT0 Count", containingPacket, data, frameIndex );
+            long ect1 = decodeField( "ACK ECT1 Count", containingPacket, data, frameIndex );
+            long ecnCe = decodeField( "ACK ECN-CE Count", containingPacket, data, frameIndex );
+            frame.setEcnCounts( Collections.singletonList( new EcnCountImpl( new VariableLengthInteger( ect0 ),
+                    new VariableLengthInteger( ect1 ), new VariableLengthInteger( ecnCe ) ) ) );
+        }
+        checkNotExceeded( "ACK", containingPacket, data, frameIndex, bodyStart, maxLength );
+        return frame;
+    }
+
+    private Frame parseResetStreamFrame( long frameType, Packet containingPacket,
+            ByteBuffer data, int frameIndex, int maxLength ) throws QuicParsingException {
+        ResetStreamFrameImpl frame = new ResetStreamFrameImpl( FrameType.findByValue( frameType ) );
+        int bodyStart = data.position();
+        frame.setStreamId( decodeStreamId( "RESET_STREAM", containingPacket, data, frameIndex ) );
+        frame.setApplicationProtocolErrorCode( decodeVariableLengthInteger( "RESET_STREAM Error Code",
+                containingPacket, data, frameIndex ) );
+        frame.setFinalSize( decodeVariableLengthInteger( "RESET_STREAM Final Size",
+                containingPacket, data, frameIndex ) );
+        checkNotExceeded( "RESET_STREAM", containingPacket, data, frameIndex, bodyStart, maxLength );
+        return frame;
+    }
+
+    private Frame parseStopSendingFrame( long frameType, Packet containingPacket,
+            ByteBuffer data, int frameIndex, int maxLength ) throws QuicParsingException {
+        StopSendingFrameImpl frame = new StopSendingFrameImpl( FrameType.findByValue( frameType ) );
+        int bodyStart = data.position();
+        frame.setStreamId( decodeStreamId( "STOP_SENDING", containingPacket, data, frameIndex ) );
+        frame.setApplicationProtocolErrorCode( decodeVariableLengthInteger( "STOP_SENDING Error Code",
+                containingPacket, data, frameIndex ) );
+        checkNotExceeded( "STOP_SENDING", containingPacket, data, frameIndex, bodyStart, maxLength );
+        return frame;
+    }
+
+    private Frame parseCryptoFrame( long frameType, Packet containingPacket,
+            ByteBuffer data, int frameIndex, int maxLength ) throws QuicParsingException {
+        CryptoFrameImpl frame = new CryptoFrameImpl( FrameType.findByValue( frameType ) );
+        int bodyStart = data.position();
+        long offset = decodeField( "CRYPTO Offset", containingPacket, data, frameIndex );
+        long length = decodeField( "CRYPTO Length", containingPacket, data, frameIndex );
 
         /*
        "There is a separate flow of cryptographic handshake data in each
@@ -98,10 +385,6 @@ private void parseFrame( CryptoFrameImpl frame, Packet containingPacket,
        FRAME_ENCODING_ERROR or CRYPTO_BUFFER_EXCEEDED."
        Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-19.6
          */
-        if ( offset < 0 ) {
-            throw new MalformedFrameException( "CRYPTO offset exceeds limits: " + offset,
-                    containingPacket, data, frameIndex );
-        }
         if ( offset + length > VariableLengthIntegerEncoder.MAX_VALUE ) {
             throw new MalformedFrameException( "CRYPTO offset at frames end exceeds limits:" +
                     " offset=" + offset +
@@ -112,18 +395,277 @@ private void parseFrame( CryptoFrameImpl frame, Packet containingPacket,
         // BTW: we do not expect to get more than Integer.MAX_VALUE -1 bytes anyways, because that would
         // not fit into any datagrams MTU on any reasonable network
 
-        if ( length > maxLength ) {
-            throw new MalformedFrameException( "CRYPTO frames length states more bytes than contained in the packet:" +
+        byte[] cryptoData = readBytes( "CRYPTO", length, containingPacket, data, frameIndex, bodyStart, maxLength );
+        frame.setOffset( new VariableLengthInteger( offset ) );
+        frame.setLength( new VariableLengthInteger( length ) );
+        frame.setCryptoData( cryptoData );
+        return frame;
+    }
+
+    private Frame parseNewTokenFrame( long frameType, Packet containingPacket,
+            ByteBuffer data, int frameIndex, int maxLength ) throws QuicParsingException {
+        NewTokenFrameImpl frame = new NewTokenFrameImpl( FrameType.findByValue( frameType ) );
+        int bodyStart = data.position();
+        long tokenLength = decodeField( "NEW_TOKEN Token Length", containingPacket, data, frameIndex );
+        if ( tokenLength == 0 ) {
+            // "An endpoint MUST treat receipt of a NEW_TOKEN frame with an empty Token
+            // field as a connection error of type FRAME_ENCODING_ERROR."
+            throw new MalformedFrameException( "NEW_TOKEN with empty Token", containingPacket, data, frameIndex );
+        }
+        frame.setTokenLength( new VariableLengthInteger( tokenLength ) );
+        frame.setToken( readBytes( "NEW_TOKEN", tokenLength, containingPacket, data, frameIndex,
+                bodyStart, maxLength ) );
+        return frame;
+    }
+
+    private Frame parseStreamFrame( long frameType, Packet containingPacket,
+            ByteBuffer data, int frameIndex, int maxLength ) throws QuicParsingException {
+        StreamFrameImpl frame = new StreamFrameImpl( FrameType.findByValue( frameType ) );
+        int bodyStart = data.position();
+        frame.setStreamId( decodeStreamId( "STREAM", containingPacket, data, frameIndex ) );
+        long offset = 0;
+        if ( frame.isOffsetBitSet() ) {
+            offset = decodeField( "STREAM Offset", containingPacket, data, frameIndex );
+            frame.setOffset( new VariableLengthInteger( offset ) );
+        }
+        long length;
+        if ( frame.isLengthBitSet() ) {
+            length = decodeField( "STREAM Length", containingPacket, data, frameIndex );
+            frame.setLength( new VariableLengthInteger( length ) );
+        }
+        else {
+            // the Stream Data field consumes all the remaining bytes in the packet
+            length = remaining( data, bodyStart, maxLength );
+        }
+        if ( offset + length > VariableLengthIntegerEncoder.MAX_VALUE ) {
+            throw new MalformedFrameException( "STREAM offset at frames end exceeds limits:" +
+                    " offset=" + offset +
+                    ", length=" + length,
+                    containingPacket, data, frameIndex );
+        }
+        frame.setData( readBytes( "STREAM", length, containingPacket, data, frameIndex, bodyStart, maxLength ) );
+        return frame;
+    }
+
+    private Frame parseMaxDataFrame( long frameType, Packet containingPacket,
+            ByteBuffer data, int frameIndex, int maxLength ) throws QuicParsingException {
+        MaxDataFrameImpl frame = new MaxDataFrameImpl( FrameType.findByValue( frameType ) );
+        int bodyStart = data.position();
+        frame.setMaximumData( decodeVariableLengthInteger( "MAX_DATA Maximum Data",
+                containingPacket, data, frameIndex ) );
+        checkNotExceeded( "MAX_DATA", containingPacket, data, frameIndex, bodyStart, maxLength );
+        return frame;
+    }
+
+    private Frame parseMaxStreamDataFrame( long frameType, Packet containingPacket,
+            ByteBuffer data, int frameIndex, int maxLength ) throws QuicParsingException {
+        MaxStreamDataFrameImpl frame = new MaxStreamDataFrameImpl( FrameType.findByValue( frameType ) );
+        int bodyStart = data.position();
+        frame.setStreamId( decodeStreamId( "MAX_STREAM_DATA", containingPacket, data, frameIndex ) );
+        frame.setMaximumStreamData( decodeVariableLengthInteger( "MAX_STREAM_DATA Maximum Stream Data",
+                containingPacket, data, frameIndex ) );
+        checkNotExceeded( "MAX_STREAM_DATA", containingPacket, data, frameIndex, bodyStart, maxLength );
+        return frame;
+    }
+
+    private Frame parseMaxStreamsFrame( long frameType, Packet containingPacket,
+            ByteBuffer data, int frameIndex, int maxLength ) throws QuicParsingException {
+        MaxStreamsFrameImpl frame = new MaxStreamsFrameImpl( FrameType.findByValue( frameType ) );
+        int bodyStart = data.position();
+        VariableLengthInteger maximumStreams = decodeVariableLengthInteger( "MAX_STREAMS Maximum Streams",
+                containingPacket, data, frameIndex );
+        if ( maximumStreams.longValue() > MAX_STREAMS_LIMIT ) {
+            throw new MalformedFrameException( "MAX_STREAMS exceeds 2^60: " + maximumStreams.longValue(),
+                    containingPacket, data, frameIndex );
+        }
+        frame.setMaximumStreams( maximumStreams );
+        checkNotExceeded( "MAX_STREAMS", containingPacket, data, frameIndex, bodyStart, maxLength );
+        return frame;
+    }
+
+    private Frame parseDataBlockedFrame( long frameType, Packet containingPacket,
+            ByteBuffer data, int frameIndex, int maxLength ) throws QuicParsingException {
+        DataBlockedFrameImpl frame = new DataBlockedFrameImpl( FrameType.findByValue( frameType ) );
+        int bodyStart = data.position();
+        frame.setMaximumData( decodeVariableLengthInteger( "DATA_BLOCKED Maximum Data",
+                containingPacket, data, frameIndex ) );
+        checkNotExceeded( "DATA_BLOCKED", containingPacket, data, frameIndex, bodyStart, maxLength );
+        return frame;
+    }
+
+    private Frame parseStreamDataBlockedFrame( long frameType, Packet containingPacket,
+            ByteBuffer data, int frameIndex, int maxLength ) throws QuicParsingException {
+        StreamDataBlockedFrameImpl frame = new StreamDataBlockedFrameImpl( FrameType.findByValue( frameType ) );
+        int bodyStart = data.position();
+        frame.setStreamId( decodeStreamId( "STREAM_DATA_BLOCKED", containingPacket, data, frameIndex ) );
+        frame.setMaximumStreamData( decodeVariableLengthInteger( "STREAM_DATA_BLOCKED Maximum Stream Data",
+                containingPacket, data, frameIndex ) );
+        checkNotExceeded( "STREAM_DATA_BLOCKED", containingPacket, data, frameIndex, bodyStart, maxLength );
+        return frame;
+    }
+
+    private Frame parseStreamsBlockedFrame( long frameType, Packet containingPacket,
+            ByteBuffer data, int frameIndex, int maxLength ) throws QuicParsingException {
+        StreamsBlockedFrameImpl frame = new StreamsBlockedFrameImpl( FrameType.findByValue( frameType ) );
+        int bodyStart = data.position();
+        VariableLengthInteger maximumStreams = decodeVariableLengthInteger( "STREAMS_BLOCKED Maximum Streams",
+                containingPacket, data, frameIndex );
+        if ( maximumStreams.longValue() > MAX_STREAMS_LIMIT ) {
+            throw new MalformedFrameException( "STREAMS_BLOCKED exceeds 2^60: " + maximumStreams.longValue(),
+                    containingPacket, data, frameIndex );
+        }
+        frame.setMaximumStreams( maximumStreams );
+        checkNotExceeded( "STREAMS_BLOCKED", containingPacket, data, frameIndex, bodyStart, maxLength );
+        return frame;
+    }
+
+    private Frame parseNewConnectionIdFrame( long frameType, Packet containingPacket,
+            ByteBuffer data, int frameIndex, int maxLength ) throws QuicParsingException {
+        NewConnectionIdFrameImpl frame = new NewConnectionIdFrameImpl( FrameType.findByValue( frameType ) );
+        int bodyStart = data.position();
+        VariableLengthInteger sequenceNumber = decodeVariableLengthInteger( "NEW_CONNECTION_ID Sequence Number",
+                containingPacket, data, frameIndex );
+        VariableLengthInteger retirePriorTo = decodeVariableLengthInteger( "NEW_CONNECTION_ID Retire Prior To",
+                containingPacket, data, frameIndex );
+        /*
+        "The value in the Retire Prior To field MUST be less than or equal to
+        the value in the Sequence Number field.  Receiving a value greater
+        than the Sequence Number MUST be treated as a connection error of
+        type FRAME_ENCODING_ERROR."
+        Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-19.15
+         */
+        if ( retirePriorTo.compareTo( sequenceNumber ) > 0 ) {
+            throw new MalformedFrameException( "NEW_CONNECTION_ID Retire Prior To exceeds the Sequence Number",
+                    containingPacket, data, frameIndex );
+        }
+        if ( !data.hasRemaining() ) {
+            throw new MalformedFrameException( "NEW_CONNECTION_ID misses the Length",
+                    containingPacket, data, frameIndex );
+        }
+        int length = data.get() & 0xFF;
+        /*
+        "Values less than 1 and greater than 20 are invalid and MUST be
+        treated as a connection error of type FRAME_ENCODING_ERROR."
+        Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-19.15
+         */
+        if ( length < 1 || length > 20 ) {
+            throw new MalformedFrameException( "NEW_CONNECTION_ID Length out of bounds [1;20]: " + length,
+                    containingPacket, data, frameIndex );
+        }
+        byte[] connectionId = readBytes( "NEW_CONNECTION_ID", length, containingPacket, data, frameIndex,
+                bodyStart, maxLength );
+        byte[] statelessResetToken = readBytes( "NEW_CONNECTION_ID", 16, containingPacket, data, frameIndex,
+                bodyStart, maxLength );
+        frame.setSequenceNumber( sequenceNumber );
+        frame.setRetirePriorTo( retirePriorTo );
+        frame.setLength( length );
+        frame.setConnectionId( new ConnectionIdImpl( connectionId, sequenceNumber ) );
+        frame.setStatelessResetToken( new StatelessResetTokenImpl( statelessResetToken ) );
+        return frame;
+    }
+
+    private Frame parseRetireConnectionIdFrame( long frameType, Packet containingPacket,
+            ByteBuffer data, int frameIndex, int maxLength ) throws QuicParsingException {
+        RetireConnectionIdFrameImpl frame = new RetireConnectionIdFrameImpl( FrameType.findByValue( frameType ) );
+        int bodyStart = data.position();
+        frame.setSequenceNumber( decodeVariableLengthInteger( "RETIRE_CONNECTION_ID Sequence Number",
+                containingPacket, data, frameIndex ) );
+        checkNotExceeded( "RETIRE_CONNECTION_ID", containingPacket, data, frameIndex, bodyStart, maxLength );
+        return frame;
+    }
+
+    private Frame parsePathChallengeFrame( long frameType, Packet containingPacket,
+            ByteBuffer data, int frameIndex, int maxLength ) throws QuicParsingException {
+        PathChallangeFrameImpl frame = new PathChallangeFrameImpl( FrameType.findByValue( frameType ) );
+        frame.setData( readBytes( "PATH_CHALLENGE", 8, containingPacket, data, frameIndex,
+                data.position(), maxLength ) );
+        return frame;
+    }
+
+    private Frame parsePathResponseFrame( long frameType, Packet containingPacket,
+            ByteBuffer data, int frameIndex, int maxLength ) throws QuicParsingException {
+        PathResponseFrameImpl frame = new PathResponseFrameImpl( FrameType.findByValue( frameType ) );
+        frame.setData( readBytes( "PATH_RESPONSE", 8, containingPacket, data, frameIndex,
+                data.position(), maxLength ) );
+        return frame;
+    }
+
+    private Frame parseConnectionCloseFrame( long frameType, Packet containingPacket,
+            ByteBuffer data, int frameIndex, int maxLength ) throws QuicParsingException {
+        ConnectionCloseFrameImpl frame = new ConnectionCloseFrameImpl( FrameType.findByValue( frameType ) );
+        int bodyStart = data.position();
+        frame.setErrorCode( decodeVariableLengthInteger( "CONNECTION_CLOSE Error Code",
+                containingPacket, data, frameIndex ) );
+        if ( frame.hasFrameTypeField() ) {
+            frame.setFrameType( decodeVariableLengthInteger( "CONNECTION_CLOSE Frame Type",
+                    containingPacket, data, frameIndex ) );
+        }
+        VariableLengthInteger reasonPhraseLength = decodeVariableLengthInteger(
+                "CONNECTION_CLOSE Reason Phrase Length", containingPacket, data, frameIndex );
+        frame.setReasonPhraseLength( reasonPhraseLength );
+        frame.setReasonPhrase( readBytes( "CONNECTION_CLOSE", reasonPhraseLength.longValue(),
+                containingPacket, data, frameIndex, bodyStart, maxLength ) );
+        return frame;
+    }
+
+    private Frame parseHandshakeDoneFrame( long frameType, Packet containingPacket,
+            ByteBuffer data, int frameIndex, int maxLength ) {
+        return new HandshakeDoneFrameImpl( FrameType.findByValue( frameType ) );
+    }
+
+    // </editor-fold>
+
+    // <editor-fold desc="Field Decoding Helpers">
+
+    /**
+     * @return the number of bytes that the frame body may still take, bounded by the buffers remaining bytes
+     */
+    private static int remaining( ByteBuffer data, int bodyStart, int maxLength ) {
+        return Math.min( data.remaining(), maxLength - ( data.position() - bodyStart ) );
+    }
+
+    private static long decodeField( String fieldName, Packet containingPacket,
+            ByteBuffer data, int frameIndex ) throws MalformedFrameException {
+        long value = VariableLengthIntegerEncoder.decode( data );
+        if ( value < 0 ) {
+            throw new MalformedFrameException( fieldName + " is no valid VariableLengthInteger",
+                    containingPacket, data, frameIndex );
+        }
+        return value;
+    }
+
+    private static VariableLengthInteger decodeVariableLengthInteger( String fieldName, Packet containingPacket,
+            ByteBuffer data, int frameIndex ) throws MalformedFrameException {
+        return new VariableLengthInteger( decodeField( fieldName, containingPacket, data, frameIndex ) );
+    }
+
+    private static StreamId decodeStreamId( String frameName, Packet containingPacket,
+            ByteBuffer data, int frameIndex ) throws MalformedFrameException {
+        return new StreamIdImpl( decodeVariableLengthInteger( frameName + " Stream ID",
+                containingPacket, data, frameIndex ) );
+    }
+
+    private static byte[] readBytes( String frameName, long length, Packet containingPacket,
+            ByteBuffer data, int frameIndex, int bodyStart, int maxLength ) throws MalformedFrameException {
+        if ( length > remaining( data, bodyStart, maxLength ) ) {
+            throw new MalformedFrameException( frameName + " frames length states more bytes than contained " +
+                    "in the packet:" +
                     " length=" + length +
                     ", maxLength=" + maxLength,
                     containingPacket, data, frameIndex );
         }
-        byte[] cryptoData = new byte[(int)length];
-        data.get( cryptoData );
-        frame.setOffset( new VariableLengthInteger( offset ) );
-        frame.setLength( new VariableLengthInteger( length ) );
-        frame.setCryptoData( cryptoData );
+        byte[] bytes = new byte[(int)length];
+        data.get( bytes );
+        return bytes;
     }
 
+    private static void checkNotExceeded( String frameName, Packet containingPacket,
+            ByteBuffer data, int frameIndex, int bodyStart, int maxLength ) throws MalformedFrameException {
+        if ( data.position() - bodyStart > maxLength ) {
+            throw new MalformedFrameException( frameName + " frame exceeds the packet", containingPacket, data,
+                    frameIndex );
+        }
+    }
 
+    // </editor-fold>
 }
@@ -0,0 +1,27 @@
+package com.timtrense.quic.impl;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import lombok.NonNull;
+
+import com.timtrense.quic.Frame;
+
+/**
+ * Serialization algorithm for frames within a packet
+ *
+ * @author Tim Trense
+ */
+public interface FrameSerializer {
+
+    /**
+     * Serializes one frame into the given buffer.
+     * The number of bytes written equals {@link Frame#getFrameLength()}.
+     *
+     * @param frame  a {@link Frame#isValid() valid} frame
+     * @param buffer the target, positioned where the frame should be written
+     * @return the number of bytes written
+     * @throws BufferOverflowException  if the buffer has not enough space remaining
+     * @throws IllegalArgumentException if the frame type is unknown to this serializer
+     */
+    int serializeFrame( @NonNull Frame frame, @NonNull ByteBuffer buffer );
+}
@@ -0,0 +1,318 @@
+package com.timtrense.quic.impl;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import lombok.NonNull;
+
+import com.timtrense.quic.EcnCount;
+import com.timtrense.quic.ExtensionFrame;
+import com.timtrense.quic.Frame;
+import com.timtrense.quic.FrameType;
+import com.timtrense.quic.VariableLengthInteger;
+import com.timtrense.quic.impl.base.PacketNumberRangeSet;
+import com.timtrense.quic.impl.base.VariableLengthIntegerEncoder;
+import com.timtrense.quic.impl.frames.AckFrameImpl;
+import com.timtrense.quic.impl.frames.ConnectionCloseFrameImpl;
+import com.timtrense.quic.impl.frames.CryptoFrameImpl;
+import com.timtrense.quic.impl.frames.DataBlockedFrameImpl;
+import com.timtrense.quic.impl.frames.MaxDataFrameImpl;
+import com.timtrense.quic.impl.frames.MaxStreamDataFrameImpl;
+import com.timtrense.quic.impl.frames.MaxStreamsFrameImpl;
+import com.timtrense.quic.impl.frames.NewConnectionIdFrameImpl;
+import com.timtrense.quic.impl.frames.NewTokenFrameImpl;
+import com.timtrense.quic.impl.frames.PathChallangeFrameImpl;
+import com.timtrense.quic.impl.frames.PathResponseFrameImpl;
+import com.timtrense.quic.impl.frames.ResetStreamFrameImpl;
+import com.timtrense.quic.impl.frames.RetireConnectionIdFrameImpl;
+import com.timtrense.quic.impl.frames.StopSendingFrameImpl;
+import com.timtrense.quic.impl.frames.StreamDataBlockedFrameImpl;
+import com.timtrense.quic.impl.frames.StreamFrameImpl;
+import com.timtrense.quic.impl.frames.StreamsBlockedFrameImpl;
+
+/**
+ * Serialization algorithm for frames within a packet.
+ * <p>
+ * The serializer dispatches on the frame type through a table of {@link FrameTypeSerializer serializers} that is
+ * indexed by the value of the frame type, mirroring the {@link FrameParserImpl}.
+ * Serializers for {@link ExtensionFrame extension frames} may be registered using
+ * {@link #registerExtensionFrameSerializer(long, FrameTypeSerializer)}.
+ *
+ * @author Tim Trense
+ */
+public class FrameSerializerImpl implements FrameSerializer {
+
+    /**
+     * serializers indexed by the value of the frame type they serialize
+     */
+    private FrameTypeSerializer[] dispatchTable;
+
+    /**
+     * serializers for frame types larger than {@link FrameParserImpl#MAX_INDEXED_FRAME_TYPE}
+     */
+    private final Map<Long, FrameTypeSerializer> largeFrameTypeSerializers = new HashMap<>();
+
+    /**
+     * Creates a new serializer with all core frame types being registered
+     */
+    public FrameSerializerImpl() {
+        this.dispatchTable = new FrameTypeSerializer[FrameType.values().length];
+        registerCoreFrameSerializers();
+    }
+
+    @Override
+    public int serializeFrame( @NonNull Frame frame, @NonNull ByteBuffer buffer ) {
+        long frameTypeRaw;
+        if ( frame instanceof ExtensionFrame ) {
+            frameTypeRaw = ( (ExtensionFrame)frame ).getFrameTypeValue();
+        }
+        else {
+            frameTypeRaw = frame.getType().getLongValue();
+        }
+        FrameTypeSerializer serializer = findFrameTypeSerializer( frameTypeRaw );
+        if ( serializer == null ) {
+            throw new IllegalArgumentException( "Unknown Frame Type: " + frameTypeRaw );
+        }
+        int start = buffer.position();
+        VariableLengthIntegerEncoder.encode( frameTypeRaw, buffer );
+        serializer.serializeFrameBody( frame, buffer );
+        return buffer.position() - start;
+    }
+
+    /**
+     * Registers the serializer for an extension frame type.
+     * A previously registered serializer for that frame type gets replaced.
+     * <p>
+     * This method is not thread-safe. Serializers should be registered before serializing the first frame.
+     *
+     * @param frameType  the raw value of the extension frame type
+     * @param serializer the serializer in charge of that frame type
+     * @throws IllegalArgumentException if the frame type is a core frame type or cannot be encoded as a
+     *                                  variable-length integer
+     */
+    public void registerExtensionFrameSerializer( long frameType, @NonNull FrameTypeSerializer serializer ) {
+        if ( FrameType.findByValue( frameType ) != null ) {
+            throw new IllegalArgumentException( "Cannot replace the serializer of a core Frame Type: " + frameType );
+        }
+        if ( VariableLengthIntegerEncoder.getLengthInBytes( frameType ) == 0 ) {
+            throw new IllegalArgumentException( "Cannot register a Frame Type that is not encodable as a "
+                    + "VariableLengthInteger: " + frameType );
+        }
+        registerFrameTypeSerializer( frameType, serializer );
+    }
+
+    /**
+     * @param frameType the raw value of the frame type
+     * @return the serializer in charge or null if that frame type is unknown
+     */
+    public FrameTypeSerializer findFrameTypeSerializer( long frameType ) {
+        if ( frameType < 0 ) {
+            return null;
+        }
+        if ( frameType < dispatchTable.length ) {
+            return dispatchTable[(int)frameType];
+        }
+        if ( frameType <= FrameParserImpl.MAX_INDEXED_FRAME_TYPE || largeFrameTypeSerializers.isEmpty() ) {
+            return null;
+        }
+        return largeFrameTypeSerializers.get( frameType );
+    }
+
+    private void registerFrameTypeSerializer( long frameType, FrameTypeSerializer serializer ) {
+        if ( frameType > FrameParserImpl.MAX_INDEXED_FRAME_TYPE ) {
+            largeFrameTypeSerializers.put( frameType, serializer );
+            return;
+        }
+        if ( frameType >= dispatchTable.length ) {
+            dispatchTable = Arrays.copyOf( dispatchTable, (int)frameType + 1 );
+        }
+        dispatchTable[(int)frameType] = serializer;
+    }
+
+    private void registerCoreFrameSerializers() {
+        for ( FrameType frameType : FrameType.values() ) {
+            FrameTypeSerializer serializer;
+            switch ( frameType.getGeneralType() ) {
+                case PADDING:
+                    serializer = this::serializePaddingFrame;
+                    break;
+                case PING:
+                    serializer = this::serializePingFrame;
+                    break;
+                case ACK:
+                    serializer = this::serializeAckFrame;
+                    break;
+                case RESET_STREAM:
+                    serializer = this::serializeResetStreamFrame;
+                    break;
+                case STOP_SENDING:
+                    serializer = this::serializeStopSendingFrame;
+                    break;
+                case CRYPTO:
+                    serializer = this::serializeCryptoFrame;
+                    break;
+                case NEW_TOKEN:
+                    serializer = this::serializeNewTokenFrame;
+                    break;
+                case STREAM:
+                    serializer = this::serializeStreamFrame;
+                    break;
+                case MAX_DATA:
+                    serializer = ( f, b ) -> encode( ( (MaxDataFrameImpl)f ).getMaximumData(), b );
+                    break;
+                case MAX_STREAM_DATA:
+                    serializer = this::serializeMaxStreamDataFrame;
+                    break;
+                case MAX_STREAMS:
+                    serializer = ( f, b ) -> encode( ( (MaxStreamsFrameImpl)f ).getMaximumStreams(), b );
+                    break;
+                case DATA_BLOCKED:
+                    serializer = ( f, b ) -> encode( ( (DataBlockedFrameImpl)f ).getMaximumData(), b );
+                    break;
+                case STREAM_DATA_BLOCKED:
+                    serializer = this::serializeStreamDataBlockedFrame;
+                    break;
+                case STREAMS_BLOCKED:
+                    serializer = ( f, b ) -> encode( ( (StreamsBlockedFrameImpl)f ).getMaximumStreams(), b );
+                    break;
+                case NEW_CONNECTION_ID:
+                    serializer = this::serializeNewConnectionIdFrame;
+                    break;
+                case RETIRE_CONNECTION_ID:
+                    serializer = ( f, b ) -> encode( ( (RetireConnectionIdFrameImpl)f ).getSequenceNumber(), b );
+                    break;
+                case PATH_CHALLENGE:
+                    serializer = ( f, b ) -> b.put( ( (PathChallangeFrameImpl)f ).getData() );
+                    break;
+                case PATH_RESPONSE:
+                    serializer = ( f, b ) -> b.put( ( (PathResponseFrameImpl)f ).getData() );
+                    break;
+                case CONNECTION_CLOSE:
+                    serializer = this::serializeConnectionCloseFrame;
+                    break;
+                case HANDSHAKE_DONE:
+                    // a HANDSHAKE_DONE frame contains no additional fields
+                    serializer = ( f, b ) -> {};
+                    break;
+                default:
+                    throw new IllegalStateException( "No serializer for Frame Type: " + frameType );
+            }
+            registerFrameTypeSerializer( frameType.getLongValue(), serializer );
+        }
+    }
+
+    // <editor-fold desc="Core Frame Serializers">
+
+    private void serializePaddingFrame( Frame frame, ByteBuffer buffer ) {
+        // the frame type already was the first padding byte
+        for ( long i = frame.getFrameLength(); i > 1; i-- ) {
+            buffer.put( (byte)0x00 );
+        }
+    }
+
+    private void serializePingFrame( Frame frame, ByteBuffer buffer ) {
+        // a PING frame contains no additional fields
+    }
+
+    private void serializeAckFrame( Frame f, ByteBuffer buffer ) {
+        AckFrameImpl frame = (AckFrameImpl)f;
+        PacketNumberRangeSet ranges = frame.getAcknowledgedRanges();
+        VariableLengthIntegerEncoder.encode( ranges.getLargest(), buffer );
+        VariableLengthIntegerEncoder.encode( frame.getDelay(), buffer );
+        VariableLengthIntegerEncoder.encode( frame.getRangeCount(), buffer );
+        VariableLengthIntegerEncoder.encode( frame.getFirstAcknowledgedRange(), buffer );
+        for ( int i = 1; i < ranges.getRangeCount(); i++ ) {
+            // Gap: number of unacknowledged packets preceding the smallest of the previous range, minus one
+            VariableLengthIntegerEncoder.encode( ranges.getSmallest( i - 1 ) - ranges.getLargest( i ) - 2, buffer );
+            VariableLengthIntegerEncoder.encode( ranges.getLargest( i ) - ranges.getSmallest( i ), buffer );
+        }
+        if ( frame.isEcnBitSet() ) {
+            EcnCount ecnCount = frame.getEcnCounts().get( 0 );
+            VariableLengthIntegerEncoder.encode( ecnCount.getEct0Count().longValue(), buffer );
+            VariableLengthIntegerEncoder.encode( ecnCount.getEct1Count().longValue(), buffer );
+            VariableLengthIntegerEncoder.encode( ecnCount.getEcnCeCount().longValue(), buffer );
+        }
+    }
+
+    private void serializeResetStreamFrame( Frame f, ByteBuffer buffer ) {
+        ResetStreamFrameImpl frame = (ResetStreamFrameImpl)f;
+        encode( frame.getStreamId().getValue(), buffer );
+        encode( frame.getApplicationProtocolErrorCode(), buffer );
+        encode( frame.getFinalSize(), buffer );
+    }
+
+    private void serializeStopSendingFrame( Frame f, ByteBuffer buffer ) {
+        StopSendingFrameImpl frame = (StopSendingFrameImpl)f;
+        encode( frame.getStreamId().getValue(), buffer );
+        encode( frame.getApplicationProtocolErrorCode(), buffer );
+    }
+
+    private void serializeCryptoFrame( Frame f, ByteBuffer buffer ) {
+        CryptoFrameImpl frame = (CryptoFrameImpl)f;
+        encode( frame.getOffset(), buffer );
+        encode( frame.getLength(), buffer );
+        buffer.put( frame.getCryptoData() );
+    }
+
+    private void serializeNewTokenFrame( Frame f, ByteBuffer buffer ) {
+        NewTokenFrameImpl frame = (NewTokenFrameImpl)f;
+        encode( frame.getTokenLength(), buffer );
+        buffer.put( frame.getToken() );
+    }
+
+    private void serializeStreamFrame( Frame f, ByteBuffer buffer ) {
+        StreamFrameImpl frame = (StreamFrameImpl)f;
+        encode( frame.getStreamId().getValue(), buffer );
+        if ( frame.isOffsetBitSet() ) {
+            encode( frame.getOffset(), buffer );
+        }
+        if ( frame.isLengthBitSet() ) {
+            encode( frame.getLength(), buffer );
+        }
+        // without the length field, the data extends to the end of the packet
+        if ( frame.getData() != null ) {
+            buffer.put( frame.getData() );
+        }
+        else {
+            buffer.put( frame.getDataBuffer().duplicate() );
+        }
+    }
+
+    private void serializeMaxStreamDataFrame( Frame f, ByteBuffer buffer ) {
+        MaxStreamDataFrameImpl frame = (MaxStreamDataFrameImpl)f;
+        encode( frame.getStreamId().getValue(), buffer );
+        encode( frame.getMaximumStreamData(), buffer );
+    }
+
+    private void serializeStreamDataBlockedFrame( Frame f, ByteBuffer buffer ) {
+        StreamDataBlockedFrameImpl frame = (StreamDataBlockedFrameImpl)f;
+        encode( frame.getStreamId().getValue(), buffer );
+        encode( frame.getMaximumStreamData(), buffer );
+    }
+
+    private void serializeNewConnectionIdFrame( Frame f, ByteBuffer buffer ) {
+        NewConnectionIdFrameImpl frame = (NewConnectionIdFrameImpl)f;
+        encode( frame.getSequenceNumber(), buffer );
+        encode( frame.getRetirePriorTo(), buffer );
+        buffer.put( (byte)frame.getLength() );
+        buffer.put( frame.getConnectionId().getValue() );
+        buffer.put( frame.getStatelessResetToken().getValue() );
+    }
+
+    private void serializeConnectionCloseFrame( Frame f, ByteBuffer buffer ) {
+        ConnectionCloseFrameImpl frame = (ConnectionCloseFrameImpl)f;
+        encode( frame.getErrorCode(), buffer );
+        if ( frame.hasFrameTypeField() ) {
+            encode( frame.getFrameType(), buffer );
+        }
+        encode( frame.getReasonPhraseLength(), buffer );
+        buffer.put( frame.getReasonPhrase() );
+    }
+
+    // </editor-fold>
+
+    private static void encode( VariableLengthInteger value, ByteBuffer buffer ) {
+        VariableLengthIntegerEncoder.encode( value.longValue(), buffer );
+    }
+}
@@ -0,0 +1,40 @@
+package com.timtrense.quic.impl;
+
+import java.nio.ByteBuffer;
+import lombok.NonNull;
+
+import com.timtrense.quic.ExtensionFrame;
+import com.timtrense.quic.Frame;
+import com.timtrense.quic.Packet;
+import com.timtrense.quic.impl.exception.QuicParsingException;
+
+/**
+ * Parsing algorithm for the body of exactly one type of frame.
+ * Instances are registered within the dispatch table of a {@link FrameParserImpl},
+ * which is indexed by the value of the frame type.
+ * {@link ExtensionFrame Extension frames} are supported by registering a parser for their frame type value.
+ *
+ * @author Tim Trense
+ */
+@FunctionalInterface
+public interface FrameTypeParser {
+
+    /**
+     * Parses the frame body, that is all fields following the frame type
+     *
+     * @param frameType        the raw value of the already parsed frame type
+     * @param containingPacket the packet containing that frame
+     * @param data             the data of the packet payload, positioned right after the frame type
+     * @param frameIndex       the index of the frame within the packet
+     * @param maxLength        the remaining length of the packet, that this frames body could take at most
+     * @return a parsed, valid frame, never null
+     * @throws QuicParsingException if any parsing error occurs
+     */
+    Frame parseFrameBody(
+            long frameType,
+            @NonNull Packet containingPacket,
+            @NonNull ByteBuffer data,
+            int frameIndex,
+            int maxLength )
+            throws QuicParsingException;
+}
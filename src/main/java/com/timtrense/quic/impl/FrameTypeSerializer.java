@@ -0,0 +1,28 @@
+package com.timtrense.quic.impl;
+
+import java.nio.ByteBuffer;
+import lombok.NonNull;
+
+import com.timtrense.quic.ExtensionFrame;
+import com.timtrense.quic.Frame;
+
+/**
+ * Serialization algorithm for the body of exactly one type of frame.
+ * Instances are registered within the dispatch table of a {@link FrameSerializerImpl},
+ * which is indexed by the value of the frame type.
+ * {@link ExtensionFrame Extension frames} are supported by registering a serializer for their frame type value.
+ *
+ * @author Tim Trense
+ * @see FrameTypeParser
+ */
+@FunctionalInterface
+public interface FrameTypeSerializer {
+
+    /**
+     * Serializes the frame body, that is all fields following the frame type
+     *
+     * @param frame  the frame to serialize
+     * @param buffer the target, positioned right after the already written frame type
+     */
+    void serializeFrameBody( @NonNull Frame frame, @NonNull ByteBuffer buffer );
+}
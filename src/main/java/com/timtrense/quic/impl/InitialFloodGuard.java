@@ -0,0 +1,181 @@
+package com.timtrense.quic.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * Decides whether a server requires clients to validate their address with a Retry packet before it spends
+ * any key derivation or connection state on their Initial packets.
+ * <p>
+ * "A server can also use a Retry packet to defer the state and
+ * processing costs of connection establishment. Requiring the server
+ * to provide a different connection ID, along with the
+ * original_destination_connection_id transport parameter defined in
+ * Section 18.2, forces the server to demonstrate that it, or an entity
+ * it cooperates with, received the original Initial packet from the
+ * client. Providing a different connection ID also grants a server
+ * some control over how subsequent packets are routed. This can be
+ * used to direct connections to a different server instance."
+ * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-8.1.2
+ * <p>
+ * In {@link RetryMode#AUTOMATIC automatic mode} Retry is required while either the rate of Initial packets
+ * without a valid token or the number of half-open connections exceeds its threshold. The rate is measured
+ * over a window of one second, weighting the previous window by its remaining share to avoid a burst at each
+ * window boundary.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author Tim Trense
+ */
+public class InitialFloodGuard {
+
+    /**
+     * the length of a window of measuring the rate of Initial packets
+     */
+    public static final long RATE_WINDOW_NANOS = 1_000_000_000L;
+
+    /**
+     * when to require Retry
+     */
+    @Getter
+    private final @NonNull RetryMode mode;
+    /**
+     * the number of Initial packets per second above which Retry is required in {@link RetryMode#AUTOMATIC}
+     */
+    @Getter
+    private final int initialRateThreshold;
+    /**
+     * the number of half-open connections above which Retry is required in {@link RetryMode#AUTOMATIC}
+     */
+    @Getter
+    private final int halfOpenConnectionThreshold;
+    /**
+     * the start of the current rate window in nanoseconds
+     */
+    private final AtomicLong windowStart = new AtomicLong( Long.MIN_VALUE );
+    /**
+     * the number of Initial packets counted within the current rate window
+     */
+    private final AtomicInteger currentWindowCount = new AtomicInteger();
+    /**
+     * the number of Initial packets counted within the previous rate window
+     */
+    private volatile int previousWindowCount;
+    /**
+     * the number of connections that were accepted but did not complete their handshake yet
+     */
+    private final AtomicInteger halfOpenConnections = new AtomicInteger();
+
+    /**
+     * @param mode                        {@link #getMode()}
+     * @param initialRateThreshold        {@link #getInitialRateThreshold()}
+     * @param halfOpenConnectionThreshold {@link #getHalfOpenConnectionThreshold()}
+     */
+    public InitialFloodGuard( @NonNull RetryMode mode, int initialRateThreshold, int halfOpenConnectionThreshold ) {
+        if ( initialRateThreshold <= 0 || halfOpenConnectionThreshold <= 0 ) {
+            throw new IllegalArgumentException( "Cannot set a non-positive threshold for an InitialFloodGuard" );
+        }
+        this.mode = mode;
+        this.initialRateThreshold = initialRateThreshold;
+        this.halfOpenConnectionThreshold = halfOpenConnectionThreshold;
+    }
+
+    /**
+     * @param configuration the configuration to take the mode and thresholds from
+     */
+    public InitialFloodGuard( @NonNull EndpointConfiguration configuration ) {
+        this( configuration.getRetryMode(), configuration.getRetryInitialRateThreshold(),
+                configuration.getRetryHalfOpenConnectionThreshold() );
+    }
+
+    /**
+     * Counts an Initial packet that carried no valid token and checks whether it must be answered with Retry
+     *
+     * @param nowNanos the current time, as given by {@link System#nanoTime()}
+     * @return true if the packet must be answered with a Retry packet instead of being processed
+     */
+    public boolean onInitialPacket( long nowNanos ) {
+        switch ( mode ) {
+            case NEVER:
+                return false;
+            case ALWAYS:
+                return true;
+            default:
+                break;
+        }
+        rollWindow( nowNanos );
+        currentWindowCount.incrementAndGet();
+        return isRetryRequired( nowNanos );
+    }
+
+    /**
+     * Checks whether Initial packets without a valid token must currently be answered with Retry
+     *
+     * @param nowNanos the current time, as given by {@link System#nanoTime()}
+     * @return true if Retry is required
+     */
+    public boolean isRetryRequired( long nowNanos ) {
+        switch ( mode ) {
+            case NEVER:
+                return false;
+            case ALWAYS:
+                return true;
+            default:
+                return halfOpenConnections.get() > halfOpenConnectionThreshold
+                        || getInitialRate( nowNanos ) > initialRateThreshold;
+        }
+    }
+
+    /**
+     * @param nowNanos the current time, as given by {@link System#nanoTime()}
+     * @return the estimated number of Initial packets without a valid token within the last second
+     */
+    public long getInitialRate( long nowNanos ) {
+        rollWindow( nowNanos );
+        long elapsed = Math.max( 0, Math.min( RATE_WINDOW_NANOS, nowNanos - windowStart.get() ) );
+        double previousWeight = (double)( RATE_WINDOW_NANOS - elapsed ) / RATE_WINDOW_NANOS;
+        return currentWindowCount.get() + (long)( previousWindowCount * previousWeight );
+    }
+
+    /**
+     * Starts a new rate window if the current one elapsed
+     *
+     * @param nowNanos the current time, as given by {@link System#nanoTime()}
+     */
+    private void rollWindow( long nowNanos ) {
+        long start = windowStart.get();
+        if ( start != Long.MIN_VALUE && nowNanos - start < RATE_WINDOW_NANOS ) {
+            return;
+        }
+        if ( !windowStart.compareAndSet( start, nowNanos ) ) {
+            // another thread rolled the window concurrently
+            return;
+        }
+        int count = currentWindowCount.getAndSet( 0 );
+        // a window that lies further back than one window does not count anymore
+        previousWindowCount = ( start != Long.MIN_VALUE && nowNanos - start < 2 * RATE_WINDOW_NANOS ) ? count : 0;
+    }
+
+    /**
+     * Called when a server accepts a new connection, which is half-open until its handshake completes
+     */
+    public void onConnectionAccepted() {
+        halfOpenConnections.incrementAndGet();
+    }
+
+    /**
+     * Called when a half-open connection completes its handshake or is discarded before doing so
+     */
+    public void onHalfOpenConnectionClosed() {
+        halfOpenConnections.updateAndGet( count -> Math.max( 0, count - 1 ) );
+    }
+
+    /**
+     * @return the number of connections that were accepted but did not complete their handshake yet
+     */
+    public int getHalfOpenConnections() {
+        return halfOpenConnections.get();
+    }
+}
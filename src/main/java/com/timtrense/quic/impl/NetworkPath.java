@@ -0,0 +1,162 @@
+package com.timtrense.quic.impl;
+
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.Random;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+
+import com.timtrense.quic.impl.base.AmplificationLimit;
+import com.timtrense.quic.impl.recovery.CongestionController;
+import com.timtrense.quic.impl.recovery.RttEstimator;
+
+/**
+ * The state of a connection that is specific to one address of the peer: its RTT estimation, congestion control,
+ * validation and anti-amplification limit.
+ * <p>
+ * The state of a path is retained while the connection uses another one, so that returning to a recently
+ * used path, e.g. when a mobile client switches back from cellular to Wi-Fi, restores its congestion window
+ * and RTT estimation instead of starting anew.
+ * <p>
+ * This class is not thread-safe. It must only be used by the thread of the shard processing the connection.
+ *
+ * @author Tim Trense
+ * @see <a href="https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-9">QUIC Spec/Section 9</a>
+ */
+@Getter
+public class NetworkPath {
+
+    /**
+     * the length of the data of a PATH_CHALLENGE frame
+     */
+    public static final int CHALLENGE_LENGTH = 8;
+    /**
+     * The number of PATH_CHALLENGE frames to send before the validation of a path fails.
+     * Each frame carries new data, thus a PATH_RESPONSE to any of them validates the path.
+     */
+    public static final int MAX_CHALLENGES = 3;
+
+    /**
+     * the address of the peer on this path, null if not yet known
+     */
+    @Setter
+    private SocketAddress remoteAddress;
+    /**
+     * the estimation of the round-trip time on this path
+     */
+    private final @NonNull RttEstimator rttEstimator;
+    /**
+     * the limit of the sending rate on this path
+     */
+    @Setter
+    private @NonNull CongestionController congestionController;
+    /**
+     * the limit of data sent to the address before it is validated
+     */
+    private final @NonNull AmplificationLimit amplificationLimit;
+    private @NonNull PathValidationState validationState;
+    /**
+     * the data of the PATH_CHALLENGE frames sent during the current validation, the first
+     * {@link #getChallengesSent()} are valid
+     */
+    private final byte[][] challenges = new byte[MAX_CHALLENGES][];
+    /**
+     * the number of PATH_CHALLENGE frames sent during the current validation
+     */
+    private int challengesSent;
+    /**
+     * the time the validation started at, as given by {@link System#nanoTime()}
+     */
+    private long validationStartNanos;
+    /**
+     * the time this path became the active path of its connection, as given by {@link System#nanoTime()}
+     */
+    @Setter
+    private long activatedNanos;
+
+    /**
+     * @param remoteAddress        {@link #getRemoteAddress()}
+     * @param rttEstimator         {@link #getRttEstimator()}
+     * @param congestionController {@link #getCongestionController()}
+     * @param validated            whether the address is already known to be valid
+     */
+    public NetworkPath(
+            SocketAddress remoteAddress,
+            @NonNull RttEstimator rttEstimator,
+            @NonNull CongestionController congestionController,
+            boolean validated
+    ) {
+        this.remoteAddress = remoteAddress;
+        this.rttEstimator = rttEstimator;
+        this.congestionController = congestionController;
+        this.amplificationLimit = new AmplificationLimit( validated );
+        this.validationState = validated ? PathValidationState.VALIDATED : PathValidationState.UNVALIDATED;
+    }
+
+    /**
+     * @return true if the peer proved that it receives at the address of this path
+     */
+    public boolean isValidated() {
+        return validationState == PathValidationState.VALIDATED;
+    }
+
+    /**
+     * Starts or continues the validation by drawing the data of the next PATH_CHALLENGE frame to send
+     *
+     * @param random   the source to draw the data from, which must be unpredictable
+     * @param nowNanos the current time, as given by {@link System#nanoTime()}
+     * @return the data of the PATH_CHALLENGE frame, or null if {@link #MAX_CHALLENGES} were sent
+     */
+    public byte[] nextChallenge( @NonNull Random random, long nowNanos ) {
+        if ( validationState != PathValidationState.VALIDATING ) {
+            validationState = PathValidationState.VALIDATING;
+            validationStartNanos = nowNanos;
+            challengesSent = 0;
+        }
+        if ( challengesSent >= MAX_CHALLENGES ) {
+            return null;
+        }
+        byte[] data = new byte[CHALLENGE_LENGTH];
+        random.nextBytes( data );
+        challenges[challengesSent++] = data;
+        return data.clone();
+    }
+
+    /**
+     * Completes the validation if the data of a received PATH_RESPONSE frame matches a sent challenge
+     *
+     * @param data the data of the PATH_RESPONSE frame
+     * @return true if this path was validated by the response
+     */
+    public boolean onPathResponse( @NonNull byte[] data ) {
+        if ( validationState != PathValidationState.VALIDATING ) {
+            return false;
+        }
+        for ( int i = 0; i < challengesSent; i++ ) {
+            if ( Arrays.equals( challenges[i], data ) ) {
+                onValidated();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Marks this path as validated, e.g. because the peer echoed a challenge or completed the handshake on it
+     */
+    public void onValidated() {
+        validationState = PathValidationState.VALIDATED;
+        amplificationLimit.onAddressValidated();
+        Arrays.fill( challenges, null );
+        challengesSent = 0;
+    }
+
+    /**
+     * Abandons the validation, because no matching PATH_RESPONSE arrived in time
+     */
+    public void onValidationFailed() {
+        validationState = PathValidationState.FAILED;
+        Arrays.fill( challenges, null );
+    }
+}
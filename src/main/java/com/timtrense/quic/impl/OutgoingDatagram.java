@@ -0,0 +1,46 @@
+package com.timtrense.quic.impl;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * A datagram that is about to be sent. Instances are pooled by an {@link OutgoingDatagramPool} and
+ * thus reused for many datagrams.
+ *
+ * @author Tim Trense
+ */
+@ToString
+public class OutgoingDatagram {
+
+    /**
+     * The heap buffer holding the datagram. While being assembled its position marks the end of the written data,
+     * when being queued for sending it is flipped to be read from.
+     */
+    @Getter
+    private final @NonNull ByteBuffer buffer;
+    /**
+     * the address of the peer to send to
+     */
+    @Getter
+    @Setter
+    private SocketAddress destination;
+
+    /**
+     * @param maxDatagramSize the maximum number of bytes this datagram may hold
+     */
+    public OutgoingDatagram( int maxDatagramSize ) {
+        this.buffer = ByteBuffer.allocate( maxDatagramSize );
+    }
+
+    /**
+     * Prepares this datagram for being assembled again
+     */
+    public void reset() {
+        buffer.clear();
+        destination = null;
+    }
+}
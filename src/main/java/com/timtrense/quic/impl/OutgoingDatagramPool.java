@@ -0,0 +1,74 @@
+package com.timtrense.quic.impl;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import lombok.Getter;
+
+/**
+ * A pool of {@link OutgoingDatagram outgoing datagrams} that holds datagrams that are yet to be assembled
+ * while accepting to {@link #giveBack(OutgoingDatagram) give back} datagrams that were sent.
+ *
+ * @author Tim Trense
+ * @see DatagramPool
+ */
+public class OutgoingDatagramPool {
+
+    /**
+     * The INTERNAL queue to poll free datagrams from
+     */
+    private final LinkedBlockingQueue<OutgoingDatagram> pool;
+
+    /**
+     * The maximum number of bytes that a datagram may contain, thus the capacity of the allocated buffer
+     */
+    @Getter
+    private final int maxDatagramSize;
+
+    /**
+     * Creates a new pool that holds datagrams that all have exactly maxDatagramSize bytes of buffer
+     *
+     * @param poolSizeLimit   the maximum number of simultaneously hold datagrams in the pool.
+     *                        Any more given back datagrams will be discarded.
+     * @param maxDatagramSize {@link #maxDatagramSize}
+     */
+    public OutgoingDatagramPool( int poolSizeLimit, int maxDatagramSize ) {
+        if ( maxDatagramSize <= 0 ) {
+            throw new IllegalArgumentException( "Cannot set a non-positive maxDatagramSize" );
+        }
+        this.pool = new LinkedBlockingQueue<>( poolSizeLimit );
+        this.maxDatagramSize = maxDatagramSize;
+    }
+
+    /**
+     * polls an {@link OutgoingDatagram} from the queue if available, otherwise creates one.
+     *
+     * @return a cleared datagram, never null
+     */
+    public OutgoingDatagram take() {
+        OutgoingDatagram datagram = pool.poll();
+        if ( datagram == null ) {
+            return new OutgoingDatagram( maxDatagramSize );
+        }
+        return datagram;
+    }
+
+    /**
+     * @return the limit on the size if the buffering queue of datagrams
+     */
+    public int getPoolSizeLimit() {
+        return pool.size() + pool.remainingCapacity();
+    }
+
+    /**
+     * Returns a datagram to the pool after it was sent
+     *
+     * @param datagram the datagram to reuse
+     * @return true if the datagram was taken back, false if it was discarded
+     */
+    public boolean giveBack( OutgoingDatagram datagram ) {
+        if ( datagram.getBuffer().capacity() != maxDatagramSize ) {
+            return false;
+        }
+        datagram.reset();
+        return pool.offer( datagram );
+    }
+}
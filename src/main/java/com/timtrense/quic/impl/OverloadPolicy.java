@@ -0,0 +1,35 @@
+package com.timtrense.quic.impl;
+
+/**
+ * What an internal thread does with an item that it cannot offer to a full queue
+ *
+ * @author Tim Trense
+ * @see QueueOverloadHandler
+ */
+public enum OverloadPolicy {
+
+    /**
+     * Stop the offering thread with an error state, as the queue is considered to be stalled for good.
+     * This is the only policy that waits for the full block timeout before it applies
+     */
+    FAIL,
+
+    /**
+     * Drop the item that could not be offered
+     */
+    DROP_NEWEST,
+
+    /**
+     * Drop the oldest item in the queue to make room for the new one, as a peer retransmitting the dropped data
+     * would likely have sent newer data meanwhile
+     */
+    DROP_OLDEST,
+
+    /**
+     * Drop items that would open new connections, being the new item or else an older one in the queue,
+     * and keep items for existing connections. If there is no such item, drop the new one.
+     * New connections are re-attempted by their clients, while the loss of a packet of an established
+     * connection shrinks its congestion window.
+     */
+    SHED_NEW_CONNECTIONS
+}
@@ -34,4 +34,9 @@ Packet parsePacket(
      * @return the frame parser in charge
      */
     FrameParser getFrameParser();
+
+    /**
+     * @return the context in which parsing happens
+     */
+    ParsingContext getContext();
 }
@@ -22,6 +22,7 @@
 import com.timtrense.quic.impl.base.PacketNumberEncoder;
 import com.timtrense.quic.impl.base.PacketNumberImpl;
 import com.timtrense.quic.impl.base.VariableLengthIntegerEncoder;
+import com.timtrense.quic.impl.exception.DroppedPacketException;
 import com.timtrense.quic.impl.exception.MalformedDatagramException;
 import com.timtrense.quic.impl.exception.MalformedPacketException;
 import com.timtrense.quic.impl.exception.OutOfOrderProtectedPacketException;
@@ -131,6 +132,8 @@ public InitialPacketImpl parseInitialPacket( ReceivedDatagram datagram, byte fla
             throws QuicParsingException {
         InitialPacketImpl initialPacket = new InitialPacketImpl();
         initialPacket.setVersion( protocolVersion );
+        // the flags and the version were already read
+        int packetStart = remainingData.position() - 5;
 
         // ===== PARSE HEADER =====
 
@@ -177,8 +180,18 @@ public InitialPacketImpl parseInitialPacket( ReceivedDatagram datagram, byte fla
         initialPacket.setTokenLength( tokenLength );
 
         // TOKEN
+        if ( tokenLength.longValue() > remainingData.remaining() ) {
+            throw new MalformedPacketException( "Token exceeds the datagram: " + tokenLength,
+                    datagram, remainingData, packetIndex );
+        }
         byte[] token = new byte[tokenLength.intValue()];
-        initialPacket.setToken(remainingData.get( token ).array());
+        remainingData.get( token );
+        initialPacket.setToken( token );
+
+        // decide before the costly key derivation whether this packet is worth it
+        if ( !context.isInitialPacketAdmitted( datagram, protocolVersion, dstConnIdImpl, srcConnIdImpl, token ) ) {
+            throw new DroppedPacketException( "Initial packet not admitted", datagram );
+        }
 
         // LENGTH
         /*
@@ -249,7 +262,8 @@ length integer (Section 16)."
         //   header, up to and including the unprotected packet number."
         // Quote from https://tools.ietf.org/html/draft-ietf-quic-tls-32#section-5.3
 
-        int initialHeaderLength = (int)initialPacket.getHeaderLength();
+        // measured rather than computed, because the Length field may use a longer encoding than necessary
+        int initialHeaderLength = remainingData.position() - packetStart;
         byte[] associatedData = new byte[initialHeaderLength];
         // copy protected header from the received input
         System.arraycopy( remainingData.array(), remainingData.position() - initialHeaderLength,
@@ -278,6 +292,10 @@ length integer (Section 16)."
         List<Frame> frames = frameParser.parseFrames( initialPacket, payloadBuffer, payload.length );
         initialPacket.setPayload( frames );
 
+        if ( !context.onInitialPacketDecrypted( datagram, initialPacket ) ) {
+            throw new DroppedPacketException( "Initial packet refused", datagram );
+        }
+
         return initialPacket;
     }
 }
@@ -1,5 +1,6 @@
 package com.timtrense.quic.impl;
 
+import java.security.GeneralSecurityException;
 import lombok.NonNull;
 
 /**
@@ -28,4 +29,45 @@ public interface PacketProtection {
     default byte[] deriveHeaderProtectionMask( @NonNull byte[] sample ) {
         return deriveHeaderProtectionMask( sample, 0, sample.length );
     }
+
+    /**
+     * "These cipher suites have a 16-byte authentication tag and produce an
+     * output 16 bytes larger than their input."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-tls-32#section-5.3
+     *
+     * @return the number of bytes the authentication tag adds to each protected payload
+     */
+    default int getAeadTagLength() {
+        return 16;
+    }
+
+    /**
+     * Protects a fully serialized packet in place, that is encrypting its payload, appending the authentication tag
+     * and finally applying header protection to the flags and the packet number.
+     * <p>
+     * The header, from the first byte up to and including the unprotected packet number, is used as the
+     * associated data. The given array must hold {@link #getAeadTagLength()} spare bytes after the payload.
+     * <p>
+     * Implementations may reuse internal cipher instances and are therefore not required to be thread-safe.
+     *
+     * @param packet             the array holding the packet
+     * @param packetOffset       the index of the first byte of the packet
+     * @param packetNumberOffset the index of the first byte of the unprotected packet number
+     * @param packetNumberLength the number of bytes of the encoded packet number
+     * @param payloadLength      the number of plaintext payload bytes following the packet number
+     * @param packetNumber       the full, not truncated packet number
+     * @return the number of bytes of the protected payload, including the authentication tag
+     * @throws GeneralSecurityException if the packet cannot be protected
+     */
+    int protectPacket( @NonNull byte[] packet, int packetOffset, int packetNumberOffset, int packetNumberLength,
+            int payloadLength, long packetNumber ) throws GeneralSecurityException;
+
+    /**
+     * Notifies about the acknowledgement of a packet that was protected by this protection.
+     * Protections that support key updates need this to tell whether they may initiate the next one.
+     *
+     * @param packetNumber the number of the acknowledged packet
+     */
+    default void onPacketAcknowledged( long packetNumber ) {
+    }
 }
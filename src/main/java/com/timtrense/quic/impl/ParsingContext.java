@@ -3,6 +3,9 @@
 import com.timtrense.quic.ConnectionId;
 import com.timtrense.quic.EncryptionLevel;
 import com.timtrense.quic.EndpointRole;
+import com.timtrense.quic.Packet;
+import com.timtrense.quic.ProtocolVersion;
+import com.timtrense.quic.impl.packets.InitialPacketImpl;
 
 /**
  * The context in which parsing happens.
@@ -35,6 +38,73 @@ public interface ParsingContext {
      */
     PacketProtection getPacketProtection( ConnectionId connectionId, EncryptionLevel encryptionLevel );
 
+    /**
+     * Decides whether an Initial packet is worth deriving the Initial keys for.
+     * This is checked right after the unprotected parts of the header are parsed, so that a server
+     * can answer a flood of Initial packets with stateless Retry packets instead.
+     * Implementations must not create any state for the packet yet, because it is not authenticated.
+     *
+     * @param datagram                the datagram containing the packet, may be null if unknown
+     * @param version                 the version of the packet
+     * @param destinationConnectionId the Destination Connection ID of the packet
+     * @param sourceConnectionId      the Source Connection ID of the packet
+     * @param token                   the token of the packet, empty if none
+     * @return false if the packet must be dropped
+     */
+    boolean isInitialPacketAdmitted(
+            ReceivedDatagram datagram,
+            ProtocolVersion version,
+            ConnectionId destinationConnectionId,
+            ConnectionId sourceConnectionId,
+            byte[] token
+    );
+
+    /**
+     * Called for each {@link #isInitialPacketAdmitted admitted} Initial packet after it was decrypted
+     * and its frames were parsed. Only now a server creates the connection of a new client, so that
+     * packets failing authentication cost no connection state.
+     *
+     * @param datagram the datagram containing the packet, may be null if unknown
+     * @param packet   the decrypted packet
+     * @return false if the packet must be dropped
+     */
+    boolean onInitialPacketDecrypted( ReceivedDatagram datagram, InitialPacketImpl packet );
+
+    /**
+     * Called for each datagram whose packets were all parsed and attributed to a single connection,
+     * for accounting the bytes received from the peer address
+     *
+     * @param datagram                the parsed datagram
+     * @param destinationConnectionId the Destination Connection ID of all packets within the datagram
+     */
+    void onDatagramReceived( ReceivedDatagram datagram, ConnectionId destinationConnectionId );
+
+    /**
+     * Called on the thread of the shard for each packet of a datagram after
+     * {@link #onDatagramReceived(ReceivedDatagram, ConnectionId)}, to record its receipt at its connection.
+     * <p>
+     * "A receiver MUST discard a newly unprotected packet unless it is
+     * certain that it has not processed another packet with the same packet
+     * number from the same packet number space."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-12.3
+     *
+     * @param datagram the datagram containing the packet
+     * @param packet   the parsed packet
+     * @return false if the packet is a duplicate and must be dropped
+     */
+    boolean onPacketReceived( ReceivedDatagram datagram, Packet packet );
+
+    /**
+     * Checks whether a datagram that could not be attributed to a connection or could not be decrypted
+     * is a stateless reset, and if so, discards the reset connection
+     *
+     * @param data   the array holding the datagram
+     * @param offset the start of the datagram within the array
+     * @param length the length of the datagram
+     * @return true if the datagram was a stateless reset
+     */
+    boolean detectStatelessReset( byte[] data, int offset, int length );
+
     //TODO: getPeerSecret(byte[] connectionId, EncryptionLevel)
     //TODO: getLocalSecret(byte[] connectionId, EncryptionLevel)
     //TODO: getConnectionIdLength(byte[] connectionId)
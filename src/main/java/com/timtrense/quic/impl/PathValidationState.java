@@ -0,0 +1,27 @@
+package com.timtrense.quic.impl;
+
+/**
+ * The progress of validating that a peer is reachable at the address of a {@link NetworkPath}
+ *
+ * @author Tim Trense
+ * @see <a href="https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-8.2">QUIC Spec/Section 8.2</a>
+ */
+public enum PathValidationState {
+
+    /**
+     * no validation was started for the path yet
+     */
+    UNVALIDATED,
+    /**
+     * PATH_CHALLENGE frames were sent, but no matching PATH_RESPONSE was received yet
+     */
+    VALIDATING,
+    /**
+     * the peer echoed a PATH_CHALLENGE or otherwise proved that it receives on the path
+     */
+    VALIDATED,
+    /**
+     * no matching PATH_RESPONSE was received in time, thus the path must not be used
+     */
+    FAILED
+}
@@ -0,0 +1,171 @@
+package com.timtrense.quic.impl;
+
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+
+/**
+ * Offers items to a bounded queue, applying an {@link OverloadPolicy} if the queue is full.
+ * <p>
+ * Instead of stopping the offering thread on a momentary stall, items are dropped according to the policy,
+ * such that the endpoint degrades gracefully under burst load. Each dropped item is counted by the reason
+ * it was dropped for.
+ * <p>
+ * The offering thread must keep up with the network under sustained overload, thus the policy applies as soon as
+ * the queue is found full. Only items of existing connections may wait for space, for at most
+ * {@link #MAX_BLOCK_MILLIS}. Just {@link OverloadPolicy#FAIL} waits for the full timeout, as it stops the thread
+ * anyway.
+ *
+ * @param <T> the type of queued items
+ * @author Tim Trense
+ */
+public class QueueOverloadHandler<T> {
+
+    /**
+     * the longest time that an item of an existing connection waits for space before the policy applies
+     */
+    public static final long MAX_BLOCK_MILLIS = 1;
+
+    /**
+     * the policy to apply on a full queue
+     */
+    @Getter
+    @Setter
+    private volatile @NonNull OverloadPolicy policy;
+    /**
+     * identifies the items that would open new connections, for {@link OverloadPolicy#SHED_NEW_CONNECTIONS}
+     */
+    private final @NonNull Predicate<T> opensNewConnection;
+    /**
+     * called for each dropped item, e.g. to recycle it
+     */
+    private final @NonNull Consumer<T> dropListener;
+
+    private final AtomicLong droppedNewest = new AtomicLong();
+    private final AtomicLong droppedOldest = new AtomicLong();
+    private final AtomicLong shedNewConnections = new AtomicLong();
+
+    /**
+     * @param policy             the policy to apply on a full queue
+     * @param opensNewConnection identifies the items that would open new connections
+     * @param dropListener       called for each dropped item
+     */
+    public QueueOverloadHandler(
+            @NonNull OverloadPolicy policy,
+            @NonNull Predicate<T> opensNewConnection,
+            @NonNull Consumer<T> dropListener
+    ) {
+        this.policy = policy;
+        this.opensNewConnection = opensNewConnection;
+        this.dropListener = dropListener;
+    }
+
+    /**
+     * Offers the item to the queue, applying the {@link #getPolicy()} if there is no space.
+     * Items that would open new connections never wait for space, others wait at most {@link #MAX_BLOCK_MILLIS}.
+     *
+     * @param queue         the target queue
+     * @param item          the item to offer
+     * @param timeoutMillis the number of milliseconds to wait for space, capped unless the policy is
+     *                      {@link OverloadPolicy#FAIL}
+     * @return false only if the policy is {@link OverloadPolicy#FAIL} and the item was not queued
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean offer( @NonNull BlockingQueue<T> queue, @NonNull T item, long timeoutMillis )
+            throws InterruptedException {
+        if ( queue.offer( item ) ) {
+            return true;
+        }
+        OverloadPolicy policy = this.policy;
+        long waitMillis;
+        if ( policy == OverloadPolicy.FAIL ) {
+            waitMillis = timeoutMillis;
+        }
+        else if ( opensNewConnection.test( item ) ) {
+            waitMillis = 0;
+        }
+        else {
+            waitMillis = Math.min( timeoutMillis, MAX_BLOCK_MILLIS );
+        }
+        if ( waitMillis > 0 && queue.offer( item, waitMillis, TimeUnit.MILLISECONDS ) ) {
+            return true;
+        }
+        switch ( policy ) {
+            case FAIL:
+                return false;
+            case DROP_OLDEST:
+                T oldest = queue.poll();
+                if ( oldest != null ) {
+                    droppedOldest.incrementAndGet();
+                    dropListener.accept( oldest );
+                }
+                offerOrDrop( queue, item );
+                return true;
+            case SHED_NEW_CONNECTIONS:
+                if ( opensNewConnection.test( item ) ) {
+                    shedNewConnections.incrementAndGet();
+                    dropListener.accept( item );
+                    return true;
+                }
+                T shed = removeFirstOpeningNewConnection( queue );
+                if ( shed != null ) {
+                    shedNewConnections.incrementAndGet();
+                    dropListener.accept( shed );
+                }
+                offerOrDrop( queue, item );
+                return true;
+            case DROP_NEWEST:
+            default:
+                droppedNewest.incrementAndGet();
+                dropListener.accept( item );
+                return true;
+        }
+    }
+
+    private void offerOrDrop( BlockingQueue<T> queue, T item ) {
+        // another thread may have taken the freed space
+        if ( !queue.offer( item ) ) {
+            droppedNewest.incrementAndGet();
+            dropListener.accept( item );
+        }
+    }
+
+    private T removeFirstOpeningNewConnection( BlockingQueue<T> queue ) {
+        Iterator<T> iterator = queue.iterator();
+        while ( iterator.hasNext() ) {
+            T queued = iterator.next();
+            if ( opensNewConnection.test( queued ) ) {
+                iterator.remove();
+                return queued;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of new items dropped because the queue was full
+     */
+    public long getDroppedNewest() {
+        return droppedNewest.get();
+    }
+
+    /**
+     * @return the number of queued items dropped to make room for new ones
+     */
+    public long getDroppedOldest() {
+        return droppedOldest.get();
+    }
+
+    /**
+     * @return the number of items dropped that would have opened new connections
+     */
+    public long getShedNewConnections() {
+        return shedNewConnections.get();
+    }
+}
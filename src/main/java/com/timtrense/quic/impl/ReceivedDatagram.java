@@ -34,4 +34,8 @@ public class ReceivedDatagram {
      * possibly due to the lack of decryption material because of reordering on the network
      */
     private short parseRetryCount = 0;
+    /**
+     * the shard that processes the datagram, set by the {@link DatagramParser} of that shard
+     */
+    private int shardId = 0;
 }
@@ -8,7 +8,6 @@
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.TimeUnit;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NonNull;
@@ -46,10 +45,23 @@ public class Receiver extends Thread {
     /**
      * The number of milliseconds the {@link #getReceivedQueue() target received queue} may block before allowing
      * the {@link Receiver} to offer a new, received datagram. If this timeout elapses before the receiver can put
-     * the new datagram to the queue, the receiver will go to {@link ReceiverState#ERROR} and will be stopped
+     * the new datagram to the queue, the {@link #getOverloadHandler() overload policy} applies.
+     * Except for {@link OverloadPolicy#FAIL}, the wait is capped at {@link QueueOverloadHandler#MAX_BLOCK_MILLIS}
+     * and Initial packets do not wait at all
      */
     @Getter
     private int receivedQueueBlockTimeout;
+    /**
+     * applies the overload policy to datagrams that cannot be queued and counts the dropped ones
+     */
+    @Getter
+    private final @NonNull QueueOverloadHandler<ReceivedDatagram> overloadHandler;
+    /**
+     * inspects the first bytes of each datagram to drop junk before queueing it, null to queue all datagrams
+     */
+    @Getter
+    @Setter
+    private DatagramPreFilter preFilter;
     /**
      * the current state
      */
@@ -75,6 +87,11 @@ public Receiver(
         );
         this.receivedQueue = receivedQueue;
         receivedQueueBlockTimeout = configuration.getReceiverReceivedQueueBlockTimeout();
+        this.overloadHandler = new QueueOverloadHandler<>(
+                configuration.getQueueOverloadPolicy(),
+                Receiver::isInitialPacket,
+                dropped -> datagramPool.giveBack( dropped.getDatagram() )
+        );
         this.receiverState = ReceiverState.NEW;
 
         setDaemon( true );
@@ -91,17 +108,18 @@ public void run() {
                 try {
                     DatagramPacket datagram = datagramPool.take();
                     socket.receive( datagram );
+                    if ( preFilter != null && !preFilter.accept( datagram ) ) {
+                        datagramPool.giveBack( datagram );
+                        continue;
+                    }
                     ReceivedDatagram receivedDatagram = new ReceivedDatagram(
                             datagram,
                             Instant.now(),
                             counter++,
-                            (short)0
-                    );
-                    offered = receivedQueue.offer(
-                            receivedDatagram,
-                            receivedQueueBlockTimeout,
-                            TimeUnit.MILLISECONDS
+                            (short)0,
+                            0
                     );
+                    offered = overloadHandler.offer( receivedQueue, receivedDatagram, receivedQueueBlockTimeout );
                     if ( !offered ) {
                         throw new IOException( "Timeout on offering a ReceivedDatagram to the target queue" );
                     }
@@ -119,6 +137,23 @@ public void run() {
         }
     }
 
+    /**
+     * Checks whether the first packet of the datagram is an Initial packet, which would open a new connection
+     * on a server. The packet is not parsed, only the header form and the long packet type bits are inspected.
+     *
+     * @param receivedDatagram a received datagram
+     * @return true if the first packet is a long header packet of type Initial
+     */
+    static boolean isInitialPacket( @NonNull ReceivedDatagram receivedDatagram ) {
+        DatagramPacket datagram = receivedDatagram.getDatagram();
+        if ( datagram.getLength() < 1 ) {
+            return false;
+        }
+        byte firstByte = datagram.getData()[datagram.getOffset()];
+        // long header form bit set and long packet type 0x0
+        return ( firstByte & 0x80 ) != 0 && ( firstByte & 0x30 ) == 0;
+    }
+
     /**
      * adds a listener to this receiver
      *
@@ -0,0 +1,26 @@
+package com.timtrense.quic.impl;
+
+/**
+ * When a server answers Initial packets without a valid token with a Retry packet instead of
+ * deriving the Initial keys and creating connection state
+ *
+ * @author Tim Trense
+ * @see InitialFloodGuard
+ * @see <a href="https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-8.1.2">QUIC Spec/Section 8.1.2</a>
+ */
+public enum RetryMode {
+
+    /**
+     * never send Retry packets, thus accept every client address without validation
+     */
+    NEVER,
+    /**
+     * send Retry packets while the rate of Initial packets or the number of half-open connections
+     * exceeds its threshold
+     */
+    AUTOMATIC,
+    /**
+     * validate the address of every client with a Retry packet
+     */
+    ALWAYS
+}
@@ -0,0 +1,159 @@
+package com.timtrense.quic.impl;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Random;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import lombok.NonNull;
+
+import com.timtrense.quic.ConnectionId;
+import com.timtrense.quic.ProtocolVersion;
+
+/**
+ * Writes Retry packets including their Retry Integrity Tag.
+ * <p>
+ * "Retry Packet {
+ * Header Form (1) = 1,
+ * Fixed Bit (1) = 1,
+ * Long Packet Type (2) = 3,
+ * Unused (4),
+ * Version (32),
+ * DCID Len (8),
+ * Destination Connection ID (0..160),
+ * SCID Len (8),
+ * Source Connection ID (0..160),
+ * Retry Token (..),
+ * Retry Integrity Tag (128),
+ * }"
+ * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-17.2.5
+ * <p>
+ * "The Retry Integrity Tag is a 128-bit field that is computed as the
+ * output of AEAD_AES_128_GCM [AEAD] used with the following inputs:
+ * <p>
+ * * The secret key, K, is 128 bits equal to 0xccce187ed09a09d05728155a6cb96be1.
+ * * The nonce, N, is 96 bits equal to 0xe54930f97f2136f0530a8c1c.
+ * * The plaintext, P, is empty.
+ * * The associated data, A, is the contents of the Retry Pseudo-Packet"
+ * Quote from https://tools.ietf.org/html/draft-ietf-quic-tls-32#section-5.8
+ *
+ * @author Tim Trense
+ */
+public class RetryPacketWriter {
+
+    private RetryPacketWriter() {}
+
+    /**
+     * the length of the Retry Integrity Tag
+     */
+    public static final int INTEGRITY_TAG_LENGTH = 16;
+
+    private static final SecretKeySpec RETRY_KEY = new SecretKeySpec( HkdfUtil.QUIC_RETRY_SECRET_KEY, "AES" );
+
+    /**
+     * Writes a Retry packet
+     *
+     * @param buffer                          the target to write to, starting at its position
+     * @param version                         the version of the Initial packet that is answered
+     * @param destinationConnectionId         the Source Connection ID of the Initial packet that is answered
+     * @param sourceConnectionId              the new connection id that the client will address the server with
+     * @param originalDestinationConnectionId the Destination Connection ID of the Initial packet that is answered
+     * @param token                           the token that the client will repeat in its Initial packets
+     * @param random                          the source for the unused bits
+     * @return the number of bytes written
+     * @throws GeneralSecurityException if the integrity tag cannot be computed
+     */
+    public static int writeRetryPacket(
+            @NonNull ByteBuffer buffer,
+            @NonNull ProtocolVersion version,
+            @NonNull ConnectionId destinationConnectionId,
+            @NonNull ConnectionId sourceConnectionId,
+            @NonNull ConnectionId originalDestinationConnectionId,
+            @NonNull byte[] token,
+            @NonNull Random random
+    ) throws GeneralSecurityException {
+        int start = buffer.position();
+        // header form, fixed bit, packet type 3 and 4 unused bits
+        buffer.put( (byte)( 0b11110000 | random.nextInt( 16 ) ) );
+        buffer.putInt( version.getValue() );
+        buffer.put( (byte)destinationConnectionId.getValue().length ).put( destinationConnectionId.getValue() );
+        buffer.put( (byte)sourceConnectionId.getValue().length ).put( sourceConnectionId.getValue() );
+        buffer.put( token );
+        byte[] tag = computeIntegrityTag( originalDestinationConnectionId,
+                buffer.array(), buffer.arrayOffset() + start, buffer.position() - start );
+        buffer.put( tag );
+        return buffer.position() - start;
+    }
+
+    /**
+     * Verifies the Retry Integrity Tag of a received Retry packet
+     *
+     * @param originalDestinationConnectionId the Destination Connection ID of the Initial packet that the client sent
+     * @param packet                          the array holding the Retry packet
+     * @param offset                          the start of the Retry packet within the array
+     * @param length                          the length of the Retry packet including its tag
+     * @return true if the tag is valid
+     * @throws GeneralSecurityException if the integrity tag cannot be computed
+     */
+    public static boolean verifyIntegrityTag(
+            @NonNull ConnectionId originalDestinationConnectionId,
+            @NonNull byte[] packet,
+            int offset,
+            int length
+    ) throws GeneralSecurityException {
+        if ( length < INTEGRITY_TAG_LENGTH ) {
+            return false;
+        }
+        int tagOffset = offset + length - INTEGRITY_TAG_LENGTH;
+        byte[] expected = computeIntegrityTag( originalDestinationConnectionId, packet, offset,
+                length - INTEGRITY_TAG_LENGTH );
+        byte[] actual = new byte[INTEGRITY_TAG_LENGTH];
+        System.arraycopy( packet, tagOffset, actual, 0, INTEGRITY_TAG_LENGTH );
+        return MessageDigest.isEqual( expected, actual );
+    }
+
+    /**
+     * Computes the Retry Integrity Tag over the Retry Pseudo-Packet.
+     * <p>
+     * "Retry Pseudo-Packet {
+     * ODCID Length (8),
+     * Original Destination Connection ID (0..160),
+     * Header Form (1) = 1,
+     * Fixed Bit (1) = 1,
+     * Long Packet Type (2) = 3,
+     * Type-Specific Bits (4),
+     * Version (32),
+     * DCID Len (8),
+     * Destination Connection ID (0..160),
+     * SCID Len (8),
+     * Source Connection ID (0..160),
+     * Retry Token (..),
+     * }"
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-tls-32#section-5.8
+     *
+     * @param originalDestinationConnectionId the Destination Connection ID of the Initial packet of the client
+     * @param packet                          the array holding the Retry packet
+     * @param offset                          the start of the Retry packet within the array
+     * @param length                          the length of the Retry packet excluding the tag
+     * @return the tag
+     * @throws GeneralSecurityException if the cipher is unavailable
+     */
+    public static byte[] computeIntegrityTag(
+            @NonNull ConnectionId originalDestinationConnectionId,
+            @NonNull byte[] packet,
+            int offset,
+            int length
+    ) throws GeneralSecurityException {
+        // a new cipher each time, because GCM ciphers refuse to encrypt twice with the same key and nonce
+        Cipher cipher = Cipher.getInstance( "AES/GCM/NoPadding" );
+        cipher.init( Cipher.ENCRYPT_MODE, RETRY_KEY,
+                new GCMParameterSpec( INTEGRITY_TAG_LENGTH * 8, HkdfUtil.QUIC_RETRY_NONCE ) );
+        byte[] originalId = originalDestinationConnectionId.getValue();
+        cipher.updateAAD( new byte[]{(byte)originalId.length} );
+        cipher.updateAAD( originalId );
+        cipher.updateAAD( packet, offset, length );
+        return cipher.doFinal();
+    }
+}
@@ -0,0 +1,320 @@
+package com.timtrense.quic.impl;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+
+import com.timtrense.quic.ConnectionId;
+import com.timtrense.quic.VariableLengthInteger;
+import com.timtrense.quic.impl.base.ConnectionIdImpl;
+import com.timtrense.quic.impl.base.VariableLengthIntegerEncoder;
+
+/**
+ * Issues and validates the tokens that a server sends within Retry packets.
+ * <p>
+ * "A token sent in a NEW_TOKEN frames or a Retry packet MUST be
+ * constructed in a way that allows the server to identify how it was
+ * provided to a client."
+ * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-8.1.1
+ * <p>
+ * "An address validation token MUST be difficult to guess. Including a
+ * large enough random value in the token would be sufficient, but this
+ * depends on the server remembering the value it sends to clients.
+ * <p>
+ * A token-based scheme allows the server to offload any state
+ * associated with validation to the client."
+ * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-8.1.4
+ * <p>
+ * Tokens are sealed with AEAD_AES_128_GCM under a key that never leaves this endpoint, so the server keeps no
+ * state per issued token. A token is laid out as
+ * <pre>
+ * Token {
+ *   Type (8) = 0x00,
+ *   Nonce (96),
+ *   Sealed {
+ *     Issue Time (64),
+ *     Original Destination Connection ID Length (8),
+ *     Original Destination Connection ID (0..160),
+ *     Retry Source Connection ID Length (8),
+ *     Retry Source Connection ID (0..160),
+ *   },
+ *   Tag (128),
+ * }
+ * </pre>
+ * The address of the client is authenticated as associated data rather than being transmitted, so a token
+ * only opens for the address it was issued to. Nonces consist of a random prefix and a counter and are
+ * therefore unique for the lifetime of the key.
+ * <p>
+ * Because the cipher is the only per-validation cost, each thread caches its own instance for the one key.
+ * A bounded filter of recently used nonces rejects tokens that are replayed from a different connection.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author Tim Trense
+ */
+public class RetryTokenManager {
+
+    /**
+     * The first byte of all tokens issued within Retry packets
+     */
+    public static final byte TOKEN_TYPE_RETRY = 0x00;
+    /**
+     * the length of the nonce of AEAD_AES_128_GCM
+     */
+    public static final int NONCE_LENGTH = 12;
+    /**
+     * the length of the authentication tag of AEAD_AES_128_GCM
+     */
+    public static final int TAG_LENGTH = 16;
+    /**
+     * The maximum length of a token: type, nonce, issue time, both connection ids and the tag
+     */
+    public static final int MAX_TOKEN_LENGTH = 1 + NONCE_LENGTH + 8 + 1 + 20 + 1 + 20 + TAG_LENGTH;
+
+    private static final String AEAD_ALGORITHM = "AES/GCM/NoPadding";
+
+    /**
+     * the key sealing all tokens, only known to this endpoint
+     */
+    private final SecretKeySpec key;
+    /**
+     * the random first 4 bytes of every nonce
+     */
+    private final int noncePrefix;
+    /**
+     * the last 8 bytes of every nonce
+     */
+    private final AtomicLong nonceCounter = new AtomicLong();
+    /**
+     * one cipher per thread, because {@link Cipher} is not thread-safe
+     */
+    private final ThreadLocal<Cipher> cipher = ThreadLocal.withInitial( RetryTokenManager::createCipher );
+    /**
+     * the number of milliseconds after its issue time at which a token expires
+     */
+    @Getter
+    private final long tokenLifetime;
+    /**
+     * The nonces of the recently used, unexpired tokens in the order of first usage. Guarded by itself.
+     */
+    private final LinkedHashMap<ByteBuffer, ReplayFilterEntry> replayFilter;
+    /**
+     * the maximum number of nonces to remember
+     */
+    @Getter
+    private final int replayFilterCapacity;
+
+    /**
+     * @param random               the source to generate the key from
+     * @param tokenLifetime        {@link #getTokenLifetime()}
+     * @param replayFilterCapacity {@link #getReplayFilterCapacity()}
+     */
+    public RetryTokenManager( @NonNull Random random, long tokenLifetime, int replayFilterCapacity ) {
+        if ( tokenLifetime <= 0 ) {
+            throw new IllegalArgumentException( "Cannot set a non-positive tokenLifetime for a RetryTokenManager" );
+        }
+        if ( replayFilterCapacity <= 0 ) {
+            throw new IllegalArgumentException( "Cannot set a non-positive replayFilterCapacity" +
+                    " for a RetryTokenManager" );
+        }
+        byte[] keyBytes = new byte[16];
+        random.nextBytes( keyBytes );
+        this.key = new SecretKeySpec( keyBytes, "AES" );
+        this.noncePrefix = random.nextInt();
+        this.tokenLifetime = tokenLifetime;
+        this.replayFilterCapacity = replayFilterCapacity;
+        this.replayFilter = new LinkedHashMap<>( 16, 0.75f, false ) {
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<ByteBuffer, ReplayFilterEntry> eldest ) {
+                return size() > RetryTokenManager.this.replayFilterCapacity;
+            }
+        };
+    }
+
+    /**
+     * Seals a new token for a Retry packet
+     *
+     * @param clientAddress                   the address that the client sent its Initial packet from
+     * @param originalDestinationConnectionId the Destination Connection ID of the Initial packet of the client
+     * @param retrySourceConnectionId         the Source Connection ID of the Retry packet to send
+     * @param nowMillis                       the current wall-clock time in milliseconds
+     * @return the new token
+     * @throws GeneralSecurityException if the cipher is unavailable
+     */
+    public byte[] issueToken(
+            @NonNull SocketAddress clientAddress,
+            @NonNull ConnectionId originalDestinationConnectionId,
+            @NonNull ConnectionId retrySourceConnectionId,
+            long nowMillis
+    ) throws GeneralSecurityException {
+        byte[] originalId = originalDestinationConnectionId.getValue();
+        byte[] retryId = retrySourceConnectionId.getValue();
+        ByteBuffer plaintext = ByteBuffer.allocate( 8 + 1 + originalId.length + 1 + retryId.length );
+        plaintext.putLong( nowMillis );
+        plaintext.put( (byte)originalId.length ).put( originalId );
+        plaintext.put( (byte)retryId.length ).put( retryId );
+        plaintext.flip();
+
+        byte[] token = new byte[1 + NONCE_LENGTH + plaintext.remaining() + TAG_LENGTH];
+        token[0] = TOKEN_TYPE_RETRY;
+        VariableLengthIntegerEncoder.encodeFixedLengthInteger( noncePrefix, token, 1, 4 );
+        VariableLengthIntegerEncoder.encodeFixedLengthInteger( nonceCounter.incrementAndGet(), token, 5, 8 );
+
+        Cipher aead = cipher.get();
+        aead.init( Cipher.ENCRYPT_MODE, key, new GCMParameterSpec( TAG_LENGTH * 8, token, 1, NONCE_LENGTH ) );
+        aead.updateAAD( encodeAddress( clientAddress ) );
+        aead.doFinal( plaintext, ByteBuffer.wrap( token, 1 + NONCE_LENGTH, token.length - 1 - NONCE_LENGTH ) );
+        return token;
+    }
+
+    /**
+     * Opens and checks a token that a client sent within an Initial packet.
+     * A token is valid if it was issued by this manager to the same client address, did not expire,
+     * is used with the Retry Source Connection ID as Destination Connection ID and
+     * was not used before by a different connection.
+     *
+     * @param token                   the token of the Initial packet
+     * @param clientAddress           the address that the client sent its Initial packet from
+     * @param destinationConnectionId the Destination Connection ID of the Initial packet
+     * @param sourceConnectionId      the Source Connection ID of the Initial packet
+     * @param nowMillis               the current wall-clock time in milliseconds
+     * @return the original Destination Connection ID that the client used before the Retry,
+     * or null if the token is invalid
+     */
+    public ConnectionId validateToken(
+            @NonNull byte[] token,
+            @NonNull SocketAddress clientAddress,
+            @NonNull ConnectionId destinationConnectionId,
+            @NonNull ConnectionId sourceConnectionId,
+            long nowMillis
+    ) {
+        if ( token.length < 1 + NONCE_LENGTH + 8 + 2 + TAG_LENGTH || token.length > MAX_TOKEN_LENGTH
+                || token[0] != TOKEN_TYPE_RETRY ) {
+            return null;
+        }
+        ByteBuffer plaintext = ByteBuffer.allocate( token.length - 1 - NONCE_LENGTH - TAG_LENGTH );
+        try {
+            Cipher aead = cipher.get();
+            aead.init( Cipher.DECRYPT_MODE, key, new GCMParameterSpec( TAG_LENGTH * 8, token, 1, NONCE_LENGTH ) );
+            aead.updateAAD( encodeAddress( clientAddress ) );
+            aead.doFinal( ByteBuffer.wrap( token, 1 + NONCE_LENGTH, token.length - 1 - NONCE_LENGTH ), plaintext );
+        }
+        catch ( AEADBadTagException e ) {
+            // forged, corrupted or sent from another address
+            return null;
+        }
+        catch ( GeneralSecurityException e ) {
+            throw new IllegalStateException( "Cannot open retry token", e );
+        }
+        plaintext.flip();
+
+        long issueTime = plaintext.getLong();
+        if ( nowMillis < issueTime || nowMillis - issueTime > tokenLifetime ) {
+            return null;
+        }
+        byte[] originalId = new byte[plaintext.get() & 0xFF];
+        plaintext.get( originalId );
+        byte[] retryId = new byte[plaintext.get() & 0xFF];
+        plaintext.get( retryId );
+        // "the client MUST use the value from the Source Connection ID field
+        // of the Retry packet in the Destination Connection ID field of
+        // subsequent packets that it sends"
+        // Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-17.2.5.2
+        if ( !destinationConnectionId.equalsValue( retryId ) ) {
+            return null;
+        }
+
+        ByteBuffer nonce = ByteBuffer.wrap( Arrays.copyOfRange( token, 1, 1 + NONCE_LENGTH ) );
+        if ( !checkReplay( nonce, connectionHash( destinationConnectionId, sourceConnectionId ), nowMillis ) ) {
+            return null;
+        }
+        return new ConnectionIdImpl( originalId, VariableLengthInteger.ZERO );
+    }
+
+    /**
+     * Records the usage of a token. A client legitimately repeats its token in every Initial packet it
+     * (re-)transmits, which all carry the same connection ids. Another connection presenting the same
+     * token is a replay.
+     *
+     * @param nonce          the nonce of the token
+     * @param connectionHash the hash of the connection ids the token is used with
+     * @param nowMillis      the current wall-clock time in milliseconds
+     * @return true if the token was not used by a different connection before
+     */
+    private boolean checkReplay( ByteBuffer nonce, int connectionHash, long nowMillis ) {
+        synchronized( replayFilter ) {
+            // entries are ordered by their first usage, so all expired ones are at the head
+            Iterator<ReplayFilterEntry> iterator = replayFilter.values().iterator();
+            while ( iterator.hasNext() ) {
+                if ( nowMillis - iterator.next().firstUsage <= tokenLifetime ) {
+                    break;
+                }
+                iterator.remove();
+            }
+            ReplayFilterEntry firstUsage = replayFilter.get( nonce );
+            if ( firstUsage == null ) {
+                replayFilter.put( nonce, new ReplayFilterEntry( connectionHash, nowMillis ) );
+                return true;
+            }
+            return firstUsage.connectionHash == connectionHash;
+        }
+    }
+
+    /**
+     * @return the number of nonces currently held by the replay filter
+     */
+    public int getReplayFilterSize() {
+        synchronized( replayFilter ) {
+            return replayFilter.size();
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static class ReplayFilterEntry {
+        private final int connectionHash;
+        private final long firstUsage;
+    }
+
+    private static int connectionHash( ConnectionId destination, ConnectionId source ) {
+        return 31 * Arrays.hashCode( destination.getValue() ) + Arrays.hashCode( source.getValue() );
+    }
+
+    /**
+     * @param address the address of a client
+     * @return the IP address followed by the port, or the string form of other address types
+     */
+    private static byte[] encodeAddress( SocketAddress address ) {
+        if ( address instanceof InetSocketAddress && ( (InetSocketAddress)address ).getAddress() != null ) {
+            InetSocketAddress inetAddress = (InetSocketAddress)address;
+            byte[] ip = inetAddress.getAddress().getAddress();
+            byte[] encoded = Arrays.copyOf( ip, ip.length + 2 );
+            encoded[ip.length] = (byte)( inetAddress.getPort() >>> 8 );
+            encoded[ip.length + 1] = (byte)inetAddress.getPort();
+            return encoded;
+        }
+        return address.toString().getBytes( HkdfUtil.QUIC_LABEL_ENCODING_CHARSET );
+    }
+
+    private static Cipher createCipher() {
+        try {
+            return Cipher.getInstance( AEAD_ALGORITHM );
+        }
+        catch ( GeneralSecurityException e ) {
+            throw new IllegalStateException( "Cannot create " + AEAD_ALGORITHM + " cipher", e );
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.timtrense.quic.impl;
+
+import java.io.IOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.LockSupport;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+
+/**
+ * The {@link OutgoingDatagram datagrams} sending thread.
+ * <p>
+ * Instead of sending each datagram on its own, the sender drains all datagrams that are queued at once
+ * and accumulates consecutive datagrams to the same destination into {@link DatagramBatch batches},
+ * which the {@link DatagramTransport} may send with a single system call. Datagrams are handed to a transport
+ * that is not {@link DatagramTransport#isBatching() batching} one by one, without copying them into a batch.
+ * <p>
+ * Datagrams that a non-blocking transport could not send right away are retried once the socket buffer had
+ * {@link #SEND_RETRY_NANOS} to drain, so that no datagram is lost within this endpoint.
+ *
+ * @author Tim Trense
+ */
+@EqualsAndHashCode( callSuper = true )
+public class Sender extends Thread {
+
+    /**
+     * The time to wait before retrying datagrams that the transport could not send without blocking
+     */
+    public static final long SEND_RETRY_NANOS = 50_000;
+
+    /**
+     * The queue to take assembled datagrams from
+     */
+    @Getter
+    private final @NonNull BlockingQueue<OutgoingDatagram> sendQueue;
+    /**
+     * The pool to give sent datagrams back to
+     */
+    @Getter
+    private final @NonNull OutgoingDatagramPool datagramPool;
+    /**
+     * all registered listeners to notify about state changes
+     */
+    private final Set<SenderStateListener> stateListenerSet = new HashSet<>();
+    /**
+     * The transport to send batches with
+     */
+    @Getter
+    @Setter
+    @NonNull
+    private DatagramTransport transport;
+    /**
+     * The batches to accumulate datagrams in, one per destination within each drained round
+     */
+    private final DatagramBatch[] batches;
+    /**
+     * reused to drain the send queue
+     */
+    private final List<OutgoingDatagram> drained;
+    /**
+     * the maximum number of datagrams to drain from the send queue at once
+     */
+    @Getter
+    private final int maxDrainedDatagrams;
+    /**
+     * the current state
+     */
+    @Getter
+    private SenderState senderState;
+
+    /**
+     * Creates a new sender, writing the datagrams assembled by the given assembler to the given channel
+     *
+     * @param channel       the target to write datagrams to
+     * @param assembler     the source of assembled datagrams
+     * @param configuration the initial configuration to apply
+     */
+    public Sender(
+            @NonNull DatagramChannel channel,
+            @NonNull DatagramAssembler assembler,
+            @NonNull EndpointConfiguration configuration
+    ) {
+        this( new ChannelDatagramTransport( channel ), assembler, configuration );
+    }
+
+    /**
+     * Creates a new sender, writing the datagrams assembled by the given assembler with the given transport
+     *
+     * @param transport     the target to write datagrams to
+     * @param assembler     the source of assembled datagrams
+     * @param configuration the initial configuration to apply
+     */
+    public Sender(
+            @NonNull DatagramTransport transport,
+            @NonNull DatagramAssembler assembler,
+            @NonNull EndpointConfiguration configuration
+    ) {
+        int maxBatchSegments = configuration.getMaxSendBatchSegments();
+        int maxBatchDestinations = configuration.getMaxSendBatchDestinations();
+        if ( maxBatchSegments <= 0 || maxBatchDestinations <= 0 ) {
+            throw new IllegalArgumentException( "Cannot set a non-positive batch size for a Sender" );
+        }
+        this.transport = transport;
+        this.sendQueue = assembler.getSendQueue();
+        this.datagramPool = assembler.getDatagramPool();
+        this.senderState = SenderState.NEW;
+        this.batches = new DatagramBatch[maxBatchDestinations];
+        for ( int i = 0; i < batches.length; i++ ) {
+            batches[i] = new DatagramBatch( maxBatchSegments, assembler.getMaxDatagramSize() );
+        }
+        this.maxDrainedDatagrams = maxBatchSegments * maxBatchDestinations;
+        this.drained = new ArrayList<>( maxDrainedDatagrams );
+
+        setDaemon( true );
+        setName( configuration.getEndpointName() + ".Sender" );
+    }
+
+    @Override
+    public void run() {
+        setSenderState( SenderState.ACTIVE );
+        try {
+            while ( !isInterrupted() ) {
+                try {
+                    drained.add( sendQueue.take() );
+                }
+                catch ( InterruptedException ignored ) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                sendQueue.drainTo( drained, maxDrainedDatagrams - 1 );
+                try {
+                    sendDrained();
+                }
+                catch ( ClosedByInterruptException ignored ) {
+                    break;
+                }
+                finally {
+                    giveBackDrained();
+                }
+            }
+            setSenderState( SenderState.STOP );
+        }
+        catch ( IOException e ) {
+            e.printStackTrace();
+            setSenderState( SenderState.ERROR );
+        }
+    }
+
+    /**
+     * Accumulates all drained datagrams into the batches and sends them.
+     * Batches are sent early once they are full or no batch is free for another destination.
+     *
+     * @throws IOException if the transport failed
+     */
+    private void sendDrained() throws IOException {
+        if ( !transport.isBatching() ) {
+            for ( OutgoingDatagram datagram : drained ) {
+                while ( !transport.send( datagram ) && !isInterrupted() ) {
+                    LockSupport.parkNanos( SEND_RETRY_NANOS );
+                }
+            }
+            return;
+        }
+        for ( OutgoingDatagram datagram : drained ) {
+            DatagramBatch target = null;
+            DatagramBatch free = null;
+            for ( DatagramBatch batch : batches ) {
+                if ( batch.isEmpty() ) {
+                    if ( free == null ) {
+                        free = batch;
+                    }
+                }
+                else if ( batch.append( datagram ) ) {
+                    target = batch;
+                    break;
+                }
+            }
+            if ( target != null ) {
+                continue;
+            }
+            if ( free == null ) {
+                flushBatches();
+                free = batches[0];
+            }
+            free.append( datagram );
+        }
+        flushBatches();
+    }
+
+    /**
+     * Sends all non-empty batches and clears them.
+     * Datagrams that a non-blocking transport could not send are retried until sent or this thread is interrupted.
+     *
+     * @throws IOException if the transport failed
+     */
+    private void flushBatches() throws IOException {
+        for ( DatagramBatch batch : batches ) {
+            if ( batch.isEmpty() ) {
+                continue;
+            }
+            try {
+                int sent = transport.send( batch );
+                while ( sent < batch.getSegmentCount() && !isInterrupted() ) {
+                    batch.removeFirstSegments( sent );
+                    LockSupport.parkNanos( SEND_RETRY_NANOS );
+                    sent = transport.send( batch );
+                }
+            }
+            finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void giveBackDrained() {
+        for ( OutgoingDatagram datagram : drained ) {
+            datagramPool.giveBack( datagram );
+        }
+        drained.clear();
+    }
+
+    /**
+     * adds a listener to this sender
+     *
+     * @param listener the listener to add
+     */
+    public void addListener( @NonNull SenderStateListener listener ) {
+        synchronized( stateListenerSet ) {
+            stateListenerSet.add( listener );
+        }
+    }
+
+    /**
+     * removes the listener from this sender
+     *
+     * @param listener the listener to remove
+     */
+    public void removeListener( @NonNull SenderStateListener listener ) {
+        synchronized( stateListenerSet ) {
+            stateListenerSet.remove( listener );
+        }
+    }
+
+    /**
+     * calls all listeners and then updates the current state.
+     * does no state transition allowance checks, thus is private
+     *
+     * @param newState the new state to transition to
+     */
+    private void setSenderState( @NonNull SenderState newState ) {
+        synchronized( stateListenerSet ) {
+            stateListenerSet.forEach( l -> {
+                try {
+                    l.beforeStateChange( Sender.this, newState );
+                }
+                catch ( Exception e ) {
+                    e.printStackTrace();
+                }
+            } );
+        }
+        senderState = newState;
+    }
+}
@@ -0,0 +1,31 @@
+package com.timtrense.quic.impl;
+
+/**
+ * The state that a {@link Sender} may have.
+ * It always has one.
+ *
+ * @author Tim Trense
+ */
+public enum SenderState {
+
+    /**
+     * INITIAL STATE.
+     * The sender was instantiated but is not yet running
+     */
+    NEW,
+    /**
+     * The senders thread started
+     */
+    ACTIVE,
+    /**
+     * TERMINAL STATE.
+     * The sending threw an unrecoverable error
+     */
+    ERROR,
+    /**
+     * TERMINAL STATE.
+     * The sending stopped gracefully and the sending thread is about to die
+     */
+    STOP
+
+}
@@ -0,0 +1,17 @@
+package com.timtrense.quic.impl;
+
+/**
+ * Listener for changes of the {@link SenderState} of a {@link Sender}
+ *
+ * @author Tim Trense
+ */
+public interface SenderStateListener {
+
+    /**
+     * Called with the sender still being in the old state.
+     *
+     * @param sender   the sender that's state is transitioning
+     * @param newState the state the sender will be in, any time after this call
+     */
+    void beforeStateChange( Sender sender, SenderState newState );
+}
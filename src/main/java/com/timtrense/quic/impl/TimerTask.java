@@ -0,0 +1,19 @@
+package com.timtrense.quic.impl;
+
+/**
+ * The action to run once a {@link WheelTimer} expires
+ *
+ * @author Tim Trense
+ */
+@FunctionalInterface
+public interface TimerTask {
+
+    /**
+     * Called by the {@link TimerWheel} on the thread advancing it, right after the timer was disarmed.
+     * The timer may be re-armed from within this call.
+     *
+     * @param timer    the expired timer
+     * @param nowNanos the time the wheel was advanced to, as given by {@link System#nanoTime()}
+     */
+    void onTimerExpired( WheelTimer timer, long nowNanos );
+}
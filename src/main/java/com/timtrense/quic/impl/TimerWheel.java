@@ -0,0 +1,246 @@
+package com.timtrense.quic.impl;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * A hierarchical hashed timer wheel holding the {@link WheelTimer timers} of all connections of one parser shard.
+ * <p>
+ * The wheel consists of {@link #LEVELS} levels of {@link #SLOTS_PER_LEVEL} slots. A slot at level 0 spans one
+ * tick, a slot at level n spans {@code SLOTS_PER_LEVEL^n} ticks. A timer is linked into the slot of the lowest
+ * level whose range covers its deadline. Whenever the lower level wrapped around, the due slot of the next level
+ * is cascaded down. Arming, re-arming and cancelling are therefore O(1) and timers expire with a precision of
+ * one tick, never early.
+ * <p>
+ * Timers with a deadline beyond the range of the wheel are parked in the farthest slot and re-inserted
+ * whenever it becomes due.
+ * <p>
+ * This class is not thread-safe. The wheel must only be accessed by the thread that {@link #advance(long)
+ * advances} it, as do the {@link TimerTask tasks} of its expiring timers.
+ *
+ * @author Tim Trense
+ */
+public class TimerWheel {
+
+    /**
+     * the number of bits of a tick that address the slot within one level
+     */
+    private static final int SLOT_BITS = 6;
+    /**
+     * the number of slots of each level
+     */
+    public static final int SLOTS_PER_LEVEL = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS_PER_LEVEL - 1;
+    /**
+     * the number of levels. With a tick of 1 millisecond, the wheel spans about 4.6 hours.
+     */
+    public static final int LEVELS = 4;
+    /**
+     * the number of ticks that the wheel covers
+     */
+    private static final long RANGE_TICKS = 1L << ( SLOT_BITS * LEVELS );
+
+    /**
+     * the first timer of each slot, by level * SLOTS_PER_LEVEL + slot
+     */
+    private final WheelTimer[] slots = new WheelTimer[LEVELS * SLOTS_PER_LEVEL];
+    /**
+     * the duration of one tick in nanoseconds
+     */
+    @Getter
+    private final long tickNanos;
+    /**
+     * the time of tick 0, as given by {@link System#nanoTime()}
+     */
+    private final long startNanos;
+    /**
+     * the last tick that all timers were expired for
+     */
+    private long currentTick;
+    /**
+     * the number of currently armed timers
+     */
+    @Getter
+    private int armedCount;
+
+    /**
+     * @param tickNanos the precision of the wheel, as the duration of one tick in nanoseconds
+     * @param nowNanos  the current time, as given by {@link System#nanoTime()}
+     */
+    public TimerWheel( long tickNanos, long nowNanos ) {
+        if ( tickNanos <= 0 ) {
+            throw new IllegalArgumentException( "Cannot set a non-positive tick duration" );
+        }
+        this.tickNanos = tickNanos;
+        this.startNanos = nowNanos;
+    }
+
+    /**
+     * Arms the timer to expire at the given time. An already armed timer is re-armed.
+     * Deadlines in the past expire on the next tick.
+     *
+     * @param timer         the timer to arm
+     * @param deadlineNanos the time to expire at, as given by {@link System#nanoTime()}
+     */
+    public void arm( @NonNull WheelTimer timer, long deadlineNanos ) {
+        if ( timer.wheel != null ) {
+            timer.wheel.unlink( timer );
+        }
+        timer.deadlineNanos = deadlineNanos;
+        // round up so that timers never expire early
+        long elapsed = deadlineNanos - startNanos;
+        long tick = elapsed <= 0 ? 0 : ( elapsed + tickNanos - 1 ) / tickNanos;
+        timer.deadlineTick = Math.max( tick, currentTick + 1 );
+        timer.wheel = this;
+        armedCount++;
+        link( timer );
+    }
+
+    /**
+     * Arms the timer to expire after the given delay. An already armed timer is re-armed.
+     *
+     * @param timer      the timer to arm
+     * @param nowNanos   the current time, as given by {@link System#nanoTime()}
+     * @param delayNanos the non-negative delay in nanoseconds
+     */
+    public void armAfter( @NonNull WheelTimer timer, long nowNanos, long delayNanos ) {
+        arm( timer, nowNanos + delayNanos );
+    }
+
+    /**
+     * Expires all timers whose deadline is at or before the given time
+     *
+     * @param nowNanos the current time, as given by {@link System#nanoTime()}
+     * @return the number of expired timers
+     */
+    public int advance( long nowNanos ) {
+        long targetTick = ( nowNanos - startNanos ) / tickNanos;
+        if ( armedCount == 0 ) {
+            if ( targetTick > currentTick ) {
+                currentTick = targetTick;
+            }
+            return 0;
+        }
+        int expired = 0;
+        while ( currentTick < targetTick ) {
+            currentTick++;
+            cascade();
+            expired += expireSlot( (int)( currentTick & SLOT_MASK ), nowNanos );
+            if ( armedCount == 0 ) {
+                currentTick = targetTick;
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * @return true if no timer is armed
+     */
+    public boolean isEmpty() {
+        return armedCount == 0;
+    }
+
+    /**
+     * Removes the timer from its slot. Must only be called for timers armed at this wheel.
+     *
+     * @param timer the armed timer
+     */
+    void unlink( WheelTimer timer ) {
+        if ( timer.previous == null ) {
+            slots[timer.slot] = timer.next;
+        }
+        else {
+            timer.previous.next = timer.next;
+        }
+        if ( timer.next != null ) {
+            timer.next.previous = timer.previous;
+        }
+        timer.previous = null;
+        timer.next = null;
+        timer.slot = -1;
+        timer.wheel = null;
+        armedCount--;
+    }
+
+    /**
+     * Links the timer into the slot matching its deadline tick relative to the current tick
+     *
+     * @param timer the timer with its deadline tick set
+     */
+    private void link( WheelTimer timer ) {
+        long deadlineTick = timer.deadlineTick;
+        long delta = deadlineTick - currentTick;
+        if ( delta >= RANGE_TICKS ) {
+            // park in the farthest slot, it is re-inserted once that becomes due
+            deadlineTick = currentTick + RANGE_TICKS - 1;
+            delta = RANGE_TICKS - 1;
+        }
+        int level = 0;
+        while ( level < LEVELS - 1 && delta >= ( 1L << ( SLOT_BITS * ( level + 1 ) ) ) ) {
+            level++;
+        }
+        int slot = level * SLOTS_PER_LEVEL + (int)( ( deadlineTick >>> ( SLOT_BITS * level ) ) & SLOT_MASK );
+        WheelTimer head = slots[slot];
+        timer.slot = slot;
+        timer.previous = null;
+        timer.next = head;
+        if ( head != null ) {
+            head.previous = timer;
+        }
+        slots[slot] = timer;
+    }
+
+    /**
+     * Moves the timers of each higher level slot that became due to the lower levels,
+     * starting at the highest level so that timers may cascade down multiple levels at once
+     */
+    private void cascade() {
+        for ( int level = LEVELS - 1; level > 0; level-- ) {
+            long lowerLevelTicks = 1L << ( SLOT_BITS * level );
+            if ( ( currentTick & ( lowerLevelTicks - 1 ) ) != 0 ) {
+                continue;
+            }
+            int slot = level * SLOTS_PER_LEVEL + (int)( ( currentTick >>> ( SLOT_BITS * level ) ) & SLOT_MASK );
+            WheelTimer timer = slots[slot];
+            slots[slot] = null;
+            while ( timer != null ) {
+                WheelTimer next = timer.next;
+                timer.previous = null;
+                timer.next = null;
+                link( timer );
+                timer = next;
+            }
+        }
+    }
+
+    /**
+     * Expires all timers of the given level 0 slot that are due
+     *
+     * @return the number of expired timers
+     */
+    private int expireSlot( int slot, long nowNanos ) {
+        // take one timer after the other, so that tasks may cancel any other timer of this slot.
+        // re-armed timers never link into the current slot, because their deadline is at least the next tick.
+        // all timers of a level 0 slot are due, because a timer is only linked there within 63 ticks of its deadline
+        int expired = 0;
+        WheelTimer timer;
+        while ( ( timer = slots[slot] ) != null ) {
+            slots[slot] = timer.next;
+            if ( timer.next != null ) {
+                timer.next.previous = null;
+            }
+            timer.next = null;
+            timer.slot = -1;
+            timer.wheel = null;
+            armedCount--;
+            expired++;
+            try {
+                timer.getTask().onTimerExpired( timer, nowNanos );
+            }
+            catch ( Exception e ) {
+                e.printStackTrace();
+            }
+        }
+        return expired;
+    }
+}
@@ -0,0 +1,83 @@
+package com.timtrense.quic.impl;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.ToString;
+
+/**
+ * A reusable timer of a {@link TimerWheel}.
+ * <p>
+ * The timer is its own entry within the doubly linked list of its wheel slot, so arming, re-arming and
+ * cancelling it neither allocates nor searches. Owners allocate their timers once and re-arm them as often
+ * as needed.
+ *
+ * @author Tim Trense
+ */
+@ToString( onlyExplicitlyIncluded = true )
+public class WheelTimer {
+
+    /**
+     * the action to run on expiry
+     */
+    @Getter
+    private final @NonNull TimerTask task;
+    /**
+     * an arbitrary object that the task may use to identify the context of the timer
+     */
+    @Getter
+    private final Object attachment;
+    /**
+     * the time this timer expires at, as given by {@link System#nanoTime()}, if {@link #isArmed() armed}
+     */
+    @Getter
+    @ToString.Include
+    long deadlineNanos;
+    /**
+     * the tick of the wheel at which this timer expires
+     */
+    long deadlineTick;
+    /**
+     * the wheel this timer is armed at, null if not armed
+     */
+    TimerWheel wheel;
+    /**
+     * the slot list this timer is linked into, by its index within the wheel
+     */
+    int slot = -1;
+    WheelTimer previous;
+    WheelTimer next;
+
+    public WheelTimer( @NonNull TimerTask task ) {
+        this( task, null );
+    }
+
+    /**
+     * @param task       the action to run on expiry
+     * @param attachment an arbitrary object that the task may use to identify the context of the timer
+     */
+    public WheelTimer( @NonNull TimerTask task, Object attachment ) {
+        this.task = task;
+        this.attachment = attachment;
+    }
+
+    /**
+     * @return true if this timer awaits its expiry
+     */
+    @ToString.Include( name = "armed" )
+    public boolean isArmed() {
+        return wheel != null;
+    }
+
+    /**
+     * Disarms this timer if armed
+     *
+     * @return true if the timer was armed
+     */
+    public boolean cancel() {
+        if ( wheel == null ) {
+            return false;
+        }
+        wheel.unlink( this );
+        return true;
+    }
+}
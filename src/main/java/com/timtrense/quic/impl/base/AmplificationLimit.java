@@ -0,0 +1,116 @@
+package com.timtrense.quic.impl.base;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accounts the bytes exchanged with the peer over one path to enforce the anti-amplification limit
+ * until the address of the peer is validated.
+ * <p>
+ * "Prior to validating the client address, servers MUST NOT send more
+ * than three times as many bytes as the number of bytes they have
+ * received. This limits the magnitude of any amplification attack that
+ * can be mounted using spoofed source addresses. For the purposes of
+ * avoiding amplification prior to address validation, servers MUST
+ * count all of the payload bytes received in datagrams that are
+ * uniquely attributed to a single connection. This includes datagrams
+ * that contain packets that are successfully processed and datagrams
+ * that contain packets that are all discarded."
+ * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-8
+ * <p>
+ * Counting does not allocate, so it may be done for every datagram received and sent.
+ * This class is thread-safe.
+ *
+ * @author Tim Trense
+ * @see <a href="https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-8">QUIC Spec/Section 8</a>
+ */
+public class AmplificationLimit {
+
+    /**
+     * how many times the received bytes may be sent to an unvalidated address
+     */
+    public static final int AMPLIFICATION_FACTOR = 3;
+
+    /**
+     * the payload bytes of all datagrams received over the path
+     */
+    private final AtomicLong bytesReceived = new AtomicLong();
+    /**
+     * the payload bytes of all datagrams sent over the path
+     */
+    private final AtomicLong bytesSent = new AtomicLong();
+    /**
+     * whether the address of the peer is validated, lifting the limit
+     */
+    private volatile boolean validated;
+
+    /**
+     * @param validated whether the address of the peer is validated from the start,
+     *                  as the server address is for a client
+     */
+    public AmplificationLimit( boolean validated ) {
+        this.validated = validated;
+    }
+
+    /**
+     * @param bytes the payload length of a datagram received over the path
+     */
+    public void onBytesReceived( int bytes ) {
+        if ( !validated ) {
+            bytesReceived.addAndGet( bytes );
+        }
+    }
+
+    /**
+     * @param bytes the payload length of a datagram sent over the path
+     */
+    public void onBytesSent( int bytes ) {
+        if ( !validated ) {
+            bytesSent.addAndGet( bytes );
+        }
+    }
+
+    /**
+     * Lifts the limit, because the address of the peer was validated
+     */
+    public void onAddressValidated() {
+        validated = true;
+    }
+
+    /**
+     * @return whether the address of the peer is validated
+     */
+    public boolean isValidated() {
+        return validated;
+    }
+
+    /**
+     * @return the number of bytes that may still be sent over the path, {@link Long#MAX_VALUE} if validated
+     */
+    public long getAllowance() {
+        if ( validated ) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max( 0, AMPLIFICATION_FACTOR * bytesReceived.get() - bytesSent.get() );
+    }
+
+    /**
+     * @return true if nothing may be sent over the path before receiving more from the peer
+     */
+    public boolean isBlocked() {
+        return getAllowance() == 0;
+    }
+
+    /**
+     * @return the payload bytes of all datagrams received over the path while unvalidated
+     */
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    /**
+     * @return the payload bytes of all datagrams sent over the path while unvalidated
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+}
@@ -0,0 +1,180 @@
+package com.timtrense.quic.impl.base;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import lombok.NonNull;
+
+/**
+ * Base class for {@link Flow.Publisher publishers} that serve a single subscriber and emit items only as demanded.
+ * <p>
+ * All signals to the subscriber are issued by {@link #drain()}, which runs on the given executor and never
+ * concurrently with itself. Subclasses call {@link #signal()} whenever items may have become available.
+ * Demand is tracked lock-free and capped at {@link Long#MAX_VALUE}, which means unbounded.
+ *
+ * @param <T> the type of published items
+ * @author Tim Trense
+ */
+public abstract class BaseSingleSubscriberPublisher<T> implements Flow.Publisher<T> {
+
+    private final @NonNull Executor executor;
+    private final AtomicReference<Flow.Subscriber<? super T>> subscriber = new AtomicReference<>();
+    private final AtomicLong demand = new AtomicLong();
+    /**
+     * the number of requested drains, of which only the first one runs the drain loop
+     */
+    private final AtomicInteger pendingDrains = new AtomicInteger();
+    private volatile boolean terminated;
+
+    /**
+     * @param executor the executor to signal the subscriber on
+     */
+    protected BaseSingleSubscriberPublisher( @NonNull Executor executor ) {
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe( @NonNull Flow.Subscriber<? super T> newSubscriber ) {
+        if ( !subscriber.compareAndSet( null, newSubscriber ) ) {
+            newSubscriber.onSubscribe( new Flow.Subscription() {
+                @Override
+                public void request( long n ) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            } );
+            newSubscriber.onError( new IllegalStateException( "Cannot subscribe more than once" ) );
+            return;
+        }
+        newSubscriber.onSubscribe( new Subscription() );
+        signal();
+    }
+
+    /**
+     * Called after the subscriber requested more items, before draining.
+     *
+     * @param n the number of additionally requested items
+     */
+    protected void onRequest( long n ) {
+    }
+
+    /**
+     * Called once the subscriber cancelled its subscription
+     */
+    protected void onCancel() {
+    }
+
+    /**
+     * Emits items while there is demand, using {@link #emit(Object)}, {@link #complete()} and {@link #fail(Throwable)}.
+     * Never runs concurrently with itself.
+     */
+    protected abstract void drain();
+
+    /**
+     * Schedules a {@link #drain()}, because items may have become available
+     */
+    protected final void signal() {
+        if ( subscriber.get() == null || pendingDrains.getAndIncrement() != 0 ) {
+            return;
+        }
+        executor.execute( () -> {
+            int missed = 1;
+            do {
+                if ( !terminated ) {
+                    drain();
+                }
+                missed = pendingDrains.addAndGet( -missed );
+            } while ( missed != 0 );
+        } );
+    }
+
+    /**
+     * @return the number of items the subscriber requested but did not receive yet
+     */
+    protected final long getDemand() {
+        return terminated ? 0 : demand.get();
+    }
+
+    /**
+     * Takes one item from the demand
+     *
+     * @return false if there is no demand
+     */
+    protected final boolean tryConsumeDemand() {
+        while ( !terminated ) {
+            long current = demand.get();
+            if ( current == 0 ) {
+                return false;
+            }
+            if ( current == Long.MAX_VALUE || demand.compareAndSet( current, current - 1 ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Delivers an item, for which demand must have been {@link #tryConsumeDemand() consumed}
+     *
+     * @param item the item to deliver
+     */
+    protected final void emit( @NonNull T item ) {
+        subscriber.get().onNext( item );
+    }
+
+    /**
+     * Terminates the subscription successfully
+     */
+    protected final void complete() {
+        if ( !terminated ) {
+            terminated = true;
+            subscriber.get().onComplete();
+        }
+    }
+
+    /**
+     * Terminates the subscription with an error
+     *
+     * @param error the cause of the termination
+     */
+    protected final void fail( @NonNull Throwable error ) {
+        if ( !terminated ) {
+            terminated = true;
+            subscriber.get().onError( error );
+        }
+    }
+
+    /**
+     * @return true if the subscription was completed, failed or cancelled
+     */
+    protected final boolean isTerminated() {
+        return terminated;
+    }
+
+    private final class Subscription implements Flow.Subscription {
+
+        @Override
+        public void request( long n ) {
+            if ( n <= 0 ) {
+                // "the Subscription MUST signal onError with a java.lang.IllegalArgumentException"
+                executor.execute( () -> fail( new IllegalArgumentException( "Non-positive request: " + n ) ) );
+                return;
+            }
+            demand.getAndUpdate( current -> current + n < 0 ? Long.MAX_VALUE : current + n );
+            onRequest( n );
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            if ( !terminated ) {
+                terminated = true;
+                onCancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.timtrense.quic.impl.base;
+
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.spec.AlgorithmParameterSpec;
+import javax.crypto.Cipher;
+import javax.crypto.spec.ChaCha20ParameterSpec;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import lombok.Getter;
+import lombok.NonNull;
+
+import at.favre.lib.crypto.HKDF;
+import at.favre.lib.crypto.HkdfMacFactory;
+
+import com.timtrense.quic.impl.HkdfUtil;
+
+/**
+ * The TLS 1.3 cipher suites that QUIC packets can be protected with, each defining the AEAD, the hash function
+ * for HKDF and the header protection algorithm.
+ * <p>
+ * "QUIC can use any of the cipher suites defined in [TLS13] with the
+ * exception of TLS_AES_128_CCM_8_SHA256."
+ * Quote from https://tools.ietf.org/html/draft-ietf-quic-tls-32#section-5.3
+ * <p>
+ * TLS_AES_128_CCM_SHA256 is not offered, because the JDK provides no AES-CCM.
+ *
+ * @author Tim Trense
+ * @see <a href="https://tools.ietf.org/html/draft-ietf-quic-tls-32#section-5.4.3">QUIC Spec-TLS/Section 5.4.3</a>
+ * @see <a href="https://tools.ietf.org/html/draft-ietf-quic-tls-32#section-5.4.4">QUIC Spec-TLS/Section 5.4.4</a>
+ */
+public enum CipherSuite {
+
+    TLS_AES_128_GCM_SHA256( 0x1301, "AES/GCM/NoPadding", "AES", 16, "HmacSHA256", 32, "AES/ECB/NoPadding" ),
+    TLS_AES_256_GCM_SHA384( 0x1302, "AES/GCM/NoPadding", "AES", 32, "HmacSHA384", 48, "AES/ECB/NoPadding" ),
+    TLS_CHACHA20_POLY1305_SHA256( 0x1303, "ChaCha20-Poly1305", "ChaCha20", 32, "HmacSHA256", 32, "ChaCha20" );
+
+    /**
+     * the length of the AEAD nonce and thus of the IV, which is the same for all suites
+     */
+    public static final int IV_LENGTH = 12;
+    /**
+     * the length of the ciphertext sample that header protection is computed from
+     */
+    public static final int SAMPLE_LENGTH = 16;
+    /**
+     * the length of the header protection mask that is actually applied
+     */
+    public static final int MASK_LENGTH = 5;
+
+    /**
+     * the identifier of the suite within TLS
+     */
+    @Getter
+    private final int value;
+    /**
+     * the transformation to request from {@link Cipher#getInstance(String)} for packet protection
+     */
+    @Getter
+    private final String aeadTransformation;
+    /**
+     * the algorithm of the AEAD and header protection keys
+     */
+    @Getter
+    private final String keyAlgorithm;
+    /**
+     * the length of the AEAD and header protection keys
+     */
+    @Getter
+    private final int keyLength;
+    /**
+     * the length of the output of the hash function, which is also the length of the secrets
+     */
+    @Getter
+    private final int hashLength;
+    /**
+     * the transformation to request from {@link Cipher#getInstance(String)} for header protection
+     */
+    @Getter
+    private final String headerProtectionTransformation;
+    private final HKDF hkdf;
+
+    CipherSuite( int value, String aeadTransformation, String keyAlgorithm, int keyLength,
+            String macAlgorithm, int hashLength, String headerProtectionTransformation ) {
+        this.value = value;
+        this.aeadTransformation = aeadTransformation;
+        this.keyAlgorithm = keyAlgorithm;
+        this.keyLength = keyLength;
+        this.hashLength = hashLength;
+        this.headerProtectionTransformation = headerProtectionTransformation;
+        this.hkdf = HKDF.from( new HkdfMacFactory.Default( macAlgorithm ) );
+    }
+
+    /**
+     * @param value the identifier of the suite within TLS
+     * @return the suite or null if QUIC packets cannot be protected with that suite
+     */
+    public static CipherSuite findByValue( int value ) {
+        for ( CipherSuite suite : values() ) {
+            if ( suite.value == value ) {
+                return suite;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param secret the secret of one direction
+     * @return the AEAD key, derived with the label "quic key"
+     */
+    public SecretKeySpec deriveKey( @NonNull byte[] secret ) {
+        return new SecretKeySpec( expandLabel( secret, HkdfUtil.LABEL_QUIC_KEY, keyLength ), keyAlgorithm );
+    }
+
+    /**
+     * @param secret the secret of one direction
+     * @return the AEAD IV, derived with the label "quic iv"
+     */
+    public byte[] deriveIv( @NonNull byte[] secret ) {
+        return expandLabel( secret, HkdfUtil.LABEL_QUIC_IV, IV_LENGTH );
+    }
+
+    /**
+     * @param secret the secret of one direction
+     * @return the header protection key, derived with the label "quic hp"
+     */
+    public SecretKeySpec deriveHeaderProtectionKey( @NonNull byte[] secret ) {
+        return new SecretKeySpec( expandLabel( secret, HkdfUtil.LABEL_QUIC_HP, keyLength ), keyAlgorithm );
+    }
+
+    /**
+     * Derives the secret of the next key phase with HKDF-Expand-Label, the label "quic ku" and an empty context.
+     * The header protection key is not derived again, it remains the same across key updates.
+     *
+     * @param secret the secret of one direction of the current key phase
+     * @return the secret of that direction of the next key phase
+     * @see <a href="https://tools.ietf.org/html/draft-ietf-quic-tls-32#section-6.1">QUIC Spec-TLS/Section 6.1</a>
+     */
+    public byte[] deriveNextSecret( @NonNull byte[] secret ) {
+        return expandLabel( secret, HkdfUtil.LABEL_QUIC_KU, hashLength );
+    }
+
+    /**
+     * @param nonce the nonce derived from the IV and the packet number
+     * @return the AEAD parameters for protecting or removing protection of a single packet
+     */
+    public AlgorithmParameterSpec createAeadParameters( @NonNull byte[] nonce ) {
+        if ( this == TLS_CHACHA20_POLY1305_SHA256 ) {
+            return new IvParameterSpec( nonce );
+        }
+        return new GCMParameterSpec( 128, nonce );
+    }
+
+    /**
+     * @param headerProtectionKey the key derived by {@link #deriveHeaderProtectionKey(byte[])}
+     * @return a cipher for {@link #deriveHeaderProtectionMask(Cipher, SecretKeySpec, byte[], int, byte[])}
+     * @throws GeneralSecurityException if the JDK does not provide the header protection algorithm
+     */
+    public Cipher createHeaderProtectionCipher( @NonNull SecretKeySpec headerProtectionKey )
+            throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance( headerProtectionTransformation );
+        if ( this != TLS_CHACHA20_POLY1305_SHA256 ) {
+            cipher.init( Cipher.ENCRYPT_MODE, headerProtectionKey );
+        }
+        return cipher;
+    }
+
+    /**
+     * Computes the header protection mask from a ciphertext sample.
+     * <p>
+     * For AES based suites, the mask is the sample encrypted in ECB mode. For ChaCha20, "The first 4 bytes of
+     * the sampled ciphertext are the block counter" and "The remaining 12 bytes are used as the nonce"
+     * (Quote from https://tools.ietf.org/html/draft-ietf-quic-tls-32#section-5.4.4), and the mask is the
+     * encryption of five zero bytes.
+     *
+     * @param cipher              the cipher created by {@link #createHeaderProtectionCipher(SecretKeySpec)}
+     * @param headerProtectionKey the key derived by {@link #deriveHeaderProtectionKey(byte[])}
+     * @param sample              the array holding the sample
+     * @param offset              the start of the {@link #SAMPLE_LENGTH} bytes sample within the array
+     * @param mask                receives the mask, at least {@link #SAMPLE_LENGTH} bytes long
+     * @return the cipher to use for the next mask, which is a replacement if the given one could not be reused
+     * @throws GeneralSecurityException if the mask cannot be computed
+     */
+    public Cipher deriveHeaderProtectionMask( @NonNull Cipher cipher, @NonNull SecretKeySpec headerProtectionKey,
+            @NonNull byte[] sample, int offset, @NonNull byte[] mask ) throws GeneralSecurityException {
+        if ( this != TLS_CHACHA20_POLY1305_SHA256 ) {
+            cipher.doFinal( sample, offset, SAMPLE_LENGTH, mask, 0 );
+            return cipher;
+        }
+        int counter = ( sample[offset] & 0xFF ) | ( sample[offset + 1] & 0xFF ) << 8
+                | ( sample[offset + 2] & 0xFF ) << 16 | ( sample[offset + 3] & 0xFF ) << 24;
+        byte[] nonce = new byte[IV_LENGTH];
+        System.arraycopy( sample, offset + 4, nonce, 0, IV_LENGTH );
+        cipher = init( cipher, headerProtectionTransformation, Cipher.ENCRYPT_MODE, headerProtectionKey,
+                new ChaCha20ParameterSpec( nonce, counter ) );
+        cipher.doFinal( new byte[MASK_LENGTH], 0, MASK_LENGTH, mask, 0 );
+        return cipher;
+    }
+
+    /**
+     * Initializes the AEAD cipher for protecting or removing protection of a single packet
+     *
+     * @param cipher the cipher to reuse or null to create one
+     * @param mode   {@link Cipher#ENCRYPT_MODE} or {@link Cipher#DECRYPT_MODE}
+     * @param key    the key derived by {@link #deriveKey(byte[])}
+     * @param nonce  the nonce derived from the IV and the packet number
+     * @return the initialized cipher, which is a replacement if the given one could not be reused
+     * @throws GeneralSecurityException if the cipher cannot be initialized
+     */
+    public Cipher initAeadCipher( Cipher cipher, int mode, @NonNull SecretKeySpec key, @NonNull byte[] nonce )
+            throws GeneralSecurityException {
+        if ( cipher == null ) {
+            cipher = Cipher.getInstance( aeadTransformation );
+        }
+        return init( cipher, aeadTransformation, mode, key, createAeadParameters( nonce ) );
+    }
+
+    private byte[] expandLabel( byte[] secret, byte[] label, int length ) {
+        return HkdfUtil.tlsExpandLabel( hkdf, secret, label, null, length );
+    }
+
+    /**
+     * The JDK refuses to initialize a cipher with the key and nonce of its previous initialization, even for
+     * decryption. A duplicated packet or sample legitimately repeats the nonce, thus a fresh instance is used then.
+     */
+    private static Cipher init( Cipher cipher, String transformation, int mode, SecretKeySpec key,
+            AlgorithmParameterSpec parameters ) throws GeneralSecurityException {
+        try {
+            cipher.init( mode, key, parameters );
+            return cipher;
+        }
+        catch ( InvalidKeyException e ) {
+            Cipher fresh = Cipher.getInstance( transformation );
+            fresh.init( mode, key, parameters );
+            return fresh;
+        }
+    }
+}
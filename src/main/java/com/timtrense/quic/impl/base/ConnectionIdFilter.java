@@ -0,0 +1,170 @@
+package com.timtrense.quic.impl.base;
+
+import java.security.SecureRandom;
+import java.util.Random;
+import lombok.NonNull;
+
+/**
+ * A compact, probabilistic set of the connection ids issued by an endpoint, used to drop packets addressed to
+ * unknown connections before any further parsing.
+ * <p>
+ * The set is a counting Bloom filter with 8-bit counters: it never answers false for a contained id, but may
+ * answer true for an id that was never added. Counters saturate instead of overflowing, so that removing
+ * never produces false negatives. Lookups read the id directly from the received datagram and do not allocate.
+ * <p>
+ * The slots are selected by a hash that is keyed with a random secret, so that a peer cannot choose connection
+ * ids that all map to the same counters and thus pass the filter or saturate it.
+ * <p>
+ * This class is thread-safe. Modifications are serialized, lookups do not lock.
+ *
+ * @author Tim Trense
+ */
+public class ConnectionIdFilter {
+
+    /**
+     * the number of counters per expected id, yielding a false positive rate of about 3 percent
+     */
+    public static final int COUNTERS_PER_ID = 8;
+    /**
+     * the number of counters each id maps to
+     */
+    public static final int HASH_FUNCTIONS = 3;
+
+    private static final int SATURATED = 0xFF;
+
+    /**
+     * the counters of all ids mapping to each slot, unsigned
+     */
+    private final byte[] counters;
+    /**
+     * the secret that the slot hash is keyed with
+     */
+    private final long hashKey;
+    /**
+     * written after each modification and read before each lookup to publish the counters to other threads
+     */
+    private volatile int modifications;
+    /**
+     * the number of ids currently within this set
+     */
+    private int size;
+
+    /**
+     * Creates a set whose hash is keyed from a new {@link SecureRandom}
+     *
+     * @param expectedIds the number of simultaneously issued ids that this set is dimensioned for
+     */
+    public ConnectionIdFilter( int expectedIds ) {
+        this( expectedIds, new SecureRandom() );
+    }
+
+    /**
+     * @param expectedIds the number of simultaneously issued ids that this set is dimensioned for
+     * @param random      the source to generate the hash key from
+     */
+    public ConnectionIdFilter( int expectedIds, @NonNull Random random ) {
+        if ( expectedIds <= 0 ) {
+            throw new IllegalArgumentException( "Cannot dimension a ConnectionIdFilter for non-positive ids" );
+        }
+        this.counters = new byte[Math.max( 64, expectedIds * COUNTERS_PER_ID )];
+        this.hashKey = random.nextLong();
+    }
+
+    /**
+     * @param id the serialized form of an issued connection id
+     */
+    public synchronized void add( @NonNull byte[] id ) {
+        long hash = hash( id, 0, id.length );
+        int h1 = (int)hash;
+        int h2 = (int)( hash >>> 32 );
+        for ( int i = 0; i < HASH_FUNCTIONS; i++ ) {
+            int slot = slot( h1, h2, i );
+            int count = counters[slot] & 0xFF;
+            if ( count < SATURATED ) {
+                counters[slot] = (byte)( count + 1 );
+            }
+        }
+        size++;
+        modifications++;
+    }
+
+    /**
+     * @param id the serialized form of a retired connection id that was {@link #add(byte[]) added} before
+     */
+    public synchronized void remove( @NonNull byte[] id ) {
+        long hash = hash( id, 0, id.length );
+        int h1 = (int)hash;
+        int h2 = (int)( hash >>> 32 );
+        for ( int i = 0; i < HASH_FUNCTIONS; i++ ) {
+            int slot = slot( h1, h2, i );
+            int count = counters[slot] & 0xFF;
+            // a saturated counter may stand for more ids than it can count, so it is never decremented
+            if ( count > 0 && count < SATURATED ) {
+                counters[slot] = (byte)( count - 1 );
+            }
+        }
+        size--;
+        modifications++;
+    }
+
+    /**
+     * @return the number of ids currently within this set
+     */
+    public synchronized int getSize() {
+        return size;
+    }
+
+    /**
+     * @param data   the array holding the connection id, e.g. a received datagram
+     * @param offset the start of the connection id within the array
+     * @param length the length of the connection id
+     * @return false if the id was definitely never added, true if it probably was
+     */
+    public boolean mightContain( @NonNull byte[] data, int offset, int length ) {
+        if ( modifications == 0 ) {
+            return false;
+        }
+        long hash = hash( data, offset, length );
+        int h1 = (int)hash;
+        int h2 = (int)( hash >>> 32 );
+        for ( int i = 0; i < HASH_FUNCTIONS; i++ ) {
+            if ( counters[slot( h1, h2, i )] == 0 ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param id the serialized form of a connection id
+     * @return false if the id was definitely never added, true if it probably was
+     */
+    public boolean mightContain( @NonNull byte[] id ) {
+        return mightContain( id, 0, id.length );
+    }
+
+    /**
+     * Derives the i-th slot from two independent hashes, as proposed by Kirsch and Mitzenmacher
+     */
+    private int slot( int h1, int h2, int i ) {
+        return Math.floorMod( h1 + i * h2, counters.length );
+    }
+
+    /**
+     * A keyed hash over all bytes of the id, finished with the MurmurHash3 mixing.
+     * Its halves serve as the two hashes that the slots are derived from.
+     */
+    private long hash( byte[] data, int offset, int length ) {
+        long hash = hashKey ^ length;
+        for ( int i = offset; i < offset + length; i++ ) {
+            hash = ( hash ^ ( data[i] & 0xFF ) ) * 0x9E3779B97F4A7C15L;
+            hash ^= hash >>> 29;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,54 @@
+package com.timtrense.quic.impl.base;
+
+import lombok.NonNull;
+
+/**
+ * Generates the connection ids that an endpoint issues to its peers.
+ * <p>
+ * "Each endpoint selects connection IDs using an implementation-specific (and
+ * perhaps deployment-specific) method that will allow packets with that
+ * connection ID to be routed back to the endpoint and to be identified
+ * by the endpoint upon receipt."
+ * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-5.1
+ * <p>
+ * A generator may encode the shard that processes a connection into its connection ids, so that datagrams
+ * can be dispatched to the shard from the connection id alone, without looking the connection up.
+ * All connection ids of one generator have the same length, which is required to parse short headers.
+ * <p>
+ * Implementations must be thread-safe.
+ *
+ * @author Tim Trense
+ * @see RandomConnectionIdGenerator
+ * @see QuicLbConnectionIdGenerator
+ */
+public interface ConnectionIdGenerator {
+
+    /**
+     * "In QUIC version 1, this value MUST NOT exceed 20."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-17.2
+     */
+    int MAX_CONNECTION_ID_LENGTH = 20;
+
+    /**
+     * @return the length of all connection ids generated
+     */
+    int getConnectionIdLength();
+
+    /**
+     * Generates a new connection id. Ids may collide, the caller is responsible for checking uniqueness.
+     *
+     * @param shardId the shard that processes the connection, non-negative
+     * @return a new connection id of {@link #getConnectionIdLength()} in serialized form
+     */
+    byte[] generateConnectionId( int shardId );
+
+    /**
+     * Decodes the shard from a connection id that was generated by this generator
+     *
+     * @param data   the array holding the connection id, e.g. a received datagram
+     * @param offset the start of the connection id within the array
+     * @param length the number of bytes available at the offset
+     * @return the shard, or -1 if the connection id does not encode one
+     */
+    int decodeShardId( @NonNull byte[] data, int offset, int length );
+}
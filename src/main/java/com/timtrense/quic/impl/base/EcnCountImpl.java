@@ -0,0 +1,21 @@
+package com.timtrense.quic.impl.base;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NonNull;
+
+import com.timtrense.quic.EcnCount;
+import com.timtrense.quic.VariableLengthInteger;
+
+/**
+ * @author Tim Trense
+ */
+@Data
+@AllArgsConstructor
+public class EcnCountImpl implements EcnCount {
+
+    private @NonNull VariableLengthInteger ect0Count;
+    private @NonNull VariableLengthInteger ect1Count;
+    private @NonNull VariableLengthInteger ecnCeCount;
+
+}
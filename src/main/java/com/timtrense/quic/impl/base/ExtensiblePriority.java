@@ -0,0 +1,65 @@
+package com.timtrense.quic.impl.base;
+
+import lombok.Data;
+import lombok.NonNull;
+
+import com.timtrense.quic.StreamPriority;
+
+/**
+ * A {@link StreamPriority} made of an urgency and an incremental flag, as defined by the
+ * Extensible Prioritization Scheme for HTTP.
+ * <p>
+ * "The urgency (u) parameter value is Integer (see Section 3.3.1 of
+ * [STRUCTURED-FIELDS]), between 0 and 7 inclusive, in descending order
+ * of priority.  The default is 3."
+ * Quote from https://www.rfc-editor.org/rfc/rfc9218#section-4.1
+ * <p>
+ * "The incremental (i) parameter value is Boolean (see Section 3.3.6 of
+ * [STRUCTURED-FIELDS]).  It indicates if an HTTP response can be
+ * processed incrementally, i.e., provide some meaningful output as
+ * chunks of the response arrive.
+ * The default value of the incremental parameter is false (0)."
+ * Quote from https://www.rfc-editor.org/rfc/rfc9218#section-4.2
+ *
+ * @author Tim Trense
+ * @see StreamSendScheduler
+ */
+@Data
+public class ExtensiblePriority implements StreamPriority {
+
+    public static final int MOST_URGENT = 0;
+    public static final int LEAST_URGENT = 7;
+    public static final int DEFAULT_URGENCY = 3;
+
+    public static final ExtensiblePriority DEFAULT = new ExtensiblePriority( DEFAULT_URGENCY, false );
+
+    /**
+     * the urgency between {@link #MOST_URGENT} and {@link #LEAST_URGENT}
+     */
+    private final int urgency;
+    /**
+     * whether the stream is useful to the receiver in parts and may thus share bandwidth with others
+     */
+    private final boolean incremental;
+
+    public ExtensiblePriority( int urgency, boolean incremental ) {
+        if ( urgency < MOST_URGENT || urgency > LEAST_URGENT ) {
+            throw new IllegalArgumentException( "Cannot set an urgency outside of 0..7: " + urgency );
+        }
+        this.urgency = urgency;
+        this.incremental = incremental;
+    }
+
+    /**
+     * A lower urgency value means a higher priority, thus compares greater
+     */
+    @Override
+    public int compareTo( @NonNull StreamPriority o ) {
+        if ( o instanceof ExtensiblePriority ) {
+            return Integer.compare( ( (ExtensiblePriority)o ).urgency, urgency );
+        }
+        else {
+            return 0;
+        }
+    }
+}
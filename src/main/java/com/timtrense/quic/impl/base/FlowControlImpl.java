@@ -1,37 +1,81 @@
 package com.timtrense.quic.impl.base;
 
-import lombok.Data;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import lombok.Getter;
+import lombok.ToString;
 
 import com.timtrense.quic.CreditBasedFlowControl;
 import com.timtrense.quic.VariableLengthInteger;
 
-@Data
+/**
+ * A lock-free {@link CreditBasedFlowControl}, backed by two primitive longs that are only modified atomically.
+ * <p>
+ * A stream level flow control may be composed with the connection level flow control as its
+ * {@link #getParent() parent}. {@link #tryReserve(long)} then reserves the credit of both levels at once:
+ * "Senders MUST NOT send data in excess of either limit."
+ * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-4.1
+ * <p>
+ * Instances are safe to be used by application threads writing to streams concurrently with the
+ * transport thread raising the limits.
+ *
+ * @author Tim Trense
+ */
+@ToString( exclude = "parent" )
 public class FlowControlImpl implements CreditBasedFlowControl {
 
-    private VariableLengthInteger limit;
-    private VariableLengthInteger transferred;
+    private static final AtomicLongFieldUpdater<FlowControlImpl> LIMIT =
+            AtomicLongFieldUpdater.newUpdater( FlowControlImpl.class, "limit" );
+    private static final AtomicLongFieldUpdater<FlowControlImpl> TRANSFERRED =
+            AtomicLongFieldUpdater.newUpdater( FlowControlImpl.class, "transferred" );
+
+    private volatile long limit;
+    private volatile long transferred;
+    /**
+     * the flow control of the enclosing level, typically of the connection, or null
+     */
+    @Getter
+    private final CreditBasedFlowControl parent;
 
     public FlowControlImpl( VariableLengthInteger limit ) {
+        this( limit.longValue() );
+    }
+
+    /**
+     * @param limit the initial limit
+     */
+    public FlowControlImpl( long limit ) {
+        this( limit, null );
+    }
+
+    /**
+     * @param limit  the initial limit
+     * @param parent the flow control of the enclosing level that every reservation must also be granted by,
+     *               or null
+     */
+    public FlowControlImpl( long limit, CreditBasedFlowControl parent ) {
+        if ( limit < 0 ) {
+            throw new IllegalArgumentException( "Cannot set a negative limit" );
+        }
         this.limit = limit;
-        this.transferred = VariableLengthInteger.ZERO;
+        this.parent = parent;
     }
 
     @Override
     public long getLimit() {
-        return limit.getValue();
+        return limit;
     }
 
     @Override
     public long getTransferred() {
-        return transferred.getValue();
+        return transferred;
     }
 
     public VariableLengthInteger getVariableLengthIntegerLimit() {
-        return limit;
+        return new VariableLengthInteger( limit );
     }
 
     public VariableLengthInteger getVariableLengthIntegerTransferred() {
-        return transferred;
+        return new VariableLengthInteger( transferred );
     }
 
     @Override
@@ -40,8 +84,7 @@ public long incrementTransferred( int numberOfBytes ) {
             throw new IllegalArgumentException( "Cannot increment the transferred number of bytes count by a negative" +
                     " amount of: " + numberOfBytes );
         }
-        transferred = transferred.increment( numberOfBytes );
-        return transferred.longValue();
+        return TRANSFERRED.addAndGet( this, numberOfBytes );
     }
 
     @Override
@@ -50,7 +93,53 @@ public long incrementLimit( int numberOfBytes ) {
             throw new IllegalArgumentException( "Cannot increment the limit number of bytes count by a negative " +
                     "amount of: " + numberOfBytes );
         }
-        limit = limit.increment( numberOfBytes );
-        return limit.longValue();
+        return LIMIT.addAndGet( this, numberOfBytes );
+    }
+
+    @Override
+    public boolean raiseLimit( long newLimit ) {
+        long current;
+        do {
+            current = limit;
+            if ( newLimit <= current ) {
+                return false;
+            }
+        } while ( !LIMIT.compareAndSet( this, current, newLimit ) );
+        return true;
+    }
+
+    @Override
+    public long tryReserve( long numberOfBytes ) {
+        if ( numberOfBytes < 0 ) {
+            throw new IllegalArgumentException( "Cannot reserve a negative amount of: " + numberOfBytes );
+        }
+        long granted = reserveOwn( numberOfBytes );
+        if ( granted == 0 || parent == null ) {
+            return granted;
+        }
+        long grantedByParent = parent.tryReserve( granted );
+        if ( grantedByParent < granted ) {
+            // only the reservers of this level may have been denied credit in the meantime, never over-granted
+            TRANSFERRED.addAndGet( this, grantedByParent - granted );
+        }
+        return grantedByParent;
+    }
+
+    /**
+     * reserves as much as possible of the given amount at this level only
+     *
+     * @return the granted amount
+     */
+    private long reserveOwn( long numberOfBytes ) {
+        long current;
+        long granted;
+        do {
+            current = transferred;
+            granted = Math.min( numberOfBytes, limit - current );
+            if ( granted <= 0 ) {
+                return 0;
+            }
+        } while ( !TRANSFERRED.compareAndSet( this, current, current + granted ) );
+        return granted;
     }
 }
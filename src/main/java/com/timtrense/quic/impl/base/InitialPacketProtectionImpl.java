@@ -79,6 +79,34 @@ public class InitialPacketProtectionImpl implements PacketProtection {
     private byte[] clientInitialIV;
     private byte[] headerProtectionSecret;
     private Cipher headerProtectionCipher;
+    private byte[] serverInitialKey;
+    private byte[] serverInitialIV;
+    private byte[] serverHeaderProtectionSecret;
+
+    /**
+     * the AEAD key of this endpoints own direction, used for protecting sent packets
+     */
+    private SecretKeySpec sealingKey;
+    /**
+     * the AEAD IV of this endpoints own direction, used for protecting sent packets
+     */
+    private byte[] sealingIV;
+    /**
+     * reused for all sent packets, thus not thread-safe
+     */
+    private Cipher sealingCipher;
+    /**
+     * reused for all sent packets, thus not thread-safe
+     */
+    private Cipher sealingHeaderProtectionCipher;
+    /**
+     * reused buffer for the nonce of sent packets
+     */
+    private final byte[] sealingNonce = new byte[12];
+    /**
+     * reused buffer for the header protection mask of sent packets
+     */
+    private final byte[] sealingHeaderProtectionMask = new byte[16];
 
     /**
      * Generates the initial_secret as described by the pseudo-code of Section 5.2
@@ -173,6 +201,19 @@ public void initialize(@NonNull ConnectionId clientDestinationConnectionId, Prot
         headerProtectionCipher = Cipher.getInstance("AES/ECB/NoPadding");
         SecretKeySpec keySpec = new SecretKeySpec(headerProtectionSecret, "AES");
         headerProtectionCipher.init(Cipher.ENCRYPT_MODE, keySpec);
+
+        serverInitialKey = expandInitialQuicKey(serverInitialSecret);
+        serverInitialIV = expandInitialQuicIv(serverInitialSecret);
+        serverHeaderProtectionSecret = expandInitialHeaderProtection(serverInitialSecret);
+
+        // packets sent by this endpoint are protected with the keys of its own direction
+        boolean isServer = endpointRole == EndpointRole.SERVER;
+        sealingKey = new SecretKeySpec(isServer ? serverInitialKey : clientInitialKey, "AES");
+        sealingIV = isServer ? serverInitialIV : clientInitialIV;
+        sealingCipher = Cipher.getInstance("AES/GCM/NoPadding");
+        sealingHeaderProtectionCipher = Cipher.getInstance("AES/ECB/NoPadding");
+        sealingHeaderProtectionCipher.init(Cipher.ENCRYPT_MODE,
+                new SecretKeySpec(isServer ? serverHeaderProtectionSecret : headerProtectionSecret, "AES"));
     }
 
     @Override
@@ -248,4 +289,41 @@ public byte[] aeadDecrypt(byte[] message, byte[] associatedData, byte[] nonce)
         return aeadCipher.doFinal(message);
     }
 
+    /**
+     * Performs AEAD_AES_128_GCM encryption using the keys of this endpoints own direction, that is the server keys
+     * for {@link EndpointRole#SERVER} and the client keys for {@link EndpointRole#CLIENT}.
+     * The cipher instances are reused, thus this method is not thread-safe.
+     *
+     * @see PacketProtection#protectPacket(byte[], int, int, int, int, long)
+     */
+    @Override
+    public int protectPacket(@NonNull byte[] packet, int packetOffset, int packetNumberOffset,
+                             int packetNumberLength, int payloadLength, long packetNumber)
+            throws GeneralSecurityException {
+        if (sealingCipher == null) {
+            throw new IllegalStateException("Cannot protect packets before initialization");
+        }
+        int payloadOffset = packetNumberOffset + packetNumberLength;
+
+        // nonce = IV xor left-padded packet number, see deriveAeadNonce(long)
+        System.arraycopy(sealingIV, 0, sealingNonce, 0, sealingNonce.length);
+        for (int i = 0; i < 8; i++) {
+            sealingNonce[4 + i] ^= (byte) (packetNumber >>> (56 - 8 * i));
+        }
+        sealingCipher.init(Cipher.ENCRYPT_MODE, sealingKey, new GCMParameterSpec(128, sealingNonce));
+        sealingCipher.updateAAD(packet, packetOffset, payloadOffset - packetOffset);
+        int protectedPayloadLength = sealingCipher.doFinal(packet, payloadOffset, payloadLength,
+                packet, payloadOffset);
+
+        // "The same number of bytes are always sampled, [...] the Packet Number field is
+        //   assumed to be 4 bytes long" QUIC Spec-TLS/Section 5.4.2
+        sealingHeaderProtectionCipher.doFinal(packet, packetNumberOffset + 4, 16,
+                sealingHeaderProtectionMask, 0);
+        boolean isLongHeader = (packet[packetOffset] & 0x80) == 0x80;
+        packet[packetOffset] ^= sealingHeaderProtectionMask[0] & (isLongHeader ? 0x0f : 0x1f);
+        for (int i = 0; i < packetNumberLength; i++) {
+            packet[packetNumberOffset + i] ^= sealingHeaderProtectionMask[1 + i];
+        }
+        return protectedPayloadLength;
+    }
 }
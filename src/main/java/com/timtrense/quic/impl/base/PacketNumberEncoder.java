@@ -43,4 +43,25 @@ else if ( candidatePn > expectedPacketNumber + pnHalfWindow
 
         return candidatePn;
     }
+
+    /**
+     * Computes the number of bytes to use for encoding a packet number as described by Appendix A.2.
+     * <p>
+     * "The sender MUST use a packet number size able to represent more than
+     * twice as large a range than the difference between the largest
+     * acknowledged packet and packet number being sent."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-17.1
+     *
+     * @param fullPacketNumber    the full packet number of the packet being sent
+     * @param largestAcknowledged the largest packet number acknowledged by the peer in the same packet number
+     *                            space or -1 if none was acknowledged yet
+     * @return the number of bytes to encode the packet number with, one of 1, 2, 3 or 4
+     */
+    public static int getPacketNumberLength( long fullPacketNumber, long largestAcknowledged ) {
+        long numberOfUnacknowledged = fullPacketNumber - largestAcknowledged;
+        // number of bits needed to represent twice the range: log2(numberOfUnacknowledged) + 1
+        int minBits = 64 - Long.numberOfLeadingZeros( numberOfUnacknowledged ) + 1;
+        int numberOfBytes = ( minBits + 7 ) >> 3; // effectively dividing by 8, rounding up
+        return Math.max( 1, Math.min( 4, numberOfBytes ) );
+    }
 }
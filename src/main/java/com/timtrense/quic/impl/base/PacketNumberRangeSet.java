@@ -0,0 +1,310 @@
+package com.timtrense.quic.impl.base;
+
+import java.util.Arrays;
+
+/**
+ * A set of packet numbers, stored as disjoint and non-adjacent ranges within one primitive long array.
+ * <p>
+ * The ranges are kept in descending order, which is the order in which they are encoded in an ACK frame:
+ * range 0 holds the largest packet number. Inserting a packet number searches the affected range in O(log n)
+ * and coalesces it with adjacent ranges. Appending to the largest range (the common case of in-order
+ * delivery) takes constant time.
+ * <p>
+ * The history is bounded by a maximum number of ranges. If a new range would exceed that bound,
+ * the lowest range is dropped, which is the new range itself if it lies below all others.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @author Tim Trense
+ * @see <a href="https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-19.3.1">QUIC Spec/Section 19.3.1</a>
+ */
+public class PacketNumberRangeSet {
+
+    /**
+     * The default bound on the number of ranges.
+     * Chosen high enough to never limit ranges decoded from a single ACK frame within one datagram.
+     */
+    public static final int DEFAULT_MAX_RANGES = 1024;
+    /**
+     * The bound for sets that must never drop a range, e.g. because their size is already limited otherwise.
+     * Memory is still only allocated as ranges are added.
+     */
+    public static final int UNBOUNDED_MAX_RANGES = Integer.MAX_VALUE / 2;
+
+    /**
+     * the initial number of ranges that memory gets allocated for
+     */
+    private static final int INITIAL_CAPACITY = 4;
+
+    /**
+     * the maximum number of ranges to keep
+     */
+    private final int maxRanges;
+    /**
+     * at index 2*i: the largest packet number of range i,
+     * at index 2*i+1: the smallest packet number of range i
+     */
+    private long[] ranges;
+    /**
+     * the number of ranges currently in use
+     */
+    private int rangeCount;
+
+    public PacketNumberRangeSet() {
+        this( DEFAULT_MAX_RANGES );
+    }
+
+    /**
+     * @param maxRanges the maximum number of ranges to keep, at least 1
+     */
+    public PacketNumberRangeSet( int maxRanges ) {
+        if ( maxRanges < 1 ) {
+            throw new IllegalArgumentException( "Cannot keep less than one range: " + maxRanges );
+        }
+        this.maxRanges = maxRanges;
+        this.ranges = new long[2 * Math.min( maxRanges, INITIAL_CAPACITY )];
+    }
+
+    /**
+     * @return the maximum number of ranges to keep
+     */
+    public int getMaxRanges() {
+        return maxRanges;
+    }
+
+    /**
+     * @return the number of disjoint ranges in this set
+     */
+    public int getRangeCount() {
+        return rangeCount;
+    }
+
+    /**
+     * @return true if this set holds no packet number
+     */
+    public boolean isEmpty() {
+        return rangeCount == 0;
+    }
+
+    /**
+     * @param index the index of the range, 0 being the range with the largest packet numbers
+     * @return the largest packet number within that range
+     */
+    public long getLargest( int index ) {
+        checkIndex( index );
+        return ranges[2 * index];
+    }
+
+    /**
+     * @param index the index of the range, 0 being the range with the largest packet numbers
+     * @return the smallest packet number within that range
+     */
+    public long getSmallest( int index ) {
+        checkIndex( index );
+        return ranges[2 * index + 1];
+    }
+
+    /**
+     * @return the largest packet number in this set or -1 if the set is empty
+     */
+    public long getLargest() {
+        return rangeCount == 0 ? -1 : ranges[0];
+    }
+
+    /**
+     * @return the smallest packet number in this set or -1 if the set is empty
+     */
+    public long getSmallest() {
+        return rangeCount == 0 ? -1 : ranges[2 * rangeCount - 1];
+    }
+
+    /**
+     * @param packetNumber the packet number to look up
+     * @return true if this set holds the packet number
+     */
+    public boolean contains( long packetNumber ) {
+        int index = indexOfFirstRangeStartingAtOrBelow( packetNumber );
+        return index < rangeCount && ranges[2 * index] >= packetNumber;
+    }
+
+    /**
+     * Adds a single packet number to this set
+     *
+     * @param packetNumber the packet number to add
+     * @return false if the packet number was already contained
+     */
+    public boolean add( long packetNumber ) {
+        return addRange( packetNumber, packetNumber );
+    }
+
+    /**
+     * Adds all packet numbers between smallest and largest (both inclusive) to this set
+     *
+     * @param smallest the smallest packet number to add
+     * @param largest  the largest packet number to add
+     * @return false if all packet numbers were already contained
+     */
+    public boolean addRange( long smallest, long largest ) {
+        if ( smallest < 0 || largest > VariableLengthIntegerEncoder.MAX_VALUE || smallest > largest ) {
+            throw new IllegalArgumentException( "Invalid packet number range: [" + smallest + ";" + largest + "]" );
+        }
+        if ( rangeCount == 0 || smallest > ranges[0] + 1 ) {
+            // above all ranges
+            return insertRange( 0, largest, smallest );
+        }
+        if ( smallest == ranges[0] + 1 ) {
+            // extends the highest range, typical for in-order delivery
+            ranges[0] = largest;
+            return true;
+        }
+        if ( largest < ranges[2 * rangeCount - 1] - 1 ) {
+            // below all ranges, typical for decoding ACK frames
+            return insertRange( rangeCount, largest, smallest );
+        }
+
+        // ranges before first lie entirely above the new range, not even touching it
+        int first = indexOfFirstRangeStartingAtOrBelow( largest + 1 );
+        // ranges from last on lie entirely below the new range, not even touching it
+        int last = first;
+        while ( last < rangeCount && ranges[2 * last] >= smallest - 1 ) {
+            last++;
+        }
+        if ( first == last ) {
+            return insertRange( first, largest, smallest );
+        }
+        if ( last - first == 1 && ranges[2 * first] >= largest && ranges[2 * first + 1] <= smallest ) {
+            return false;
+        }
+        ranges[2 * first] = Math.max( largest, ranges[2 * first] );
+        ranges[2 * first + 1] = Math.min( smallest, ranges[2 * ( last - 1 ) + 1] );
+        removeRanges( first + 1, last );
+        return true;
+    }
+
+    /**
+     * Removes all packet numbers smaller than the given one from this set
+     *
+     * @param packetNumber the smallest packet number to retain
+     */
+    public void removeBelow( long packetNumber ) {
+        while ( rangeCount > 0 && ranges[2 * rangeCount - 2] < packetNumber ) {
+            rangeCount--;
+        }
+        if ( rangeCount > 0 && ranges[2 * rangeCount - 1] < packetNumber ) {
+            ranges[2 * rangeCount - 1] = packetNumber;
+        }
+    }
+
+    /**
+     * Removes all packet numbers from this set
+     */
+    public void clear() {
+        rangeCount = 0;
+    }
+
+    /**
+     * Replaces the contents of this set with the largest ranges of the other set.
+     * If the other set holds more ranges than this set may keep, the lowest ranges are omitted.
+     *
+     * @param other the set to copy from
+     */
+    public void copyFrom( PacketNumberRangeSet other ) {
+        int count = Math.min( other.rangeCount, maxRanges );
+        ensureCapacity( count );
+        System.arraycopy( other.ranges, 0, ranges, 0, 2 * count );
+        rangeCount = count;
+    }
+
+    private void checkIndex( int index ) {
+        if ( index < 0 || index >= rangeCount ) {
+            throw new IndexOutOfBoundsException( "Range index " + index + " out of bounds for " + rangeCount );
+        }
+    }
+
+    /**
+     * binary search, exploiting that the smallest packet numbers of all ranges are in descending order
+     *
+     * @param packetNumber the packet number to search for
+     * @return the index of the first range whose smallest packet number is at most the given one,
+     * or {@link #rangeCount} if there is none
+     */
+    private int indexOfFirstRangeStartingAtOrBelow( long packetNumber ) {
+        int low = 0;
+        int high = rangeCount;
+        while ( low < high ) {
+            int middle = ( low + high ) >>> 1;
+            if ( ranges[2 * middle + 1] > packetNumber ) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return false if the range was dropped right away, because the set is full and the range is the lowest
+     */
+    private boolean insertRange( int index, long largest, long smallest ) {
+        if ( rangeCount == maxRanges ) {
+            if ( index == rangeCount ) {
+                return false;
+            }
+            // drop the lowest range to keep the history bounded
+            rangeCount--;
+        }
+        ensureCapacity( rangeCount + 1 );
+        System.arraycopy( ranges, 2 * index, ranges, 2 * index + 2, 2 * ( rangeCount - index ) );
+        ranges[2 * index] = largest;
+        ranges[2 * index + 1] = smallest;
+        rangeCount++;
+        return true;
+    }
+
+    private void removeRanges( int fromIndex, int toIndex ) {
+        System.arraycopy( ranges, 2 * toIndex, ranges, 2 * fromIndex, 2 * ( rangeCount - toIndex ) );
+        rangeCount -= toIndex - fromIndex;
+    }
+
+    private void ensureCapacity( int requiredRanges ) {
+        if ( 2 * requiredRanges > ranges.length ) {
+            int newRanges = Math.min( maxRanges, Math.max( requiredRanges, ranges.length ) );
+            ranges = Arrays.copyOf( ranges, 2 * newRanges );
+        }
+    }
+
+    @Override
+    public boolean equals( Object o ) {
+        if ( this == o ) {
+            return true;
+        }
+        if ( !( o instanceof PacketNumberRangeSet ) ) {
+            return false;
+        }
+        PacketNumberRangeSet that = (PacketNumberRangeSet)o;
+        return rangeCount == that.rangeCount
+                && Arrays.equals( ranges, 0, 2 * rangeCount, that.ranges, 0, 2 * rangeCount );
+    }
+
+    @Override
+    public int hashCode() {
+        int result = rangeCount;
+        for ( int i = 0; i < 2 * rangeCount; i++ ) {
+            result = 31 * result + Long.hashCode( ranges[i] );
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder( "PacketNumberRangeSet(" );
+        for ( int i = 0; i < rangeCount; i++ ) {
+            if ( i > 0 ) {
+                sb.append( ", " );
+            }
+            sb.append( '[' ).append( ranges[2 * i + 1] ).append( ';' ).append( ranges[2 * i] ).append( ']' );
+        }
+        return sb.append( ')' ).toString();
+    }
+}
@@ -0,0 +1,404 @@
+package com.timtrense.quic.impl.base;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import lombok.Getter;
+import lombok.NonNull;
+
+import com.timtrense.quic.EncryptionLevel;
+import com.timtrense.quic.impl.PacketProtection;
+
+/**
+ * Protects packets with the Handshake or 1-RTT keys, derived from the secrets that TLS provides for
+ * both directions, using any {@link CipherSuite}.
+ * <p>
+ * At the 1-RTT level, keys are updated as indicated by the Key Phase bit of the short header.
+ * Each key generation is derived from the previous one, both directions at once, so that
+ * <ul>
+ *     <li>the generation following the current one is always precomputed in the background. Neither receiving
+ *     a key update nor initiating one derives keys on the packet path. Also packets with a flipped Key Phase bit
+ *     are always tried against the next keys, thus their processing time does not reveal whether the bit was
+ *     valid</li>
+ *     <li>the keys of the previous generation are retained for {@link #PREVIOUS_KEYS_RETENTION_PTOS} times the
+ *     probe timeout after a key update was received, so that reordered packets of the old key phase can still
+ *     be processed. Those are told apart from the next key phase by their packet number</li>
+ * </ul>
+ * Header protection keys do not change with key updates.
+ * <p>
+ * This class is thread-safe. The derivation of keys is performed outside of any lock.
+ *
+ * @author Tim Trense
+ * @see <a href="https://tools.ietf.org/html/draft-ietf-quic-tls-32#section-5">QUIC Spec-TLS/Section 5</a>
+ * @see <a href="https://tools.ietf.org/html/draft-ietf-quic-tls-32#section-6">QUIC Spec-TLS/Section 6</a>
+ */
+public class PacketProtectionImpl implements PacketProtection {
+
+    /**
+     * the Key Phase bit within the first byte of the short header
+     */
+    public static final int KEY_PHASE_BIT = 0b00000100;
+    /**
+     * "An endpoint SHOULD retain old read keys for no more than three times
+     * the PTO after having received a packet protected using the new keys."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-tls-32#section-6.5
+     */
+    public static final int PREVIOUS_KEYS_RETENTION_PTOS = 3;
+
+    /**
+     * The keys of both directions for one key phase
+     */
+    private static final class KeyGeneration {
+        /**
+         * the number of key updates that led to this generation
+         */
+        private final long number;
+        private final byte[] localSecret;
+        private final byte[] remoteSecret;
+        private final SecretKeySpec localKey;
+        private final SecretKeySpec remoteKey;
+        private final byte[] localIv;
+        private final byte[] remoteIv;
+
+        private KeyGeneration( CipherSuite cipherSuite, long number, byte[] localSecret, byte[] remoteSecret ) {
+            this.number = number;
+            this.localSecret = localSecret;
+            this.remoteSecret = remoteSecret;
+            this.localKey = cipherSuite.deriveKey( localSecret );
+            this.remoteKey = cipherSuite.deriveKey( remoteSecret );
+            this.localIv = cipherSuite.deriveIv( localSecret );
+            this.remoteIv = cipherSuite.deriveIv( remoteSecret );
+        }
+
+        private KeyGeneration next( CipherSuite cipherSuite ) {
+            return new KeyGeneration( cipherSuite, number + 1,
+                    cipherSuite.deriveNextSecret( localSecret ), cipherSuite.deriveNextSecret( remoteSecret ) );
+        }
+
+        private int getKeyPhase() {
+            return (int)( number & 1 );
+        }
+
+        /**
+         * Overwrites the secrets and IVs, the keys themselves cannot be wiped from a {@link SecretKeySpec}
+         */
+        private void destroy() {
+            Arrays.fill( localSecret, (byte)0 );
+            Arrays.fill( remoteSecret, (byte)0 );
+            Arrays.fill( localIv, (byte)0 );
+            Arrays.fill( remoteIv, (byte)0 );
+        }
+    }
+
+    @Getter
+    private final @NonNull CipherSuite cipherSuite;
+    /**
+     * {@link EncryptionLevel#HANDSHAKE} or {@link EncryptionLevel#APPLICATION_DATA}
+     */
+    @Getter
+    private final @NonNull EncryptionLevel encryptionLevel;
+    /**
+     * the executor to precompute key generations on, null if keys are never updated at this level
+     */
+    private final Executor keyUpdateExecutor;
+    private final SecretKeySpec localHeaderProtectionKey;
+    private final SecretKeySpec remoteHeaderProtectionKey;
+    private Cipher localHeaderProtectionCipher;
+    private Cipher remoteHeaderProtectionCipher;
+    /**
+     * reused for all sent packets
+     */
+    private Cipher sealingCipher;
+    /**
+     * reused for all received packets
+     */
+    private Cipher openingCipher;
+    private final byte[] sealingNonce = new byte[CipherSuite.IV_LENGTH];
+    private final byte[] openingNonce = new byte[CipherSuite.IV_LENGTH];
+    private final byte[] sealingHeaderProtectionMask = new byte[CipherSuite.SAMPLE_LENGTH];
+
+    /**
+     * the keys of the key phase before {@link #current}, null if not retained
+     */
+    private KeyGeneration previous;
+    /**
+     * the time after which {@link #previous} is discarded, as given by {@link System#nanoTime()}
+     */
+    private long previousDiscardNanos;
+    /**
+     * the keys of the key phase that the peer uses
+     */
+    private KeyGeneration current;
+    /**
+     * the keys of the key phase after {@link #current}, null if keys are never updated at this level
+     */
+    private CompletableFuture<KeyGeneration> next;
+    /**
+     * the keys to protect sent packets with, either {@link #current} or, after initiating a key update that
+     * the peer did not yet respond to, the next keys
+     */
+    private KeyGeneration sending;
+    /**
+     * the number of the first packet sent with {@link #sending}, -1 if none was sent yet
+     */
+    private long firstSentPacketNumber = -1;
+    /**
+     * whether any packet sent with {@link #sending} was acknowledged
+     */
+    private boolean sendingAcknowledged;
+    /**
+     * the lowest number of a packet received with {@link #current}
+     */
+    private long firstReceivedPacketNumber = Long.MAX_VALUE;
+
+    /**
+     * Creates a protection that precomputes key generations on the {@link ForkJoinPool#commonPool() common pool}
+     *
+     * @see #PacketProtectionImpl(CipherSuite, EncryptionLevel, byte[], byte[], Executor)
+     */
+    public PacketProtectionImpl( @NonNull CipherSuite cipherSuite, @NonNull EncryptionLevel encryptionLevel,
+            @NonNull byte[] localSecret, @NonNull byte[] remoteSecret ) throws GeneralSecurityException {
+        this( cipherSuite, encryptionLevel, localSecret, remoteSecret, ForkJoinPool.commonPool() );
+    }
+
+    /**
+     * @param cipherSuite       the suite that TLS negotiated
+     * @param encryptionLevel   {@link #getEncryptionLevel()}
+     * @param localSecret       the secret that TLS provides for packets sent by this endpoint
+     * @param remoteSecret      the secret that TLS provides for packets sent by the peer
+     * @param keyUpdateExecutor the executor to precompute key generations on
+     * @throws GeneralSecurityException if the JDK does not provide the algorithms of the cipher suite
+     */
+    public PacketProtectionImpl( @NonNull CipherSuite cipherSuite, @NonNull EncryptionLevel encryptionLevel,
+            @NonNull byte[] localSecret, @NonNull byte[] remoteSecret, @NonNull Executor keyUpdateExecutor )
+            throws GeneralSecurityException {
+        if ( encryptionLevel != EncryptionLevel.HANDSHAKE && encryptionLevel != EncryptionLevel.APPLICATION_DATA ) {
+            throw new IllegalArgumentException( "Cannot protect packets at level " + encryptionLevel );
+        }
+        if ( localSecret.length != cipherSuite.getHashLength()
+                || remoteSecret.length != cipherSuite.getHashLength() ) {
+            throw new IllegalArgumentException( "The secrets of " + cipherSuite + " have "
+                    + cipherSuite.getHashLength() + " bytes" );
+        }
+        this.cipherSuite = cipherSuite;
+        this.encryptionLevel = encryptionLevel;
+        this.localHeaderProtectionKey = cipherSuite.deriveHeaderProtectionKey( localSecret );
+        this.remoteHeaderProtectionKey = cipherSuite.deriveHeaderProtectionKey( remoteSecret );
+        this.localHeaderProtectionCipher = cipherSuite.createHeaderProtectionCipher( localHeaderProtectionKey );
+        this.remoteHeaderProtectionCipher = cipherSuite.createHeaderProtectionCipher( remoteHeaderProtectionKey );
+        this.current = new KeyGeneration( cipherSuite, 0, localSecret.clone(), remoteSecret.clone() );
+        this.sending = current;
+        // only the short header of 1-RTT packets carries a Key Phase bit
+        if ( encryptionLevel == EncryptionLevel.APPLICATION_DATA ) {
+            this.keyUpdateExecutor = keyUpdateExecutor;
+            this.next = precompute( current );
+        }
+        else {
+            this.keyUpdateExecutor = null;
+        }
+    }
+
+    /**
+     * Computes the mask to remove header protection from a received packet
+     *
+     * @see PacketProtection#deriveHeaderProtectionMask(byte[], int, int)
+     */
+    @Override
+    public synchronized byte[] deriveHeaderProtectionMask( @NonNull byte[] sample, int offset, int length ) {
+        if ( length < CipherSuite.SAMPLE_LENGTH ) {
+            return null;
+        }
+        byte[] mask = new byte[CipherSuite.SAMPLE_LENGTH];
+        try {
+            remoteHeaderProtectionCipher = cipherSuite.deriveHeaderProtectionMask(
+                    remoteHeaderProtectionCipher, remoteHeaderProtectionKey, sample, offset, mask );
+        }
+        catch ( GeneralSecurityException e ) {
+            return null;
+        }
+        return mask;
+    }
+
+    /**
+     * Protects the packet with the keys of the current key phase of this endpoint. The Key Phase bit of a short
+     * header is set by this method.
+     *
+     * @see PacketProtection#protectPacket(byte[], int, int, int, int, long)
+     */
+    @Override
+    public synchronized int protectPacket( @NonNull byte[] packet, int packetOffset, int packetNumberOffset,
+            int packetNumberLength, int payloadLength, long packetNumber ) throws GeneralSecurityException {
+        int payloadOffset = packetNumberOffset + packetNumberLength;
+        boolean isLongHeader = ( packet[packetOffset] & 0x80 ) == 0x80;
+        if ( !isLongHeader && next != null ) {
+            packet[packetOffset] = (byte)( packet[packetOffset] & ~KEY_PHASE_BIT
+                    | ( sending.getKeyPhase() == 1 ? KEY_PHASE_BIT : 0 ) );
+        }
+        if ( firstSentPacketNumber < 0 ) {
+            firstSentPacketNumber = packetNumber;
+        }
+
+        deriveNonce( sending.localIv, packetNumber, sealingNonce );
+        sealingCipher = cipherSuite.initAeadCipher( sealingCipher, Cipher.ENCRYPT_MODE, sending.localKey,
+                sealingNonce );
+        sealingCipher.updateAAD( packet, packetOffset, payloadOffset - packetOffset );
+        int protectedPayloadLength = sealingCipher.doFinal( packet, payloadOffset, payloadLength,
+                packet, payloadOffset );
+
+        // "The same number of bytes are always sampled, [...] the Packet Number field is
+        //   assumed to be 4 bytes long" QUIC Spec-TLS/Section 5.4.2
+        localHeaderProtectionCipher = cipherSuite.deriveHeaderProtectionMask( localHeaderProtectionCipher,
+                localHeaderProtectionKey, packet, packetNumberOffset + 4, sealingHeaderProtectionMask );
+        packet[packetOffset] ^= sealingHeaderProtectionMask[0] & ( isLongHeader ? 0x0f : 0x1f );
+        for ( int i = 0; i < packetNumberLength; i++ ) {
+            packet[packetNumberOffset + i] ^= sealingHeaderProtectionMask[1 + i];
+        }
+        return protectedPayloadLength;
+    }
+
+    /**
+     * Removes the packet protection of a received packet in place, after its header protection was removed.
+     * The keys are selected by the Key Phase bit of a short header. If the packet turns out to be protected
+     * with the next keys, the peer updated its keys and so does this endpoint.
+     *
+     * @param packet                 the array holding the packet
+     * @param packetOffset           the index of the first byte of the packet, without header protection
+     * @param payloadOffset          the index of the first byte after the packet number
+     * @param protectedPayloadLength the number of bytes of the protected payload, including the authentication tag
+     * @param packetNumber           the full, not truncated packet number
+     * @param probeTimeoutNanos      the current probe timeout, to retain the previous keys for
+     * @param nowNanos               the time of receipt, as given by {@link System#nanoTime()}
+     * @return the number of plaintext bytes, written to the payload offset
+     * @throws GeneralSecurityException if the packet cannot be authenticated, e.g. an {@link AEADBadTagException}
+     */
+    public synchronized int unprotectPacket( @NonNull byte[] packet, int packetOffset, int payloadOffset,
+            int protectedPayloadLength, long packetNumber, long probeTimeoutNanos, long nowNanos )
+            throws GeneralSecurityException {
+        discardExpiredPreviousKeys( nowNanos );
+        KeyGeneration keys = current;
+        boolean keyUpdate = false;
+        int keyPhase = ( packet[packetOffset] & KEY_PHASE_BIT ) == 0 ? 0 : 1;
+        if ( next != null && ( packet[packetOffset] & 0x80 ) == 0 && keyPhase != current.getKeyPhase() ) {
+            if ( previous != null && packetNumber < firstReceivedPacketNumber ) {
+                keys = previous;
+            }
+            else {
+                keys = next.join();
+                keyUpdate = true;
+            }
+        }
+
+        deriveNonce( keys.remoteIv, packetNumber, openingNonce );
+        openingCipher = cipherSuite.initAeadCipher( openingCipher, Cipher.DECRYPT_MODE, keys.remoteKey,
+                openingNonce );
+        openingCipher.updateAAD( packet, packetOffset, payloadOffset - packetOffset );
+        int payloadLength = openingCipher.doFinal( packet, payloadOffset, protectedPayloadLength,
+                packet, payloadOffset );
+
+        if ( keyUpdate ) {
+            onKeyUpdateReceived( packetNumber, probeTimeoutNanos, nowNanos );
+        }
+        else if ( keys == current ) {
+            firstReceivedPacketNumber = Math.min( firstReceivedPacketNumber, packetNumber );
+        }
+        return payloadLength;
+    }
+
+    /**
+     * Initiates a key update, by protecting all further sent packets with the next keys.
+     * <p>
+     * "An endpoint MUST NOT initiate a key update prior to having confirmed
+     * the handshake (Section 4.1.2)."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-tls-32#section-6
+     * <p>
+     * Confirming the handshake is up to the caller. This method refuses the update while the previous one was not
+     * yet acknowledged and while the keys of the previous key phase are retained.
+     *
+     * @param nowNanos the current time, as given by {@link System#nanoTime()}
+     * @return true if the key update was initiated
+     * @see <a href="https://tools.ietf.org/html/draft-ietf-quic-tls-32#section-6.1">QUIC Spec-TLS/Section 6.1</a>
+     */
+    public synchronized boolean initiateKeyUpdate( long nowNanos ) {
+        discardExpiredPreviousKeys( nowNanos );
+        if ( next == null || sending != current || !sendingAcknowledged || previous != null ) {
+            return false;
+        }
+        sending = next.join();
+        firstSentPacketNumber = -1;
+        sendingAcknowledged = false;
+        return true;
+    }
+
+    @Override
+    public synchronized void onPacketAcknowledged( long packetNumber ) {
+        if ( firstSentPacketNumber >= 0 && packetNumber >= firstSentPacketNumber ) {
+            sendingAcknowledged = true;
+        }
+    }
+
+    /**
+     * @return the Key Phase bit of packets sent by this endpoint, 0 or 1
+     */
+    public synchronized int getKeyPhase() {
+        return sending.getKeyPhase();
+    }
+
+    /**
+     * @return the number of key updates that the peer performed, which equals the number of completed ones
+     */
+    public synchronized long getKeyUpdates() {
+        return current.number;
+    }
+
+    /**
+     * @return whether the keys of the previous key phase are still retained for reordered packets
+     */
+    public synchronized boolean hasPreviousKeys() {
+        return previous != null;
+    }
+
+    private void onKeyUpdateReceived( long packetNumber, long probeTimeoutNanos, long nowNanos ) {
+        if ( previous != null ) {
+            previous.destroy();
+        }
+        previous = current;
+        previousDiscardNanos = nowNanos + PREVIOUS_KEYS_RETENTION_PTOS * probeTimeoutNanos;
+        current = next.join();
+        firstReceivedPacketNumber = packetNumber;
+        if ( sending != current ) {
+            // the peer initiated the key update, thus respond by updating the keys for sending too
+            sending = current;
+            firstSentPacketNumber = -1;
+            sendingAcknowledged = false;
+        }
+        next = precompute( current );
+    }
+
+    private void discardExpiredPreviousKeys( long nowNanos ) {
+        if ( previous != null && nowNanos - previousDiscardNanos >= 0 ) {
+            previous.destroy();
+            previous = null;
+        }
+    }
+
+    private CompletableFuture<KeyGeneration> precompute( KeyGeneration generation ) {
+        return CompletableFuture.supplyAsync( () -> generation.next( cipherSuite ), keyUpdateExecutor );
+    }
+
+    /**
+     * The nonce is the IV XORed with the left-padded packet number
+     *
+     * @see <a href="https://tools.ietf.org/html/draft-ietf-quic-tls-32#section-5.3">QUIC Spec-TLS/Section 5.3</a>
+     */
+    private static void deriveNonce( byte[] iv, long packetNumber, byte[] nonce ) {
+        System.arraycopy( iv, 0, nonce, 0, nonce.length );
+        for ( int i = 0; i < 8; i++ ) {
+            nonce[nonce.length - 8 + i] ^= (byte)( packetNumber >>> ( 56 - 8 * i ) );
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package com.timtrense.quic.impl.base;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Random;
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * Generates connection ids that a QUIC-LB compatible load balancer routes to this server without keeping
+ * any state, and that encode the shard processing the connection. A connection id is laid out as
+ * <pre>
+ * Connection ID {
+ *   Config Rotation (3),
+ *   Length Self-Description (5),
+ *   Server ID (8..),
+ *   Shard ID (8),
+ *   Nonce (24..),
+ * }
+ * </pre>
+ * The first octet is always plaintext. The load balancer is configured with the server id length of this
+ * generator and a nonce length of one more byte, so that it treats the shard id as part of the nonce.
+ * <p>
+ * In {@link QuicLbMode#ENCRYPTED encrypted mode} all bytes after the first octet are encrypted with AES-128.
+ * If they are exactly 16 bytes, they are encrypted as a single block, otherwise with a four-pass Feistel network
+ * over both halves that uses AES-128 as its round function. If their length is odd, the halves are split in the
+ * middle of the middle byte, each taking 4 of its bits.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author Tim Trense
+ * @see <a href="https://datatracker.ietf.org/doc/draft-ietf-quic-load-balancers/">QUIC-LB</a>
+ */
+public class QuicLbConnectionIdGenerator implements ConnectionIdGenerator {
+
+    /**
+     * The config rotation codepoint reserved for connection ids that a load balancer cannot route
+     */
+    public static final int UNROUTABLE_CONFIG_ROTATION = 0b111;
+    /**
+     * the minimum number of random bytes, preventing linkability of ids of the same shard
+     */
+    public static final int MIN_NONCE_LENGTH = 3;
+
+    private static final int BLOCK_LENGTH = 16;
+    private static final String CIPHER_ALGORITHM = "AES/ECB/NoPadding";
+
+    @Getter
+    private final @NonNull QuicLbMode mode;
+    /**
+     * the codepoint in the first 3 bits, which lets the load balancer tell configurations apart
+     */
+    @Getter
+    private final int configRotation;
+    /**
+     * the id of this server, as configured at the load balancer
+     */
+    private final @NonNull byte[] serverId;
+    /**
+     * the number of random bytes per connection id
+     */
+    @Getter
+    private final int nonceLength;
+    @Getter
+    private final int connectionIdLength;
+    private final @NonNull Random random;
+    /**
+     * the key shared with the load balancer, null in plaintext mode
+     */
+    private final SecretKeySpec key;
+    /**
+     * one cipher per thread and direction, because {@link Cipher} is not thread-safe
+     */
+    private final ThreadLocal<Cipher> encryptCipher =
+            ThreadLocal.withInitial( () -> createCipher( Cipher.ENCRYPT_MODE ) );
+    private final ThreadLocal<Cipher> decryptCipher =
+            ThreadLocal.withInitial( () -> createCipher( Cipher.DECRYPT_MODE ) );
+
+    /**
+     * @param mode           {@link #getMode()}
+     * @param configRotation {@link #getConfigRotation()}, 0 to 6
+     * @param serverId       the id of this server, as configured at the load balancer
+     * @param nonceLength    {@link #getNonceLength()}, at least {@link #MIN_NONCE_LENGTH}
+     * @param key            the 16 bytes key shared with the load balancer, ignored in plaintext mode
+     * @param random         the source to draw the nonces from
+     */
+    public QuicLbConnectionIdGenerator(
+            @NonNull QuicLbMode mode,
+            int configRotation,
+            @NonNull byte[] serverId,
+            int nonceLength,
+            byte[] key,
+            @NonNull Random random
+    ) {
+        if ( configRotation < 0 || configRotation >= UNROUTABLE_CONFIG_ROTATION ) {
+            throw new IllegalArgumentException( "Cannot use config rotation " + configRotation );
+        }
+        if ( serverId.length == 0 ) {
+            throw new IllegalArgumentException( "Cannot generate connection ids without a server id" );
+        }
+        if ( nonceLength < MIN_NONCE_LENGTH ) {
+            throw new IllegalArgumentException( "Cannot generate connection ids with less than "
+                    + MIN_NONCE_LENGTH + " nonce bytes" );
+        }
+        int length = 1 + serverId.length + 1 + nonceLength;
+        if ( length > MAX_CONNECTION_ID_LENGTH ) {
+            throw new IllegalArgumentException( "Cannot generate connection ids of length " + length );
+        }
+        if ( mode == QuicLbMode.ENCRYPTED && ( key == null || key.length != BLOCK_LENGTH ) ) {
+            throw new IllegalArgumentException( "Cannot encrypt connection ids without a 16 bytes key" );
+        }
+        this.mode = mode;
+        this.configRotation = configRotation;
+        this.serverId = serverId.clone();
+        this.nonceLength = nonceLength;
+        this.connectionIdLength = length;
+        this.random = random;
+        this.key = mode == QuicLbMode.ENCRYPTED ? new SecretKeySpec( key, "AES" ) : null;
+    }
+
+    /**
+     * @return the id of this server, as configured at the load balancer
+     */
+    public byte[] getServerId() {
+        return serverId.clone();
+    }
+
+    @Override
+    public byte[] generateConnectionId( int shardId ) {
+        if ( shardId < 0 || shardId > 0xFF ) {
+            throw new IllegalArgumentException( "Cannot encode shard " + shardId );
+        }
+        byte[] connectionId = new byte[connectionIdLength];
+        connectionId[0] = (byte)( configRotation << 5 | ( connectionIdLength - 1 ) );
+        System.arraycopy( serverId, 0, connectionId, 1, serverId.length );
+        connectionId[1 + serverId.length] = (byte)shardId;
+        byte[] nonce = new byte[nonceLength];
+        random.nextBytes( nonce );
+        System.arraycopy( nonce, 0, connectionId, 2 + serverId.length, nonceLength );
+        if ( mode == QuicLbMode.ENCRYPTED ) {
+            encrypt( connectionId );
+        }
+        return connectionId;
+    }
+
+    @Override
+    public int decodeShardId( @NonNull byte[] data, int offset, int length ) {
+        if ( length < connectionIdLength
+                || ( data[offset] & 0xFF ) != ( configRotation << 5 | ( connectionIdLength - 1 ) ) ) {
+            return -1;
+        }
+        int shardOffset = 1 + serverId.length;
+        if ( mode == QuicLbMode.PLAINTEXT ) {
+            return data[offset + shardOffset] & 0xFF;
+        }
+        byte[] connectionId = new byte[connectionIdLength];
+        System.arraycopy( data, offset, connectionId, 0, connectionIdLength );
+        decrypt( connectionId );
+        return connectionId[shardOffset] & 0xFF;
+    }
+
+    /**
+     * Encrypts all bytes after the first octet in place
+     */
+    private void encrypt( byte[] connectionId ) {
+        int length = connectionIdLength - 1;
+        if ( length == BLOCK_LENGTH ) {
+            crypt( encryptCipher.get(), connectionId, 1, connectionId, 1 );
+            return;
+        }
+        byte[] left = splitLeft( connectionId );
+        byte[] right = splitRight( connectionId );
+        byte[] block = new byte[BLOCK_LENGTH];
+        feistelPass( left, right, 1, block );
+        feistelPass( right, left, 2, block );
+        feistelPass( left, right, 3, block );
+        feistelPass( right, left, 4, block );
+        join( connectionId, left, right );
+    }
+
+    /**
+     * Decrypts all bytes after the first octet in place, reversing {@link #encrypt(byte[])}
+     */
+    private void decrypt( byte[] connectionId ) {
+        int length = connectionIdLength - 1;
+        if ( length == BLOCK_LENGTH ) {
+            crypt( decryptCipher.get(), connectionId, 1, connectionId, 1 );
+            return;
+        }
+        byte[] left = splitLeft( connectionId );
+        byte[] right = splitRight( connectionId );
+        byte[] block = new byte[BLOCK_LENGTH];
+        feistelPass( right, left, 4, block );
+        feistelPass( left, right, 3, block );
+        feistelPass( right, left, 2, block );
+        feistelPass( left, right, 1, block );
+        join( connectionId, left, right );
+    }
+
+    /**
+     * @return the first half of the bytes after the first octet, of which an odd length contributes
+     * only the upper 4 bits of the middle byte
+     */
+    private byte[] splitLeft( byte[] connectionId ) {
+        int halfLength = connectionIdLength / 2;
+        byte[] left = Arrays.copyOfRange( connectionId, 1, 1 + halfLength );
+        if ( isOddLength() ) {
+            left[halfLength - 1] &= (byte)0xF0;
+        }
+        return left;
+    }
+
+    /**
+     * @return the second half of the bytes after the first octet, of which an odd length contributes
+     * only the lower 4 bits of the middle byte
+     */
+    private byte[] splitRight( byte[] connectionId ) {
+        int halfLength = connectionIdLength / 2;
+        byte[] right = Arrays.copyOfRange( connectionId, connectionIdLength - halfLength, connectionIdLength );
+        if ( isOddLength() ) {
+            right[0] &= 0x0F;
+        }
+        return right;
+    }
+
+    /**
+     * Writes both halves back behind the first octet, merging the middle byte of an odd length
+     */
+    private void join( byte[] connectionId, byte[] left, byte[] right ) {
+        int halfLength = left.length;
+        int rightOffset = connectionIdLength - halfLength;
+        System.arraycopy( left, 0, connectionId, 1, halfLength );
+        System.arraycopy( right, 0, connectionId, rightOffset, halfLength );
+        if ( isOddLength() ) {
+            connectionId[rightOffset] = (byte)( left[halfLength - 1] | right[0] );
+        }
+    }
+
+    /**
+     * One Feistel pass: XORs the target half with AES over the expanded source half. The left half takes the
+     * leading and the right half the trailing bytes of the AES output, truncated at the middle byte like the
+     * halves themselves.
+     */
+    private void feistelPass( byte[] source, byte[] target, int pass, byte[] block ) {
+        boolean targetIsLeft = pass % 2 == 0;
+        expand( source, pass, block );
+        crypt( encryptCipher.get(), block, 0, block, 0 );
+        int blockOffset = targetIsLeft ? 0 : BLOCK_LENGTH - target.length;
+        for ( int i = 0; i < target.length; i++ ) {
+            target[i] ^= block[blockOffset + i];
+        }
+        if ( isOddLength() ) {
+            if ( targetIsLeft ) {
+                target[target.length - 1] &= (byte)0xF0;
+            }
+            else {
+                target[0] &= 0x0F;
+            }
+        }
+    }
+
+    /**
+     * Pads the given half to a full block, followed by the plaintext length and the pass number
+     * <pre>
+     * ExpandResult {
+     *   Half (..),
+     *   Zeroes (..),
+     *   Plaintext Length (8),
+     *   Pass (8),
+     * }
+     * </pre>
+     */
+    private void expand( byte[] half, int pass, byte[] block ) {
+        Arrays.fill( block, (byte)0 );
+        System.arraycopy( half, 0, block, 0, half.length );
+        block[BLOCK_LENGTH - 2] = (byte)( connectionIdLength - 1 );
+        block[BLOCK_LENGTH - 1] = (byte)pass;
+    }
+
+    /**
+     * @return whether the encrypted bytes have an odd length, so that both halves share the middle byte
+     */
+    private boolean isOddLength() {
+        return ( connectionIdLength - 1 ) % 2 == 1;
+    }
+
+    private static void crypt( Cipher cipher, byte[] input, int inputOffset, byte[] output, int outputOffset ) {
+        try {
+            cipher.doFinal( input, inputOffset, BLOCK_LENGTH, output, outputOffset );
+        }
+        catch ( GeneralSecurityException e ) {
+            throw new IllegalStateException( "Cannot apply " + CIPHER_ALGORITHM, e );
+        }
+    }
+
+    private Cipher createCipher( int cipherMode ) {
+        try {
+            Cipher cipher = Cipher.getInstance( CIPHER_ALGORITHM );
+            cipher.init( cipherMode, key );
+            return cipher;
+        }
+        catch ( GeneralSecurityException e ) {
+            throw new IllegalStateException( "Cannot create " + CIPHER_ALGORITHM, e );
+        }
+    }
+}
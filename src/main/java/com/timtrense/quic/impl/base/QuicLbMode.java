@@ -0,0 +1,20 @@
+package com.timtrense.quic.impl.base;
+
+/**
+ * How a {@link QuicLbConnectionIdGenerator} encodes the server id into connection ids
+ *
+ * @author Tim Trense
+ * @see <a href="https://datatracker.ietf.org/doc/draft-ietf-quic-load-balancers/">QUIC-LB</a>
+ */
+public enum QuicLbMode {
+
+    /**
+     * the server id is written in plaintext, so any observer can correlate connection ids of the same server
+     */
+    PLAINTEXT,
+    /**
+     * the server id, shard id and nonce are encrypted with a key shared with the load balancer,
+     * so connection ids are unlinkable for observers not knowing the key
+     */
+    ENCRYPTED
+}
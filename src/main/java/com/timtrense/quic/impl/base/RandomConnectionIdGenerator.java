@@ -0,0 +1,44 @@
+package com.timtrense.quic.impl.base;
+
+import java.util.Random;
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * Generates connection ids of random bytes only, which encode no shard and cannot be routed by a load balancer
+ *
+ * @author Tim Trense
+ */
+public class RandomConnectionIdGenerator implements ConnectionIdGenerator {
+
+    /**
+     * the source to draw the connection ids from
+     */
+    private final @NonNull Random random;
+    @Getter
+    private final int connectionIdLength;
+
+    /**
+     * @param random             the source to draw the connection ids from
+     * @param connectionIdLength {@link #getConnectionIdLength()}
+     */
+    public RandomConnectionIdGenerator( @NonNull Random random, int connectionIdLength ) {
+        if ( connectionIdLength <= 0 || connectionIdLength > MAX_CONNECTION_ID_LENGTH ) {
+            throw new IllegalArgumentException( "Cannot generate connection ids of length " + connectionIdLength );
+        }
+        this.random = random;
+        this.connectionIdLength = connectionIdLength;
+    }
+
+    @Override
+    public byte[] generateConnectionId( int shardId ) {
+        byte[] connectionId = new byte[connectionIdLength];
+        random.nextBytes( connectionId );
+        return connectionId;
+    }
+
+    @Override
+    public int decodeShardId( @NonNull byte[] data, int offset, int length ) {
+        return -1;
+    }
+}
@@ -0,0 +1,71 @@
+package com.timtrense.quic.impl.base;
+
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * A bound on the memory that all {@link StreamReceiveBuffer receive buffers} sharing this budget may hold.
+ * <p>
+ * Flow control bounds the memory of each stream, but a peer that opens many streams and sends
+ * every stream's data except its first byte makes the receiver hold all of it.
+ * Sharing one budget among all streams of an endpoint bounds that memory regardless of the number of streams.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author Tim Trense
+ */
+@ToString
+public class ReassemblyMemoryBudget {
+
+    /**
+     * the maximum number of bytes to hold at once
+     */
+    @Getter
+    private final long maxBytes;
+    private final AtomicLong usedBytes = new AtomicLong();
+
+    /**
+     * @param maxBytes the maximum number of bytes to hold at once
+     */
+    public ReassemblyMemoryBudget( long maxBytes ) {
+        if ( maxBytes < 0 ) {
+            throw new IllegalArgumentException( "Cannot create a negative reassembly budget" );
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Takes the given number of bytes from this budget if available
+     *
+     * @param numberOfBytes the number of bytes to hold
+     * @return true if the bytes were granted, false if that would exceed the budget
+     */
+    public boolean tryAcquire( long numberOfBytes ) {
+        while ( true ) {
+            long used = usedBytes.get();
+            if ( used + numberOfBytes > maxBytes ) {
+                return false;
+            }
+            if ( usedBytes.compareAndSet( used, used + numberOfBytes ) ) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Gives back bytes that were acquired before
+     *
+     * @param numberOfBytes the number of bytes no longer held
+     */
+    public void release( long numberOfBytes ) {
+        usedBytes.addAndGet( -numberOfBytes );
+    }
+
+    /**
+     * @return the number of currently held bytes
+     */
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+}
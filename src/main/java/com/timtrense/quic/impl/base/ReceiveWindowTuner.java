@@ -0,0 +1,123 @@
+package com.timtrense.quic.impl.base;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.ToString;
+
+import com.timtrense.quic.CreditBasedFlowControl;
+
+/**
+ * Grows the receive window of a stream or connection with the rate at which the application consumes data.
+ * <p>
+ * "A receiver can use an autotuning mechanism to tune the frequency and
+ * amount of advertised additional credit based on a round-trip time
+ * estimate and the rate at which the receiving application consumes
+ * data, similar to common TCP implementations."
+ * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-4.2
+ * <p>
+ * A new limit is advertised once at least half of the window was consumed, so that MAX_DATA and MAX_STREAM_DATA
+ * frames are only sent for meaningful credit changes. If the previous update is less than
+ * {@link #AUTO_TUNE_RTT_FACTOR} round trips ago, the application consumes faster than the window allows for and
+ * the window doubles, up to {@link #getMaxWindow() the maximum}. Idle streams thus keep small windows.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @author Tim Trense
+ */
+@Getter
+@ToString( exclude = "flowControl" )
+public class ReceiveWindowTuner {
+
+    /**
+     * the window to start with if the initially advertised limit is 0
+     */
+    public static final long DEFAULT_INITIAL_WINDOW = 64 * 1024;
+
+    /**
+     * the number of round trips within which a consumed window lets the window grow
+     */
+    public static final int AUTO_TUNE_RTT_FACTOR = 2;
+
+    /**
+     * the receiving flow control holding the advertised limit and the received bytes
+     */
+    private final @NonNull CreditBasedFlowControl flowControl;
+    /**
+     * the upper bound of {@link #getWindow()}
+     */
+    private final long maxWindow;
+    /**
+     * the current number of bytes to advertise beyond the consumed ones
+     */
+    private long window;
+    /**
+     * the number of bytes consumed by the application
+     */
+    private long consumed;
+    /**
+     * the time of the last advertised limit
+     */
+    private long lastUpdateTime;
+    private boolean updated;
+
+    /**
+     * @param flowControl the receiving flow control, its limit being the initially advertised one
+     * @param maxWindow   the maximum window to grow to
+     */
+    public ReceiveWindowTuner( @NonNull CreditBasedFlowControl flowControl, long maxWindow ) {
+        this.flowControl = flowControl;
+        long initialWindow = flowControl.getLimit() > 0 ? flowControl.getLimit() : DEFAULT_INITIAL_WINDOW;
+        this.maxWindow = Math.max( maxWindow, initialWindow );
+        this.window = initialWindow;
+    }
+
+    /**
+     * Records bytes that the application consumed, which frees the window
+     *
+     * @param numberOfBytes the number of consumed bytes
+     */
+    public void onDataConsumed( long numberOfBytes ) {
+        if ( numberOfBytes < 0 ) {
+            throw new IllegalArgumentException( "Cannot consume a negative amount of: " + numberOfBytes );
+        }
+        consumed += numberOfBytes;
+    }
+
+    /**
+     * @return true if at least half of the window was consumed since the last advertised limit
+     */
+    public boolean isUpdateDue() {
+        return flowControl.getLimit() - consumed <= window / 2;
+    }
+
+    /**
+     * Grows the window if it was consumed quickly and raises the limit of the flow control
+     * if the change is meaningful
+     *
+     * @param nowNanos    the current time, as given by {@link System#nanoTime()}
+     * @param smoothedRtt the smoothed RTT of the connection in nanoseconds
+     * @return the new limit to advertise or -1 if no update is due
+     */
+    public long update( long nowNanos, long smoothedRtt ) {
+        if ( !isUpdateDue() ) {
+            return -1;
+        }
+        if ( updated && nowNanos - lastUpdateTime < AUTO_TUNE_RTT_FACTOR * smoothedRtt ) {
+            window = Math.min( window * 2, maxWindow );
+        }
+        updated = true;
+        lastUpdateTime = nowNanos;
+        long newLimit = consumed + window;
+        return flowControl.raiseLimit( newLimit ) ? newLimit : -1;
+    }
+
+    /**
+     * Grows the window to at least the given size, as done for the connection window to not limit
+     * the window of one of its streams
+     *
+     * @param minimumWindow the minimum size of the window
+     */
+    public void ensureWindow( long minimumWindow ) {
+        window = Math.max( window, Math.min( minimumWindow, maxWindow ) );
+    }
+}
@@ -0,0 +1,199 @@
+package com.timtrense.quic.impl.base;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.ToString;
+
+import com.timtrense.quic.FrameType;
+import com.timtrense.quic.PacketNumberSpace;
+import com.timtrense.quic.impl.frames.AckFrameImpl;
+
+/**
+ * Tracks the packet numbers received within one {@link PacketNumberSpace} and generates the ACK frames for them.
+ * <p>
+ * "Every packet SHOULD be acknowledged at least once, and ack-eliciting
+ * packets MUST be acknowledged at least once within the maximum delay
+ * an endpoint communicated using the max_ack_delay transport parameter"
+ * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-13.2.1
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @author Tim Trense
+ * @see <a href="https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-13.2">QUIC Spec/Section 13.2</a>
+ */
+@Getter
+@ToString
+public class ReceivedPacketTracker {
+
+    /**
+     * The default bound on the number of ranges to remember.
+     * Older ranges are of little use to the peer and would only bloat ACK frames.
+     */
+    public static final int DEFAULT_MAX_RANGES = 32;
+
+    /**
+     * "A receiver SHOULD send an ACK frame after receiving at least two
+     * ack-eliciting packets."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-13.2.2
+     */
+    public static final int ACK_ELICITING_THRESHOLD = 2;
+
+    private final @NonNull PacketNumberSpace packetNumberSpace;
+    /**
+     * all received packet numbers of the bounded history
+     */
+    private final PacketNumberRangeSet receivedPacketNumbers;
+    /**
+     * The packet number at or below which all packets are dropped, because their receipt is no longer
+     * tracked and thus duplicates could not be told apart, -1 if none. Rises when the lowest range is
+     * dropped from the bounded history and when the peer confirmed an ACK frame.
+     * <p>
+     * "The data required for detecting duplicates can be limited by
+     * maintaining a minimum packet number below which all packets are
+     * immediately dropped."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-12.3
+     */
+    private long duplicateThreshold = -1;
+    /**
+     * the time in nanoseconds at which the largest packet number was received, or -1
+     */
+    private long largestReceivedTime = -1;
+    /**
+     * number of ack-eliciting packets received since the last ACK frame was generated
+     */
+    private int ackElicitingPacketsSinceLastAck;
+    /**
+     * whether an ack-eliciting packet was received out of order since the last ACK frame was generated
+     */
+    private boolean reorderedSinceLastAck;
+    /**
+     * whether max_ack_delay elapsed since the first pending ack-eliciting packet was received
+     */
+    private boolean ackDelayElapsed;
+
+    public ReceivedPacketTracker( @NonNull PacketNumberSpace packetNumberSpace ) {
+        this( packetNumberSpace, DEFAULT_MAX_RANGES );
+    }
+
+    /**
+     * @param packetNumberSpace the space of the tracked packet numbers
+     * @param maxRanges         the maximum number of ranges to remember
+     */
+    public ReceivedPacketTracker( @NonNull PacketNumberSpace packetNumberSpace, int maxRanges ) {
+        this.packetNumberSpace = packetNumberSpace;
+        this.receivedPacketNumbers = new PacketNumberRangeSet( maxRanges );
+    }
+
+    /**
+     * Records the receipt of a packet
+     *
+     * @param packetNumber     the full, decoded packet number
+     * @param ackEliciting     whether the packet contained ack-eliciting frames
+     * @param receiveTimeNanos the time of receipt, as given by {@link System#nanoTime()}
+     * @return false if that packet number was already received or is at or below the
+     * {@link #getDuplicateThreshold() duplicate threshold}, and the packet must therefore be dropped
+     */
+    public boolean onPacketReceived( long packetNumber, boolean ackEliciting, long receiveTimeNanos ) {
+        if ( packetNumber <= duplicateThreshold ) {
+            return false;
+        }
+        long largestBefore = receivedPacketNumbers.getLargest();
+        long smallestBefore = receivedPacketNumbers.getSmallest();
+        int rangeCount = receivedPacketNumbers.getRangeCount();
+        boolean full = rangeCount == receivedPacketNumbers.getMaxRanges();
+        long lowestRangeLargest = full ? receivedPacketNumbers.getLargest( rangeCount - 1 ) : -1;
+        if ( !receivedPacketNumbers.add( packetNumber ) ) {
+            return false;
+        }
+        if ( full && receivedPacketNumbers.getSmallest() > smallestBefore ) {
+            // the lowest range was dropped to keep the history bounded
+            duplicateThreshold = Math.max( duplicateThreshold, lowestRangeLargest );
+        }
+        if ( packetNumber > largestBefore ) {
+            largestReceivedTime = receiveTimeNanos;
+        }
+        if ( ackEliciting ) {
+            ackElicitingPacketsSinceLastAck++;
+            // a packet below the largest or one that opens a gap indicates loss or reordering
+            if ( packetNumber != largestBefore + 1 ) {
+                reorderedSinceLastAck = true;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if any ack-eliciting packet awaits being acknowledged
+     */
+    public boolean isAckPending() {
+        return ackElicitingPacketsSinceLastAck > 0;
+    }
+
+    /**
+     * Checks whether an ACK frame should be sent now rather than being delayed up to max_ack_delay.
+     * Initial and Handshake packets are acknowledged immediately. Application data packets are acknowledged
+     * immediately after every {@link #ACK_ELICITING_THRESHOLD second} ack-eliciting packet or when packets
+     * were received out of order.
+     *
+     * @return true if an ACK frame should be sent immediately
+     */
+    public boolean isAckImmediatelyRequired() {
+        if ( !isAckPending() ) {
+            return false;
+        }
+        return packetNumberSpace != PacketNumberSpace.APPLICATION_DATA
+                || ackElicitingPacketsSinceLastAck >= ACK_ELICITING_THRESHOLD
+                || reorderedSinceLastAck
+                || ackDelayElapsed;
+    }
+
+    /**
+     * Called when max_ack_delay elapsed while an acknowledgement was pending,
+     * which requires the ACK frame to be sent immediately
+     */
+    public void onAckDelayElapsed() {
+        if ( isAckPending() ) {
+            ackDelayElapsed = true;
+        }
+    }
+
+    /**
+     * Fills the given frame with all tracked ranges.
+     * The frame may be reused for subsequent ACK frames.
+     *
+     * @param frame            the frame to fill, of type {@link FrameType#ACK}
+     * @param nowNanos         the current time, as given by {@link System#nanoTime()}
+     * @param ackDelayExponent the ack_delay_exponent transport parameter of this endpoint
+     * @return false if no packet was received yet and thus nothing can be acknowledged
+     */
+    public boolean populateAckFrame( @NonNull AckFrameImpl frame, long nowNanos, int ackDelayExponent ) {
+        if ( receivedPacketNumbers.isEmpty() ) {
+            return false;
+        }
+        frame.getAcknowledgedRanges().copyFrom( receivedPacketNumbers );
+        long delayMicros = Math.max( 0, ( nowNanos - largestReceivedTime ) / 1000 );
+        frame.setDelay( delayMicros >> ackDelayExponent );
+        return true;
+    }
+
+    /**
+     * Resets the pending acknowledgement state after an ACK frame was sent
+     */
+    public void onAckFrameSent() {
+        ackElicitingPacketsSinceLastAck = 0;
+        reorderedSinceLastAck = false;
+        ackDelayElapsed = false;
+    }
+
+    /**
+     * Called when an ACK frame sent by this endpoint was itself acknowledged.
+     * Packet numbers below the Largest Acknowledged of that frame need not be reported anymore,
+     * and packets with those numbers are dropped from now on.
+     *
+     * @param largestAcknowledged the Largest Acknowledged field of the acknowledged ACK frame
+     */
+    public void onAckFrameAcknowledged( long largestAcknowledged ) {
+        receivedPacketNumbers.removeBelow( largestAcknowledged );
+        duplicateThreshold = Math.max( duplicateThreshold, largestAcknowledged - 1 );
+    }
+}
@@ -0,0 +1,112 @@
+package com.timtrense.quic.impl.base;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.ToString;
+
+/**
+ * A reference-counted buffer written by the application to a stream, kept without copying until acknowledged.
+ * <p>
+ * The {@link StreamSendBuffer} holds one reference until all bytes of the chunk were acknowledged by the peer.
+ * Every STREAM frame that refers to a slice of the chunk holds another one until it was serialized into a packet.
+ * Once the last reference is released, the buffer is handed back to the application, which may then reuse it.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author Tim Trense
+ */
+@ToString( exclude = { "data", "releaseListener" } )
+public class SendChunk {
+
+    /**
+     * the written bytes, from position 0 to the limit
+     */
+    @Getter
+    private final @NonNull ByteBuffer data;
+    /**
+     * the stream offset of the first byte
+     */
+    @Getter
+    private final long offset;
+    /**
+     * the buffer as given by the application
+     */
+    private final ByteBuffer original;
+    /**
+     * called with the original buffer once released, or null
+     */
+    private final Consumer<ByteBuffer> releaseListener;
+    private final AtomicInteger referenceCount = new AtomicInteger( 1 );
+
+    /**
+     * @param original        the written buffer, whose remaining bytes make up the chunk
+     * @param offset          the stream offset of the first remaining byte
+     * @param releaseListener called with the original buffer once released, or null
+     */
+    public SendChunk( @NonNull ByteBuffer original, long offset, Consumer<ByteBuffer> releaseListener ) {
+        this.original = original;
+        this.data = original.slice().asReadOnlyBuffer();
+        this.offset = offset;
+        this.releaseListener = releaseListener;
+    }
+
+    /**
+     * @return the number of bytes of this chunk
+     */
+    public int getLength() {
+        return data.limit();
+    }
+
+    /**
+     * @return the stream offset after the last byte
+     */
+    public long getEndOffset() {
+        return offset + data.limit();
+    }
+
+    /**
+     * Creates a view on a part of this chunk
+     *
+     * @param streamOffset the stream offset of the first byte of the view
+     * @param length       the number of bytes of the view
+     * @return a read-only view, independent in its position from other views
+     */
+    public ByteBuffer slice( long streamOffset, int length ) {
+        ByteBuffer view = data.duplicate();
+        int start = (int)( streamOffset - offset );
+        view.position( start ).limit( start + length );
+        return view;
+    }
+
+    /**
+     * Takes another reference to this chunk
+     */
+    public void retain() {
+        if ( referenceCount.getAndIncrement() <= 0 ) {
+            throw new IllegalStateException( "Cannot retain a released chunk" );
+        }
+    }
+
+    /**
+     * Gives back a reference to this chunk, handing the buffer back to the application if it was the last
+     */
+    public void release() {
+        int remaining = referenceCount.decrementAndGet();
+        if ( remaining == 0 && releaseListener != null ) {
+            releaseListener.accept( original );
+        }
+        else if ( remaining < 0 ) {
+            throw new IllegalStateException( "Cannot release a chunk more often than it was retained" );
+        }
+    }
+
+    /**
+     * @return the current number of references
+     */
+    public int getReferenceCount() {
+        return referenceCount.get();
+    }
+}
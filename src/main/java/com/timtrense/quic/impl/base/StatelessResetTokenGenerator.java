@@ -0,0 +1,84 @@
+package com.timtrense.quic.impl.base;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import lombok.NonNull;
+
+import com.timtrense.quic.ConnectionId;
+import com.timtrense.quic.StatelessResetToken;
+
+/**
+ * Derives the stateless reset token of a connection id from a static key, so that no token needs to be
+ * stored per connection and every endpoint instance sharing the key can reset connections it has no state for.
+ * <p>
+ * "An endpoint could use HMAC [RFC2104] (for example, HMAC(static_key,
+ * connection_id)) or HKDF [RFC5869] (for example, using the static key
+ * as input keying material, with the connection ID as salt). The output
+ * of this function is truncated to 16 bytes to produce the Stateless
+ * Reset Token for that connection."
+ * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-10.3.2
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author Tim Trense
+ */
+public class StatelessResetTokenGenerator {
+
+    /**
+     * the length of a stateless reset token
+     */
+    public static final int TOKEN_LENGTH = 16;
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    private final SecretKeySpec key;
+    /**
+     * one MAC per thread, because {@link Mac} is not thread-safe
+     */
+    private final ThreadLocal<Mac> mac = ThreadLocal.withInitial( this::createMac );
+
+    /**
+     * @param staticKey the secret key, shared among all endpoint instances that should be able to reset
+     *                  each other's connections
+     */
+    public StatelessResetTokenGenerator( @NonNull byte[] staticKey ) {
+        if ( staticKey.length < TOKEN_LENGTH ) {
+            throw new IllegalArgumentException( "Cannot derive stateless reset tokens from a key shorter than "
+                    + TOKEN_LENGTH + " bytes" );
+        }
+        this.key = new SecretKeySpec( staticKey, MAC_ALGORITHM );
+    }
+
+    /**
+     * @param connectionId a connection id issued by this endpoint
+     * @return the token of that connection id
+     */
+    public StatelessResetToken generate( @NonNull ConnectionId connectionId ) {
+        return new StatelessResetTokenImpl( generate( connectionId.getValue(), 0, connectionId.getValue().length ) );
+    }
+
+    /**
+     * @param data   the array holding a connection id issued by this endpoint, e.g. a received datagram
+     * @param offset the start of the connection id within the array
+     * @param length the length of the connection id
+     * @return the token of that connection id
+     */
+    public byte[] generate( @NonNull byte[] data, int offset, int length ) {
+        Mac hmac = mac.get();
+        hmac.update( data, offset, length );
+        return Arrays.copyOf( hmac.doFinal(), TOKEN_LENGTH );
+    }
+
+    private Mac createMac() {
+        try {
+            Mac hmac = Mac.getInstance( MAC_ALGORITHM );
+            hmac.init( key );
+            return hmac;
+        }
+        catch ( GeneralSecurityException e ) {
+            throw new IllegalStateException( "Cannot create " + MAC_ALGORITHM, e );
+        }
+    }
+}
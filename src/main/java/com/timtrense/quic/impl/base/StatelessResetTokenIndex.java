@@ -0,0 +1,221 @@
+package com.timtrense.quic.impl.base;
+
+import java.util.Random;
+import lombok.NonNull;
+
+import com.timtrense.quic.StatelessResetToken;
+
+/**
+ * Indexes the stateless reset tokens that peers issued for their connection ids, in order to detect
+ * a stateless reset from the trailing bytes of a datagram.
+ * <p>
+ * "An endpoint detects a potential Stateless Reset using the trailing 16
+ * bytes of the UDP datagram. An endpoint remembers all Stateless Reset
+ * Tokens associated with the connection IDs and remote addresses for
+ * datagrams it has recently sent. This includes Stateless Reset Tokens
+ * from NEW_CONNECTION_ID frames and the server's transport parameters
+ * but excludes Stateless Reset Tokens associated with connection IDs
+ * that are either unused or retired."
+ * <p>
+ * "When comparing a datagram to Stateless Reset Token values, endpoints
+ * MUST perform the comparison without leaking information about the
+ * value of the token."
+ * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-10.3.1
+ * <p>
+ * Tokens are chained into buckets selected by a hash that is keyed with a random secret, so that the bucket
+ * a datagram falls into reveals nothing about the tokens. Within a bucket, each candidate is compared in
+ * constant time. Lookups do not allocate.
+ * <p>
+ * This class is thread-safe. The index is only consulted for datagrams that cannot be processed otherwise,
+ * thus it simply synchronizes all operations.
+ *
+ * @param <T> the type of the owners of the tokens, usually the connection
+ * @author Tim Trense
+ */
+public class StatelessResetTokenIndex<T> {
+
+    /**
+     * the length of a stateless reset token
+     */
+    public static final int TOKEN_LENGTH = StatelessResetTokenGenerator.TOKEN_LENGTH;
+    /**
+     * The length of the smallest stateless reset: the first byte, at least 38 unpredictable bits and the token.
+     *
+     * @see <a href="https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-10.3">QUIC Spec/Section 10.3</a>
+     */
+    public static final int MIN_STATELESS_RESET_LENGTH = 21;
+
+    private static final int INITIAL_BUCKETS = 16;
+
+    private static class Entry<T> {
+        private final byte[] token;
+        private final T owner;
+        private Entry<T> next;
+
+        private Entry( byte[] token, T owner, Entry<T> next ) {
+            this.token = token;
+            this.owner = owner;
+            this.next = next;
+        }
+    }
+
+    /**
+     * the secret that the bucket hash is keyed with
+     */
+    private final long hashKey;
+    private Entry<T>[] buckets;
+    private int size;
+
+    /**
+     * @param random the source to generate the hash key from
+     */
+    public StatelessResetTokenIndex( @NonNull Random random ) {
+        this.hashKey = random.nextLong();
+        this.buckets = newBuckets( INITIAL_BUCKETS );
+    }
+
+    /**
+     * @param token the token that the peer issued
+     * @param owner the owner to report upon detecting a stateless reset with that token
+     */
+    public synchronized void add( @NonNull StatelessResetToken token, @NonNull T owner ) {
+        byte[] value = token.getValue();
+        if ( value.length != TOKEN_LENGTH ) {
+            throw new IllegalArgumentException( "A stateless reset token has " + TOKEN_LENGTH + " bytes" );
+        }
+        if ( size >= buckets.length ) {
+            resize( buckets.length * 2 );
+        }
+        int bucket = bucket( value, 0 );
+        buckets[bucket] = new Entry<>( value.clone(), owner, buckets[bucket] );
+        size++;
+    }
+
+    /**
+     * @param token the token to forget, e.g. because its connection id was retired
+     * @return true if the token was indexed
+     */
+    public synchronized boolean remove( @NonNull StatelessResetToken token ) {
+        byte[] value = token.getValue();
+        if ( value.length != TOKEN_LENGTH ) {
+            return false;
+        }
+        int bucket = bucket( value, 0 );
+        Entry<T> previous = null;
+        for ( Entry<T> entry = buckets[bucket]; entry != null; previous = entry, entry = entry.next ) {
+            if ( equalsConstantTime( entry.token, value, 0 ) ) {
+                unlink( bucket, previous, entry );
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Forgets all tokens of the owner, e.g. because its connection closed
+     *
+     * @param owner the owner of the tokens
+     * @return the number of removed tokens
+     */
+    public synchronized int removeAll( @NonNull T owner ) {
+        int removed = 0;
+        for ( int bucket = 0; bucket < buckets.length; bucket++ ) {
+            Entry<T> previous = null;
+            for ( Entry<T> entry = buckets[bucket]; entry != null; entry = entry.next ) {
+                if ( entry.owner == owner ) {
+                    unlink( bucket, previous, entry );
+                    removed++;
+                }
+                else {
+                    previous = entry;
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Checks whether the datagram ends with an indexed token
+     *
+     * @param datagram the array holding the datagram
+     * @param offset   the start of the datagram within the array
+     * @param length   the length of the datagram
+     * @return the owner of the token, or null if the datagram is no stateless reset
+     */
+    public synchronized T find( @NonNull byte[] datagram, int offset, int length ) {
+        if ( length < MIN_STATELESS_RESET_LENGTH || size == 0 ) {
+            return null;
+        }
+        int tokenOffset = offset + length - TOKEN_LENGTH;
+        T found = null;
+        // compare all candidates of the bucket, so that timing does not reveal which one matched
+        for ( Entry<T> entry = buckets[bucket( datagram, tokenOffset )]; entry != null; entry = entry.next ) {
+            if ( equalsConstantTime( entry.token, datagram, tokenOffset ) ) {
+                found = entry.owner;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return the number of indexed tokens
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private void unlink( int bucket, Entry<T> previous, Entry<T> entry ) {
+        if ( previous == null ) {
+            buckets[bucket] = entry.next;
+        }
+        else {
+            previous.next = entry.next;
+        }
+        size--;
+    }
+
+    private void resize( int bucketCount ) {
+        Entry<T>[] old = buckets;
+        buckets = newBuckets( bucketCount );
+        for ( Entry<T> head : old ) {
+            Entry<T> entry = head;
+            while ( entry != null ) {
+                Entry<T> next = entry.next;
+                int bucket = bucket( entry.token, 0 );
+                entry.next = buckets[bucket];
+                buckets[bucket] = entry;
+                entry = next;
+            }
+        }
+    }
+
+    /**
+     * @return the bucket of the token at the offset, selected by a keyed hash over all its bytes
+     */
+    private int bucket( byte[] data, int offset ) {
+        long hash = hashKey;
+        for ( int i = offset; i < offset + TOKEN_LENGTH; i++ ) {
+            hash = ( hash ^ ( data[i] & 0xFF ) ) * 0x9E3779B97F4A7C15L;
+            hash ^= hash >>> 29;
+        }
+        return (int)( ( hash ^ ( hash >>> 32 ) ) & ( buckets.length - 1 ) );
+    }
+
+    /**
+     * Compares the token with the bytes at the offset, always inspecting all bytes
+     */
+    private static boolean equalsConstantTime( byte[] token, byte[] data, int offset ) {
+        int difference = 0;
+        for ( int i = 0; i < TOKEN_LENGTH; i++ ) {
+            difference |= token[i] ^ data[offset + i];
+        }
+        return difference == 0;
+    }
+
+    private static <T> Entry<T>[] newBuckets( int count ) {
+        // generic arrays cannot be created directly; the cast is safe as the buckets never leave this index
+        @SuppressWarnings( "unchecked" )
+        Entry<T>[] buckets = (Entry<T>[])new Entry<?>[count];
+        return buckets;
+    }
+}
@@ -0,0 +1,33 @@
+package com.timtrense.quic.impl.base;
+
+/**
+ * Gets notified by a {@link StreamImpl} about I/O of the application, which may happen on any thread.
+ *
+ * @author Tim Trense
+ */
+public interface StreamEventListener {
+
+    /**
+     * Called after the application read data from the stream, which frees receive window
+     *
+     * @param stream        the stream that was read from
+     * @param numberOfBytes the number of read bytes
+     */
+    void onStreamDataRead( StreamImpl stream, int numberOfBytes );
+
+    /**
+     * Called after the application wrote data to or finished the stream, which now has data to send
+     *
+     * @param stream the stream that was written to
+     */
+    void onStreamDataWritten( StreamImpl stream );
+
+    /**
+     * Called after the application granted the peer more credit to send on the stream, which needs to be
+     * advertised in a MAX_STREAM_DATA frame
+     *
+     * @param stream   the stream that credit was granted for
+     * @param newLimit the new absolute limit of receivable bytes
+     */
+    void onStreamCreditGranted( StreamImpl stream, long newLimit );
+}
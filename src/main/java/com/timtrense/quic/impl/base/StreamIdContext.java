@@ -35,8 +35,8 @@ public interface StreamIdContext {
      * notifies the context that a new stream id was introduced to the connection (presumably by the remote).
      * all remotely created stream ids must indicated the inverted value for server-initiation with respect to
      * this context.
-     * when invoked, the method creates all ids of the given type (initiator and directionality) in between
-     * the current counting step and the given id.
+     * when invoked, all ids of the given type (initiator and directionality) in between
+     * the current counting step and the given id are opened implicitly.
      *
      * this method is not thread-safe unless synchronized on this instance.
      *
@@ -45,6 +45,24 @@ public interface StreamIdContext {
      */
     StreamId notifyAboutNewId( long streamIdValue );
 
+    /**
+     * checks whether the given id was opened, either explicitly or implicitly, and not yet closed
+     *
+     * @param streamIdValue the id to check
+     * @return true if the stream with that id is open
+     */
+    boolean isOpen( long streamIdValue );
+
+    /**
+     * notifies the context that the stream with the given id reached a terminal state.
+     *
+     * this method is not thread-safe unless synchronized on this instance.
+     *
+     * @param streamIdValue the id of the closed stream
+     * @return false if that id was not open
+     */
+    boolean notifyClosed( long streamIdValue );
+
     /**
      * @return an immutable view to all ids sorted by their values which naturally contains each known id only once
      */
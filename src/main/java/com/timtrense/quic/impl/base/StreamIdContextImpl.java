@@ -1,65 +1,174 @@
 package com.timtrense.quic.impl.base;
 
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.LinkedList;
+import java.util.AbstractList;
+import java.util.HashSet;
 import java.util.List;
-import lombok.Data;
+import java.util.Set;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.ToString;
 
 import com.timtrense.quic.EndpointRole;
 import com.timtrense.quic.StreamId;
 import com.timtrense.quic.VariableLengthInteger;
 
-@Data
+/**
+ * Keeps the stream ids of a connection as implicit ranges rather than as one object per id.
+ * <p>
+ * "A stream ID that is used out of order results in all streams of that
+ * type with lower-numbered stream IDs also being opened."
+ * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-3.2
+ * <p>
+ * For each of the four stream types, identified by the two least significant bits of the id, this context counts
+ * the opened ids. All ids of a type below that count are known. Closed ids are tracked by a watermark below which
+ * all ids of the type are closed and a set of the closed ids above it, which stays small as long as streams are
+ * closed roughly in the order they were opened.
+ *
+ * @author Tim Trense
+ * @see <a href="https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-2.1">QUIC Spec/Section 2.1</a>
+ */
+@ToString( exclude = "allStreamIds" )
 public class StreamIdContextImpl implements StreamIdContext {
 
-    private final EndpointRole role;
-    private long nextCountingValue = 0L;
-    private List<StreamId> knownStreamIds = new LinkedList<>();
+    private static final int NUMBER_OF_TYPES = 4;
+
+    @Getter
+    private final @NonNull EndpointRole role;
+    /**
+     * per type: the number of opened ids, thus the counting value of the next id of that type
+     */
+    private final long[] openedCount = new long[NUMBER_OF_TYPES];
+    /**
+     * per type: the counting value below which all ids of that type are closed
+     */
+    private final long[] closedBelow = new long[NUMBER_OF_TYPES];
+    /**
+     * the values of closed ids that are above the {@link #closedBelow} watermark of their type
+     */
+    private final Set<Long> closedAboveWatermark = new HashSet<>();
+    private final List<StreamId> allStreamIds = new AllStreamIdsView();
+
+    public StreamIdContextImpl( @NonNull EndpointRole role ) {
+        this.role = role;
+    }
 
     @Override
     public StreamId createNewId( boolean forUnidirectional ) {
-        long value = nextCountingValue++; // post-increment
-        StreamId created = new StreamIdImpl(
-                new VariableLengthInteger(
-                        ( value << 2 )
-                                | ( role == EndpointRole.SERVER ? StreamId.MASK_INITIATOR : 0 )
-                                | ( forUnidirectional ? StreamId.MASK_DIRECTIONALITY : 0 )
-                )
-        );
-        knownStreamIds.add( created );
-        return created;
+        int type = ( role == EndpointRole.SERVER ? (int)StreamId.MASK_INITIATOR : 0 )
+                | ( forUnidirectional ? (int)StreamId.MASK_DIRECTIONALITY : 0 );
+        long value = openedCount[type]++; // post-increment
+        return new StreamIdImpl( new VariableLengthInteger( ( value << 2 ) | type ) );
     }
 
     @Override
     public StreamId notifyAboutNewId( long streamIdValue ) {
-        if ( streamIdValue < 0 ) {
+        if ( streamIdValue < 0 || streamIdValue > VariableLengthInteger.MAX_VALUE.longValue() ) {
             return null;
         }
-
-        StreamId testId = new StreamIdImpl( new VariableLengthInteger( streamIdValue ) );
-        if ( testId.isServerInitiated() == ( role == EndpointRole.SERVER ) ) {
+        int type = (int)( streamIdValue & ( StreamId.MASK_INITIATOR | StreamId.MASK_DIRECTIONALITY ) );
+        boolean serverInitiated = ( type & StreamId.MASK_INITIATOR ) == StreamId.MASK_INITIATOR;
+        if ( serverInitiated == ( role == EndpointRole.SERVER ) ) {
             // remotely created ids must indicate the inverted value for server initiated
             return null;
         }
-        createIdsInBetween( nextCountingValue, testId.getCountingLongValue(), testId.getMask() );
-        knownStreamIds.add( testId );
-        knownStreamIds.sort( Comparator.comparing( StreamId::getLongValue ) );
-        if ( nextCountingValue <= streamIdValue ) {
-            nextCountingValue = ( streamIdValue >> 2 ) + 1;
+        long countingValue = streamIdValue >> 2;
+        if ( countingValue < openedCount[type] ) {
+            return null;
         }
-        return testId;
+        // opens all ids of that type in between implicitly
+        openedCount[type] = countingValue + 1;
+        return new StreamIdImpl( new VariableLengthInteger( streamIdValue ) );
+    }
+
+    @Override
+    public boolean isOpen( long streamIdValue ) {
+        if ( streamIdValue < 0 ) {
+            return false;
+        }
+        int type = (int)( streamIdValue & ( StreamId.MASK_INITIATOR | StreamId.MASK_DIRECTIONALITY ) );
+        long countingValue = streamIdValue >> 2;
+        return countingValue < openedCount[type]
+                && countingValue >= closedBelow[type]
+                && !closedAboveWatermark.contains( streamIdValue );
+    }
+
+    @Override
+    public boolean notifyClosed( long streamIdValue ) {
+        if ( !isOpen( streamIdValue ) ) {
+            return false;
+        }
+        int type = (int)( streamIdValue & ( StreamId.MASK_INITIATOR | StreamId.MASK_DIRECTIONALITY ) );
+        closedAboveWatermark.add( streamIdValue );
+        while ( closedAboveWatermark.remove( ( closedBelow[type] << 2 ) | type ) ) {
+            closedBelow[type]++;
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of known ids that are not closed
+     */
+    public long getOpenCount() {
+        long count = 0;
+        for ( int type = 0; type < NUMBER_OF_TYPES; type++ ) {
+            count += openedCount[type] - closedBelow[type];
+        }
+        return count - closedAboveWatermark.size();
     }
 
     @Override
     public List<StreamId> getAllStreamIds() {
-        return Collections.unmodifiableList( knownStreamIds );
+        return allStreamIds;
     }
 
-    private void createIdsInBetween( long currentCountingValue, long endCountingValue, long mask ) {
-        for ( ; currentCountingValue < endCountingValue; currentCountingValue++ ) {
-            StreamId inBetween = new StreamIdImpl( new VariableLengthInteger( ( currentCountingValue << 2 ) | mask ) );
-            knownStreamIds.add( inBetween );
+    /**
+     * Counts the known ids up to a given value
+     *
+     * @param streamIdValue the inclusive upper bound
+     * @return the number of known ids with a value less than or equal to the given one
+     */
+    private long countKnownUpTo( long streamIdValue ) {
+        long count = 0;
+        for ( int type = 0; type < NUMBER_OF_TYPES; type++ ) {
+            if ( streamIdValue >= type ) {
+                count += Math.min( openedCount[type], ( ( streamIdValue - type ) >> 2 ) + 1 );
+            }
+        }
+        return count;
+    }
+
+    /**
+     * An immutable view to all known ids, sorted by their value, that creates the ids on access
+     */
+    private class AllStreamIdsView extends AbstractList<StreamId> {
+
+        @Override
+        public StreamId get( int index ) {
+            if ( index < 0 || index >= size() ) {
+                throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + size() );
+            }
+            // the smallest value having index + 1 known ids up to and including it
+            long low = 0;
+            long high = VariableLengthInteger.MAX_VALUE.longValue();
+            while ( low < high ) {
+                long middle = ( low + high ) >>> 1;
+                if ( countKnownUpTo( middle ) > index ) {
+                    high = middle;
+                }
+                else {
+                    low = middle + 1;
+                }
+            }
+            return new StreamIdImpl( new VariableLengthInteger( low ) );
+        }
+
+        @Override
+        public int size() {
+            long size = 0;
+            for ( long count : openedCount ) {
+                size += count;
+            }
+            return (int)Math.min( Integer.MAX_VALUE, size );
         }
     }
 }
@@ -1,28 +1,515 @@
 package com.timtrense.quic.impl.base;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
-import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
 
 import com.timtrense.quic.CreditBasedFlowControl;
 import com.timtrense.quic.Stream;
 import com.timtrense.quic.StreamId;
 import com.timtrense.quic.StreamPriority;
+import com.timtrense.quic.impl.exception.QuicTransportException;
+import com.timtrense.quic.impl.frames.StreamFrameImpl;
 
 /**
+ * The implementation of a {@link Stream}, offering blocking I/O to the application.
+ * <p>
+ * The buffers of the stream are accessed by the thread of the connection and by any number of application
+ * threads. All access is guarded by a {@link ReentrantLock} rather than by synchronized blocks. Blocked readers
+ * and writers wait on conditions of that lock, which parks virtual threads without pinning their carrier threads,
+ * such that one virtual thread per stream is viable.
+ * <p>
+ * Streams are equal by their id only, because their state changes while they are held in sets and maps.
+ *
  * @author Tim Trense
  */
-@Data
+@Getter
+@Setter
+@ToString
+@EqualsAndHashCode( onlyExplicitlyIncluded = true )
 @RequiredArgsConstructor
 @AllArgsConstructor
 public class StreamImpl implements Stream {
 
+    /**
+     * the default number of written bytes to hold until writers block
+     */
+    public static final long DEFAULT_MAX_SEND_BUFFER = 1024 * 1024;
+
+    @EqualsAndHashCode.Include
     private final @NonNull StreamId id;
     private final @NonNull CreditBasedFlowControl sendingFlowControl;
     private final @NonNull CreditBasedFlowControl receivingFlowControl;
     private @NonNull StreamPriority priority = DefaultStreamPriority.BASE_PRIORITY;
     private @NonNull SendingStreamStateImpl currentSendingState = SendingStreamStateImpl.NEW;
     private @NonNull ReceivingStreamStateImpl currentReceivingState = ReceivingStreamStateImpl.NEW;
+    /**
+     * the buffer of received data, or null if the stream has no receiving part
+     */
+    private StreamReceiveBuffer receiveBuffer;
+    /**
+     * the auto-tuning of the receive window, or null if the stream has no receiving part
+     */
+    private ReceiveWindowTuner receiveWindowTuner;
+    /**
+     * the buffer of data to send, or null if the stream has no sending part
+     */
+    private StreamSendBuffer sendBuffer;
+    /**
+     * the number of written, not yet acknowledged bytes above which writers block
+     */
+    private long maxSendBuffer = DEFAULT_MAX_SEND_BUFFER;
+    /**
+     * notified about I/O of the application, or null
+     */
+    @ToString.Exclude
+    private StreamEventListener eventListener;
+    /**
+     * called without holding the lock whenever data became readable or the receiving part terminated, or null
+     */
+    @ToString.Exclude
+    private Runnable readableListener;
+
+    @Getter( AccessLevel.NONE )
+    @ToString.Exclude
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * signalled when data became readable or the receiving part terminated
+     */
+    @Getter( AccessLevel.NONE )
+    @ToString.Exclude
+    private final Condition readable = lock.newCondition();
+    /**
+     * signalled when written data was acknowledged or the sending part terminated
+     */
+    @Getter( AccessLevel.NONE )
+    @ToString.Exclude
+    private final Condition writable = lock.newCondition();
+    @ToString.Exclude
+    private final InputStream inputStream = new StreamInputStream();
+    @ToString.Exclude
+    private final OutputStream outputStream = new StreamOutputStream();
+
+    /**
+     * Buffers the data of a received frame and advances the receiving state
+     *
+     * @param frame the received frame
+     * @return false if the data was rejected because it exceeds the memory limits
+     * @throws QuicTransportException if the frame violates the final size of the stream
+     */
+    public boolean onFrameReceived( @NonNull StreamFrameImpl frame ) throws QuicTransportException {
+        lock.lock();
+        try {
+            if ( !receiveBuffer.onFrameReceived( frame ) ) {
+                return false;
+            }
+            updateReceivingState();
+            readable.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+        notifyReadable();
+        return true;
+    }
+
+    /**
+     * Marks the receiving part as reset by the peer, which wakes up and fails all blocked readers
+     */
+    public void onResetReceived() {
+        lock.lock();
+        try {
+            receiveBuffer.discard();
+            currentReceivingState = ReceivingStreamStateImpl.RESET_RECEIVED;
+            readable.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+        notifyReadable();
+    }
+
+    private void notifyReadable() {
+        Runnable listener = readableListener;
+        if ( listener != null ) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Delivers received data in order, blocking until at least one byte is available
+     *
+     * @param target the buffer to write the data to
+     * @return the number of delivered bytes or -1 if the stream ended
+     * @throws IOException if the stream was reset or the thread was interrupted while blocked
+     */
+    @Override
+    public int read( @NonNull ByteBuffer target ) throws IOException {
+        return read( target, true );
+    }
+
+    /**
+     * Delivers the received data that is available in order, without blocking
+     *
+     * @param target the buffer to write the data to
+     * @return the number of delivered bytes, 0 if no data is available or -1 if the stream ended
+     * @throws IOException if the stream was reset
+     */
+    public int readAvailable( @NonNull ByteBuffer target ) throws IOException {
+        return read( target, false );
+    }
+
+    /**
+     * @return true if the peer ended the stream and all its data was read
+     */
+    public boolean isAllDataRead() {
+        if ( receiveBuffer == null ) {
+            throw new IllegalStateException( "The stream " + id + " has no receiving part" );
+        }
+        lock.lock();
+        try {
+            return receiveBuffer.isAllDataRead();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private int read( ByteBuffer target, boolean blocking ) throws IOException {
+        checkReceivingPart();
+        if ( !target.hasRemaining() ) {
+            return 0;
+        }
+        int count;
+        lock.lock();
+        try {
+            while ( receiveBuffer.getReadableBytes() == 0 ) {
+                if ( isReset( currentReceivingState ) ) {
+                    throw new IOException( "The stream was reset by the peer" );
+                }
+                if ( receiveBuffer.isAllDataRead() ) {
+                    return -1;
+                }
+                if ( !blocking ) {
+                    return 0;
+                }
+                awaitUninterrupted( readable );
+            }
+            count = receiveBuffer.read( target );
+            updateReceivingState();
+        }
+        finally {
+            lock.unlock();
+        }
+        if ( eventListener != null ) {
+            eventListener.onStreamDataRead( this, count );
+        }
+        return count;
+    }
+
+    /**
+     * Writes the remaining bytes of the buffer, copying them, and blocks while the send buffer is full
+     *
+     * @param source the data to write
+     * @return the number of written bytes
+     * @throws IOException if the stream was finished or reset or the thread was interrupted while blocked
+     */
+    @Override
+    public int write( @NonNull ByteBuffer source ) throws IOException {
+        ByteBuffer copy = ByteBuffer.allocate( source.remaining() );
+        copy.put( source ).flip();
+        int count = copy.remaining();
+        write( copy, null );
+        return count;
+    }
+
+    /**
+     * Writes the remaining bytes of the buffer without copying them and blocks while the send buffer is full.
+     * The application must not modify the buffer until it was released.
+     *
+     * @param source          the data to write
+     * @param releaseListener called with the buffer once all its bytes were acknowledged, or null
+     * @throws IOException if the stream was finished or reset or the thread was interrupted while blocked
+     */
+    public void write( @NonNull ByteBuffer source, Consumer<ByteBuffer> releaseListener ) throws IOException {
+        checkSendingPart();
+        lock.lock();
+        try {
+            while ( sendBuffer.getBufferedBytes() >= maxSendBuffer ) {
+                checkWritable();
+                awaitUninterrupted( writable );
+            }
+            checkWritable();
+            sendBuffer.write( source, releaseListener );
+            updateSendingState();
+        }
+        finally {
+            lock.unlock();
+        }
+        if ( eventListener != null ) {
+            eventListener.onStreamDataWritten( this );
+        }
+    }
+
+    /**
+     * Ends the sending part of the stream cleanly
+     *
+     * @throws IOException if the stream was reset
+     */
+    public void finish() throws IOException {
+        checkSendingPart();
+        lock.lock();
+        try {
+            if ( sendBuffer.isFinished() ) {
+                return;
+            }
+            checkWritable();
+            sendBuffer.finish();
+            updateSendingState();
+        }
+        finally {
+            lock.unlock();
+        }
+        if ( eventListener != null ) {
+            eventListener.onStreamDataWritten( this );
+        }
+    }
+
+    /**
+     * Marks the sending part as reset, which wakes up and fails all blocked writers
+     *
+     * @param byPeer whether the peer requested the reset by a STOP_SENDING frame
+     */
+    public void onSendingReset( boolean byPeer ) {
+        lock.lock();
+        try {
+            sendBuffer.discard();
+            currentSendingState = byPeer ? SendingStreamStateImpl.RESET_RECEIVED : SendingStreamStateImpl.RESET_SENT;
+            writable.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @throws IOException if the stream is send-only, e.g. a unidirectional stream opened by this endpoint
+     */
+    private void checkReceivingPart() throws IOException {
+        if ( receiveBuffer == null ) {
+            throw new IOException( "Cannot read from the stream " + id + ", it has no receiving part" );
+        }
+    }
+
+    /**
+     * @throws IOException if the stream is receive-only, e.g. a unidirectional stream opened by the peer
+     */
+    private void checkSendingPart() throws IOException {
+        if ( sendBuffer == null ) {
+            throw new IOException( "Cannot write to the stream " + id + ", it has no sending part" );
+        }
+    }
+
+    private void checkWritable() throws IOException {
+        if ( isReset( currentSendingState ) ) {
+            throw new IOException( "The stream was reset" );
+        }
+        if ( sendBuffer.isFinished() ) {
+            throw new IOException( "Cannot write to a finished stream" );
+        }
+    }
+
+    /**
+     * Waits on the condition, which requires holding the {@link #lock}
+     *
+     * @param condition the condition to wait for
+     * @throws InterruptedIOException if the thread was interrupted
+     */
+    private static void awaitUninterrupted( Condition condition ) throws InterruptedIOException {
+        try {
+            condition.await();
+        }
+        catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted while waiting on a stream" );
+        }
+    }
+
+    private static boolean isReset( Object state ) {
+        return state == ReceivingStreamStateImpl.RESET_RECEIVED
+                || state == ReceivingStreamStateImpl.RESET_READ
+                || state == SendingStreamStateImpl.RESET_SENT
+                || state == SendingStreamStateImpl.RESET_RECEIVED;
+    }
+
+    /**
+     * Creates the next STREAM frame to send and advances the sending state
+     *
+     * @param maxLength the maximum number of data bytes of the frame
+     * @return the next frame or null if there is nothing to send or no credit to send it
+     * @see StreamSendBuffer#nextFrame(StreamId, int, CreditBasedFlowControl)
+     */
+    public StreamFrameImpl nextFrame( int maxLength ) {
+        lock.lock();
+        try {
+            StreamFrameImpl frame = sendBuffer.nextFrame( id, maxLength, sendingFlowControl );
+            updateSendingState();
+            return frame;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true if lost data needs to be retransmitted or new data or the FIN bit was not sent yet
+     */
+    public boolean hasDataToSend() {
+        lock.lock();
+        try {
+            return sendBuffer.hasDataToSend();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records the acknowledgement of a STREAM frame of this stream and advances the sending state
+     *
+     * @param frame the acknowledged frame
+     */
+    public void onFrameAcknowledged( @NonNull StreamFrameImpl frame ) {
+        lock.lock();
+        try {
+            sendBuffer.onAcknowledged( frame.getOffset().longValue(), frame.getLength().longValue(),
+                    frame.isFinBitSet() );
+            updateSendingState();
+            writable.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records the loss of a STREAM frame of this stream, such that its data is retransmitted
+     *
+     * @param frame the lost frame
+     */
+    public void onFrameLost( @NonNull StreamFrameImpl frame ) {
+        lock.lock();
+        try {
+            sendBuffer.onLost( frame.getOffset().longValue(), frame.getLength().longValue(), frame.isFinBitSet() );
+            updateSendingState();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void updateSendingState() {
+        if ( currentSendingState == SendingStreamStateImpl.RESET_SENT
+                || currentSendingState == SendingStreamStateImpl.RESET_RECEIVED ) {
+            return;
+        }
+        if ( sendBuffer.isAllDataAcknowledged() ) {
+            currentSendingState = SendingStreamStateImpl.DATA_RECEIVED;
+        }
+        else if ( sendBuffer.isAllDataSent() ) {
+            currentSendingState = SendingStreamStateImpl.DATA_SENT;
+        }
+        else if ( sendBuffer.getSendOffset() > 0 || sendBuffer.isFinished() ) {
+            currentSendingState = SendingStreamStateImpl.SEND;
+        }
+        else {
+            currentSendingState = SendingStreamStateImpl.READY;
+        }
+    }
+
+    private void updateReceivingState() {
+        if ( currentReceivingState == ReceivingStreamStateImpl.RESET_RECEIVED
+                || currentReceivingState == ReceivingStreamStateImpl.RESET_READ ) {
+            return;
+        }
+        if ( receiveBuffer.isAllDataRead() ) {
+            currentReceivingState = ReceivingStreamStateImpl.DATA_READ;
+        }
+        else if ( receiveBuffer.isAllDataReceived() ) {
+            currentReceivingState = ReceivingStreamStateImpl.DATA_RECEIVED;
+        }
+        else if ( receiveBuffer.isFinalSizeKnown() ) {
+            currentReceivingState = ReceivingStreamStateImpl.SIZE_KNOWN;
+        }
+        else {
+            currentReceivingState = ReceivingStreamStateImpl.RECEIVE;
+        }
+    }
+
+    /**
+     * Adapts the blocking {@link #read(ByteBuffer)} to an {@link InputStream}
+     */
+    private class StreamInputStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int count = read( single, 0, 1 );
+            return count < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read( byte[] b, int off, int len ) throws IOException {
+            if ( len == 0 ) {
+                return 0;
+            }
+            return StreamImpl.this.read( ByteBuffer.wrap( b, off, len ) );
+        }
+
+        @Override
+        public int available() throws IOException {
+            checkReceivingPart();
+            lock.lock();
+            try {
+                return (int)Math.min( Integer.MAX_VALUE, receiveBuffer.getReadableBytes() );
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Adapts the blocking {@link #write(ByteBuffer)} to an {@link OutputStream}. Closing it finishes the stream.
+     */
+    private class StreamOutputStream extends OutputStream {
+
+        @Override
+        public void write( int b ) throws IOException {
+            write( new byte[]{ (byte)b }, 0, 1 );
+        }
+
+        @Override
+        public void write( byte[] b, int off, int len ) throws IOException {
+            StreamImpl.this.write( ByteBuffer.wrap( b, off, len ) );
+        }
 
+        @Override
+        public void close() throws IOException {
+            finish();
+        }
+    }
 }
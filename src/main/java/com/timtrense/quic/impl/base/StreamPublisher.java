@@ -0,0 +1,88 @@
+package com.timtrense.quic.impl.base;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * Publishes the received data of a stream, granting the peer flow control credit only as the subscriber demands.
+ * <p>
+ * Each requested item is one buffer of up to {@link #getChunkSize() chunk size} bytes. Requesting n items raises
+ * the receive limit of the stream by n chunks, such that the peer is never allowed to send more than the
+ * subscriber asked for and no data needs to be buffered beyond that. The {@link ReceiveWindowTuner} of the
+ * stream is therefore detached on subscription.
+ *
+ * @author Tim Trense
+ * @see com.timtrense.quic.CreditBasedFlowControl#incrementLimit(int)
+ */
+public class StreamPublisher extends BaseSingleSubscriberPublisher<ByteBuffer> {
+
+    @Getter
+    private final @NonNull StreamImpl stream;
+    /**
+     * the maximum number of bytes per published buffer
+     */
+    @Getter
+    private final int chunkSize;
+
+    /**
+     * @param stream    the stream to publish the received data of
+     * @param chunkSize the maximum number of bytes per published buffer
+     * @param executor  the executor to signal the subscriber on
+     */
+    public StreamPublisher( @NonNull StreamImpl stream, int chunkSize, @NonNull Executor executor ) {
+        super( executor );
+        if ( chunkSize <= 0 ) {
+            throw new IllegalArgumentException( "Cannot publish chunks of non-positive size" );
+        }
+        this.stream = stream;
+        this.chunkSize = chunkSize;
+        stream.setReceiveWindowTuner( null );
+        stream.setReadableListener( this::signal );
+    }
+
+    @Override
+    protected void onRequest( long n ) {
+        long credit = Math.min( n, Integer.MAX_VALUE / chunkSize ) * chunkSize;
+        long newLimit = stream.getReceivingFlowControl().incrementLimit( (int)credit );
+        StreamEventListener listener = stream.getEventListener();
+        if ( listener != null ) {
+            listener.onStreamCreditGranted( stream, newLimit );
+        }
+    }
+
+    @Override
+    protected void onCancel() {
+        stream.setReadableListener( null );
+    }
+
+    @Override
+    protected void drain() {
+        while ( getDemand() > 0 ) {
+            ByteBuffer chunk = ByteBuffer.allocate( chunkSize );
+            int count;
+            try {
+                count = stream.readAvailable( chunk );
+            }
+            catch ( IOException e ) {
+                fail( e );
+                return;
+            }
+            if ( count < 0 ) {
+                complete();
+                return;
+            }
+            if ( count == 0 || !tryConsumeDemand() ) {
+                return;
+            }
+            chunk.flip();
+            emit( chunk );
+        }
+        // the end of the stream is signalled regardless of demand
+        if ( stream.isAllDataRead() ) {
+            complete();
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.timtrense.quic.impl.base;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.ToString;
+
+import com.timtrense.quic.TransportErrorCode;
+import com.timtrense.quic.impl.exception.QuicTransportException;
+import com.timtrense.quic.impl.frames.StreamFrameImpl;
+
+/**
+ * Reassembles the data of the receiving part of a stream from out-of-order {@link StreamFrameImpl STREAM frames}.
+ * <p>
+ * "Endpoints MUST be able to deliver stream data to an application as an
+ * ordered byte-stream.  Delivering an ordered byte-stream requires that
+ * an endpoint buffer any data that is received out of order, up to the
+ * advertised flow control limit."
+ * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-2.2
+ * <p>
+ * The received data is not copied but kept as slices of the frames' data arrays.
+ * Overlapping data is trimmed on arrival, such that every offset is held at most once.
+ * The held bytes count against a per-stream limit and a {@link ReassemblyMemoryBudget} shared among streams.
+ * Data that would exceed either is rejected, and the packet carrying it must not be acknowledged, so that the
+ * peer retransmits it once the application consumed the preceding data.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @author Tim Trense
+ * @see <a href="https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-2.2">QUIC Spec/Section 2.2</a>
+ */
+@ToString( exclude = { "segments", "budget" } )
+public class StreamReceiveBuffer {
+
+    /**
+     * the held, non-overlapping slices of received data by their stream offset
+     */
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    /**
+     * the budget shared with other streams
+     */
+    private final @NonNull ReassemblyMemoryBudget budget;
+    /**
+     * the maximum number of bytes this stream may hold
+     */
+    @Getter
+    private final long maxBufferedBytes;
+    /**
+     * the number of bytes currently held
+     */
+    @Getter
+    private long bufferedBytes;
+    /**
+     * the offset of the next byte to deliver to the application
+     */
+    @Getter
+    private long readOffset;
+    /**
+     * the offset up to which all data was received
+     */
+    @Getter
+    private long contiguousOffset;
+    /**
+     * the largest offset of any received byte plus one
+     */
+    @Getter
+    private long highestReceivedOffset;
+    /**
+     * the final size of the stream or -1 if not yet known
+     */
+    @Getter
+    private long finalSize = -1;
+
+    /**
+     * @param budget           the budget shared with other streams
+     * @param maxBufferedBytes the maximum number of bytes this stream may hold
+     */
+    public StreamReceiveBuffer( @NonNull ReassemblyMemoryBudget budget, long maxBufferedBytes ) {
+        this.budget = budget;
+        this.maxBufferedBytes = maxBufferedBytes;
+    }
+
+    /**
+     * Takes the data of a received STREAM frame
+     *
+     * @param frame the received frame
+     * @return false if the data was rejected because it exceeds the memory limits
+     * @throws QuicTransportException if the frame violates the final size of the stream
+     */
+    public boolean onFrameReceived( @NonNull StreamFrameImpl frame ) throws QuicTransportException {
+        long offset = frame.getOffset() == null ? 0 : frame.getOffset().longValue();
+        byte[] data = frame.getData();
+        return onDataReceived( offset, data, 0, data.length, frame.isFinBitSet() );
+    }
+
+    /**
+     * Takes received stream data
+     *
+     * @param offset the stream offset of the first byte
+     * @param data   the array holding the data, which will be referenced rather than copied
+     * @param start  the index of the first byte within the array
+     * @param length the number of bytes
+     * @param fin    whether this data ends the stream
+     * @return false if the data was rejected because it exceeds the memory limits
+     * @throws QuicTransportException if the data violates the final size of the stream
+     */
+    public boolean onDataReceived( long offset, @NonNull byte[] data, int start, int length, boolean fin )
+            throws QuicTransportException {
+        long end = offset + length;
+        checkFinalSize( end, fin );
+
+        long newBytes = countNewBytes( offset, end );
+        if ( newBytes > 0 ) {
+            if ( bufferedBytes + newBytes > maxBufferedBytes || !budget.tryAcquire( newBytes ) ) {
+                return false;
+            }
+            insert( offset, end, data, start );
+            bufferedBytes += newBytes;
+            while ( true ) {
+                Segment next = segments.get( contiguousOffset );
+                if ( next == null ) {
+                    break;
+                }
+                contiguousOffset += next.length;
+            }
+        }
+        if ( fin ) {
+            finalSize = end;
+        }
+        highestReceivedOffset = Math.max( highestReceivedOffset, end );
+        return true;
+    }
+
+    /**
+     * "Once a final size for a stream is known, it cannot change.  If a
+     * RESET_STREAM or STREAM frame is received indicating a change in the
+     * final size for the stream, an endpoint SHOULD respond with a
+     * FINAL_SIZE_ERROR error"
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-4.5
+     *
+     * @param end the offset after the received data
+     * @param fin whether the received data ends the stream
+     * @throws QuicTransportException if the final size was violated
+     */
+    private void checkFinalSize( long end, boolean fin ) throws QuicTransportException {
+        if ( fin ) {
+            if ( finalSize >= 0 && finalSize != end ) {
+                throw new QuicTransportException( TransportErrorCode.FINAL_SIZE_ERROR,
+                        "The final size of the stream changed from " + finalSize + " to " + end );
+            }
+            if ( highestReceivedOffset > end ) {
+                throw new QuicTransportException( TransportErrorCode.FINAL_SIZE_ERROR,
+                        "Data was received beyond the final size of " + end );
+            }
+        }
+        else if ( finalSize >= 0 && end > finalSize ) {
+            throw new QuicTransportException( TransportErrorCode.FINAL_SIZE_ERROR,
+                    "Data was received beyond the final size of " + finalSize );
+        }
+    }
+
+    /**
+     * @param offset the first offset of the range
+     * @param end    the offset after the range
+     * @return the number of bytes within the range that are neither delivered nor held
+     */
+    private long countNewBytes( long offset, long end ) {
+        long cursor = Math.max( offset, readOffset );
+        long count = 0;
+        while ( cursor < end ) {
+            Map.Entry<Long, Segment> floor = segments.floorEntry( cursor );
+            if ( floor != null && floor.getKey() + floor.getValue().length > cursor ) {
+                cursor = floor.getKey() + floor.getValue().length;
+                continue;
+            }
+            Long next = segments.higherKey( cursor );
+            long pieceEnd = next == null ? end : Math.min( end, next );
+            count += pieceEnd - cursor;
+            cursor = pieceEnd;
+        }
+        return count;
+    }
+
+    /**
+     * Holds slices of the given data for all parts of the range that are neither delivered nor held yet
+     *
+     * @param offset the stream offset of the first byte
+     * @param end    the offset after the data
+     * @param data   the array holding the data
+     * @param start  the index of the first byte within the array
+     */
+    private void insert( long offset, long end, byte[] data, int start ) {
+        long cursor = Math.max( offset, readOffset );
+        while ( cursor < end ) {
+            Map.Entry<Long, Segment> floor = segments.floorEntry( cursor );
+            if ( floor != null && floor.getKey() + floor.getValue().length > cursor ) {
+                cursor = floor.getKey() + floor.getValue().length;
+                continue;
+            }
+            Long next = segments.higherKey( cursor );
+            long pieceEnd = next == null ? end : Math.min( end, next );
+            segments.put( cursor,
+                    new Segment( data, start + (int)( cursor - offset ), (int)( pieceEnd - cursor ) ) );
+            cursor = pieceEnd;
+        }
+    }
+
+    /**
+     * Delivers contiguous data in order
+     *
+     * @param target the buffer to write the data to
+     * @return the number of delivered bytes, which is 0 if no data is available
+     */
+    public int read( @NonNull ByteBuffer target ) {
+        int total = 0;
+        while ( target.hasRemaining() ) {
+            Segment segment = segments.get( readOffset );
+            if ( segment == null ) {
+                break;
+            }
+            int count = Math.min( target.remaining(), segment.length );
+            target.put( segment.data, segment.start, count );
+            segments.remove( readOffset );
+            readOffset += count;
+            total += count;
+            if ( count < segment.length ) {
+                segment.start += count;
+                segment.length -= count;
+                segments.put( readOffset, segment );
+            }
+        }
+        bufferedBytes -= total;
+        budget.release( total );
+        return total;
+    }
+
+    /**
+     * @return the number of bytes that can be {@link #read(ByteBuffer) read} in order right now
+     */
+    public long getReadableBytes() {
+        return contiguousOffset - readOffset;
+    }
+
+    /**
+     * @return true if the final size is known, thus the stream is in state
+     * {@link ReceivingStreamStateImpl#SIZE_KNOWN} or beyond
+     */
+    public boolean isFinalSizeKnown() {
+        return finalSize >= 0;
+    }
+
+    /**
+     * @return true if all data up to the final size was received, thus the stream is in state
+     * {@link ReceivingStreamStateImpl#DATA_RECEIVED} or beyond
+     */
+    public boolean isAllDataReceived() {
+        return finalSize >= 0 && contiguousOffset == finalSize;
+    }
+
+    /**
+     * @return true if all data up to the final size was delivered to the application
+     */
+    public boolean isAllDataRead() {
+        return finalSize >= 0 && readOffset == finalSize;
+    }
+
+    /**
+     * Drops all held data and gives its memory back to the budget, as done when the stream was reset
+     */
+    public void discard() {
+        segments.clear();
+        budget.release( bufferedBytes );
+        bufferedBytes = 0;
+    }
+
+    /**
+     * A slice of a received array
+     */
+    private static final class Segment {
+
+        private final byte[] data;
+        private int start;
+        private int length;
+
+        private Segment( byte[] data, int start, int length ) {
+            this.data = data;
+            this.start = start;
+            this.length = length;
+        }
+    }
+}
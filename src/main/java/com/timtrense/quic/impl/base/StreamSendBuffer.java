@@ -0,0 +1,274 @@
+package com.timtrense.quic.impl.base;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.function.Consumer;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.ToString;
+
+import com.timtrense.quic.CreditBasedFlowControl;
+import com.timtrense.quic.FrameType;
+import com.timtrense.quic.StreamId;
+import com.timtrense.quic.VariableLengthInteger;
+import com.timtrense.quic.impl.frames.StreamFrameImpl;
+
+/**
+ * Holds the data of the sending part of a stream from the application's write until the peer's acknowledgement.
+ * <p>
+ * "Endpoints need to be able to send
+ * stream data and retransmit it until it is acknowledged"
+ * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-2.4
+ * <p>
+ * Written buffers are not copied but kept as {@link SendChunk reference-counted chunks}. STREAM frames refer to
+ * slices of the chunks and are written to packets directly from them, both for new data and for retransmissions.
+ * Acknowledged and lost byte ranges are tracked as interval sets. A chunk is released once all bytes up to its end
+ * were acknowledged. Lost ranges are retransmitted, lowest first, before any new data.
+ * <p>
+ * Neither interval set may ever drop a range: a dropped lost range would never be retransmitted, and a dropped
+ * acknowledged range would keep the acknowledged offset from advancing. Both are unbounded, as their number of
+ * ranges is already limited by the sent bytes, which flow control limits.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @author Tim Trense
+ * @see <a href="https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-13.3">QUIC Spec/Section 13.3</a>
+ */
+@ToString( exclude = { "chunks", "acknowledgedRanges", "lostRanges" } )
+public class StreamSendBuffer {
+
+    /**
+     * the written, not yet fully acknowledged chunks in the order of their offsets
+     */
+    private final ArrayDeque<SendChunk> chunks = new ArrayDeque<>();
+    /**
+     * the byte ranges above {@link #acknowledgedOffset} that were acknowledged, both bounds inclusive
+     */
+    private final PacketNumberRangeSet acknowledgedRanges =
+            new PacketNumberRangeSet( PacketNumberRangeSet.UNBOUNDED_MAX_RANGES );
+    /**
+     * the byte ranges that were lost and need to be retransmitted, both bounds inclusive
+     */
+    private final PacketNumberRangeSet lostRanges =
+            new PacketNumberRangeSet( PacketNumberRangeSet.UNBOUNDED_MAX_RANGES );
+    /**
+     * the stream offset after the last written byte
+     */
+    @Getter
+    private long writeOffset;
+    /**
+     * the stream offset of the next byte that was never sent
+     */
+    @Getter
+    private long sendOffset;
+    /**
+     * the stream offset below which all bytes were acknowledged
+     */
+    @Getter
+    private long acknowledgedOffset;
+    /**
+     * the number of written bytes held until acknowledged
+     */
+    @Getter
+    private long bufferedBytes;
+    /**
+     * whether the application ended the stream
+     */
+    @Getter
+    private boolean finished;
+    private boolean finSent;
+    private boolean finAcknowledged;
+
+    /**
+     * Appends the remaining bytes of the buffer to the stream without copying them.
+     * The application must not modify the buffer until it was released.
+     *
+     * @param data            the data to write
+     * @param releaseListener called with the buffer once all its bytes were acknowledged, or null
+     */
+    public void write( @NonNull ByteBuffer data, Consumer<ByteBuffer> releaseListener ) {
+        if ( finished ) {
+            throw new IllegalStateException( "Cannot write to a finished stream" );
+        }
+        if ( !data.hasRemaining() ) {
+            if ( releaseListener != null ) {
+                releaseListener.accept( data );
+            }
+            return;
+        }
+        SendChunk chunk = new SendChunk( data, writeOffset, releaseListener );
+        chunks.addLast( chunk );
+        writeOffset += chunk.getLength();
+        bufferedBytes += chunk.getLength();
+    }
+
+    /**
+     * Ends the stream, such that the last STREAM frame carries the FIN bit
+     */
+    public void finish() {
+        finished = true;
+    }
+
+    /**
+     * @return true if lost data needs to be retransmitted or new data or the FIN bit was not sent yet
+     */
+    public boolean hasDataToSend() {
+        return !lostRanges.isEmpty() || sendOffset < writeOffset || ( finished && !finSent );
+    }
+
+    /**
+     * @return true if all data and the end of the stream were acknowledged
+     */
+    public boolean isAllDataAcknowledged() {
+        return finAcknowledged && acknowledgedOffset == writeOffset;
+    }
+
+    /**
+     * @return true if all data and the end of the stream were sent at least once
+     */
+    public boolean isAllDataSent() {
+        return finSent && sendOffset == writeOffset;
+    }
+
+    /**
+     * Creates the next STREAM frame to send, retransmitting lost data first.
+     * The frame holds a reference to the chunk it refers to, to be released once it was serialized.
+     *
+     * @param streamId    the id of this stream
+     * @param maxLength   the maximum number of data bytes of the frame
+     * @param flowControl the flow control to reserve credit for new data with
+     * @return the next frame or null if there is nothing to send or no credit to send it
+     */
+    public StreamFrameImpl nextFrame( @NonNull StreamId streamId, int maxLength,
+            @NonNull CreditBasedFlowControl flowControl ) {
+        while ( !lostRanges.isEmpty() ) {
+            int lowest = lostRanges.getRangeCount() - 1;
+            long start = Math.max( lostRanges.getSmallest( lowest ), acknowledgedOffset );
+            long end = lostRanges.getLargest( lowest ) + 1;
+            if ( start >= end ) {
+                // acknowledged by a retransmission in the meantime
+                lostRanges.removeBelow( end );
+                continue;
+            }
+            if ( maxLength <= 0 ) {
+                return null;
+            }
+            SendChunk chunk = findChunk( start );
+            int length = (int)Math.min( Math.min( end, chunk.getEndOffset() ) - start, maxLength );
+            lostRanges.removeBelow( start + length );
+            return createFrame( streamId, chunk, start, length );
+        }
+        if ( sendOffset < writeOffset && maxLength > 0 ) {
+            SendChunk chunk = findChunk( sendOffset );
+            long wanted = Math.min( chunk.getEndOffset() - sendOffset, maxLength );
+            int length = (int)flowControl.tryReserve( wanted );
+            if ( length > 0 ) {
+                StreamFrameImpl frame = createFrame( streamId, chunk, sendOffset, length );
+                sendOffset += length;
+                return frame;
+            }
+        }
+        if ( finished && !finSent && sendOffset == writeOffset ) {
+            return createFrame( streamId, null, sendOffset, 0 );
+        }
+        return null;
+    }
+
+    private StreamFrameImpl createFrame( StreamId streamId, SendChunk chunk, long offset, int length ) {
+        boolean fin = finished && offset + length == writeOffset;
+        StreamFrameImpl frame = new StreamFrameImpl( fin ? FrameType.STREAM_OFF_LEN_FIN : FrameType.STREAM_OFF_LEN );
+        frame.setStreamId( streamId );
+        frame.setOffset( new VariableLengthInteger( offset ) );
+        frame.setLength( new VariableLengthInteger( length ) );
+        if ( chunk != null ) {
+            chunk.retain();
+            frame.setChunk( chunk );
+            frame.setDataBuffer( chunk.slice( offset, length ) );
+        }
+        else {
+            frame.setData( new byte[0] );
+        }
+        if ( fin ) {
+            finSent = true;
+        }
+        return frame;
+    }
+
+    /**
+     * @param streamOffset a written, not yet acknowledged offset
+     * @return the chunk holding that offset
+     */
+    private SendChunk findChunk( long streamOffset ) {
+        // new data is near the tail, retransmissions are near the head
+        if ( streamOffset >= chunks.getLast().getOffset() ) {
+            return chunks.getLast();
+        }
+        Iterator<SendChunk> iterator = chunks.iterator();
+        while ( iterator.hasNext() ) {
+            SendChunk chunk = iterator.next();
+            if ( streamOffset < chunk.getEndOffset() ) {
+                return chunk;
+            }
+        }
+        throw new IllegalStateException( "No data held for offset " + streamOffset );
+    }
+
+    /**
+     * Records the acknowledgement of a sent STREAM frame and releases all chunks that are fully acknowledged
+     *
+     * @param offset the offset of the frame
+     * @param length the number of data bytes of the frame
+     * @param fin    whether the frame carried the FIN bit
+     */
+    public void onAcknowledged( long offset, long length, boolean fin ) {
+        if ( fin ) {
+            finAcknowledged = true;
+        }
+        if ( length <= 0 || offset + length <= acknowledgedOffset ) {
+            return;
+        }
+        acknowledgedRanges.addRange( Math.max( offset, acknowledgedOffset ), offset + length - 1 );
+        int lowest = acknowledgedRanges.getRangeCount() - 1;
+        if ( acknowledgedRanges.getSmallest( lowest ) > acknowledgedOffset ) {
+            return;
+        }
+        acknowledgedOffset = acknowledgedRanges.getLargest( lowest ) + 1;
+        acknowledgedRanges.removeBelow( acknowledgedOffset );
+        while ( !chunks.isEmpty() && chunks.getFirst().getEndOffset() <= acknowledgedOffset ) {
+            SendChunk chunk = chunks.pollFirst();
+            bufferedBytes -= chunk.getLength();
+            chunk.release();
+        }
+    }
+
+    /**
+     * Records the loss of a sent STREAM frame, such that its data is retransmitted
+     *
+     * @param offset the offset of the frame
+     * @param length the number of data bytes of the frame
+     * @param fin    whether the frame carried the FIN bit
+     */
+    public void onLost( long offset, long length, boolean fin ) {
+        if ( fin && !finAcknowledged ) {
+            finSent = false;
+        }
+        if ( length <= 0 || offset + length <= acknowledgedOffset ) {
+            return;
+        }
+        lostRanges.addRange( Math.max( offset, acknowledgedOffset ), offset + length - 1 );
+    }
+
+    /**
+     * Drops all held data and releases all chunks, as done when the stream was reset
+     */
+    public void discard() {
+        for ( SendChunk chunk : chunks ) {
+            chunk.release();
+        }
+        chunks.clear();
+        lostRanges.clear();
+        acknowledgedRanges.clear();
+        bufferedBytes = 0;
+    }
+}
@@ -0,0 +1,253 @@
+package com.timtrense.quic.impl.base;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.ToString;
+
+import com.timtrense.quic.StreamPriority;
+
+/**
+ * Decides which stream's data fills the next outgoing packet.
+ * <p>
+ * "A QUIC implementation SHOULD provide ways in which an application can
+ * indicate the relative priority of streams.  An implementation uses
+ * information provided by the application to determine how to allocate
+ * resources to active streams."
+ * Quote from https://tools.ietf.org/html/draft-ietf-quic-transport-32#section-2.3
+ * <p>
+ * Streams are scheduled by their {@link ExtensiblePriority}: lower urgencies are served strictly first. Within
+ * the same urgency, non-incremental streams are served one at a time in the order of their ids, then
+ * incremental streams share the bandwidth round-robin, each for a {@link #getQuantum() quantum} of bytes.
+ * Streams with any other {@link StreamPriority} are scheduled as {@link ExtensiblePriority#DEFAULT}.
+ * <p>
+ * Only active streams, which have data to send and flow control credit to send it, are scheduled.
+ * The owner of the streams {@link #activate(StreamImpl) activates} and {@link #deactivate(StreamImpl) deactivates}
+ * them as that changes. Selecting the next stream is done in O(1) for incremental and O(log n) for non-incremental
+ * streams, using a bitmap of the urgencies with active streams. Deactivated streams are dropped lazily once they
+ * reach the head of their queue.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @author Tim Trense
+ * @see <a href="https://www.rfc-editor.org/rfc/rfc9218#section-10">RFC 9218/Section 10</a>
+ */
+@ToString( of = { "quantum", "nonEmptyUrgencies" } )
+public class StreamSendScheduler {
+
+    /**
+     * the default number of bytes an incremental stream may send before the next one takes its turn
+     */
+    public static final int DEFAULT_QUANTUM = 16 * 1024;
+
+    private static final int URGENCY_LEVELS = ExtensiblePriority.LEAST_URGENT + 1;
+
+    /**
+     * the number of bytes an incremental stream may send before the next one takes its turn
+     */
+    @Getter
+    private final int quantum;
+    /**
+     * per urgency: the non-incremental streams by their id
+     */
+    private final PriorityQueue<Node>[] sequential;
+    /**
+     * per urgency: the incremental streams in round-robin order
+     */
+    private final ArrayDeque<Node>[] incremental;
+    /**
+     * bit i is set if the queues of urgency i may contain active streams
+     */
+    private int nonEmptyUrgencies;
+    /**
+     * the scheduling state of all known streams by their id
+     */
+    private final Map<Long, Node> nodes = new HashMap<>();
+
+    public StreamSendScheduler() {
+        this( DEFAULT_QUANTUM );
+    }
+
+    /**
+     * @param quantum the number of bytes an incremental stream may send before the next one takes its turn
+     */
+    public StreamSendScheduler( int quantum ) {
+        if ( quantum <= 0 ) {
+            throw new IllegalArgumentException( "Cannot schedule with a non-positive quantum" );
+        }
+        this.quantum = quantum;
+        // generic arrays cannot be created directly; the casts are safe as the arrays never leave this instance
+        @SuppressWarnings( "unchecked" )
+        PriorityQueue<Node>[] sequentialQueues = (PriorityQueue<Node>[])new PriorityQueue<?>[URGENCY_LEVELS];
+        @SuppressWarnings( "unchecked" )
+        ArrayDeque<Node>[] incrementalQueues = (ArrayDeque<Node>[])new ArrayDeque<?>[URGENCY_LEVELS];
+        this.sequential = sequentialQueues;
+        this.incremental = incrementalQueues;
+        for ( int i = 0; i < URGENCY_LEVELS; i++ ) {
+            sequential[i] = new PriorityQueue<>( Comparator.comparingLong( n -> n.streamIdValue ) );
+            incremental[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Schedules the stream, because it has data to send and flow control credit to send it
+     *
+     * @param stream the now active stream
+     */
+    public void activate( @NonNull StreamImpl stream ) {
+        long id = stream.getId().getLongValue();
+        Node node = nodes.get( id );
+        if ( node != null && node.queued ) {
+            node.active = true;
+            return;
+        }
+        if ( node == null ) {
+            node = new Node( stream, id );
+            nodes.put( id, node );
+        }
+        enqueue( node );
+    }
+
+    /**
+     * Unschedules the stream, because it has no data to send or no flow control credit to send it
+     *
+     * @param stream the now blocked or idle stream
+     */
+    public void deactivate( @NonNull StreamImpl stream ) {
+        Node node = nodes.get( stream.getId().getLongValue() );
+        if ( node != null ) {
+            node.active = false;
+        }
+    }
+
+    /**
+     * Forgets the stream, because it reached a terminal state
+     *
+     * @param stream the closed stream
+     */
+    public void remove( @NonNull StreamImpl stream ) {
+        Node node = nodes.remove( stream.getId().getLongValue() );
+        if ( node != null ) {
+            node.active = false;
+        }
+    }
+
+    /**
+     * Moves the stream to the queue of its new priority
+     *
+     * @param stream the stream whose {@link StreamImpl#getPriority() priority} changed
+     */
+    public void onPriorityChanged( @NonNull StreamImpl stream ) {
+        long id = stream.getId().getLongValue();
+        Node node = nodes.get( id );
+        if ( node == null || !node.active ) {
+            // the priority is read anew on the next activation
+            nodes.remove( id );
+            return;
+        }
+        // the queued node is dropped lazily
+        node.active = false;
+        Node replacement = new Node( stream, id );
+        nodes.put( id, replacement );
+        enqueue( replacement );
+    }
+
+    /**
+     * @return the stream to take data from for the next packet or null if no stream is active
+     */
+    public StreamImpl next() {
+        while ( nonEmptyUrgencies != 0 ) {
+            int urgency = Integer.numberOfTrailingZeros( nonEmptyUrgencies );
+            Node head = peekActive( sequential[urgency] );
+            if ( head == null ) {
+                head = peekActive( incremental[urgency] );
+            }
+            if ( head != null ) {
+                return head.stream;
+            }
+            nonEmptyUrgencies &= ~( 1 << urgency );
+        }
+        return null;
+    }
+
+    /**
+     * Accounts data that was sent from the stream returned by {@link #next()}.
+     * Incremental streams give their turn to the next stream of their urgency once they used up their quantum.
+     *
+     * @param stream        the stream that data was sent from
+     * @param numberOfBytes the number of sent bytes
+     */
+    public void onDataSent( @NonNull StreamImpl stream, int numberOfBytes ) {
+        Node node = nodes.get( stream.getId().getLongValue() );
+        if ( node == null || !node.incremental ) {
+            return;
+        }
+        node.sentInTurn += numberOfBytes;
+        if ( node.sentInTurn >= quantum ) {
+            node.sentInTurn = 0;
+            ArrayDeque<Node> queue = incremental[node.urgency];
+            if ( queue.peekFirst() == node ) {
+                queue.addLast( queue.pollFirst() );
+            }
+        }
+    }
+
+    /**
+     * @return true if any stream is active
+     */
+    public boolean hasActiveStreams() {
+        return next() != null;
+    }
+
+    private void enqueue( Node node ) {
+        node.active = true;
+        node.queued = true;
+        if ( node.incremental ) {
+            incremental[node.urgency].addLast( node );
+        }
+        else {
+            sequential[node.urgency].add( node );
+        }
+        nonEmptyUrgencies |= 1 << node.urgency;
+    }
+
+    private static Node peekActive( Queue<Node> queue ) {
+        Node head = queue.peek();
+        while ( head != null && !head.active ) {
+            queue.poll();
+            head.queued = false;
+            head = queue.peek();
+        }
+        return head;
+    }
+
+    /**
+     * The scheduling state of a stream
+     */
+    private static final class Node {
+
+        private final StreamImpl stream;
+        private final long streamIdValue;
+        private final int urgency;
+        private final boolean incremental;
+        private boolean active;
+        private boolean queued;
+        private int sentInTurn;
+
+        private Node( StreamImpl stream, long streamIdValue ) {
+            this.stream = stream;
+            this.streamIdValue = streamIdValue;
+            StreamPriority priority = stream.getPriority();
+            ExtensiblePriority extensible = priority instanceof ExtensiblePriority
+                    ? (ExtensiblePriority)priority
+                    : ExtensiblePriority.DEFAULT;
+            this.urgency = extensible.getUrgency();
+            this.incremental = extensible.isIncremental();
+        }
+    }
+}
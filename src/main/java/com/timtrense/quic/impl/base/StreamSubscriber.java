@@ -0,0 +1,77 @@
+package com.timtrense.quic.impl.base;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * Writes the buffers of a publisher to a stream, requesting more only as written buffers get acknowledged.
+ * <p>
+ * Buffers are written without copying. At most {@link #getMaxOutstanding() a number of} buffers are requested
+ * but not yet acknowledged by the peer, so that a slow peer, whether slowed down by the network or by its flow
+ * control credit, slows down the publisher rather than making the stream buffer data.
+ * Completing the publisher finishes the stream, failing it resets the sending part.
+ *
+ * @author Tim Trense
+ */
+public class StreamSubscriber implements Flow.Subscriber<ByteBuffer> {
+
+    @Getter
+    private final @NonNull StreamImpl stream;
+    /**
+     * the maximum number of requested, not yet acknowledged buffers
+     */
+    @Getter
+    private final int maxOutstanding;
+    private Flow.Subscription subscription;
+
+    /**
+     * @param stream         the stream to write to
+     * @param maxOutstanding the maximum number of requested, not yet acknowledged buffers
+     */
+    public StreamSubscriber( @NonNull StreamImpl stream, int maxOutstanding ) {
+        if ( maxOutstanding <= 0 ) {
+            throw new IllegalArgumentException( "Cannot subscribe without requesting" );
+        }
+        this.stream = stream;
+        this.maxOutstanding = maxOutstanding;
+    }
+
+    @Override
+    public void onSubscribe( @NonNull Flow.Subscription subscription ) {
+        if ( this.subscription != null ) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        subscription.request( maxOutstanding );
+    }
+
+    @Override
+    public void onNext( @NonNull ByteBuffer item ) {
+        try {
+            // the demand keeps the send buffer bounded, so that this never blocks for long
+            stream.write( item, released -> subscription.request( 1 ) );
+        }
+        catch ( IOException e ) {
+            subscription.cancel();
+        }
+    }
+
+    @Override
+    public void onError( Throwable throwable ) {
+        stream.onSendingReset( false );
+    }
+
+    @Override
+    public void onComplete() {
+        try {
+            stream.finish();
+        }
+        catch ( IOException ignored ) {
+            // the stream was reset in the meantime, nothing left to finish
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.timtrense.quic.impl.exception;
+
+import lombok.Getter;
+
+import com.timtrense.quic.impl.ReceivedDatagram;
+
+/**
+ * The packet is well-formed but deliberately not processed, for example because a stateless
+ * Retry packet was sent in response. Unlike other parsing errors, this is expected and not worth logging.
+ *
+ * @author Tim Trense
+ */
+public class DroppedPacketException extends QuicParsingException {
+
+    @Getter
+    private final transient ReceivedDatagram datagram;
+
+    public DroppedPacketException( String message, ReceivedDatagram datagram ) {
+        super( message );
+        this.datagram = datagram;
+    }
+}
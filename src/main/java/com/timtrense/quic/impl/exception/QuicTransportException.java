@@ -0,0 +1,22 @@
+package com.timtrense.quic.impl.exception;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import com.timtrense.quic.TransportErrorCode;
+
+/**
+ * The peer violated the protocol in a way that requires closing the connection with the given error code
+ *
+ * @author Tim Trense
+ */
+public class QuicTransportException extends QuicException {
+
+    @Getter
+    private final @NonNull TransportErrorCode errorCode;
+
+    public QuicTransportException( @NonNull TransportErrorCode errorCode, String message ) {
+        super( message );
+        this.errorCode = errorCode;
+    }
+}
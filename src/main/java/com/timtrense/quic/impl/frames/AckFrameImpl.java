@@ -1,16 +1,15 @@
 package com.timtrense.quic.impl.frames;
 
-import java.util.LinkedList;
 import java.util.List;
 import lombok.Data;
 import lombok.NonNull;
 
-import com.timtrense.quic.AckRange;
 import com.timtrense.quic.EcnCount;
 import com.timtrense.quic.Frame;
 import com.timtrense.quic.FrameGeneralType;
 import com.timtrense.quic.FrameType;
-import com.timtrense.quic.VariableLengthInteger;
+import com.timtrense.quic.impl.base.PacketNumberRangeSet;
+import com.timtrense.quic.impl.base.VariableLengthIntegerEncoder;
 
 /**
  * acknowledgement frame.
@@ -59,23 +58,13 @@ public AckFrameImpl( @NonNull FrameType frameType ) {
     }
 
     /**
-     * A variable-length integer representing the
-     * largest packet number the peer is acknowledging; this is usually
-     * the largest packet number that the peer has received prior to
-     * generating the ACK frame.  Unlike the packet number in the QUIC
-     * long or short header, the value in an ACK frame is not truncated.
-     */
-    private VariableLengthInteger largestAcknowledged;
-    /**
-     * A variable-length integer indicating the number of
-     * contiguous packets preceding the Largest Acknowledged that are
-     * being acknowledged.  The First ACK Range is encoded as an ACK
-     * Range; see Section 19.3.1 starting from the Largest Acknowledged.
-     * That is, the smallest packet acknowledged in the range is
-     * determined by subtracting the First ACK Range value from the
-     * Largest Acknowledged.
+     * All acknowledged packet numbers, from which the Largest Acknowledged, First ACK Range and
+     * all subsequent Gap and ACK Range fields are derived on encoding; see Section 19.3.1.
+     * <p>
+     * The ranges are held as primitive values rather than as a list of {@link com.timtrense.quic.AckRange}
+     * objects, because ACK frames are generated and processed for every ack-eliciting packet.
      */
-    private VariableLengthInteger firstAcknowledgedRange;
+    private final PacketNumberRangeSet acknowledgedRanges = new PacketNumberRangeSet();
     /**
      * A variable-length integer encoding the acknowledgement
      * delay in microseconds; see Section 13.2.5.  It is decoded by
@@ -85,25 +74,38 @@ public AckFrameImpl( @NonNull FrameType frameType ) {
      * delay as an integer, this encoding allows for a larger range of
      * values within the same number of bytes, at the cost of lower
      * resolution
+     * <p>
+     * Held as the raw encoded value, that is not yet multiplied by 2 to the power of the ack_delay_exponent.
      */
-    private VariableLengthInteger delay;
+    private long delay;
+    private List<EcnCount> ecnCounts = null;
 
     /**
-     * Contains additional ranges of packets that are
-     * alternately not acknowledged (Gap) and acknowledged (ACK Range);
-     * see Section 19.3.1.
+     * Largest Acknowledged:  A variable-length integer representing the
+     * largest packet number the peer is acknowledging; this is usually
+     * the largest packet number that the peer has received prior to
+     * generating the ACK frame.  Unlike the packet number in the QUIC
+     * long or short header, the value in an ACK frame is not truncated.
+     *
+     * @return the largest acknowledged packet number or -1 if no packet is acknowledged
      */
-    private final List<AckRange> ranges = new LinkedList<>();
-    private List<EcnCount> ecnCounts = null;
+    public long getLargestAcknowledged() {
+        return acknowledgedRanges.getLargest();
+    }
 
     /**
-     * ACK Range Count:  A variable-length integer specifying the number of
-     * Gap and ACK Range fields in the frame.
+     * First ACK Range:  A variable-length integer indicating the number of
+     * contiguous packets preceding the Largest Acknowledged that are
+     * being acknowledged.  The First ACK Range is encoded as an ACK
+     * Range; see Section 19.3.1 starting from the Largest Acknowledged.
+     * That is, the smallest packet acknowledged in the range is
+     * determined by subtracting the First ACK Range value from the
+     * Largest Acknowledged.
      *
-     * @return number of Gap and ACK Range fields in the frame (not including the first one)
+     * @return the number of packets preceding the largest acknowledged one in the first range
      */
-    public VariableLengthInteger getRangeCount() {
-        return new VariableLengthInteger( ranges.size() );
+    public long getFirstAcknowledgedRange() {
+        return acknowledgedRanges.getLargest( 0 ) - acknowledgedRanges.getSmallest( 0 );
     }
 
     /**
@@ -112,8 +114,34 @@ public VariableLengthInteger getRangeCount() {
      *
      * @return number of Gap and ACK Range fields in the frame (not including the first one)
      */
-    public long getLongRangeCount() {
-        return ranges.size();
+    public long getRangeCount() {
+        return Math.max( 0, acknowledgedRanges.getRangeCount() - 1 );
+    }
+
+    /**
+     * Gap:  A variable-length integer indicating the number of
+     * contiguous unacknowledged packets preceding the packet number one
+     * lower than the smallest in the preceding ACK Range.
+     *
+     * @param index the index of the Gap and ACK Range field, starting at 0 for the first field after the First
+     *              ACK Range
+     * @return the encoded value of that Gap field
+     */
+    public long getGap( int index ) {
+        return acknowledgedRanges.getSmallest( index ) - acknowledgedRanges.getLargest( index + 1 ) - 2;
+    }
+
+    /**
+     * ACK Range Length:  A variable-length integer indicating the number of
+     * contiguous acknowledged packets preceding the largest packet
+     * number, as determined by the preceding Gap.
+     *
+     * @param index the index of the Gap and ACK Range field, starting at 0 for the first field after the First
+     *              ACK Range
+     * @return the encoded value of that ACK Range Length field
+     */
+    public long getRangeLength( int index ) {
+        return acknowledgedRanges.getLargest( index + 1 ) - acknowledgedRanges.getSmallest( index + 1 );
     }
 
     /**
@@ -127,9 +155,8 @@ public boolean isEcnBitSet() {
 
     @Override
     public boolean isValid() {
-        return largestAcknowledged != null
-                && firstAcknowledgedRange != null
-                && delay != null
+        return !acknowledgedRanges.isEmpty()
+                && delay >= 0
                 &&
                 (
                         isEcnBitSet()
@@ -142,13 +169,13 @@ public boolean isValid() {
     @Override
     public long getFrameLength() {
         long sum = type.getValue().getEncodedLengthInBytes();
-        sum += largestAcknowledged.getEncodedLengthInBytes();
-        sum += delay.getEncodedLengthInBytes();
-        sum += getRangeCount().getEncodedLengthInBytes();
-        sum += firstAcknowledgedRange.getEncodedLengthInBytes();
-        for ( AckRange r : ranges ) {
-            sum += r.getGap().getEncodedLengthInBytes();
-            sum += r.getLength().getEncodedLengthInBytes();
+        sum += VariableLengthIntegerEncoder.getLengthInBytes( getLargestAcknowledged() );
+        sum += VariableLengthIntegerEncoder.getLengthInBytes( delay );
+        sum += VariableLengthIntegerEncoder.getLengthInBytes( getRangeCount() );
+        sum += VariableLengthIntegerEncoder.getLengthInBytes( getFirstAcknowledgedRange() );
+        for ( int i = 0; i < getRangeCount(); i++ ) {
+            sum += VariableLengthIntegerEncoder.getLengthInBytes( getGap( i ) );
+            sum += VariableLengthIntegerEncoder.getLengthInBytes( getRangeLength( i ) );
         }
         if ( ecnCounts != null ) {
             for ( EcnCount e : ecnCounts ) {
@@ -82,13 +82,13 @@ public ConnectionCloseFrameImpl( @NonNull FrameType frameType ) {
     private byte[] reasonPhrase;
 
     /**
-     * checks whether the {@link FrameType} least significant bit is set, indicating that this frame MUST hold a
-     * frameType
+     * checks whether this frame MUST hold a frameType, which is the case if the {@link FrameType} least significant
+     * bit is unset. Only the QUIC layer variant (type 0x1c) carries the Frame Type field.
      *
-     * @return true if the frame type bit is set
+     * @return true if this frame holds a frame type
      */
-    public boolean hasFrameTypeBitSet() {
-        return ( type.getLongValue() & 0x01 ) == 0x01;
+    public boolean hasFrameTypeField() {
+        return ( type.getLongValue() & 0x01 ) == 0x00;
     }
 
     /**
@@ -110,7 +110,7 @@ public void setReasonPhrase( @NonNull String reasonPhrase ) {
     @Override
     public boolean isValid() {
         return errorCode != null
-                && ( hasFrameTypeBitSet() == ( frameType != null ) )
+                && ( hasFrameTypeField() == ( frameType != null ) )
                 && reasonPhraseLength != null
                 && reasonPhrase != null
                 && reasonPhraseLength.longValue() == reasonPhrase.length
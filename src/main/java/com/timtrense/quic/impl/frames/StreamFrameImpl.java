@@ -1,12 +1,16 @@
 package com.timtrense.quic.impl.frames;
 
+import java.nio.ByteBuffer;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 
 import com.timtrense.quic.Frame;
 import com.timtrense.quic.FrameGeneralType;
 import com.timtrense.quic.FrameType;
 import com.timtrense.quic.StreamId;
 import com.timtrense.quic.VariableLengthInteger;
+import com.timtrense.quic.impl.base.SendChunk;
 import com.timtrense.quic.impl.base.VariableLengthIntegerEncoder;
 
 /**
@@ -96,6 +100,35 @@ public StreamFrameImpl( FrameType frameType ) {
      * The bytes from the designated stream to be delivered.
      */
     private byte[] data;
+    /**
+     * Alternatively to {@link #data}: a view on the bytes to be delivered, as held by a
+     * {@link com.timtrense.quic.impl.base.StreamSendBuffer}, to be written to the packet without an
+     * intermediate copy.
+     */
+    private ByteBuffer dataBuffer;
+    /**
+     * the chunk that {@link #dataBuffer} refers to, to be {@link #releaseChunk() released} once serialized
+     */
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private SendChunk chunk;
+
+    /**
+     * @return the number of bytes to be delivered, from either {@link #getData()} or {@link #getDataBuffer()}
+     */
+    public int getDataLength() {
+        return data != null ? data.length : dataBuffer.remaining();
+    }
+
+    /**
+     * Gives back the reference to the chunk of the sending stream, after the data was written to a packet
+     */
+    public void releaseChunk() {
+        if ( chunk != null ) {
+            chunk.release();
+            chunk = null;
+        }
+    }
 
     /**
      * checks whether the FIN-Bit is set, thus making this the last frame of data for the associated stream
@@ -135,7 +168,10 @@ public boolean isValid() {
         if ( isOffsetBitSet() && offset == null ) {
             return false;
         }
-        if ( length != null && length.longValue() != data.length ) {
+        if ( data == null && dataBuffer == null ) {
+            return false;
+        }
+        if ( length != null && length.longValue() != getDataLength() ) {
             return false;
         }
         //noinspection RedundantIfStatement
@@ -161,7 +197,7 @@ public long getFrameLength() {
             sum += length.getValue();
         }
         else {
-            sum += data.length;
+            sum += getDataLength();
         }
         if ( offset != null ) {
             sum += offset.getEncodedLengthInBytes();
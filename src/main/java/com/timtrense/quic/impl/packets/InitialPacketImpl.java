@@ -89,6 +89,13 @@ public class InitialPacketImpl extends BaseLongHeaderPacket implements NumberedP
     private VariableLengthInteger declaredPayloadLength;
     private PacketNumber packetNumber;
     private List<Frame> payload;
+    /**
+     * Whether this received packet opened a new connection, because no connection matched its
+     * Destination Connection ID. This is not transmitted, but set by the receiving endpoint.
+     */
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private boolean openingConnection;
 
     @Override
     public boolean isPacketValid() {
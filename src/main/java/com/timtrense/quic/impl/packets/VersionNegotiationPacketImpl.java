@@ -1,8 +1,10 @@
 package com.timtrense.quic.impl.packets;
 
+import java.nio.ByteBuffer;
 import java.util.LinkedList;
 import java.util.List;
 import lombok.Data;
+import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.ToString;
 
@@ -99,6 +101,21 @@ public boolean isPacketValid() {
                 ;
     }
 
+    /**
+     * Serializes this packet
+     *
+     * @param buffer the target to write to, starting at its position
+     */
+    public void write( @NonNull ByteBuffer buffer ) {
+        buffer.put( flags );
+        buffer.putInt( ProtocolVersion.RESERVED_FOR_VERSION_NEGOTIATION.getValue() );
+        buffer.put( (byte)destinationConnectionIdLength ).put( destinationConnectionId.getValue() );
+        buffer.put( (byte)sourceConnectionIdLength ).put( sourceConnectionId.getValue() );
+        for ( ProtocolVersion version : supportedVersions ) {
+            buffer.putInt( version.getValue() );
+        }
+    }
+
     @Override
     public long getPacketLength() {
         long sum = getHeaderLength();
@@ -0,0 +1,163 @@
+package com.timtrense.quic.impl.recovery;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * The common part of the loss-based {@link CongestionController controllers}: bytes in flight accounting,
+ * slow start and the recovery period.
+ * <p>
+ * "The sender MUST exit slow start and enter a recovery period when a
+ * packet is lost or when the ECN-CE count reported by its peer
+ * increases."
+ * Quote from https://tools.ietf.org/html/draft-ietf-quic-recovery-32#section-7.3.1
+ *
+ * @author Tim Trense
+ * @see <a href="https://tools.ietf.org/html/draft-ietf-quic-recovery-32#appendix-B">QUIC Recovery Spec/Appendix B</a>
+ */
+@Getter
+@ToString
+public abstract class BaseCongestionController implements CongestionController {
+
+    /**
+     * "Reduction in congestion window when a new loss event is detected.
+     * Section 7 recommends a value is 0.5."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-recovery-32#appendix-B.1
+     */
+    public static final double LOSS_REDUCTION_FACTOR = 0.5;
+
+    /**
+     * the maximum size of datagrams sent on the connection
+     */
+    protected final int maxDatagramSize;
+    /**
+     * "Minimum congestion window in bytes as described in Section 7.2."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-recovery-32#appendix-B.1
+     */
+    protected final long minimumWindow;
+    protected long congestionWindow;
+    protected long bytesInFlight;
+    /**
+     * "Slow start threshold in bytes. When the congestion window is below
+     * ssthresh, the mode is slow start and the window grows by the number
+     * of bytes acknowledged."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-recovery-32#appendix-B.2
+     */
+    protected long slowStartThreshold = Long.MAX_VALUE;
+    /**
+     * "The time when QUIC first detects congestion due to loss or ECN,
+     * causing it to enter congestion recovery."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-recovery-32#appendix-B.2
+     */
+    protected long congestionRecoveryStartTime;
+    /**
+     * whether {@link #congestionRecoveryStartTime} is set
+     */
+    protected boolean inRecoveryPeriod;
+
+    /**
+     * @param maxDatagramSize the maximum size of datagrams sent on the connection
+     */
+    protected BaseCongestionController( int maxDatagramSize ) {
+        if ( maxDatagramSize <= 0 ) {
+            throw new IllegalArgumentException( "Cannot set a non-positive maxDatagramSize" );
+        }
+        this.maxDatagramSize = maxDatagramSize;
+        this.minimumWindow = 2L * maxDatagramSize;
+        // "Endpoints SHOULD use an initial congestion window of 10 times the maximum datagram size
+        // (max_datagram_size), limited to the larger of 14720 bytes or twice the maximum datagram size."
+        // Quote from https://tools.ietf.org/html/draft-ietf-quic-recovery-32#section-7.2
+        this.congestionWindow = Math.min( 10L * maxDatagramSize, Math.max( 14720L, 2L * maxDatagramSize ) );
+    }
+
+    @Override
+    public void onPacketSent( int sentBytes, long sentTimeNanos ) {
+        bytesInFlight += sentBytes;
+    }
+
+    @Override
+    public void onPacketAcknowledged( int sentBytes, long sentTimeNanos, RttEstimator rttEstimator,
+            long nowNanos ) {
+        removeFromBytesInFlight( sentBytes );
+        // "the congestion window does not increase in response to acknowledgements of packets
+        // sent during the recovery period"
+        if ( isInCongestionRecovery( sentTimeNanos ) ) {
+            return;
+        }
+        if ( isInSlowStart() ) {
+            congestionWindow += sentBytes;
+        }
+        else {
+            increaseWindowInCongestionAvoidance( sentBytes, rttEstimator, nowNanos );
+        }
+    }
+
+    @Override
+    public void onPacketLost( int sentBytes, long sentTimeNanos, long nowNanos ) {
+        removeFromBytesInFlight( sentBytes );
+        onCongestionEvent( sentTimeNanos, nowNanos );
+    }
+
+    @Override
+    public void onPersistentCongestion( long nowNanos ) {
+        congestionWindow = minimumWindow;
+        inRecoveryPeriod = false;
+    }
+
+    @Override
+    public void onPacketsDiscarded( long discardedBytes ) {
+        removeFromBytesInFlight( discardedBytes );
+    }
+
+    /**
+     * @return true while the congestion window grows by all acknowledged bytes
+     */
+    public boolean isInSlowStart() {
+        return congestionWindow < slowStartThreshold;
+    }
+
+    /**
+     * @param sentTimeNanos the time a packet was sent at
+     * @return true if that packet was sent during the current recovery period
+     */
+    protected boolean isInCongestionRecovery( long sentTimeNanos ) {
+        return inRecoveryPeriod && sentTimeNanos - congestionRecoveryStartTime <= 0;
+    }
+
+    /**
+     * Enters a recovery period, unless the lost packet was sent during the current one
+     *
+     * @param sentTimeNanos the time the lost packet was sent at
+     * @param nowNanos      the current time
+     */
+    protected void onCongestionEvent( long sentTimeNanos, long nowNanos ) {
+        // "No change to the congestion window is made if a packet sent during the recovery period is lost"
+        if ( isInCongestionRecovery( sentTimeNanos ) ) {
+            return;
+        }
+        inRecoveryPeriod = true;
+        congestionRecoveryStartTime = nowNanos;
+        reduceWindow( nowNanos );
+    }
+
+    /**
+     * Reduces the congestion window and the slow start threshold on entering a recovery period
+     *
+     * @param nowNanos the current time
+     */
+    protected abstract void reduceWindow( long nowNanos );
+
+    /**
+     * Grows the congestion window outside of slow start
+     *
+     * @param ackedBytes   the size of the acknowledged packet
+     * @param rttEstimator the RTT estimation
+     * @param nowNanos     the current time
+     */
+    protected abstract void increaseWindowInCongestionAvoidance( int ackedBytes, RttEstimator rttEstimator,
+            long nowNanos );
+
+    private void removeFromBytesInFlight( long bytes ) {
+        bytesInFlight = Math.max( 0, bytesInFlight - bytes );
+    }
+}
@@ -0,0 +1,322 @@
+package com.timtrense.quic.impl.recovery;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * A model-based congestion controller after BBRv2.
+ * <p>
+ * Instead of reacting to losses only, the controller builds a model of the path from the bottleneck bandwidth,
+ * being the maximum delivery rate of the recent rounds, and the minimum RTT. It paces at a gain of the bandwidth
+ * and limits the bytes in flight to a gain of the bandwidth-delay product (BDP). Like BBRv2 it also bounds the
+ * bytes in flight below the volume at which losses exceeded {@link #LOSS_THRESHOLD}.
+ * <p>
+ * A round trip ends once a packet is acknowledged that was sent after the round started. The delivery rate is
+ * sampled once per round from the bytes acknowledged within it, so no state is kept per packet.
+ *
+ * @author Tim Trense
+ * @see <a href="https://tools.ietf.org/html/draft-cardwell-iccrg-bbr-congestion-control-00">BBR draft</a>
+ */
+@Getter
+@ToString
+public class BbrCongestionController implements CongestionController {
+
+    /**
+     * the phases of the controller
+     */
+    public enum Mode {
+        /**
+         * grows exponentially to find the bottleneck bandwidth
+         */
+        STARTUP,
+        /**
+         * drains the queue built up during startup
+         */
+        DRAIN,
+        /**
+         * cycles the pacing gain to probe for more bandwidth while keeping queues short
+         */
+        PROBE_BW,
+        /**
+         * reduces the bytes in flight to re-measure the minimum RTT
+         */
+        PROBE_RTT
+    }
+
+    /**
+     * the pacing gain of {@link Mode#STARTUP}, 2 / ln(2)
+     */
+    public static final double HIGH_GAIN = 2.885;
+    /**
+     * the gains of {@link Mode#PROBE_BW}, one per round
+     */
+    private static final double[] PROBE_BW_PACING_GAINS = { 1.25, 0.75, 1, 1, 1, 1, 1, 1 };
+    /**
+     * the gain of the BDP to allow in flight, except in {@link Mode#STARTUP}
+     */
+    public static final double CWND_GAIN = 2;
+    /**
+     * the number of rounds to retain bandwidth samples for
+     */
+    public static final int BANDWIDTH_FILTER_ROUNDS = 10;
+    /**
+     * the period after which the minimum RTT is re-measured
+     */
+    public static final long MIN_RTT_FILTER_PERIOD = TimeUnit.SECONDS.toNanos( 10 );
+    /**
+     * the time to stay in {@link Mode#PROBE_RTT}
+     */
+    public static final long PROBE_RTT_DURATION = TimeUnit.MILLISECONDS.toNanos( 200 );
+    /**
+     * the share of lost bytes within a round that BBRv2 tolerates before bounding the bytes in flight
+     */
+    public static final double LOSS_THRESHOLD = 0.02;
+    /**
+     * the factor to multiply the bytes in flight with on excessive losses
+     */
+    public static final double BETA = 0.7;
+    /**
+     * the number of rounds without 25% bandwidth growth after which startup ends
+     */
+    private static final int FULL_BANDWIDTH_ROUNDS = 3;
+
+    private final int maxDatagramSize;
+    private final long minimumWindow;
+    private final long initialWindow;
+
+    private Mode mode = Mode.STARTUP;
+    private long bytesInFlight;
+    private double pacingGain = HIGH_GAIN;
+    private double cwndGain = HIGH_GAIN;
+    private int probeBwCycleIndex;
+
+    /**
+     * the largest delivery rate sample of each of the last rounds, in bytes per second, by round modulo the size
+     */
+    private final long[] bandwidthSamples = new long[BANDWIDTH_FILTER_ROUNDS];
+    private long maxBandwidth;
+    private long minRtt;
+    private long minRttTimestamp;
+    private boolean minRttSampled;
+
+    private long roundCount;
+    private long roundStartTime;
+    private long deliveredAtRoundStart;
+    private long lostInRound;
+    private long delivered;
+
+    private long fullBandwidth;
+    private int roundsWithoutBandwidthGrowth;
+
+    /**
+     * the upper bound on bytes in flight derived from losses, Long.MAX_VALUE if unbounded
+     */
+    private long inflightHigh = Long.MAX_VALUE;
+    /**
+     * whether the window is held at the minimum after persistent congestion, until a packet sent since is acknowledged
+     */
+    private boolean windowCollapsed;
+    private long windowCollapsedTime;
+    private long probeRttDoneTime;
+    private boolean probeRttDoneTimeSet;
+
+    /**
+     * @param maxDatagramSize the maximum size of datagrams sent on the connection
+     */
+    public BbrCongestionController( int maxDatagramSize ) {
+        if ( maxDatagramSize <= 0 ) {
+            throw new IllegalArgumentException( "Cannot set a non-positive maxDatagramSize" );
+        }
+        this.maxDatagramSize = maxDatagramSize;
+        this.minimumWindow = 4L * maxDatagramSize;
+        this.initialWindow = Math.min( 10L * maxDatagramSize, Math.max( 14720L, 2L * maxDatagramSize ) );
+    }
+
+    @Override
+    public long getCongestionWindow() {
+        if ( mode == Mode.PROBE_RTT || windowCollapsed ) {
+            return minimumWindow;
+        }
+        long bdp = getBandwidthDelayProduct();
+        long window = bdp < 0 ? initialWindow : (long)( cwndGain * bdp );
+        window = Math.min( window, inflightHigh );
+        return Math.max( window, minimumWindow );
+    }
+
+    /**
+     * @return the estimated bandwidth-delay product in bytes or -1 if no estimation exists yet
+     */
+    public long getBandwidthDelayProduct() {
+        if ( maxBandwidth == 0 || !minRttSampled ) {
+            return -1;
+        }
+        return (long)( maxBandwidth * ( minRtt / 1e9 ) );
+    }
+
+    @Override
+    public long getPacingRate( RttEstimator rttEstimator ) {
+        if ( maxBandwidth == 0 ) {
+            long rtt = Math.max( rttEstimator.getSmoothedRtt(), RttEstimator.GRANULARITY );
+            return (long)( HIGH_GAIN * initialWindow * 1e9 / rtt );
+        }
+        return (long)( pacingGain * maxBandwidth );
+    }
+
+    @Override
+    public void onPacketSent( int sentBytes, long sentTimeNanos ) {
+        if ( bytesInFlight == 0 && delivered == 0 && roundCount == 0 ) {
+            roundStartTime = sentTimeNanos;
+        }
+        bytesInFlight += sentBytes;
+    }
+
+    @Override
+    public void onPacketAcknowledged( int sentBytes, long sentTimeNanos, RttEstimator rttEstimator,
+            long nowNanos ) {
+        bytesInFlight = Math.max( 0, bytesInFlight - sentBytes );
+        delivered += sentBytes;
+        if ( windowCollapsed && sentTimeNanos - windowCollapsedTime >= 0 ) {
+            windowCollapsed = false;
+        }
+        updateMinRtt( rttEstimator, nowNanos );
+        // a packet sent after the start of the round completes the round trip
+        if ( sentTimeNanos - roundStartTime >= 0 ) {
+            onRoundEnd( nowNanos );
+        }
+        updateMode( nowNanos );
+    }
+
+    @Override
+    public void onPacketLost( int sentBytes, long sentTimeNanos, long nowNanos ) {
+        bytesInFlight = Math.max( 0, bytesInFlight - sentBytes );
+        lostInRound += sentBytes;
+        long deliveredInRound = delivered - deliveredAtRoundStart;
+        if ( lostInRound > LOSS_THRESHOLD * ( deliveredInRound + lostInRound )
+                && lostInRound >= 2L * maxDatagramSize ) {
+            // BBRv2: the path cannot take this volume, bound it and leave startup
+            long bound = Math.max( (long)( BETA * Math.max( bytesInFlight + sentBytes, getCongestionWindow() ) ),
+                    minimumWindow );
+            inflightHigh = Math.min( inflightHigh, bound );
+            if ( mode == Mode.STARTUP ) {
+                enterDrain();
+            }
+            lostInRound = 0;
+        }
+    }
+
+    @Override
+    public void onPersistentCongestion( long nowNanos ) {
+        // BBRv2 restarts its model like after an RTO: the loss bound is dropped and the window collapses
+        // until the path proves to deliver again
+        inflightHigh = Long.MAX_VALUE;
+        windowCollapsed = true;
+        windowCollapsedTime = nowNanos;
+        maxBandwidth = 0;
+        Arrays.fill( bandwidthSamples, 0 );
+    }
+
+    @Override
+    public void onPacketsDiscarded( long discardedBytes ) {
+        bytesInFlight = Math.max( 0, bytesInFlight - discardedBytes );
+    }
+
+    private void updateMinRtt( RttEstimator rttEstimator, long nowNanos ) {
+        long sample = rttEstimator.getLatestRtt();
+        if ( sample <= 0 ) {
+            return;
+        }
+        if ( !minRttSampled || sample <= minRtt || nowNanos - minRttTimestamp > MIN_RTT_FILTER_PERIOD ) {
+            boolean expired = minRttSampled && nowNanos - minRttTimestamp > MIN_RTT_FILTER_PERIOD;
+            minRtt = sample;
+            minRttTimestamp = nowNanos;
+            minRttSampled = true;
+            if ( expired && mode != Mode.STARTUP && mode != Mode.PROBE_RTT ) {
+                mode = Mode.PROBE_RTT;
+                pacingGain = 1;
+                probeRttDoneTimeSet = false;
+            }
+        }
+    }
+
+    private void onRoundEnd( long nowNanos ) {
+        long interval = nowNanos - roundStartTime;
+        long deliveredInRound = delivered - deliveredAtRoundStart;
+        if ( interval > 0 && deliveredInRound > 0 ) {
+            long sample = (long)( deliveredInRound * 1e9 / interval );
+            int slot = (int)( roundCount % BANDWIDTH_FILTER_ROUNDS );
+            bandwidthSamples[slot] = sample;
+            long max = 0;
+            for ( long bandwidthSample : bandwidthSamples ) {
+                max = Math.max( max, bandwidthSample );
+            }
+            maxBandwidth = max;
+        }
+        roundCount++;
+        bandwidthSamples[(int)( roundCount % BANDWIDTH_FILTER_ROUNDS )] = 0;
+        roundStartTime = nowNanos;
+        deliveredAtRoundStart = delivered;
+        lostInRound = 0;
+
+        if ( mode == Mode.STARTUP ) {
+            checkFullBandwidthReached();
+        }
+        else if ( mode == Mode.PROBE_BW ) {
+            probeBwCycleIndex = ( probeBwCycleIndex + 1 ) % PROBE_BW_PACING_GAINS.length;
+            pacingGain = PROBE_BW_PACING_GAINS[probeBwCycleIndex];
+            if ( pacingGain > 1 && inflightHigh != Long.MAX_VALUE ) {
+                // probe whether the loss bound still holds
+                inflightHigh += maxDatagramSize;
+            }
+        }
+    }
+
+    private void checkFullBandwidthReached() {
+        if ( maxBandwidth >= fullBandwidth * 1.25 ) {
+            fullBandwidth = maxBandwidth;
+            roundsWithoutBandwidthGrowth = 0;
+            return;
+        }
+        roundsWithoutBandwidthGrowth++;
+        if ( roundsWithoutBandwidthGrowth >= FULL_BANDWIDTH_ROUNDS ) {
+            enterDrain();
+        }
+    }
+
+    private void enterDrain() {
+        mode = Mode.DRAIN;
+        pacingGain = 1 / HIGH_GAIN;
+        cwndGain = HIGH_GAIN;
+    }
+
+    private void enterProbeBw() {
+        mode = Mode.PROBE_BW;
+        cwndGain = CWND_GAIN;
+        probeBwCycleIndex = 0;
+        pacingGain = PROBE_BW_PACING_GAINS[probeBwCycleIndex];
+    }
+
+    private void updateMode( long nowNanos ) {
+        switch ( mode ) {
+            case DRAIN:
+                long bdp = getBandwidthDelayProduct();
+                if ( bdp < 0 || bytesInFlight <= bdp ) {
+                    enterProbeBw();
+                }
+                break;
+            case PROBE_RTT:
+                if ( !probeRttDoneTimeSet && bytesInFlight <= minimumWindow ) {
+                    probeRttDoneTime = nowNanos + PROBE_RTT_DURATION;
+                    probeRttDoneTimeSet = true;
+                }
+                else if ( probeRttDoneTimeSet && nowNanos - probeRttDoneTime >= 0 ) {
+                    minRttTimestamp = nowNanos;
+                    enterProbeBw();
+                }
+                break;
+            default:
+                break;
+        }
+    }
+}
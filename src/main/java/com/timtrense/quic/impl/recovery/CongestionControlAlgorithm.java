@@ -0,0 +1,51 @@
+package com.timtrense.quic.impl.recovery;
+
+/**
+ * The available implementations of {@link CongestionController}
+ *
+ * @author Tim Trense
+ */
+public enum CongestionControlAlgorithm {
+
+    /**
+     * The loss-based controller specified by the QUIC Recovery Spec
+     *
+     * @see NewRenoCongestionController
+     */
+    NEW_RENO {
+        @Override
+        public CongestionController createController( int maxDatagramSize ) {
+            return new NewRenoCongestionController( maxDatagramSize );
+        }
+    },
+    /**
+     * The loss-based controller of RFC 8312, which grows faster than NewReno on long fat paths
+     * while remaining fair to other flows
+     *
+     * @see CubicCongestionController
+     */
+    CUBIC {
+        @Override
+        public CongestionController createController( int maxDatagramSize ) {
+            return new CubicCongestionController( maxDatagramSize );
+        }
+    },
+    /**
+     * A model-based controller after BBRv2, which paces at the estimated bottleneck bandwidth and suits
+     * paths with a high bandwidth-delay product
+     *
+     * @see BbrCongestionController
+     */
+    BBR {
+        @Override
+        public CongestionController createController( int maxDatagramSize ) {
+            return new BbrCongestionController( maxDatagramSize );
+        }
+    };
+
+    /**
+     * @param maxDatagramSize the maximum size of datagrams sent on the connection
+     * @return a new controller for one connection
+     */
+    public abstract CongestionController createController( int maxDatagramSize );
+}
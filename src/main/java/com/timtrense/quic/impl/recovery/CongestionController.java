@@ -0,0 +1,99 @@
+package com.timtrense.quic.impl.recovery;
+
+/**
+ * Limits the rate at which a connection sends, as opposed to {@link com.timtrense.quic.FlowControl} which
+ * limits the amount of data that the peer is willing to receive.
+ * <p>
+ * "If a sender uses a different controller than that specified in this
+ * document, the chosen controller MUST conform to the congestion control
+ * guidelines specified in Section 3.1 of [RFC8085]."
+ * Quote from https://tools.ietf.org/html/draft-ietf-quic-recovery-32#section-7
+ * <p>
+ * Implementations receive their signals per packet with primitive arguments and must not allocate on any of
+ * these calls, because they are made for every sent and acknowledged packet. They are not thread-safe and are
+ * driven by the thread processing the connection.
+ *
+ * @author Tim Trense
+ * @see CongestionControlAlgorithm
+ */
+public interface CongestionController {
+
+    /**
+     * @return the maximum number of bytes in flight
+     */
+    long getCongestionWindow();
+
+    /**
+     * @return the number of sent bytes in flight, as seen by this controller
+     */
+    long getBytesInFlight();
+
+    /**
+     * @param sentBytes the size of a packet to send
+     * @return true if the congestion window allows sending an in-flight packet of that size
+     */
+    default boolean canSend( int sentBytes ) {
+        return getBytesInFlight() + sentBytes <= getCongestionWindow();
+    }
+
+    /**
+     * Called for each sent packet that counts towards bytes in flight
+     *
+     * @param sentBytes     the size of the packet
+     * @param sentTimeNanos the time of sending, as given by {@link System#nanoTime()}
+     */
+    void onPacketSent( int sentBytes, long sentTimeNanos );
+
+    /**
+     * Called for each newly acknowledged packet that counted towards bytes in flight
+     *
+     * @param sentBytes     the size of the packet
+     * @param sentTimeNanos the time the packet was sent at
+     * @param rttEstimator  the RTT estimation, already updated by the acknowledgement
+     * @param nowNanos      the current time, as given by {@link System#nanoTime()}
+     */
+    void onPacketAcknowledged( int sentBytes, long sentTimeNanos, RttEstimator rttEstimator, long nowNanos );
+
+    /**
+     * Called for each packet that counted towards bytes in flight and was declared lost
+     *
+     * @param sentBytes     the size of the packet
+     * @param sentTimeNanos the time the packet was sent at
+     * @param nowNanos      the current time, as given by {@link System#nanoTime()}
+     */
+    void onPacketLost( int sentBytes, long sentTimeNanos, long nowNanos );
+
+    /**
+     * "When persistent congestion is declared, the sender's congestion
+     * window MUST be reduced to the minimum congestion window
+     * (kMinimumWindow), similar to a TCP sender's response on an RTO
+     * ([RFC5681])."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-recovery-32#section-7.6.2
+     *
+     * @param nowNanos the current time, as given by {@link System#nanoTime()}
+     */
+    void onPersistentCongestion( long nowNanos );
+
+    /**
+     * Called when in-flight packets were discarded without being acknowledged or lost, as done when the keys of
+     * their packet number space are discarded
+     *
+     * @param discardedBytes the sum of the sizes of the discarded packets
+     */
+    void onPacketsDiscarded( long discardedBytes );
+
+    /**
+     * "Using a value for "N" that is small, but at least 1 (for example,
+     * 1.25) ensures that variations in round-trip time do not result in
+     * under-utilization of the congestion window."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-recovery-32#section-7.7
+     *
+     * @param rttEstimator the RTT estimation of the connection
+     * @return the rate to pace packets at, in bytes per second
+     */
+    default long getPacingRate( RttEstimator rttEstimator ) {
+        long rtt = Math.max( rttEstimator.getSmoothedRtt(), RttEstimator.GRANULARITY );
+        // N = 1.25
+        return (long)( 1.25 * getCongestionWindow() * 1_000_000_000.0 / rtt );
+    }
+}
@@ -0,0 +1,131 @@
+package com.timtrense.quic.impl.recovery;
+
+/**
+ * The CUBIC congestion controller of RFC 8312 on top of the slow start and recovery period of the
+ * QUIC Recovery Spec.
+ * <p>
+ * In congestion avoidance, the window follows a cubic function of the time since the last congestion event,
+ * which plateaus around the window at which the loss occurred. A TCP-friendly estimate of the window that
+ * NewReno would reach serves as lower bound, so that CUBIC never grows slower than NewReno.
+ *
+ * @author Tim Trense
+ * @see <a href="https://tools.ietf.org/html/rfc8312">RFC 8312</a>
+ */
+public class CubicCongestionController extends BaseCongestionController {
+
+    /**
+     * "C is a constant fixed to determine the aggressiveness of window
+     * increase in high BDP networks"
+     * Quote from https://tools.ietf.org/html/rfc8312#section-4.1
+     */
+    public static final double C = 0.4;
+    /**
+     * "Parameter beta_cubic SHOULD be set to 0.7."
+     * Quote from https://tools.ietf.org/html/rfc8312#section-4.5
+     */
+    public static final double BETA = 0.7;
+    /**
+     * the additive increase factor of the TCP-friendly window, 3 * (1 - beta) / (1 + beta)
+     */
+    private static final double ALPHA = 3 * ( 1 - BETA ) / ( 1 + BETA );
+
+    /**
+     * the window before the last reduction, in bytes
+     */
+    private double windowMax;
+    /**
+     * the window before the previous reduction, for fast convergence
+     */
+    private double lastWindowMax;
+    /**
+     * the time period in seconds the cubic function takes to grow back to {@link #windowMax}
+     */
+    private double k;
+    /**
+     * the start of the current congestion avoidance epoch
+     */
+    private long epochStart;
+    /**
+     * whether {@link #epochStart} is set
+     */
+    private boolean epochStarted;
+    /**
+     * the window NewReno would have reached within the current epoch
+     */
+    private double tcpFriendlyWindow;
+    /**
+     * fractional growth not yet applied to the integral congestion window
+     */
+    private double windowRemainder;
+
+    /**
+     * @param maxDatagramSize the maximum size of datagrams sent on the connection
+     */
+    public CubicCongestionController( int maxDatagramSize ) {
+        super( maxDatagramSize );
+    }
+
+    @Override
+    protected void reduceWindow( long nowNanos ) {
+        epochStarted = false;
+        // "With fast convergence, when a congestion event occurs, before the
+        // window reduction of the congestion window, a flow remembers the last
+        // value of W_max before it updates W_max for the current congestion
+        // event."
+        // Quote from https://tools.ietf.org/html/rfc8312#section-4.6
+        if ( congestionWindow < lastWindowMax ) {
+            windowMax = congestionWindow * ( 1 + BETA ) / 2;
+        }
+        else {
+            windowMax = congestionWindow;
+        }
+        lastWindowMax = congestionWindow;
+        slowStartThreshold = Math.max( (long)( congestionWindow * BETA ), minimumWindow );
+        congestionWindow = slowStartThreshold;
+        windowRemainder = 0;
+    }
+
+    @Override
+    public void onPersistentCongestion( long nowNanos ) {
+        super.onPersistentCongestion( nowNanos );
+        epochStarted = false;
+        windowMax = 0;
+        lastWindowMax = 0;
+    }
+
+    @Override
+    protected void increaseWindowInCongestionAvoidance( int ackedBytes, RttEstimator rttEstimator,
+            long nowNanos ) {
+        if ( !epochStarted ) {
+            epochStarted = true;
+            epochStart = nowNanos;
+            if ( congestionWindow < windowMax ) {
+                k = Math.cbrt( ( windowMax - congestionWindow ) / ( C * maxDatagramSize ) );
+            }
+            else {
+                k = 0;
+                windowMax = congestionWindow;
+            }
+            tcpFriendlyWindow = congestionWindow;
+        }
+        // "the target window ... at the next RTT"
+        double t = ( nowNanos - epochStart + rttEstimator.getMinRtt() ) / 1e9;
+        double target = C * maxDatagramSize * Math.pow( t - k, 3 ) + windowMax;
+        // bound the growth to 1.5 times the window per RTT
+        target = Math.min( target, 1.5 * congestionWindow );
+
+        tcpFriendlyWindow += ALPHA * maxDatagramSize * ackedBytes / congestionWindow;
+
+        double increase = 0;
+        if ( target > congestionWindow ) {
+            increase = ( target - congestionWindow ) * ackedBytes / congestionWindow;
+        }
+        if ( tcpFriendlyWindow > congestionWindow + increase ) {
+            increase = tcpFriendlyWindow - congestionWindow;
+        }
+        windowRemainder += increase;
+        long wholeBytes = (long)windowRemainder;
+        windowRemainder -= wholeBytes;
+        congestionWindow += wholeBytes;
+    }
+}
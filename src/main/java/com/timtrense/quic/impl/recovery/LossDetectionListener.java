@@ -0,0 +1,66 @@
+package com.timtrense.quic.impl.recovery;
+
+import com.timtrense.quic.PacketNumberSpace;
+
+/**
+ * Gets notified by a {@link LossDetector} about the fate of sent packets.
+ * Packets are reported one by one with their metadata, so that no object needs to be created per packet.
+ *
+ * @author Tim Trense
+ */
+public interface LossDetectionListener {
+
+    /**
+     * Called for each newly acknowledged packet, while its {@link SentPacketHistory#getAttachment(long)
+     * attachment} is still available
+     *
+     * @param space         the space of the packet
+     * @param packetNumber  the packet number
+     * @param sentBytes     the size of the packet
+     * @param sentTimeNanos the time the packet was sent at
+     * @param inFlight      whether the packet counted towards bytes in flight
+     * @param nowNanos      the current time
+     */
+    void onPacketAcknowledged( PacketNumberSpace space, long packetNumber, int sentBytes, long sentTimeNanos,
+            boolean inFlight, long nowNanos );
+
+    /**
+     * Called for each packet that was declared lost, while its {@link SentPacketHistory#getAttachment(long)
+     * attachment} is still available
+     *
+     * @param space         the space of the packet
+     * @param packetNumber  the packet number
+     * @param sentBytes     the size of the packet
+     * @param sentTimeNanos the time the packet was sent at
+     * @param inFlight      whether the packet counted towards bytes in flight
+     * @param nowNanos      the current time
+     */
+    void onPacketLost( PacketNumberSpace space, long packetNumber, int sentBytes, long sentTimeNanos,
+            boolean inFlight, long nowNanos );
+
+    /**
+     * Called after the lost packets of one detection were reported, if they establish persistent congestion
+     *
+     * @param space    the space of the lost packets
+     * @param nowNanos the current time
+     */
+    void onPersistentCongestion( PacketNumberSpace space, long nowNanos );
+
+    /**
+     * Called when the outstanding packets of a space were discarded along with its keys
+     *
+     * @param space                  the discarded space
+     * @param discardedBytesInFlight the sum of the sizes of the discarded in-flight packets
+     */
+    void onPacketsDiscarded( PacketNumberSpace space, long discardedBytesInFlight );
+
+    /**
+     * "When a PTO timer expires, a sender MUST send at least one ack-
+     * eliciting packet in the packet number space as a probe."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-recovery-32#section-6.2.4
+     *
+     * @param space    the space to send the probe in
+     * @param nowNanos the current time
+     */
+    void onProbeTimeout( PacketNumberSpace space, long nowNanos );
+}
@@ -0,0 +1,516 @@
+package com.timtrense.quic.impl.recovery;
+
+import java.util.concurrent.TimeUnit;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+
+import com.timtrense.quic.EndpointRole;
+import com.timtrense.quic.PacketNumberSpace;
+import com.timtrense.quic.impl.TimerWheel;
+import com.timtrense.quic.impl.WheelTimer;
+import com.timtrense.quic.impl.base.PacketNumberRangeSet;
+
+/**
+ * The loss detection of one connection, as specified by the QUIC Recovery Spec.
+ * <p>
+ * Sent packets are tracked within one {@link SentPacketHistory} per {@link PacketNumberSpace}. Packets are
+ * declared lost by the packet threshold and by the time threshold, both relative to the largest acknowledged
+ * packet. The loss detection timer is a {@link WheelTimer} of the connection, armed at the {@link TimerWheel}
+ * of its shard, for the earliest loss time or otherwise the probe timeout (PTO).
+ * <p>
+ * This class is not thread-safe. It must only be used by the thread advancing the timer wheel.
+ *
+ * @author Tim Trense
+ * @see <a href="https://tools.ietf.org/html/draft-ietf-quic-recovery-32#section-6">QUIC Recovery Spec/Section 6</a>
+ */
+public class LossDetector {
+
+    /**
+     * "Maximum reordering in packets before packet threshold loss
+     * detection considers a packet lost.  The value recommended in
+     * Section 6.1.1 is 3."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-recovery-32#appendix-A.2
+     */
+    public static final int PACKET_THRESHOLD = 3;
+
+    /**
+     * "Period of time for persistent congestion to be established,
+     * specified as a PTO multiplier.  The rationale for this threshold is
+     * to enable a sender to use initial PTOs for aggressive probing, as TCP
+     * does with Tail Loss Probe (TLP)"
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-recovery-32#section-7.6.1
+     */
+    public static final int PERSISTENT_CONGESTION_THRESHOLD = 3;
+
+    /**
+     * marks the absence of a time, chosen to be larger than any valid time when searching the earliest
+     */
+    private static final long NO_TIME = Long.MAX_VALUE;
+
+    private static final PacketNumberSpace[] PACKET_NUMBER_SPACES = PacketNumberSpace.values();
+
+    @Getter
+    private final @NonNull EndpointRole role;
+    /**
+     * the RTT estimation of the active path of the connection
+     */
+    @Getter
+    @Setter
+    private @NonNull RttEstimator rttEstimator = new RttEstimator();
+    private final SentPacketHistory[] sentPackets;
+    /**
+     * "The largest packet number acknowledged in the packet number space so far."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-recovery-32#appendix-A.3
+     */
+    private final long[] largestAckedPacket;
+    /**
+     * "The time at which the next packet in that packet number space will be
+     * considered lost based on exceeding the reordering window in time."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-recovery-32#appendix-A.3
+     */
+    private final long[] lossTime;
+    /**
+     * the timer to arm for loss detection and probe timeouts
+     */
+    private final @NonNull WheelTimer lossDetectionTimer;
+    /**
+     * the wheel to arm the timer at, null while not attached to a shard
+     */
+    @Getter
+    @Setter
+    private TimerWheel timerWheel;
+    /**
+     * the receiver of acknowledged and lost packets and of probe timeouts
+     */
+    @Getter
+    @Setter
+    private LossDetectionListener listener;
+    /**
+     * "The number of times a PTO has been sent without receiving an ack."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-recovery-32#appendix-A.3
+     */
+    @Getter
+    private int ptoCount;
+    /**
+     * the max_ack_delay transport parameter of the peer in nanoseconds
+     */
+    @Getter
+    @Setter
+    private long peerMaxAckDelay = TimeUnit.MILLISECONDS.toNanos( 25 );
+    /**
+     * whether the handshake is confirmed, which allows arming the PTO for application data
+     */
+    @Getter
+    @Setter
+    private boolean handshakeConfirmed;
+    /**
+     * whether this endpoint can send Handshake packets
+     */
+    @Getter
+    @Setter
+    private boolean handshakeKeysAvailable;
+    /**
+     * whether this endpoint is a server that may not send anything before receiving more from
+     * the unvalidated address of the client
+     */
+    @Getter
+    private boolean amplificationLimited;
+    /**
+     * whether any Handshake packet of this endpoint was acknowledged
+     */
+    private boolean handshakePacketAcknowledged;
+    /**
+     * the time the first RTT sample was taken at, valid if the {@link #getRttEstimator() estimator} is sampled
+     */
+    private long firstRttSampleTime;
+
+    /**
+     * @param role               the role of this endpoint
+     * @param lossDetectionTimer the timer to arm for loss detection and probe timeouts
+     */
+    public LossDetector( @NonNull EndpointRole role, @NonNull WheelTimer lossDetectionTimer ) {
+        this.role = role;
+        this.lossDetectionTimer = lossDetectionTimer;
+        int spaces = PACKET_NUMBER_SPACES.length;
+        this.sentPackets = new SentPacketHistory[spaces];
+        this.largestAckedPacket = new long[spaces];
+        this.lossTime = new long[spaces];
+        for ( PacketNumberSpace space : PACKET_NUMBER_SPACES ) {
+            sentPackets[space.ordinal()] = new SentPacketHistory( space );
+            largestAckedPacket[space.ordinal()] = -1;
+            lossTime[space.ordinal()] = NO_TIME;
+        }
+    }
+
+    /**
+     * @param space the space of the packets
+     * @return the history of outstanding packets within that space
+     */
+    public SentPacketHistory getSentPackets( @NonNull PacketNumberSpace space ) {
+        return sentPackets[space.ordinal()];
+    }
+
+    /**
+     * @param space the space of the packets
+     * @return the largest packet number acknowledged within that space or -1 if none
+     */
+    public long getLargestAckedPacket( @NonNull PacketNumberSpace space ) {
+        return largestAckedPacket[space.ordinal()];
+    }
+
+    /**
+     * @return the sum of the sizes of all in-flight packets of all spaces
+     */
+    public long getBytesInFlight() {
+        long bytesInFlight = 0;
+        for ( SentPacketHistory history : sentPackets ) {
+            bytesInFlight += history.getBytesInFlight();
+        }
+        return bytesInFlight;
+    }
+
+    /**
+     * Records a sent packet and re-arms the loss detection timer if necessary
+     *
+     * @param space         the space of the packet
+     * @param packetNumber  the packet number
+     * @param sentBytes     the size of the packet
+     * @param ackEliciting  whether the packet is ack-eliciting
+     * @param inFlight      whether the packet counts towards bytes in flight
+     * @param sentTimeNanos the time of sending, as given by {@link System#nanoTime()}
+     */
+    public void onPacketSent( @NonNull PacketNumberSpace space, long packetNumber, int sentBytes,
+            boolean ackEliciting, boolean inFlight, long sentTimeNanos ) {
+        sentPackets[space.ordinal()].onPacketSent( packetNumber, sentTimeNanos, sentBytes, ackEliciting, inFlight );
+        if ( inFlight ) {
+            setLossDetectionTimer( sentTimeNanos );
+        }
+    }
+
+    /**
+     * Processes a received ACK frame
+     *
+     * @param space            the space the ACK frame was received in
+     * @param acknowledged     the acknowledged ranges of the frame
+     * @param ackDelay         the ACK Delay of the frame in nanoseconds, already scaled by the peers exponent
+     * @param receiveTimeNanos the time of receipt, as given by {@link System#nanoTime()}
+     */
+    public void onAckReceived( @NonNull PacketNumberSpace space, @NonNull PacketNumberRangeSet acknowledged,
+            long ackDelay, long receiveTimeNanos ) {
+        if ( acknowledged.isEmpty() ) {
+            return;
+        }
+        int index = space.ordinal();
+        SentPacketHistory history = sentPackets[index];
+        long largestAcknowledged = acknowledged.getLargest();
+        if ( largestAcknowledged > history.getLargestSent() ) {
+            // acknowledges a packet that was never sent, which the caller must treat as PROTOCOL_VIOLATION
+            return;
+        }
+        largestAckedPacket[index] = Math.max( largestAckedPacket[index], largestAcknowledged );
+
+        // the RTT sample is taken before removing the largest acknowledged packet
+        boolean largestNewlyAcked = history.isOutstanding( largestAcknowledged );
+        long largestSentTime = largestNewlyAcked ? history.getSentTime( largestAcknowledged ) : 0;
+
+        boolean newlyAckedAckEliciting = false;
+        int newlyAcked = 0;
+        for ( int i = 0; i < acknowledged.getRangeCount() && !history.isEmpty(); i++ ) {
+            long smallest = Math.max( acknowledged.getSmallest( i ), history.getFirstPacketNumber() );
+            long largest = Math.min( acknowledged.getLargest( i ), history.getLastPacketNumber() );
+            for ( long packetNumber = largest; packetNumber >= smallest; packetNumber-- ) {
+                if ( !history.isOutstanding( packetNumber ) ) {
+                    continue;
+                }
+                newlyAckedAckEliciting |= history.isAckEliciting( packetNumber );
+                int sentBytes = history.getSentBytes( packetNumber );
+                long sentTime = history.getSentTime( packetNumber );
+                boolean inFlight = history.isInFlight( packetNumber );
+                newlyAcked++;
+                if ( listener != null ) {
+                    listener.onPacketAcknowledged( space, packetNumber, sentBytes, sentTime, inFlight,
+                            receiveTimeNanos );
+                }
+                history.remove( packetNumber );
+            }
+        }
+        if ( newlyAcked == 0 ) {
+            return;
+        }
+        if ( space == PacketNumberSpace.HANDSHAKE ) {
+            handshakePacketAcknowledged = true;
+        }
+        if ( largestNewlyAcked && newlyAckedAckEliciting ) {
+            // "the ACK Delay field of ACK frames sent in the Initial and Handshake packet number space" is ignored
+            long effectiveAckDelay = space == PacketNumberSpace.APPLICATION_DATA ? ackDelay : 0;
+            if ( !rttEstimator.isSampled() ) {
+                firstRttSampleTime = receiveTimeNanos;
+            }
+            rttEstimator.onSample( receiveTimeNanos - largestSentTime, effectiveAckDelay, peerMaxAckDelay,
+                    handshakeConfirmed );
+        }
+        detectAndRemoveLostPackets( space, receiveTimeNanos );
+        // "The PTO backoff factor is reset when an acknowledgement is received,
+        // except in the following case. A server might take longer to respond
+        // to packets during the handshake than otherwise. To protect such a
+        // server from repeated client probes, the PTO backoff is not reset at a
+        // client that is not yet certain that the server has finished
+        // validating the client's address."
+        // Quote from https://tools.ietf.org/html/draft-ietf-quic-recovery-32#section-6.2.1
+        if ( isPeerAddressValidationComplete() ) {
+            ptoCount = 0;
+        }
+        setLossDetectionTimer( receiveTimeNanos );
+    }
+
+    /**
+     * Called when the loss detection timer expired
+     *
+     * @param nowNanos the current time, as given by {@link System#nanoTime()}
+     */
+    public void onLossDetectionTimeout( long nowNanos ) {
+        PacketNumberSpace lossSpace = getEarliestLossTimeSpace();
+        if ( lossSpace != null ) {
+            // time threshold loss detection
+            detectAndRemoveLostPackets( lossSpace, nowNanos );
+            setLossDetectionTimer( nowNanos );
+            return;
+        }
+        PacketNumberSpace probeSpace;
+        if ( getBytesInFlight() > 0 ) {
+            probeSpace = getProbeTimeoutSpace();
+        }
+        else {
+            // "the client MUST set the PTO timer if the client has not received an acknowledgement
+            // for any of its Handshake packets and the handshake is not confirmed"
+            probeSpace = handshakeKeysAvailable ? PacketNumberSpace.HANDSHAKE : PacketNumberSpace.INITIAL;
+        }
+        ptoCount++;
+        if ( listener != null && probeSpace != null ) {
+            listener.onProbeTimeout( probeSpace, nowNanos );
+        }
+        setLossDetectionTimer( nowNanos );
+    }
+
+    /**
+     * Discards all state of the space, as done when its keys are discarded.
+     * <p>
+     * "When Initial or Handshake keys are discarded, packets from the space
+     * are discarded and loss detection state is updated."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-recovery-32#section-6.4
+     *
+     * @param space    the space whose keys were discarded
+     * @param nowNanos the current time, as given by {@link System#nanoTime()}
+     */
+    public void discardSpace( @NonNull PacketNumberSpace space, long nowNanos ) {
+        int index = space.ordinal();
+        long discardedBytesInFlight = sentPackets[index].getBytesInFlight();
+        sentPackets[index].clear();
+        lossTime[index] = NO_TIME;
+        if ( listener != null ) {
+            listener.onPacketsDiscarded( space, discardedBytesInFlight );
+        }
+        ptoCount = 0;
+        setLossDetectionTimer( nowNanos );
+    }
+
+    /**
+     * "Endpoints that have not yet received an acknowledgement of a Handshake packet or the handshake
+     * being confirmed may not yet have completed address validation at the peer."
+     *
+     * @return true if the peer certainly validated the address of this endpoint
+     */
+    public boolean isPeerAddressValidationComplete() {
+        // a server is the one validating the address of the client
+        return role == EndpointRole.SERVER || handshakeConfirmed || handshakePacketAcknowledged;
+    }
+
+    /**
+     * @return the duration of the probe timeout, including the exponential backoff
+     */
+    public long getProbeTimeout() {
+        return rttEstimator.getProbeTimeoutBase() << Math.min( ptoCount, 30 );
+    }
+
+    /**
+     * Declares packets lost by the packet and time thresholds relative to the largest acknowledged packet
+     */
+    private void detectAndRemoveLostPackets( PacketNumberSpace space, long nowNanos ) {
+        int index = space.ordinal();
+        SentPacketHistory history = sentPackets[index];
+        lossTime[index] = NO_TIME;
+        long largestAcked = largestAckedPacket[index];
+        if ( history.isEmpty() || largestAcked < 0 ) {
+            return;
+        }
+        long lossDelay = rttEstimator.getLossDelay();
+        // packets sent before this time are deemed lost
+        long lostSendTime = nowNanos - lossDelay;
+        long last = Math.min( largestAcked, history.getLastPacketNumber() );
+        // the span of consecutively lost ack-eliciting packets sent after the first RTT sample
+        long earliestLostTime = 0;
+        long latestLostTime = 0;
+        boolean lostSpan = false;
+        boolean persistentCongestion = false;
+        long persistentCongestionDuration = getPersistentCongestionDuration();
+        for ( long packetNumber = history.getFirstPacketNumber(); packetNumber <= last; packetNumber++ ) {
+            if ( !history.isOutstanding( packetNumber ) ) {
+                continue;
+            }
+            long sentTime = history.getSentTime( packetNumber );
+            if ( sentTime - lostSendTime <= 0 || largestAcked >= packetNumber + PACKET_THRESHOLD ) {
+                int sentBytes = history.getSentBytes( packetNumber );
+                boolean inFlight = history.isInFlight( packetNumber );
+                boolean ackEliciting = history.isAckEliciting( packetNumber );
+                if ( listener != null ) {
+                    listener.onPacketLost( space, packetNumber, sentBytes, sentTime, inFlight, nowNanos );
+                }
+                history.remove( packetNumber );
+                if ( ackEliciting && rttEstimator.isSampled() && sentTime - firstRttSampleTime > 0 ) {
+                    if ( !lostSpan ) {
+                        lostSpan = true;
+                        earliestLostTime = sentTime;
+                    }
+                    latestLostTime = sentTime;
+                    persistentCongestion |= latestLostTime - earliestLostTime > persistentCongestionDuration;
+                }
+            }
+            else {
+                // a packet that is still outstanding interrupts the span
+                lostSpan = false;
+                if ( lossTime[index] == NO_TIME || sentTime + lossDelay - lossTime[index] < 0 ) {
+                    lossTime[index] = sentTime + lossDelay;
+                }
+            }
+        }
+        if ( persistentCongestion && listener != null ) {
+            listener.onPersistentCongestion( space, nowNanos );
+        }
+    }
+
+    /**
+     * "(smoothed_rtt + max(4*rttvar, kGranularity) + max_ack_delay) * kPersistentCongestionThreshold"
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-recovery-32#section-7.6.1
+     * <p>
+     * Acknowledged packets are no longer tracked, so a span of lost packets is only interrupted by
+     * outstanding packets that are not lost. Acknowledged packets in between may go unnoticed.
+     *
+     * @return the minimum duration between the first and last lost packet that establishes persistent congestion
+     */
+    public long getPersistentCongestionDuration() {
+        return ( rttEstimator.getProbeTimeoutBase() + peerMaxAckDelay ) * PERSISTENT_CONGESTION_THRESHOLD;
+    }
+
+    /**
+     * @return the space with the earliest loss time or null if no loss time is set
+     */
+    private PacketNumberSpace getEarliestLossTimeSpace() {
+        PacketNumberSpace earliest = null;
+        for ( PacketNumberSpace space : PACKET_NUMBER_SPACES ) {
+            long time = lossTime[space.ordinal()];
+            if ( time != NO_TIME && ( earliest == null || time - lossTime[earliest.ordinal()] < 0 ) ) {
+                earliest = space;
+            }
+        }
+        return earliest;
+    }
+
+    /**
+     * @return the space with the earliest probe timeout among those with ack-eliciting packets in flight,
+     * or null if none
+     */
+    private PacketNumberSpace getProbeTimeoutSpace() {
+        PacketNumberSpace earliest = null;
+        long earliestTime = 0;
+        long duration = getProbeTimeout();
+        for ( PacketNumberSpace space : PACKET_NUMBER_SPACES ) {
+            SentPacketHistory history = sentPackets[space.ordinal()];
+            if ( history.getAckElicitingOutstanding() == 0 ) {
+                continue;
+            }
+            long spaceDuration = duration;
+            if ( space == PacketNumberSpace.APPLICATION_DATA ) {
+                // "An endpoint MUST NOT set its PTO timer for the application data
+                // packet number space until the handshake is confirmed."
+                // Quote from https://tools.ietf.org/html/draft-ietf-quic-recovery-32#section-6.2.1
+                if ( !handshakeConfirmed ) {
+                    break;
+                }
+                spaceDuration += peerMaxAckDelay << Math.min( ptoCount, 30 );
+            }
+            long time = history.getTimeOfLastAckElicitingPacket() + spaceDuration;
+            if ( earliest == null || time - earliestTime < 0 ) {
+                earliest = space;
+                earliestTime = time;
+            }
+        }
+        return earliest;
+    }
+
+    /**
+     * Updates whether the anti-amplification limit blocks this endpoint from sending.
+     * The probe timeout is not armed while blocked, and is re-armed once datagrams from the peer lift the block.
+     * <p>
+     * "If no additional data can be sent, the server's PTO timer MUST NOT be
+     * armed until datagrams have been received from the client, because
+     * packets sent on PTO count against the anti-amplification limit."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-recovery-32#section-6.2.2.1
+     *
+     * @param amplificationLimited whether nothing may be sent before receiving more from the peer
+     * @param nowNanos             the current time, as given by {@link System#nanoTime()}
+     */
+    public void setAmplificationLimited( boolean amplificationLimited, long nowNanos ) {
+        if ( this.amplificationLimited == amplificationLimited ) {
+            return;
+        }
+        this.amplificationLimited = amplificationLimited;
+        setLossDetectionTimer( nowNanos );
+    }
+
+    /**
+     * Arms the loss detection timer for the earliest loss time or otherwise the probe timeout,
+     * or cancels it if nothing is to be detected
+     */
+    private void setLossDetectionTimer( long nowNanos ) {
+        if ( timerWheel == null ) {
+            return;
+        }
+        PacketNumberSpace lossSpace = getEarliestLossTimeSpace();
+        if ( lossSpace != null ) {
+            timerWheel.arm( lossDetectionTimer, lossTime[lossSpace.ordinal()] );
+            return;
+        }
+        if ( amplificationLimited ) {
+            // "The server's timer is not set if nothing can be sent."
+            // Quote from https://tools.ietf.org/html/draft-ietf-quic-recovery-32#appendix-A.8
+            lossDetectionTimer.cancel();
+            return;
+        }
+        boolean ackElicitingInFlight = false;
+        for ( SentPacketHistory history : sentPackets ) {
+            ackElicitingInFlight |= history.getAckElicitingOutstanding() > 0;
+        }
+        if ( !ackElicitingInFlight ) {
+            if ( isPeerAddressValidationComplete() ) {
+                lossDetectionTimer.cancel();
+            }
+            else {
+                // anti-deadlock: a client keeps probing until its address is validated
+                timerWheel.armAfter( lossDetectionTimer, nowNanos, getProbeTimeout() );
+            }
+            return;
+        }
+        PacketNumberSpace probeSpace = getProbeTimeoutSpace();
+        if ( probeSpace == null ) {
+            lossDetectionTimer.cancel();
+            return;
+        }
+        SentPacketHistory history = sentPackets[probeSpace.ordinal()];
+        long duration = getProbeTimeout();
+        if ( probeSpace == PacketNumberSpace.APPLICATION_DATA ) {
+            duration += peerMaxAckDelay << Math.min( ptoCount, 30 );
+        }
+        timerWheel.arm( lossDetectionTimer, history.getTimeOfLastAckElicitingPacket() + duration );
+    }
+}
@@ -0,0 +1,45 @@
+package com.timtrense.quic.impl.recovery;
+
+/**
+ * The congestion controller specified by the QUIC Recovery Spec, similar to TCP NewReno.
+ * <p>
+ * "In congestion avoidance, implementations that use an additive increase
+ * multiplicative decrease (AIMD) approach MUST limit the increase to the
+ * congestion window to at most one maximum datagram size for each
+ * congestion window that is acknowledged."
+ * Quote from https://tools.ietf.org/html/draft-ietf-quic-recovery-32#section-7.3.3
+ *
+ * @author Tim Trense
+ */
+public class NewRenoCongestionController extends BaseCongestionController {
+
+    /**
+     * acknowledged bytes not yet accounted for in the congestion window
+     */
+    private long ackedBytesRemainder;
+
+    /**
+     * @param maxDatagramSize the maximum size of datagrams sent on the connection
+     */
+    public NewRenoCongestionController( int maxDatagramSize ) {
+        super( maxDatagramSize );
+    }
+
+    @Override
+    protected void reduceWindow( long nowNanos ) {
+        slowStartThreshold = (long)( congestionWindow * LOSS_REDUCTION_FACTOR );
+        congestionWindow = Math.max( slowStartThreshold, minimumWindow );
+        ackedBytesRemainder = 0;
+    }
+
+    @Override
+    protected void increaseWindowInCongestionAvoidance( int ackedBytes, RttEstimator rttEstimator,
+            long nowNanos ) {
+        // congestion_window += max_datagram_size * acked_packet.sent_bytes / congestion_window,
+        // carrying the remainder over to avoid losing growth to integer division
+        ackedBytesRemainder += (long)maxDatagramSize * ackedBytes;
+        long increase = ackedBytesRemainder / congestionWindow;
+        ackedBytesRemainder -= increase * congestionWindow;
+        congestionWindow += increase;
+    }
+}
@@ -0,0 +1,102 @@
+package com.timtrense.quic.impl.recovery;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * A token bucket that spreads the packets of a connection over time instead of sending the whole congestion
+ * window in one burst.
+ * <p>
+ * "A sender SHOULD pace sending of all in-flight packets based on input
+ * from the congestion controller."
+ * Quote from https://tools.ietf.org/html/draft-ietf-quic-recovery-32#section-7.7
+ * <p>
+ * The bucket is filled at the {@link CongestionController#getPacingRate(RttEstimator) pacing rate} and holds
+ * at most {@link #getMaxBurstBytes()} bytes. Releasing a few datagrams at once keeps the number of timer
+ * expiries and system calls low while still avoiding bursts that overflow shallow buffers.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @author Tim Trense
+ */
+@Getter
+@ToString
+public class Pacer {
+
+    /**
+     * the capacity of the bucket in bytes
+     */
+    private final long maxBurstBytes;
+    /**
+     * the bytes that may be sent right now, negative if the last packet exceeded the bucket
+     */
+    private long tokens;
+    /**
+     * the time the tokens were last refilled at
+     */
+    private long lastRefillTime;
+    private boolean started;
+
+    /**
+     * @param maxBurstBytes the maximum number of bytes to send at once, at least one datagram
+     */
+    public Pacer( long maxBurstBytes ) {
+        if ( maxBurstBytes <= 0 ) {
+            throw new IllegalArgumentException( "Cannot set a non-positive maxBurstBytes" );
+        }
+        this.maxBurstBytes = maxBurstBytes;
+        this.tokens = maxBurstBytes;
+    }
+
+    /**
+     * @param nowNanos   the current time, as given by {@link System#nanoTime()}
+     * @param sentBytes  the size of the packet to send
+     * @param pacingRate the current pacing rate in bytes per second
+     * @return the nanoseconds to wait before the packet may be sent, 0 if it may be sent now
+     */
+    public long getDelay( long nowNanos, int sentBytes, long pacingRate ) {
+        refill( nowNanos, pacingRate );
+        // a packet may be sent once the bucket holds its size, or is full for packets larger than the bucket
+        long required = Math.min( sentBytes, maxBurstBytes );
+        if ( tokens >= required ) {
+            return 0;
+        }
+        if ( pacingRate <= 0 ) {
+            return Long.MAX_VALUE;
+        }
+        return ( ( required - tokens ) * 1_000_000_000L + pacingRate - 1 ) / pacingRate;
+    }
+
+    /**
+     * Takes the tokens of a sent packet
+     *
+     * @param nowNanos   the current time, as given by {@link System#nanoTime()}
+     * @param sentBytes  the size of the sent packet
+     * @param pacingRate the current pacing rate in bytes per second
+     */
+    public void onPacketSent( long nowNanos, int sentBytes, long pacingRate ) {
+        refill( nowNanos, pacingRate );
+        tokens -= sentBytes;
+    }
+
+    private void refill( long nowNanos, long pacingRate ) {
+        if ( !started ) {
+            started = true;
+            lastRefillTime = nowNanos;
+            return;
+        }
+        long elapsed = nowNanos - lastRefillTime;
+        if ( elapsed <= 0 || pacingRate <= 0 ) {
+            return;
+        }
+        // avoid overflowing on long idle periods, a full bucket is all that can be gained
+        long fullAfter = ( maxBurstBytes - tokens ) * 1_000_000_000L / pacingRate + 1;
+        if ( elapsed >= fullAfter ) {
+            tokens = maxBurstBytes;
+        }
+        else {
+            tokens = Math.min( maxBurstBytes, tokens + elapsed * pacingRate / 1_000_000_000L );
+        }
+        lastRefillTime = nowNanos;
+    }
+}
@@ -0,0 +1,118 @@
+package com.timtrense.quic.impl.recovery;
+
+import java.util.concurrent.TimeUnit;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Estimates the round-trip time of a connection from the acknowledgements of the peer.
+ * <p>
+ * "At a high level, an endpoint measures the time from when a packet was
+ * sent to when it is acknowledged as a round-trip time (RTT) sample.
+ * The endpoint uses RTT samples and peer-reported host delays (see
+ * Section 13.2 of [QUIC-TRANSPORT]) to generate a statistical
+ * description of the network path's RTT."
+ * Quote from https://tools.ietf.org/html/draft-ietf-quic-recovery-32#section-5
+ * <p>
+ * All times are in nanoseconds. This class is not thread-safe.
+ *
+ * @author Tim Trense
+ * @see <a href="https://tools.ietf.org/html/draft-ietf-quic-recovery-32#section-5">QUIC Recovery Spec/Section 5</a>
+ */
+@Getter
+@ToString
+public class RttEstimator {
+
+    /**
+     * "The RTT used before an RTT sample is taken. The value recommended in Section 6.2.2 is 333ms."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-recovery-32#appendix-A.2
+     */
+    public static final long INITIAL_RTT = TimeUnit.MILLISECONDS.toNanos( 333 );
+
+    /**
+     * "Timer granularity. This is a system-dependent value, and Section 6.1.2 recommends a value of 1ms."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-recovery-32#appendix-A.2
+     */
+    public static final long GRANULARITY = TimeUnit.MILLISECONDS.toNanos( 1 );
+
+    /**
+     * the most recent RTT sample
+     */
+    private long latestRtt;
+    /**
+     * the minimum RTT seen over the lifetime of the connection
+     */
+    private long minRtt;
+    /**
+     * the exponentially weighted moving average of the adjusted RTT samples
+     */
+    private long smoothedRtt = INITIAL_RTT;
+    /**
+     * the mean deviation of the RTT samples
+     */
+    private long rttVariance = INITIAL_RTT / 2;
+    /**
+     * whether at least one sample was taken
+     */
+    private boolean sampled;
+
+    /**
+     * Updates the estimation with a new sample.
+     * <p>
+     * "An endpoint generates an RTT sample on receiving an ACK frame that
+     * meets the following two conditions:
+     * -  the largest acknowledged packet number is newly acknowledged, and
+     * -  at least one of the newly acknowledged packets was ack-eliciting."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-recovery-32#section-5.1
+     *
+     * @param sample             the time between sending the largest acknowledged packet and receiving the ACK
+     * @param ackDelay           the ACK Delay reported by the peer, already scaled by its ack_delay_exponent
+     * @param maxAckDelay        the max_ack_delay transport parameter of the peer
+     * @param handshakeConfirmed whether the handshake is confirmed, which makes the peer adhere to its maxAckDelay
+     */
+    public void onSample( long sample, long ackDelay, long maxAckDelay, boolean handshakeConfirmed ) {
+        latestRtt = sample;
+        if ( !sampled ) {
+            sampled = true;
+            minRtt = sample;
+            smoothedRtt = sample;
+            rttVariance = sample / 2;
+            return;
+        }
+        minRtt = Math.min( minRtt, sample );
+        if ( handshakeConfirmed ) {
+            ackDelay = Math.min( ackDelay, maxAckDelay );
+        }
+        // "An endpoint MUST NOT subtract the acknowledgement delay from the RTT sample if the
+        // resulting value is smaller than the min_rtt."
+        long adjustedRtt = sample;
+        if ( sample >= minRtt + ackDelay ) {
+            adjustedRtt = sample - ackDelay;
+        }
+        rttVariance = ( 3 * rttVariance + Math.abs( smoothedRtt - adjustedRtt ) ) / 4;
+        smoothedRtt = ( 7 * smoothedRtt + adjustedRtt ) / 8;
+    }
+
+    /**
+     * "PTO = smoothed_rtt + max(4*rttvar, kGranularity) + max_ack_delay"
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-recovery-32#section-6.2.1
+     *
+     * @return the probe timeout without the max_ack_delay and without backoff
+     */
+    public long getProbeTimeoutBase() {
+        return smoothedRtt + Math.max( 4 * rttVariance, GRANULARITY );
+    }
+
+    /**
+     * "The time threshold is:
+     * max(kTimeThreshold * max(smoothed_rtt, latest_rtt), kGranularity)"
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-recovery-32#section-6.1.2
+     *
+     * @return the time after which a packet is declared lost if a later packet was acknowledged
+     */
+    public long getLossDelay() {
+        long rtt = Math.max( smoothedRtt, latestRtt );
+        // kTimeThreshold = 9/8
+        return Math.max( rtt + ( rtt >> 3 ), GRANULARITY );
+    }
+}
@@ -0,0 +1,325 @@
+package com.timtrense.quic.impl.recovery;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import com.timtrense.quic.PacketNumberSpace;
+
+/**
+ * The metadata of all sent, yet neither acknowledged nor lost, packets of one {@link PacketNumberSpace}.
+ * <p>
+ * Packet numbers are sent in increasing order, so the metadata is held in primitive arrays that form a ring
+ * buffer indexed by the packet number relative to the oldest outstanding one. No object is created per packet.
+ * The sender may {@link #setAttachment(long, Object) attach} its own metadata, like the frames to retransmit.
+ * Acknowledged and lost packets are removed by clearing their flags, the head of the ring advances past them.
+ * The arrays only grow, by doubling, if more packets are outstanding than ever before.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @author Tim Trense
+ * @see <a href="https://tools.ietf.org/html/draft-ietf-quic-recovery-32#appendix-A.1">QUIC Recovery Spec/Appendix A.1</a>
+ */
+public class SentPacketHistory {
+
+    /**
+     * The default initial number of outstanding packets
+     */
+    public static final int DEFAULT_INITIAL_CAPACITY = 64;
+
+    /**
+     * flag of an entry that denotes a sent and neither acknowledged nor lost packet
+     */
+    private static final byte OUTSTANDING = 0x01;
+    /**
+     * "A boolean that indicates whether a packet is ack-eliciting."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-recovery-32#appendix-A.1.1
+     */
+    private static final byte ACK_ELICITING = 0x02;
+    /**
+     * "A boolean that indicates whether the packet counts towards bytes in flight."
+     * Quote from https://tools.ietf.org/html/draft-ietf-quic-recovery-32#appendix-A.1.1
+     */
+    private static final byte IN_FLIGHT = 0x04;
+
+    @Getter
+    private final @NonNull PacketNumberSpace packetNumberSpace;
+    private long[] sentTimes;
+    private int[] sentBytes;
+    private byte[] flags;
+    /**
+     * the metadata of the sender, null where none was attached
+     */
+    private Object[] attachments;
+    /**
+     * capacity - 1, capacity being a power of 2
+     */
+    private int mask;
+    /**
+     * the index of the entry of {@link #firstPacketNumber}
+     */
+    private int head;
+    /**
+     * the number of entries from the head to the last sent packet, including already removed ones in between
+     */
+    private int size;
+    /**
+     * the packet number of the entry at the head
+     */
+    private long firstPacketNumber;
+    /**
+     * the largest packet number ever sent, -1 if none
+     */
+    @Getter
+    private long largestSent = -1;
+    /**
+     * the number of outstanding ack-eliciting packets
+     */
+    @Getter
+    private int ackElicitingOutstanding;
+    /**
+     * the sum of the sizes of all outstanding in-flight packets
+     */
+    @Getter
+    private long bytesInFlight;
+    /**
+     * the time the most recent ack-eliciting packet was sent, valid if any was sent
+     */
+    @Getter
+    private long timeOfLastAckElicitingPacket;
+
+    public SentPacketHistory( @NonNull PacketNumberSpace packetNumberSpace ) {
+        this( packetNumberSpace, DEFAULT_INITIAL_CAPACITY );
+    }
+
+    /**
+     * @param packetNumberSpace the space of the tracked packets
+     * @param initialCapacity   the number of outstanding packets to allocate space for
+     */
+    public SentPacketHistory( @NonNull PacketNumberSpace packetNumberSpace, int initialCapacity ) {
+        if ( initialCapacity <= 0 ) {
+            throw new IllegalArgumentException( "Cannot set a non-positive initialCapacity" );
+        }
+        this.packetNumberSpace = packetNumberSpace;
+        int capacity = Integer.highestOneBit( initialCapacity );
+        if ( capacity < initialCapacity ) {
+            capacity <<= 1;
+        }
+        this.sentTimes = new long[capacity];
+        this.sentBytes = new int[capacity];
+        this.flags = new byte[capacity];
+        this.attachments = new Object[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Records a sent packet
+     *
+     * @param packetNumber  the packet number, larger than any before
+     * @param sentTimeNanos the time of sending, as given by {@link System#nanoTime()}
+     * @param sentBytes     the size of the packet
+     * @param ackEliciting  whether the packet is ack-eliciting
+     * @param inFlight      whether the packet counts towards bytes in flight
+     */
+    public void onPacketSent( long packetNumber, long sentTimeNanos, int sentBytes, boolean ackEliciting,
+            boolean inFlight ) {
+        if ( packetNumber <= largestSent ) {
+            throw new IllegalArgumentException( "Cannot send packet number " + packetNumber
+                    + " after " + largestSent );
+        }
+        if ( size == 0 ) {
+            head = 0;
+            firstPacketNumber = packetNumber;
+        }
+        long newSize = packetNumber - firstPacketNumber + 1;
+        ensureCapacity( newSize );
+        // skipped packet numbers remain as removed entries
+        for ( long i = size; i < newSize - 1; i++ ) {
+            flags[( head + (int)i ) & mask] = 0;
+            attachments[( head + (int)i ) & mask] = null;
+        }
+        int index = ( head + (int)( newSize - 1 ) ) & mask;
+        byte entryFlags = OUTSTANDING;
+        if ( ackEliciting ) {
+            entryFlags |= ACK_ELICITING;
+            ackElicitingOutstanding++;
+            timeOfLastAckElicitingPacket = sentTimeNanos;
+        }
+        if ( inFlight ) {
+            entryFlags |= IN_FLIGHT;
+            bytesInFlight += sentBytes;
+        }
+        flags[index] = entryFlags;
+        attachments[index] = null;
+        this.sentTimes[index] = sentTimeNanos;
+        this.sentBytes[index] = sentBytes;
+        size = (int)newSize;
+        largestSent = packetNumber;
+    }
+
+    /**
+     * @return the smallest packet number that may be outstanding, only valid if not {@link #isEmpty() empty}
+     */
+    public long getFirstPacketNumber() {
+        return firstPacketNumber;
+    }
+
+    /**
+     * @return the largest packet number that may be outstanding, only valid if not {@link #isEmpty() empty}
+     */
+    public long getLastPacketNumber() {
+        return firstPacketNumber + size - 1;
+    }
+
+    /**
+     * @return true if no packet is outstanding
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param packetNumber the packet number to check
+     * @return true if the packet was sent and is neither acknowledged nor lost
+     */
+    public boolean isOutstanding( long packetNumber ) {
+        return ( getFlags( packetNumber ) & OUTSTANDING ) != 0;
+    }
+
+    /**
+     * @param packetNumber an {@link #isOutstanding(long) outstanding} packet number
+     * @return whether that packet is ack-eliciting
+     */
+    public boolean isAckEliciting( long packetNumber ) {
+        return ( getFlags( packetNumber ) & ACK_ELICITING ) != 0;
+    }
+
+    /**
+     * @param packetNumber an {@link #isOutstanding(long) outstanding} packet number
+     * @return whether that packet counts towards bytes in flight
+     */
+    public boolean isInFlight( long packetNumber ) {
+        return ( getFlags( packetNumber ) & IN_FLIGHT ) != 0;
+    }
+
+    /**
+     * @param packetNumber an {@link #isOutstanding(long) outstanding} packet number
+     * @return the time the packet was sent at
+     */
+    public long getSentTime( long packetNumber ) {
+        return sentTimes[indexOf( packetNumber )];
+    }
+
+    /**
+     * @param packetNumber an {@link #isOutstanding(long) outstanding} packet number
+     * @return the size of that packet
+     */
+    public int getSentBytes( long packetNumber ) {
+        return sentBytes[indexOf( packetNumber )];
+    }
+
+    /**
+     * @param packetNumber an {@link #isOutstanding(long) outstanding} packet number
+     * @return the metadata attached to that packet, or null if none
+     */
+    public Object getAttachment( long packetNumber ) {
+        return attachments[indexOf( packetNumber )];
+    }
+
+    /**
+     * Attaches metadata of the sender to a packet, which is released once the packet is removed
+     *
+     * @param packetNumber an {@link #isOutstanding(long) outstanding} packet number
+     * @param attachment   the metadata, or null to remove it
+     */
+    public void setAttachment( long packetNumber, Object attachment ) {
+        attachments[indexOf( packetNumber )] = attachment;
+    }
+
+    /**
+     * Removes an outstanding packet because it was acknowledged or declared lost
+     *
+     * @param packetNumber an {@link #isOutstanding(long) outstanding} packet number
+     */
+    public void remove( long packetNumber ) {
+        int index = indexOf( packetNumber );
+        byte entryFlags = flags[index];
+        if ( ( entryFlags & ACK_ELICITING ) != 0 ) {
+            ackElicitingOutstanding--;
+        }
+        if ( ( entryFlags & IN_FLIGHT ) != 0 ) {
+            bytesInFlight -= sentBytes[index];
+        }
+        flags[index] = 0;
+        attachments[index] = null;
+        while ( size > 0 && flags[head] == 0 ) {
+            head = ( head + 1 ) & mask;
+            firstPacketNumber++;
+            size--;
+        }
+    }
+
+    /**
+     * Removes all packets, as done when the keys of the space are discarded.
+     * The largest sent packet number is retained.
+     */
+    public void clear() {
+        for ( int i = 0; i < size; i++ ) {
+            flags[( head + i ) & mask] = 0;
+            attachments[( head + i ) & mask] = null;
+        }
+        head = 0;
+        size = 0;
+        ackElicitingOutstanding = 0;
+        bytesInFlight = 0;
+    }
+
+    private byte getFlags( long packetNumber ) {
+        long offset = packetNumber - firstPacketNumber;
+        if ( offset < 0 || offset >= size ) {
+            return 0;
+        }
+        return flags[( head + (int)offset ) & mask];
+    }
+
+    private int indexOf( long packetNumber ) {
+        long offset = packetNumber - firstPacketNumber;
+        if ( offset < 0 || offset >= size ) {
+            throw new IllegalArgumentException( "Packet number " + packetNumber + " is not outstanding" );
+        }
+        return ( head + (int)offset ) & mask;
+    }
+
+    /**
+     * Grows the ring, unrolling it so that the head is at index 0
+     */
+    private void ensureCapacity( long requiredSize ) {
+        int capacity = mask + 1;
+        if ( requiredSize <= capacity ) {
+            return;
+        }
+        long newCapacity = capacity;
+        while ( newCapacity < requiredSize ) {
+            newCapacity <<= 1;
+        }
+        if ( newCapacity > ( 1 << 30 ) ) {
+            throw new IllegalStateException( "Too many outstanding packets" );
+        }
+        long[] newSentTimes = new long[(int)newCapacity];
+        int[] newSentBytes = new int[(int)newCapacity];
+        byte[] newFlags = new byte[(int)newCapacity];
+        Object[] newAttachments = new Object[(int)newCapacity];
+        for ( int i = 0; i < size; i++ ) {
+            int index = ( head + i ) & mask;
+            newSentTimes[i] = sentTimes[index];
+            newSentBytes[i] = sentBytes[index];
+            newFlags[i] = flags[index];
+            newAttachments[i] = attachments[index];
+        }
+        sentTimes = newSentTimes;
+        sentBytes = newSentBytes;
+        flags = newFlags;
+        attachments = newAttachments;
+        mask = (int)newCapacity - 1;
+        head = 0;
+    }
+}
@@ -8,6 +8,8 @@
 import static com.timtrense.quic.EndpointRole.CLIENT;
 import static com.timtrense.quic.EndpointRole.SERVER;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class StreamIdContextTest {
@@ -100,7 +102,8 @@ public void createNewId_requestedIdAfterNotificationOnNewUnidirectional_returnsU
         StreamId notifiedId = context.notifyAboutNewId( 0b001011 );
         StreamId nextUnidirectional = context.createNewUnidirectionalId();
 
-        assertEquals( 0b001110, nextUnidirectional.getLongValue() );
+        // local ids are counted per type, independently of the remotely opened ones
+        assertEquals( 0b000010, nextUnidirectional.getLongValue() );
     }
 
     @Test
@@ -111,8 +114,10 @@ public void createNewId_requestedIdAfter2NotificationOnNewUnidirectional_returns
         StreamId notifiedId = context.notifyAboutNewId( 0b001011 );
         StreamId notifiedId2 = context.notifyAboutNewId( 0b001111 );
         StreamId nextUnidirectional = context.createNewUnidirectionalId();
+        StreamId nextUnidirectional2 = context.createNewUnidirectionalId();
 
-        assertEquals( 0b010010, nextUnidirectional.getLongValue() );
+        assertEquals( 0b000010, nextUnidirectional.getLongValue() );
+        assertEquals( 0b000110, nextUnidirectional2.getLongValue() );
     }
 
     @Test
@@ -127,4 +132,47 @@ public void createNewId_notificationOnId_createsIdsInBetween() {
         assertEquals( 0b000111, context.getAllStreamIds().get( 1 ).getLongValue() );
         assertEquals( 0b001011, context.getAllStreamIds().get( 2 ).getLongValue() );
     }
+
+    @Test
+    public void notifyAboutNewId_alreadyOpenedId_returnsNull() {
+        StreamIdContext context = new StreamIdContextImpl( CLIENT );
+
+        context.notifyAboutNewId( 0b001011 );
+
+        assertNull( context.notifyAboutNewId( 0b000111 ) );
+        assertNull( context.notifyAboutNewId( 0b001011 ) );
+    }
+
+    @Test
+    public void notifyAboutNewId_hugeId_opensImplicitlyWithoutPerIdObjects() {
+        StreamIdContext context = new StreamIdContextImpl( SERVER );
+
+        context.createNewBidirectionalId();
+        context.notifyAboutNewId( 4_000_000L );
+
+        assertEquals( 1_000_002, context.getAllStreamIds().size() );
+        assertEquals( 0b000000, context.getAllStreamIds().get( 0 ).getLongValue() );
+        assertEquals( 0b000001, context.getAllStreamIds().get( 1 ).getLongValue() );
+        assertEquals( 0b000100, context.getAllStreamIds().get( 2 ).getLongValue() );
+        assertEquals( 4_000_000L, context.getAllStreamIds().get( 1_000_001 ).getLongValue() );
+        assertTrue( context.isOpen( 2_000_000L ) );
+        assertFalse( context.isOpen( 4_000_004L ) );
+    }
+
+    @Test
+    public void notifyClosed_outOfOrder_tracksOpenIds() {
+        StreamIdContextImpl context = new StreamIdContextImpl( CLIENT );
+        context.notifyAboutNewId( 0b001001 );
+        assertEquals( 3, context.getOpenCount() );
+
+        assertTrue( context.notifyClosed( 0b000101 ) );
+        assertFalse( context.isOpen( 0b000101 ) );
+        assertTrue( context.isOpen( 0b000001 ) );
+        assertFalse( context.notifyClosed( 0b000101 ) );
+
+        assertTrue( context.notifyClosed( 0b000001 ) );
+        assertTrue( context.notifyClosed( 0b001001 ) );
+        assertEquals( 0, context.getOpenCount() );
+        assertFalse( context.isOpen( 0b000001 ) );
+    }
 }
@@ -0,0 +1,209 @@
+package com.timtrense.quic.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.timtrense.quic.ConnectionId;
+import com.timtrense.quic.EndpointRole;
+import com.timtrense.quic.Frame;
+import com.timtrense.quic.FrameType;
+import com.timtrense.quic.PacketNumberSpace;
+import com.timtrense.quic.TransportErrorCode;
+import com.timtrense.quic.VariableLengthInteger;
+import com.timtrense.quic.impl.base.ConnectionIdImpl;
+import com.timtrense.quic.impl.base.StatelessResetTokenImpl;
+import com.timtrense.quic.impl.exception.QuicTransportException;
+import com.timtrense.quic.impl.frames.NewConnectionIdFrameImpl;
+import com.timtrense.quic.impl.frames.RetireConnectionIdFrameImpl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @see com.timtrense.quic.impl.ConnectionIdManager
+ */
+public class ConnectionIdManagerTest {
+
+    private static final ConnectionId INITIAL_LOCAL = new ConnectionIdImpl(
+            new byte[]{1, 1, 1, 1, 1, 1, 1, 1}, VariableLengthInteger.ZERO );
+    private static final ConnectionId INITIAL_REMOTE = new ConnectionIdImpl(
+            new byte[]{2, 2, 2, 2}, VariableLengthInteger.ZERO );
+
+    private Endpoint endpoint;
+    private ConnectionImpl connection;
+    private ConnectionIdManager manager;
+
+    @Before
+    public void setupServer() {
+        endpoint = new Endpoint( EndpointRole.SERVER );
+        connection = new ConnectionImpl( EndpointRole.SERVER );
+        manager = new ConnectionIdManager( endpoint, connection, 0 );
+        connection.setConnectionIdManager( manager );
+        manager.setInitialLocalConnectionId( INITIAL_LOCAL );
+        manager.setInitialRemoteConnectionId( INITIAL_REMOTE, null );
+    }
+
+    private <T extends Frame> List<T> pollFrames( Class<T> type ) {
+        List<T> frames = new ArrayList<>();
+        Frame frame;
+        while ( ( frame = connection.getPendingFrames( PacketNumberSpace.APPLICATION_DATA ).poll() ) != null ) {
+            if ( type.isInstance( frame ) ) {
+                frames.add( type.cast( frame ) );
+            }
+        }
+        return frames;
+    }
+
+    private static NewConnectionIdFrameImpl newConnectionId( long sequenceNumber, long retirePriorTo, int value ) {
+        NewConnectionIdFrameImpl frame = new NewConnectionIdFrameImpl( FrameType.NEW_CONNECTION_ID );
+        frame.setSequenceNumber( new VariableLengthInteger( sequenceNumber ) );
+        frame.setRetirePriorTo( new VariableLengthInteger( retirePriorTo ) );
+        frame.setLength( 4 );
+        frame.setConnectionId( new ConnectionIdImpl( new byte[]{3, 3, 3, (byte)value}, VariableLengthInteger.ZERO ) );
+        byte[] token = new byte[16];
+        token[0] = (byte)value;
+        frame.setStatelessResetToken( new StatelessResetTokenImpl( token ) );
+        return frame;
+    }
+
+    private static RetireConnectionIdFrameImpl retireConnectionId( long sequenceNumber ) {
+        RetireConnectionIdFrameImpl frame = new RetireConnectionIdFrameImpl( FrameType.RETIRE_CONNECTION_ID );
+        frame.setSequenceNumber( new VariableLengthInteger( sequenceNumber ) );
+        return frame;
+    }
+
+    @Test
+    public void setPeerActiveConnectionIdLimit_issuesUpToLimit() {
+        manager.setPeerActiveConnectionIdLimit( 4 );
+        List<NewConnectionIdFrameImpl> frames = pollFrames( NewConnectionIdFrameImpl.class );
+        assertEquals( 3, frames.size() );
+        assertEquals( 4, manager.getLocalConnectionIdCount() );
+        for ( NewConnectionIdFrameImpl frame : frames ) {
+            assertSame( connection, endpoint.findConnectionByLocalId( frame.getConnectionId() ) );
+            assertEquals( endpoint.getStatelessResetTokenGenerator().generate( frame.getConnectionId() ),
+                    frame.getStatelessResetToken() );
+        }
+        assertEquals( 4, endpoint.getConnections().size() );
+    }
+
+    @Test
+    public void onRetireConnectionIdReceived_unregistersAndReplaces() throws QuicTransportException {
+        manager.setPeerActiveConnectionIdLimit( 2 );
+        NewConnectionIdFrameImpl issued = pollFrames( NewConnectionIdFrameImpl.class ).get( 0 );
+
+        manager.onRetireConnectionIdReceived( retireConnectionId( 0 ), issued.getConnectionId() );
+        assertNull( endpoint.findConnectionByLocalId( INITIAL_LOCAL ) );
+        assertEquals( issued.getConnectionId(), connection.getLocalConnectionId() );
+        assertEquals( 1, pollFrames( NewConnectionIdFrameImpl.class ).size() );
+        assertEquals( 2, endpoint.getConnections().size() );
+
+        try {
+            manager.onRetireConnectionIdReceived( retireConnectionId( 1 ), issued.getConnectionId() );
+            fail();
+        }
+        catch ( QuicTransportException e ) {
+            assertEquals( TransportErrorCode.PROTOCOL_VIOLATION, e.getErrorCode() );
+        }
+        try {
+            manager.onRetireConnectionIdReceived( retireConnectionId( 9 ), INITIAL_LOCAL );
+            fail();
+        }
+        catch ( QuicTransportException e ) {
+            assertEquals( TransportErrorCode.PROTOCOL_VIOLATION, e.getErrorCode() );
+        }
+    }
+
+    @Test
+    public void onNewConnectionIdReceived_retirePriorTo_retiresOlderIds() throws QuicTransportException {
+        manager.onNewConnectionIdReceived( newConnectionId( 1, 0, 1 ) );
+        assertEquals( 2, connection.getRemoteConnectionIds().size() );
+        assertEquals( 1, endpoint.getStatelessResetTokenIndex().size() );
+
+        manager.onNewConnectionIdReceived( newConnectionId( 2, 2, 2 ) );
+        List<RetireConnectionIdFrameImpl> retired = pollFrames( RetireConnectionIdFrameImpl.class );
+        assertEquals( 2, retired.size() );
+        assertEquals( 0, retired.get( 0 ).getSequenceNumber().longValue() );
+        assertEquals( 1, retired.get( 1 ).getSequenceNumber().longValue() );
+        assertEquals( 2, manager.getCurrentRemoteSequenceNumber() );
+        assertEquals( newConnectionId( 2, 2, 2 ).getConnectionId(), connection.getRemoteConnectionId() );
+        assertEquals( 1, connection.getRemoteConnectionIds().size() );
+        assertEquals( 1, endpoint.getStatelessResetTokenIndex().size() );
+
+        // arriving after its retirement was requested
+        manager.onNewConnectionIdReceived( newConnectionId( 1, 0, 1 ) );
+        assertEquals( 1, pollFrames( RetireConnectionIdFrameImpl.class ).size() );
+        assertEquals( 1, manager.getRemoteConnectionIdCount() );
+    }
+
+    @Test
+    public void onNewConnectionIdReceived_exceedingLimit_throws() throws QuicTransportException {
+        // the default active_connection_id_limit is 2
+        manager.onNewConnectionIdReceived( newConnectionId( 1, 0, 1 ) );
+        try {
+            manager.onNewConnectionIdReceived( newConnectionId( 2, 0, 2 ) );
+            fail();
+        }
+        catch ( QuicTransportException e ) {
+            assertEquals( TransportErrorCode.CONNECTION_ID_LIMIT_ERROR, e.getErrorCode() );
+        }
+        try {
+            manager.onNewConnectionIdReceived( newConnectionId( 3, 4, 3 ) );
+            fail();
+        }
+        catch ( QuicTransportException e ) {
+            assertEquals( TransportErrorCode.FRAME_ENCODING_ERROR, e.getErrorCode() );
+        }
+    }
+
+    @Test
+    public void rotateRemoteConnectionId_switchesToSpareId() throws QuicTransportException {
+        assertFalse( manager.rotateRemoteConnectionId() );
+        manager.onNewConnectionIdReceived( newConnectionId( 1, 0, 1 ) );
+        assertTrue( manager.rotateRemoteConnectionId() );
+        assertEquals( 1, manager.getCurrentRemoteSequenceNumber() );
+        RetireConnectionIdFrameImpl retired = pollFrames( RetireConnectionIdFrameImpl.class ).get( 0 );
+        assertEquals( 0, retired.getSequenceNumber().longValue() );
+    }
+
+    @Test
+    public void rotateLocalConnectionIds_issuesReplacementsRetiringOldOnes() {
+        manager.setPeerActiveConnectionIdLimit( 2 );
+        pollFrames( NewConnectionIdFrameImpl.class );
+        assertTrue( manager.rotateLocalConnectionIds() );
+        List<NewConnectionIdFrameImpl> frames = pollFrames( NewConnectionIdFrameImpl.class );
+        assertEquals( 2, frames.size() );
+        for ( NewConnectionIdFrameImpl frame : frames ) {
+            assertEquals( 2, frame.getRetirePriorTo().longValue() );
+            assertNotNull( endpoint.findConnectionByLocalId( frame.getConnectionId() ) );
+        }
+        // old ones stay valid until the peer retires them
+        assertNotNull( endpoint.findConnectionByLocalId( INITIAL_LOCAL ) );
+    }
+
+    @Test
+    public void rotateLocalConnectionIds_retirementsPending_isRefused() throws QuicTransportException {
+        manager.setPeerActiveConnectionIdLimit( 2 );
+        pollFrames( NewConnectionIdFrameImpl.class );
+        assertTrue( manager.rotateLocalConnectionIds() );
+        List<NewConnectionIdFrameImpl> rotated = pollFrames( NewConnectionIdFrameImpl.class );
+        int registered = endpoint.getConnections().size();
+
+        // the peer ignores the Retire Prior To field
+        assertFalse( manager.rotateLocalConnectionIds() );
+        assertTrue( pollFrames( NewConnectionIdFrameImpl.class ).isEmpty() );
+        assertEquals( registered, endpoint.getConnections().size() );
+
+        ConnectionId current = rotated.get( 0 ).getConnectionId();
+        manager.onRetireConnectionIdReceived( retireConnectionId( 0 ), current );
+        manager.onRetireConnectionIdReceived( retireConnectionId( 1 ), current );
+        assertTrue( manager.rotateLocalConnectionIds() );
+    }
+}
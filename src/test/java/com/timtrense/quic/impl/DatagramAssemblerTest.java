@@ -0,0 +1,176 @@
+package com.timtrense.quic.impl;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.timtrense.quic.ConnectionId;
+import com.timtrense.quic.EncryptionLevel;
+import com.timtrense.quic.EndpointRole;
+import com.timtrense.quic.Frame;
+import com.timtrense.quic.FrameType;
+import com.timtrense.quic.PacketNumberSpace;
+import com.timtrense.quic.ProtocolVersion;
+import com.timtrense.quic.VariableLengthInteger;
+import com.timtrense.quic.impl.base.ConnectionIdImpl;
+import com.timtrense.quic.impl.base.InitialPacketProtectionImpl;
+import com.timtrense.quic.impl.base.ReceivedPacketTracker;
+import com.timtrense.quic.impl.frames.AckFrameImpl;
+import com.timtrense.quic.impl.frames.CryptoFrameImpl;
+import com.timtrense.quic.impl.frames.PingFrameImpl;
+import com.timtrense.quic.impl.packets.InitialPacketImpl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @see com.timtrense.quic.impl.DatagramAssembler
+ */
+public class DatagramAssemblerTest {
+
+    private ConnectionImpl connection;
+    private DatagramAssembler assembler;
+
+    @Before
+    public void setupClientConnection() throws Exception {
+        ConnectionId destination = new ConnectionIdImpl(
+                new byte[]{(byte)0x83, (byte)0x94, (byte)0xc8, (byte)0xf0, 0x3e, 0x51, 0x57, 0x08},
+                VariableLengthInteger.ZERO );
+        connection = new ConnectionImpl( EndpointRole.CLIENT );
+        connection.setRemoteConnectionId( destination );
+        connection.setLocalConnectionId( new ConnectionIdImpl( new byte[]{1, 2, 3, 4}, VariableLengthInteger.ZERO ) );
+
+        InitialPacketProtectionImpl protection = new InitialPacketProtectionImpl( EndpointRole.CLIENT );
+        protection.initialize( destination, ProtocolVersion.ONE );
+        connection.setPacketProtection( EncryptionLevel.INITIAL, protection );
+
+        assembler = new DatagramAssembler( new EndpointConfiguration() );
+    }
+
+    private static CryptoFrameImpl cryptoFrame( byte[] data ) {
+        CryptoFrameImpl frame = new CryptoFrameImpl( FrameType.CRYPTO );
+        frame.setOffset( VariableLengthInteger.ZERO );
+        frame.setLength( new VariableLengthInteger( data.length ) );
+        frame.setCryptoData( data );
+        return frame;
+    }
+
+    @Test
+    public void assemble_nothingQueued_returnsNull() throws Exception {
+        assertNull( assembler.assemble( connection, System.nanoTime() ) );
+    }
+
+    @Test
+    public void assemble_unvalidatedServer_staysWithinAmplificationLimit() throws Exception {
+        ConnectionId destination = new ConnectionIdImpl( new byte[]{5, 6, 7, 8}, VariableLengthInteger.ZERO );
+        ConnectionImpl server = new ConnectionImpl( EndpointRole.SERVER );
+        server.setRemoteConnectionId( destination );
+        server.setLocalConnectionId( new ConnectionIdImpl( new byte[]{1, 2, 3, 4}, VariableLengthInteger.ZERO ) );
+        InitialPacketProtectionImpl protection = new InitialPacketProtectionImpl( EndpointRole.SERVER );
+        protection.initialize( server.getLocalConnectionId(), ProtocolVersion.ONE );
+        server.setPacketProtection( EncryptionLevel.INITIAL, protection );
+        server.queueFrame( PacketNumberSpace.INITIAL, cryptoFrame( new byte[]{0x01, 0x02, 0x03} ) );
+
+        // nothing received from the client yet
+        assertNull( assembler.assemble( server, System.nanoTime() ) );
+
+        server.onDatagramReceived( new InetSocketAddress( "192.0.2.1", 4433 ), 1200, System.nanoTime() );
+        OutgoingDatagram datagram = assembler.assemble( server, System.nanoTime() );
+        assertNotNull( datagram );
+        int sent = datagram.getBuffer().remaining();
+        assertTrue( sent >= DatagramAssembler.MIN_INITIAL_DATAGRAM_SIZE );
+        assertEquals( sent, server.getAmplificationLimit().getBytesSent() );
+        assertEquals( 3 * 1200 - sent, server.getAmplificationLimit().getAllowance() );
+    }
+
+    @Test
+    public void assemble_clientInitial_isPaddedAndParsableByServer() throws Exception {
+        byte[] cryptoData = new byte[]{0x01, 0x02, 0x03, 0x04, 0x05};
+        connection.queueFrame( PacketNumberSpace.INITIAL, cryptoFrame( cryptoData ) );
+
+        OutgoingDatagram datagram = assembler.assemble( connection, System.nanoTime() );
+        assertNotNull( datagram );
+        ByteBuffer data = datagram.getBuffer();
+        assertTrue( data.remaining() >= DatagramAssembler.MIN_INITIAL_DATAGRAM_SIZE );
+        assertEquals( 1, connection.getNextPacketNumber( PacketNumberSpace.INITIAL ) );
+
+        PacketParser parser = new PacketParserImpl( new Endpoint( EndpointRole.SERVER ) );
+        InitialPacketImpl packet = (InitialPacketImpl)parser.parsePacket( null, data, 0 );
+        assertEquals( 0, packet.getPacketNumber().getValue() );
+        Frame first = packet.getPayload().get( 0 );
+        assertEquals( FrameType.CRYPTO, first.getType() );
+        assertArrayEquals( cryptoData, ( (CryptoFrameImpl)first ).getCryptoData() );
+        assertEquals( 0, data.remaining() );
+    }
+
+    @Test
+    public void assemble_initialAndHandshakePending_coalescesIntoOneDatagram() throws Exception {
+        InitialPacketProtectionImpl handshakeProtection = new InitialPacketProtectionImpl( EndpointRole.CLIENT );
+        handshakeProtection.initialize( connection.getRemoteConnectionId(), ProtocolVersion.ONE );
+        connection.setPacketProtection( EncryptionLevel.HANDSHAKE, handshakeProtection );
+        connection.queueFrame( PacketNumberSpace.INITIAL, cryptoFrame( new byte[]{0x01} ) );
+        connection.queueFrame( PacketNumberSpace.HANDSHAKE, new PingFrameImpl() );
+
+        OutgoingDatagram datagram = assembler.assemble( connection, System.nanoTime() );
+        assertNotNull( datagram );
+        ByteBuffer data = datagram.getBuffer();
+        assertTrue( data.remaining() >= DatagramAssembler.MIN_INITIAL_DATAGRAM_SIZE );
+
+        PacketParser parser = new PacketParserImpl( new Endpoint( EndpointRole.SERVER ) );
+        parser.parsePacket( null, data, 0 );
+        assertTrue( data.hasRemaining() );
+        // long header, fixed bit and packet type HANDSHAKE are not subject to header protection
+        assertEquals( 0xe0, data.get( data.position() ) & 0xf0 );
+        assertNull( assembler.assemble( connection, System.nanoTime() ) );
+    }
+
+    @Test
+    public void assemble_singleApplicationPacketReceived_delaysAckUntilDelayElapsed() throws Exception {
+        InitialPacketProtectionImpl applicationProtection = new InitialPacketProtectionImpl( EndpointRole.CLIENT );
+        applicationProtection.initialize( connection.getRemoteConnectionId(), ProtocolVersion.ONE );
+        connection.setPacketProtection( EncryptionLevel.APPLICATION_DATA, applicationProtection );
+        long now = System.nanoTime();
+        connection.onPacketReceived( PacketNumberSpace.APPLICATION_DATA, 0, true, now );
+
+        assertNull( assembler.assemble( connection, now ) );
+
+        connection.getReceivedPacketTracker( PacketNumberSpace.APPLICATION_DATA ).onAckDelayElapsed();
+        assertNotNull( assembler.assemble( connection, now ) );
+        assertFalse( connection.getReceivedPacketTracker( PacketNumberSpace.APPLICATION_DATA ).isAckPending() );
+    }
+
+    @Test
+    public void onProbeTimeout_givenAssembler_queuesTwoProbeDatagrams() {
+        connection.setDatagramAssembler( assembler );
+
+        connection.onProbeTimeout( PacketNumberSpace.INITIAL, System.nanoTime() );
+
+        assertEquals( ConnectionImpl.MAX_PROBE_PACKETS, assembler.getSendQueue().size() );
+        assertEquals( 0, connection.getProbePacketsPending() );
+        assertTrue( connection.getPendingFrames( PacketNumberSpace.INITIAL ).isEmpty() );
+    }
+
+    @Test
+    public void onAckFrameReceived_acknowledgingSentAckFrame_stopsTrackingPacketsBelowIt() throws Exception {
+        long now = System.nanoTime();
+        for ( long packetNumber : new long[]{0, 1, 2, 5} ) {
+            connection.onPacketReceived( PacketNumberSpace.INITIAL, packetNumber, true, now );
+        }
+        assertNotNull( assembler.assemble( connection, now ) );
+        AckFrameImpl ack = new AckFrameImpl( FrameType.ACK );
+        ack.getAcknowledgedRanges().add( 0 );
+
+        connection.onAckFrameReceived( PacketNumberSpace.INITIAL, ack, now + 1000 );
+
+        ReceivedPacketTracker tracker = connection.getReceivedPacketTracker( PacketNumberSpace.INITIAL );
+        assertEquals( 5, tracker.getReceivedPacketNumbers().getSmallest() );
+        // reordered packets below the confirmed ACK frame are dropped
+        assertFalse( connection.onPacketReceived( PacketNumberSpace.INITIAL, 3, true, now + 2000 ) );
+    }
+}
@@ -0,0 +1,86 @@
+package com.timtrense.quic.impl;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @see com.timtrense.quic.impl.DatagramBatch
+ */
+public class DatagramBatchTest {
+
+    private static final SocketAddress PEER_A = new InetSocketAddress( "127.0.0.1", 4433 );
+    private static final SocketAddress PEER_B = new InetSocketAddress( "127.0.0.1", 4434 );
+
+    private static OutgoingDatagram datagram( SocketAddress destination, int length, int fill ) {
+        OutgoingDatagram datagram = new OutgoingDatagram( 100 );
+        for ( int i = 0; i < length; i++ ) {
+            datagram.getBuffer().put( (byte)fill );
+        }
+        datagram.getBuffer().flip();
+        datagram.setDestination( destination );
+        return datagram;
+    }
+
+    @Test
+    public void append_equalSizes_laidOutContiguously() {
+        DatagramBatch batch = new DatagramBatch( 4, 100 );
+        assertTrue( batch.append( datagram( PEER_A, 50, 1 ) ) );
+        assertTrue( batch.append( datagram( PEER_A, 50, 2 ) ) );
+        assertTrue( batch.append( datagram( PEER_A, 20, 3 ) ) );
+
+        assertEquals( 3, batch.getSegmentCount() );
+        assertEquals( 50, batch.getSegmentSize() );
+        assertEquals( 120, batch.getLength() );
+        assertEquals( 1, batch.getBuffer().get( 49 ) );
+        assertEquals( 2, batch.getBuffer().get( 50 ) );
+        assertEquals( 3, batch.getBuffer().get( 119 ) );
+    }
+
+    @Test
+    public void append_notFittingLayout_rejected() {
+        DatagramBatch batch = new DatagramBatch( 2, 100 );
+        assertTrue( batch.append( datagram( PEER_A, 50, 1 ) ) );
+        assertFalse( "other destination", batch.append( datagram( PEER_B, 50, 1 ) ) );
+        assertFalse( "larger than segment", batch.append( datagram( PEER_A, 60, 1 ) ) );
+        assertTrue( batch.append( datagram( PEER_A, 50, 1 ) ) );
+        assertFalse( "full", batch.append( datagram( PEER_A, 50, 1 ) ) );
+
+        batch.clear();
+        assertTrue( batch.isEmpty() );
+        assertTrue( batch.append( datagram( PEER_B, 10, 1 ) ) );
+        assertEquals( PEER_B, batch.getDestination() );
+    }
+
+    @Test
+    public void append_afterShortSegment_rejected() {
+        DatagramBatch batch = new DatagramBatch( 4, 100 );
+        assertTrue( batch.append( datagram( PEER_A, 50, 1 ) ) );
+        assertTrue( batch.append( datagram( PEER_A, 30, 1 ) ) );
+        assertFalse( batch.append( datagram( PEER_A, 30, 1 ) ) );
+        assertEquals( 80, batch.getLength() );
+    }
+
+    @Test
+    public void removeFirstSegments_partiallySentBatch_movesRemainingToFront() {
+        DatagramBatch batch = new DatagramBatch( 4, 100 );
+        assertTrue( batch.append( datagram( PEER_A, 50, 1 ) ) );
+        assertTrue( batch.append( datagram( PEER_A, 50, 2 ) ) );
+        assertTrue( batch.append( datagram( PEER_A, 20, 3 ) ) );
+
+        batch.removeFirstSegments( 1 );
+
+        assertEquals( 2, batch.getSegmentCount() );
+        assertEquals( 70, batch.getLength() );
+        assertEquals( 2, batch.getBuffer().get( 0 ) );
+        assertEquals( 3, batch.getBuffer().get( 69 ) );
+        assertFalse( "after short segment", batch.append( datagram( PEER_A, 10, 4 ) ) );
+        batch.removeFirstSegments( 2 );
+        assertTrue( batch.isEmpty() );
+    }
+}
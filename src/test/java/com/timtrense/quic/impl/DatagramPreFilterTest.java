@@ -0,0 +1,174 @@
+package com.timtrense.quic.impl;
+
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.timtrense.quic.EndpointRole;
+import com.timtrense.quic.ProtocolVersion;
+import com.timtrense.quic.StatelessResetToken;
+import com.timtrense.quic.VariableLengthInteger;
+import com.timtrense.quic.impl.base.ConnectionIdImpl;
+import com.timtrense.quic.impl.base.QuicLbConnectionIdGenerator;
+import com.timtrense.quic.impl.base.QuicLbMode;
+import com.timtrense.quic.impl.base.StatelessResetTokenImpl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @see com.timtrense.quic.impl.DatagramPreFilter
+ */
+public class DatagramPreFilterTest {
+
+    private static final InetSocketAddress CLIENT = new InetSocketAddress( "192.0.2.1", 4433 );
+    private static final byte[] DCID = {1, 2, 3, 4, 5, 6, 7, 8};
+    private static final byte[] SCID = {9, 10, 11};
+
+    private Endpoint endpoint;
+    private DatagramPreFilter filter;
+
+    @Before
+    public void setupServer() {
+        endpoint = new Endpoint( EndpointRole.SERVER );
+        endpoint.setDatagramAssembler( new DatagramAssembler( endpoint.getConfiguration() ) );
+        filter = new DatagramPreFilter( endpoint );
+    }
+
+    private static DatagramPacket longHeader( int flags, int version, byte[] dcid, byte[] scid, int length ) {
+        // the datagram may be shorter than the header it announces
+        ByteBuffer buffer = ByteBuffer.allocate( Math.max( length, 64 ) );
+        buffer.put( (byte)flags ).putInt( version );
+        buffer.put( (byte)dcid.length ).put( dcid );
+        buffer.put( (byte)scid.length ).put( scid );
+        DatagramPacket datagram = new DatagramPacket( buffer.array(), length );
+        datagram.setSocketAddress( CLIENT );
+        return datagram;
+    }
+
+    @Test
+    public void accept_initialOfSupportedVersion_givesTrue() {
+        assertTrue( filter.accept( longHeader( 0xC0, ProtocolVersion.ONE.getValue(), DCID, SCID, 1200 ) ) );
+    }
+
+    @Test
+    public void accept_smallInitialOrShortDestination_givesFalse() {
+        assertFalse( filter.accept( longHeader( 0xC0, ProtocolVersion.ONE.getValue(), DCID, SCID, 1199 ) ) );
+        assertFalse( filter.accept( longHeader( 0xC0, ProtocolVersion.ONE.getValue(), SCID, SCID, 1200 ) ) );
+        assertEquals( 2, filter.getDroppedDatagrams() );
+    }
+
+    @Test
+    public void accept_truncatedHeader_givesFalse() {
+        assertFalse( filter.accept( longHeader( 0xC0, ProtocolVersion.ONE.getValue(), DCID, SCID, 10 ) ) );
+        assertFalse( filter.accept( new DatagramPacket( new byte[0], 0 ) ) );
+    }
+
+    @Test
+    public void accept_unsupportedVersion_sendsVersionNegotiation() {
+        assertFalse( filter.accept( longHeader( 0xC0, 0x1a2a3a4a, DCID, SCID, 1200 ) ) );
+        assertEquals( 1, filter.getVersionNegotiationPackets() );
+
+        OutgoingDatagram response = endpoint.getDatagramAssembler().getSendQueue().poll();
+        assertNotNull( response );
+        assertEquals( CLIENT, response.getDestination() );
+        ByteBuffer data = response.getBuffer();
+        assertEquals( 0x80, data.get() & 0x80 );
+        assertEquals( 0, data.getInt() );
+        byte[] dcid = new byte[data.get()];
+        data.get( dcid );
+        byte[] scid = new byte[data.get()];
+        data.get( scid );
+        assertEquals( ByteBuffer.wrap( SCID ), ByteBuffer.wrap( dcid ) );
+        assertEquals( ByteBuffer.wrap( DCID ), ByteBuffer.wrap( scid ) );
+        assertEquals( ProtocolVersion.ONE.getValue(), data.getInt() );
+        assertFalse( data.hasRemaining() );
+    }
+
+    @Test
+    public void accept_unsupportedVersionInSmallDatagram_sendsNothing() {
+        assertFalse( filter.accept( longHeader( 0xC0, 0x1a2a3a4a, DCID, SCID, 100 ) ) );
+        assertEquals( 0, filter.getVersionNegotiationPackets() );
+    }
+
+    @Test
+    public void accept_shortHeader_dependsOnKnownConnectionId() {
+        byte[] data = new byte[40];
+        data[0] = 0x40;
+        System.arraycopy( DCID, 0, data, 1, DCID.length );
+        DatagramPacket datagram = new DatagramPacket( data, data.length );
+        assertFalse( filter.accept( datagram ) );
+
+        endpoint.addConnection( new ConnectionIdImpl( DCID, VariableLengthInteger.ZERO ),
+                new ConnectionImpl( EndpointRole.SERVER ) );
+        assertTrue( filter.accept( datagram ) );
+    }
+
+    @Test
+    public void accept_shortHeaderOfUnknownConnection_sendsStatelessReset() {
+        byte[] data = new byte[100];
+        data[0] = 0x40;
+        System.arraycopy( DCID, 0, data, 1, DCID.length );
+        DatagramPacket datagram = new DatagramPacket( data, data.length );
+        datagram.setSocketAddress( CLIENT );
+        assertFalse( filter.accept( datagram ) );
+
+        OutgoingDatagram response = endpoint.getDatagramAssembler().getSendQueue().poll();
+        assertNotNull( response );
+        ByteBuffer reset = response.getBuffer();
+        assertEquals( Endpoint.MAX_STATELESS_RESET_LENGTH, reset.remaining() );
+        assertEquals( 0x40, reset.get( 0 ) & 0xC0 );
+        byte[] token = new byte[16];
+        reset.position( reset.limit() - token.length );
+        reset.get( token );
+        assertEquals( ByteBuffer.wrap( endpoint.getStatelessResetTokenGenerator().generate( DCID, 0, DCID.length ) ),
+                ByteBuffer.wrap( token ) );
+    }
+
+    @Test
+    public void accept_statelessResetOfPeer_discardsConnection() {
+        ConnectionImpl connection = new ConnectionImpl( EndpointRole.SERVER );
+        ConnectionIdImpl connectionId = new ConnectionIdImpl( DCID, VariableLengthInteger.ZERO );
+        endpoint.addConnection( connectionId, connection );
+        StatelessResetToken token = new StatelessResetTokenImpl( new byte[]{
+                1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16} );
+        endpoint.getStatelessResetTokenIndex().add( token, connection );
+
+        byte[] data = new byte[30];
+        data[0] = 0x55;
+        System.arraycopy( token.getValue(), 0, data, data.length - 16, 16 );
+        DatagramPacket datagram = new DatagramPacket( data, data.length );
+        datagram.setSocketAddress( CLIENT );
+        assertFalse( filter.accept( datagram ) );
+
+        assertTrue( connection.isClosedSilently() );
+        assertFalse( endpoint.getConnectionIdFilter().mightContain( DCID ) );
+        assertEquals( 0, endpoint.getStatelessResetTokenIndex().size() );
+        // a stateless reset is never answered with another
+        assertEquals( 0, endpoint.getDatagramAssembler().getSendQueue().size() );
+    }
+
+    @Test
+    public void findShardId_routableConnectionId_givesShard() {
+        endpoint.getConfiguration().setConnectionIdGenerator( new QuicLbConnectionIdGenerator(
+                QuicLbMode.PLAINTEXT, 0, new byte[]{1, 2}, 4, null, new Random( 1 ) ) );
+        byte[] connectionId = endpoint.createUnusedConnectionId( 5 );
+        assertEquals( 8, endpoint.getLocalConnectionIdLength() );
+
+        byte[] shortHeader = new byte[30];
+        shortHeader[0] = 0x40;
+        System.arraycopy( connectionId, 0, shortHeader, 1, connectionId.length );
+        assertEquals( 5, endpoint.findShardId( shortHeader, 0, shortHeader.length ) );
+
+        DatagramPacket longHeader = longHeader( 0xE0, ProtocolVersion.ONE.getValue(), connectionId, SCID, 1200 );
+        assertEquals( 5, endpoint.findShardId( longHeader.getData(), 0, longHeader.getLength() ) );
+        DatagramPacket initial = longHeader( 0xC0, ProtocolVersion.ONE.getValue(), DCID, SCID, 1200 );
+        assertEquals( -1, endpoint.findShardId( initial.getData(), 0, initial.getLength() ) );
+    }
+}
@@ -0,0 +1,364 @@
+package com.timtrense.quic.impl;
+
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import com.timtrense.quic.EndpointRole;
+import com.timtrense.quic.FrameType;
+import com.timtrense.quic.Packet;
+import com.timtrense.quic.PacketNumberSpace;
+import com.timtrense.quic.ProtocolVersion;
+import com.timtrense.quic.VariableLengthInteger;
+import com.timtrense.quic.impl.base.ConnectionIdImpl;
+import com.timtrense.quic.impl.base.PacketNumberImpl;
+import com.timtrense.quic.impl.base.QuicLbConnectionIdGenerator;
+import com.timtrense.quic.impl.base.QuicLbMode;
+import com.timtrense.quic.impl.frames.AckFrameImpl;
+import com.timtrense.quic.impl.frames.PingFrameImpl;
+import com.timtrense.quic.impl.packets.InitialPacketImpl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @see Endpoint
+ */
+public class EndpointTest {
+
+    private static final InetSocketAddress CLIENT = new InetSocketAddress( "192.0.2.1", 4433 );
+    private static final ConnectionIdImpl DCID = new ConnectionIdImpl(
+            new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, VariableLengthInteger.ZERO );
+    private static final ConnectionIdImpl SCID = new ConnectionIdImpl(
+            new byte[]{9, 10, 11}, VariableLengthInteger.ZERO );
+
+    private static ReceivedDatagram initialDatagram( int shardId ) {
+        DatagramPacket packet = new DatagramPacket( new byte[1200], 1200 );
+        packet.setSocketAddress( CLIENT );
+        ReceivedDatagram datagram = new ReceivedDatagram( packet, Instant.now() );
+        datagram.setShardId( shardId );
+        return datagram;
+    }
+
+    /**
+     * counts down once any datagram was handed over for sending
+     */
+    private static class CountingTransport implements DatagramTransport {
+
+        private final CountDownLatch sent = new CountDownLatch( 1 );
+
+        @Override
+        public int send( DatagramBatch batch ) {
+            sent.countDown();
+            return batch.getSegmentCount();
+        }
+
+        @Override
+        public boolean send( OutgoingDatagram datagram ) {
+            sent.countDown();
+            return true;
+        }
+    }
+
+    private static InitialPacketImpl initialPacket( ConnectionIdImpl destinationConnectionId, byte[] token ) {
+        InitialPacketImpl packet = new InitialPacketImpl();
+        packet.setVersion( ProtocolVersion.ONE );
+        packet.setDestinationConnectionId( destinationConnectionId );
+        packet.setSourceConnectionId( SCID );
+        packet.setToken( token );
+        return packet;
+    }
+
+    private static InitialPacketImpl numberedInitialPacket( long packetNumber ) {
+        InitialPacketImpl packet = initialPacket( DCID, new byte[0] );
+        packet.setPacketNumber( new PacketNumberImpl( packetNumber ) );
+        packet.setPayload( List.of( new PingFrameImpl() ) );
+        return packet;
+    }
+
+    /**
+     * @return a server whose application demands any number of connections
+     */
+    private static Endpoint createServer() {
+        Endpoint endpoint = new Endpoint( EndpointRole.SERVER );
+        endpoint.getConnectionPublisher().subscribe( new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe( Flow.Subscription subscription ) {
+                subscription.request( Long.MAX_VALUE );
+            }
+
+            @Override
+            public void onNext( Connection item ) {
+            }
+
+            @Override
+            public void onError( Throwable throwable ) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        } );
+        return endpoint;
+    }
+
+    private static Endpoint createRetryingServer() {
+        Endpoint endpoint = createServer();
+        EndpointConfiguration configuration = new EndpointConfiguration();
+        configuration.setRetryMode( RetryMode.ALWAYS );
+        configuration.setConnectionIdGenerator( new QuicLbConnectionIdGenerator(
+                QuicLbMode.PLAINTEXT, 0, new byte[]{1, 2}, 4, null, new Random( 1 ) ) );
+        endpoint.setConfiguration( configuration );
+        endpoint.setDatagramAssembler( new DatagramAssembler( configuration ) );
+        return endpoint;
+    }
+
+    @Test
+    public void setConfiguration_givenRetryMode_rebuildsFloodGuard() {
+        Endpoint endpoint = createServer();
+        EndpointConfiguration configuration = new EndpointConfiguration();
+        configuration.setRetryMode( RetryMode.ALWAYS );
+
+        endpoint.setConfiguration( configuration );
+
+        assertEquals( RetryMode.ALWAYS, endpoint.getInitialFloodGuard().getMode() );
+    }
+
+    @Test
+    public void applyConfiguration_givenConnections_isRefused() {
+        Endpoint endpoint = new Endpoint( EndpointRole.SERVER );
+        endpoint.addConnection( new ConnectionIdImpl( new byte[]{1, 2, 3, 4}, VariableLengthInteger.ZERO ),
+                new ConnectionImpl( EndpointRole.SERVER ) );
+
+        try {
+            endpoint.applyConfiguration();
+            fail( "the components of an endpoint with connections must not be replaced" );
+        }
+        catch ( IllegalStateException e ) {
+            assertEquals( 1, endpoint.getConnections().size() );
+        }
+    }
+
+    @Test
+    public void isInitialPacketAdmitted_retryRequired_issuesRetryConnectionIdOfProcessingShard() {
+        Endpoint endpoint = createRetryingServer();
+
+        assertFalse( endpoint.isInitialPacketAdmitted( initialDatagram( 5 ), ProtocolVersion.ONE, DCID, SCID,
+                new byte[0] ) );
+
+        OutgoingDatagram retry = endpoint.getDatagramAssembler().getSendQueue().poll();
+        assertNotNull( retry );
+        ByteBuffer buffer = retry.getBuffer();
+        // flags, version, DCID length, DCID of the client, SCID length, Retry SCID
+        int retryConnectionIdOffset = 1 + 4 + 1 + SCID.getValue().length + 1;
+        assertEquals( endpoint.getLocalConnectionIdLength(), buffer.get( retryConnectionIdOffset - 1 ) );
+        assertEquals( 5, endpoint.getConfiguration().getConnectionIdGenerator().decodeShardId(
+                buffer.array(), retryConnectionIdOffset, endpoint.getLocalConnectionIdLength() ) );
+    }
+
+    @Test
+    public void isInitialPacketAdmitted_datagramBelowMinimumSize_dropsWithoutRetry() {
+        Endpoint endpoint = createRetryingServer();
+        ReceivedDatagram datagram = initialDatagram( 0 );
+        datagram.getDatagram().setLength( DatagramAssembler.MIN_INITIAL_DATAGRAM_SIZE - 1 );
+
+        assertFalse( endpoint.isInitialPacketAdmitted( datagram, ProtocolVersion.ONE, DCID, SCID, new byte[0] ) );
+
+        assertTrue( endpoint.getDatagramAssembler().getSendQueue().isEmpty() );
+    }
+
+    @Test
+    public void isInitialPacketAdmitted_retryRequiredWithoutAssembler_admitsPacket() {
+        Endpoint endpoint = createServer();
+        endpoint.getConfiguration().setRetryMode( RetryMode.ALWAYS );
+        endpoint.applyConfiguration();
+
+        assertTrue( endpoint.isInitialPacketAdmitted( initialDatagram( 0 ), ProtocolVersion.ONE, DCID, SCID,
+                new byte[0] ) );
+    }
+
+    @Test
+    public void onInitialPacketDecrypted_retryNotRequired_acceptsHalfOpenConnection() {
+        Endpoint endpoint = createServer();
+        endpoint.getConfiguration().setRetryMode( RetryMode.NEVER );
+        endpoint.applyConfiguration();
+
+        assertTrue( endpoint.isInitialPacketAdmitted( initialDatagram( 0 ), ProtocolVersion.ONE, DCID, SCID,
+                new byte[0] ) );
+        // nothing is created for a packet that is not yet authenticated
+        assertNull( endpoint.findConnectionByLocalId( DCID ) );
+        assertEquals( 0, endpoint.getInitialFloodGuard().getHalfOpenConnections() );
+        InitialPacketImpl first = initialPacket( DCID, new byte[0] );
+        assertTrue( endpoint.onInitialPacketDecrypted( initialDatagram( 0 ), first ) );
+        assertTrue( first.isOpeningConnection() );
+
+        ConnectionImpl connection = (ConnectionImpl)endpoint.findConnectionByLocalId( DCID );
+        assertNotNull( connection );
+        assertSame( connection, endpoint.findConnectionByLocalId( connection.getLocalConnectionId() ) );
+        assertEquals( SCID, connection.getRemoteConnectionId() );
+        assertEquals( 1, endpoint.getInitialFloodGuard().getHalfOpenConnections() );
+        // further Initial packets of the client belong to the accepted connection
+        assertTrue( endpoint.isInitialPacketAdmitted( initialDatagram( 0 ), ProtocolVersion.ONE, DCID, SCID,
+                new byte[0] ) );
+        InitialPacketImpl retransmitted = initialPacket( DCID, new byte[0] );
+        assertTrue( endpoint.onInitialPacketDecrypted( initialDatagram( 0 ), retransmitted ) );
+        assertFalse( retransmitted.isOpeningConnection() );
+        assertEquals( 1, endpoint.getInitialFloodGuard().getHalfOpenConnections() );
+
+        connection.setHandshakeConfirmed( true );
+
+        assertEquals( 0, endpoint.getInitialFloodGuard().getHalfOpenConnections() );
+    }
+
+    @Test
+    public void discardConnection_halfOpenConnection_closesItForFloodGuard() {
+        Endpoint endpoint = createServer();
+        ConnectionImpl connection = endpoint.acceptConnection( initialDatagram( 0 ), ProtocolVersion.ONE, DCID,
+                SCID, null );
+        assertEquals( 1, endpoint.getInitialFloodGuard().getHalfOpenConnections() );
+
+        endpoint.discardConnection( connection );
+
+        assertEquals( 0, endpoint.getInitialFloodGuard().getHalfOpenConnections() );
+        assertEquals( 0, endpoint.getConnections().size() );
+    }
+
+    @Test
+    public void onInitialPacketDecrypted_validRetryToken_acceptsValidatedConnection()
+            throws GeneralSecurityException {
+        Endpoint endpoint = createRetryingServer();
+        ConnectionIdImpl retryConnectionId = new ConnectionIdImpl( endpoint.createUnusedConnectionId( 0 ),
+                VariableLengthInteger.ZERO );
+        byte[] token = endpoint.getRetryTokenManager().issueToken( CLIENT, DCID, retryConnectionId,
+                System.currentTimeMillis() );
+
+        assertTrue( endpoint.isInitialPacketAdmitted( initialDatagram( 0 ), ProtocolVersion.ONE,
+                retryConnectionId, SCID, token ) );
+        assertNull( endpoint.findConnectionByLocalId( retryConnectionId ) );
+        assertTrue( endpoint.onInitialPacketDecrypted( initialDatagram( 0 ), initialPacket( retryConnectionId,
+                token ) ) );
+
+        ConnectionImpl connection = (ConnectionImpl)endpoint.findConnectionByLocalId( retryConnectionId );
+        assertNotNull( connection );
+        assertEquals( DCID, connection.getOriginalDestinationConnectionId() );
+        assertEquals( retryConnectionId, connection.getRetrySourceConnectionId() );
+        assertTrue( connection.getAmplificationLimit().isValidated() );
+    }
+
+    @Test
+    public void acceptConnection_withoutRetry_keepsClientChosenConnectionIdAsOriginal() {
+        Endpoint endpoint = createServer();
+
+        ConnectionImpl connection = endpoint.acceptConnection( initialDatagram( 0 ), ProtocolVersion.ONE, DCID,
+                SCID, null );
+
+        assertEquals( DCID, connection.getOriginalDestinationConnectionId() );
+        assertNull( connection.getRetrySourceConnectionId() );
+        assertFalse( connection.getAmplificationLimit().isValidated() );
+    }
+
+    @Test
+    public void onInitialPacketDecrypted_withoutDemand_refusesConnection() {
+        Endpoint endpoint = new Endpoint( EndpointRole.SERVER );
+        endpoint.getConfiguration().setRetryMode( RetryMode.NEVER );
+        endpoint.applyConfiguration();
+
+        assertFalse( endpoint.onInitialPacketDecrypted( initialDatagram( 0 ), initialPacket( DCID, new byte[0] ) ) );
+
+        assertEquals( 0, endpoint.getConnections().size() );
+        assertEquals( 0, endpoint.getInitialFloodGuard().getHalfOpenConnections() );
+    }
+
+    @Test
+    public void start_givenShardCount_attachesAcceptedConnectionsToTheirShard() {
+        Endpoint endpoint = createServer();
+        endpoint.getConfiguration().setShardCount( 2 );
+        endpoint.applyConfiguration();
+        endpoint.start( new CountingTransport(), new LinkedBlockingQueue<>() );
+        try {
+            ConnectionImpl connection = endpoint.acceptConnection( initialDatagram( 1 ), ProtocolVersion.ONE, DCID,
+                    SCID, null );
+
+            assertEquals( 2, endpoint.getDatagramAssemblers().length );
+            assertSame( endpoint.getDatagramAssemblers()[1], connection.getDatagramAssembler() );
+            assertSame( endpoint.getDatagramParsers()[1].getTimerWheel(), connection.getTimerWheel() );
+        }
+        finally {
+            endpoint.stop();
+        }
+    }
+
+    @Test
+    public void start_retryRequired_sendsRetryThroughTransport() throws InterruptedException {
+        Endpoint endpoint = createServer();
+        endpoint.getConfiguration().setRetryMode( RetryMode.ALWAYS );
+        endpoint.applyConfiguration();
+        CountingTransport transport = new CountingTransport();
+        BlockingQueue<Packet> parsedQueue = new LinkedBlockingQueue<>();
+        endpoint.start( transport, parsedQueue );
+        try {
+            assertFalse( endpoint.isInitialPacketAdmitted( initialDatagram( 0 ), ProtocolVersion.ONE, DCID, SCID,
+                    new byte[0] ) );
+
+            assertTrue( transport.sent.await( 5, TimeUnit.SECONDS ) );
+        }
+        finally {
+            endpoint.stop();
+        }
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void applyConfiguration_startedEndpoint_isRefused() {
+        Endpoint endpoint = createServer();
+        endpoint.start( new CountingTransport(), new LinkedBlockingQueue<>() );
+        try {
+            endpoint.applyConfiguration();
+        }
+        finally {
+            endpoint.stop();
+        }
+    }
+
+    @Test
+    public void onPacketReceived_duplicatePacketNumber_isDropped() {
+        Endpoint endpoint = createServer();
+        ConnectionImpl connection = endpoint.acceptConnection( initialDatagram( 0 ), ProtocolVersion.ONE, DCID,
+                SCID, null );
+        InitialPacketImpl packet = numberedInitialPacket( 3 );
+
+        assertTrue( endpoint.onPacketReceived( initialDatagram( 0 ), packet ) );
+        assertFalse( endpoint.onPacketReceived( initialDatagram( 0 ), packet ) );
+
+        assertTrue( connection.getReceivedPacketTracker( PacketNumberSpace.INITIAL ).isAckPending() );
+    }
+
+    @Test
+    public void onPacketReceived_ackFrame_isProcessedByConnection() {
+        Endpoint endpoint = createServer();
+        ConnectionImpl connection = endpoint.acceptConnection( initialDatagram( 0 ), ProtocolVersion.ONE, DCID,
+                SCID, null );
+        AckFrameImpl ack = new AckFrameImpl( FrameType.ACK );
+        ack.getAcknowledgedRanges().addRange( 0, 7 );
+        InitialPacketImpl packet = numberedInitialPacket( 0 );
+        packet.setPayload( List.of( ack ) );
+
+        assertTrue( endpoint.onPacketReceived( initialDatagram( 0 ), packet ) );
+
+        assertEquals( 7, connection.getLargestAcknowledgedPacketNumber( PacketNumberSpace.INITIAL ) );
+    }
+}
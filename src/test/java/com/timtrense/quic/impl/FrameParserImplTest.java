@@ -0,0 +1,160 @@
+package com.timtrense.quic.impl;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.timtrense.quic.EndpointRole;
+import com.timtrense.quic.Frame;
+import com.timtrense.quic.FrameType;
+import com.timtrense.quic.HexByteStringConvertHelper;
+import com.timtrense.quic.Packet;
+import com.timtrense.quic.impl.exception.MalformedFrameException;
+import com.timtrense.quic.impl.exception.QuicParsingException;
+import com.timtrense.quic.impl.frames.AckFrameImpl;
+import com.timtrense.quic.impl.frames.ConnectionCloseFrameImpl;
+import com.timtrense.quic.impl.frames.MultiPaddingFrameImpl;
+import com.timtrense.quic.impl.frames.NewConnectionIdFrameImpl;
+import com.timtrense.quic.impl.frames.PingFrameImpl;
+import com.timtrense.quic.impl.frames.StreamFrameImpl;
+import com.timtrense.quic.impl.packets.InitialPacketImpl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @see com.timtrense.quic.impl.FrameParserImpl
+ */
+public class FrameParserImplTest {
+
+    private final FrameParserImpl parser = new FrameParserImpl( new Endpoint( EndpointRole.SERVER ) );
+    private final Packet packet = new InitialPacketImpl();
+
+    private List<Frame> parseAll( String hex ) throws QuicParsingException {
+        ByteBuffer data = ByteBuffer.wrap( HexByteStringConvertHelper.hexStringToByteArray( hex ) );
+        return parser.parseFrames( packet, data, -1 );
+    }
+
+    @Test
+    public void parseFrames_pingAndPaddings_givesAllFrames() throws QuicParsingException {
+        List<Frame> frames = parseAll( "01000000" );
+        assertEquals( 2, frames.size() );
+        assertEquals( FrameType.PING, frames.get( 0 ).getType() );
+        assertEquals( 3, ( (MultiPaddingFrameImpl)frames.get( 1 ) ).getLength() );
+    }
+
+    @Test
+    public void parseFrame_ackWithRanges_givesAckFrame() throws QuicParsingException {
+        // largest=10, delay=2, rangeCount=1, firstRange=1, gap=1, length=2
+        List<Frame> frames = parseAll( "020a0201010102" );
+        AckFrameImpl ack = (AckFrameImpl)frames.get( 0 );
+        assertEquals( 10, ack.getLargestAcknowledged() );
+        assertEquals( 1, ack.getFirstAcknowledgedRange() );
+        assertEquals( 1, ack.getRangeCount() );
+        assertEquals( 1, ack.getGap( 0 ) );
+        assertEquals( 2, ack.getRangeLength( 0 ) );
+        assertTrue( ack.getAcknowledgedRanges().contains( 9 ) );
+        assertFalse( ack.getAcknowledgedRanges().contains( 8 ) );
+        assertTrue( ack.getAcknowledgedRanges().contains( 4 ) );
+        assertTrue( ack.isValid() );
+    }
+
+    @Test
+    public void parseFrame_serializedAckFrame_givesEqualRanges() throws QuicParsingException {
+        AckFrameImpl ack = new AckFrameImpl( FrameType.ACK );
+        ack.getAcknowledgedRanges().addRange( 100, 120 );
+        ack.getAcknowledgedRanges().addRange( 50, 60 );
+        ack.getAcknowledgedRanges().add( 3 );
+        ack.setDelay( 17 );
+        ByteBuffer buffer = ByteBuffer.allocate( 64 );
+        int written = new FrameSerializerImpl().serializeFrame( ack, buffer );
+        assertEquals( ack.getFrameLength(), written );
+        buffer.flip();
+
+        List<Frame> frames = parser.parseFrames( packet, buffer, -1 );
+        assertEquals( 1, frames.size() );
+        assertEquals( ack, frames.get( 0 ) );
+    }
+
+    @Test( expected = MalformedFrameException.class )
+    public void parseFrame_ackWithNegativePacketNumber_throws() throws QuicParsingException {
+        // largest=2, delay=0, rangeCount=1, firstRange=0, gap=0, length=1 -> smallest = 2 - 0 - 2 - 1 < 0
+        parseAll( "02020001000001" );
+    }
+
+    @Test
+    public void parseFrame_streamWithoutLength_consumesRemainingBytes() throws QuicParsingException {
+        // STREAM with OFF bit, stream id 4, offset 5, data ab cd
+        List<Frame> frames = parseAll( "0c0405abcd" );
+        StreamFrameImpl stream = (StreamFrameImpl)frames.get( 0 );
+        assertEquals( 4, stream.getStreamId().getValue().longValue() );
+        assertEquals( 5, stream.getOffset().longValue() );
+        assertArrayEquals( new byte[]{(byte)0xab, (byte)0xcd}, stream.getData() );
+    }
+
+    @Test
+    public void parseFrame_newConnectionId_givesConnectionIdAndToken() throws QuicParsingException {
+        List<Frame> frames = parseAll( "180100040a0b0c0d00112233445566778899aabbccddeeff" );
+        NewConnectionIdFrameImpl frame = (NewConnectionIdFrameImpl)frames.get( 0 );
+        assertEquals( 4, frame.getLength() );
+        assertArrayEquals( new byte[]{0x0a, 0x0b, 0x0c, 0x0d}, frame.getConnectionId().getValue() );
+        assertEquals( 16, frame.getStatelessResetToken().getValue().length );
+    }
+
+    @Test( expected = MalformedFrameException.class )
+    public void parseFrame_newConnectionIdWithZeroLength_throws() throws QuicParsingException {
+        parseAll( "18010000" + "00112233445566778899aabbccddeeff" );
+    }
+
+    @Test( expected = MalformedFrameException.class )
+    public void parseFrame_newConnectionIdWithLengthAbove20_throws() throws QuicParsingException {
+        parseAll( "180100" + "15" + "00".repeat( 21 ) + "00112233445566778899aabbccddeeff" );
+    }
+
+    @Test
+    public void parseFrame_connectionCloseVariants_onlyTransportVariantHoldsFrameType() throws QuicParsingException {
+        List<Frame> frames = parseAll( "1c0a060141" + "1d0b0142" );
+        ConnectionCloseFrameImpl transportClose = (ConnectionCloseFrameImpl)frames.get( 0 );
+        ConnectionCloseFrameImpl applicationClose = (ConnectionCloseFrameImpl)frames.get( 1 );
+        assertNotNull( transportClose.getFrameType() );
+        assertEquals( 6, transportClose.getFrameType().longValue() );
+        assertTrue( transportClose.isValid() );
+        assertEquals( null, applicationClose.getFrameType() );
+        assertTrue( applicationClose.isValid() );
+    }
+
+    @Test( expected = MalformedFrameException.class )
+    public void parseFrame_cryptoLengthExceedsPacket_throws() throws QuicParsingException {
+        parseAll( "06000aabcd" );
+    }
+
+    @Test( expected = MalformedFrameException.class )
+    public void parseFrame_unknownFrameType_throws() throws QuicParsingException {
+        parseAll( "4020" );
+    }
+
+    @Test
+    public void parseFrame_registeredExtensionFrameType_usesExtensionParser() throws QuicParsingException {
+        Frame extensionFrame = new PingFrameImpl();
+        parser.registerExtensionFrameParser( 0x20, ( frameType, containingPacket, data, frameIndex, maxLength ) -> {
+            data.get();
+            return extensionFrame;
+        } );
+        List<Frame> frames = parseAll( "4020ff01" );
+        assertEquals( 2, frames.size() );
+        assertSame( extensionFrame, frames.get( 0 ) );
+        assertTrue( parser.unregisterExtensionFrameParser( 0x20 ) );
+        assertFalse( parser.unregisterExtensionFrameParser( 0x20 ) );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void registerExtensionFrameParser_coreFrameType_throws() {
+        parser.registerExtensionFrameParser( FrameType.PING.getLongValue(),
+                ( frameType, containingPacket, data, frameIndex, maxLength ) -> null );
+    }
+}
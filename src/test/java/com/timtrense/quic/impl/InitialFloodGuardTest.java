@@ -0,0 +1,54 @@
+package com.timtrense.quic.impl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @see com.timtrense.quic.impl.InitialFloodGuard
+ */
+public class InitialFloodGuardTest {
+
+    private static final long SECOND = InitialFloodGuard.RATE_WINDOW_NANOS;
+
+    @Test
+    public void onInitialPacket_fixedModes() {
+        assertFalse( new InitialFloodGuard( RetryMode.NEVER, 1, 1 ).onInitialPacket( 0 ) );
+        assertTrue( new InitialFloodGuard( RetryMode.ALWAYS, 1, 1 ).onInitialPacket( 0 ) );
+    }
+
+    @Test
+    public void onInitialPacket_automatic_activatesAboveRateThreshold() {
+        InitialFloodGuard guard = new InitialFloodGuard( RetryMode.AUTOMATIC, 3, 100 );
+        assertFalse( guard.onInitialPacket( 0 ) );
+        assertFalse( guard.onInitialPacket( 1 ) );
+        assertFalse( guard.onInitialPacket( 2 ) );
+        assertTrue( guard.onInitialPacket( 3 ) );
+    }
+
+    @Test
+    public void isRetryRequired_automatic_decaysWithTime() {
+        InitialFloodGuard guard = new InitialFloodGuard( RetryMode.AUTOMATIC, 3, 100 );
+        for ( int i = 0; i < 10; i++ ) {
+            guard.onInitialPacket( i );
+        }
+        assertTrue( guard.isRetryRequired( 10 ) );
+        // the previous window still weighs in shortly after the boundary
+        assertTrue( guard.isRetryRequired( SECOND + 10 ) );
+        assertFalse( guard.isRetryRequired( SECOND + SECOND * 3 / 4 ) );
+        assertFalse( guard.isRetryRequired( 5 * SECOND ) );
+    }
+
+    @Test
+    public void isRetryRequired_automatic_activatesAboveHalfOpenThreshold() {
+        InitialFloodGuard guard = new InitialFloodGuard( RetryMode.AUTOMATIC, 100, 2 );
+        guard.onConnectionAccepted();
+        guard.onConnectionAccepted();
+        assertFalse( guard.isRetryRequired( 0 ) );
+        guard.onConnectionAccepted();
+        assertTrue( guard.isRetryRequired( 0 ) );
+        guard.onHalfOpenConnectionClosed();
+        assertFalse( guard.isRetryRequired( 0 ) );
+    }
+}
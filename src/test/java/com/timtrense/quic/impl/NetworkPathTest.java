@@ -0,0 +1,165 @@
+package com.timtrense.quic.impl;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.timtrense.quic.EndpointRole;
+import com.timtrense.quic.Frame;
+import com.timtrense.quic.FrameType;
+import com.timtrense.quic.PacketNumberSpace;
+import com.timtrense.quic.impl.frames.PathChallangeFrameImpl;
+import com.timtrense.quic.impl.frames.PathResponseFrameImpl;
+import com.timtrense.quic.impl.frames.PingFrameImpl;
+import com.timtrense.quic.impl.recovery.CongestionControlAlgorithm;
+import com.timtrense.quic.impl.recovery.RttEstimator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @see com.timtrense.quic.impl.NetworkPath
+ */
+public class NetworkPathTest {
+
+    private static final InetSocketAddress WIFI = new InetSocketAddress( "192.0.2.1", 4433 );
+    private static final InetSocketAddress WIFI_REBOUND = new InetSocketAddress( "192.0.2.1", 5533 );
+    private static final InetSocketAddress CELLULAR = new InetSocketAddress( "198.51.100.7", 4433 );
+
+    private ConnectionImpl server;
+
+    @Before
+    public void setupServer() {
+        server = new ConnectionImpl( EndpointRole.SERVER );
+        server.setRandom( new Random( 1 ) );
+        server.onDatagramReceived( WIFI, 1200, 0 );
+        server.onAddressValidated( 0 );
+        server.setHandshakeConfirmed( true );
+    }
+
+    private byte[] pollPathChallenge() {
+        Frame frame;
+        while ( ( frame = server.getPendingFrames( PacketNumberSpace.APPLICATION_DATA ).poll() ) != null ) {
+            if ( frame instanceof PathChallangeFrameImpl ) {
+                return ( (PathChallangeFrameImpl)frame ).getData();
+            }
+        }
+        return null;
+    }
+
+    private static PathResponseFrameImpl response( byte[] data ) {
+        PathResponseFrameImpl frame = new PathResponseFrameImpl( FrameType.PATH_RESPONSE );
+        frame.setData( data );
+        return frame;
+    }
+
+    @Test
+    public void onPathResponse_matchingAnyChallenge_validates() {
+        NetworkPath path = new NetworkPath( CELLULAR, new RttEstimator(),
+                CongestionControlAlgorithm.NEW_RENO.createController( 1200 ), false );
+        Random random = new Random( 1 );
+        byte[] first = path.nextChallenge( random, 0 );
+        byte[] second = path.nextChallenge( random, 10 );
+        path.nextChallenge( random, 20 );
+        assertNull( path.nextChallenge( random, 30 ) );
+        assertEquals( PathValidationState.VALIDATING, path.getValidationState() );
+
+        assertFalse( path.onPathResponse( new byte[NetworkPath.CHALLENGE_LENGTH] ) );
+        assertTrue( path.onPathResponse( second ) );
+        assertTrue( path.isValidated() );
+        assertFalse( path.getAmplificationLimit().isBlocked() );
+        assertFalse( path.onPathResponse( first ) );
+    }
+
+    @Test
+    public void onNonProbingPacketReceived_newAddress_migratesWithFreshCongestionState() {
+        NetworkPath wifi = server.getActivePath();
+        server.onPacketReceived( PacketNumberSpace.APPLICATION_DATA, 5, true, 100 );
+
+        server.onDatagramReceived( CELLULAR, 1200, 200 );
+        server.onPacketReceived( PacketNumberSpace.APPLICATION_DATA, 6, true, 200 );
+        assertTrue( server.onNonProbingPacketReceived( CELLULAR, 6, 200 ) );
+
+        NetworkPath cellular = server.getActivePath();
+        assertEquals( CELLULAR, server.getRemoteAddress() );
+        assertSame( wifi, server.getPreviousPath() );
+        assertNotSame( wifi.getCongestionController(), cellular.getCongestionController() );
+        assertSame( cellular.getRttEstimator(), server.getLossDetector().getRttEstimator() );
+        assertEquals( PathValidationState.VALIDATING, cellular.getValidationState() );
+        // unvalidated, thus limited to three times the received bytes
+        assertEquals( 3600, server.getAmplificationLimit().getAllowance() );
+
+        byte[] challenge = pollPathChallenge();
+        assertTrue( server.onPathResponseReceived( response( challenge ), 300 ) );
+        assertTrue( cellular.isValidated() );
+    }
+
+    @Test
+    public void onNonProbingPacketReceived_portChangeOrReorderedPacket_keepsState() {
+        NetworkPath wifi = server.getActivePath();
+        server.onPacketReceived( PacketNumberSpace.APPLICATION_DATA, 8, true, 100 );
+        server.onDatagramReceived( CELLULAR, 1200, 100 );
+        server.onPacketReceived( PacketNumberSpace.APPLICATION_DATA, 7, true, 100 );
+        assertFalse( server.onNonProbingPacketReceived( CELLULAR, 7, 100 ) );
+        assertSame( wifi, server.getActivePath() );
+
+        server.onDatagramReceived( WIFI_REBOUND, 1200, 200 );
+        server.onPacketReceived( PacketNumberSpace.APPLICATION_DATA, 9, true, 200 );
+        assertTrue( server.onNonProbingPacketReceived( WIFI_REBOUND, 9, 200 ) );
+        assertSame( wifi.getCongestionController(), server.getCongestionController() );
+        assertSame( wifi.getRttEstimator(), server.getLossDetector().getRttEstimator() );
+    }
+
+    @Test
+    public void onPathChallengeReceived_echoesData() {
+        PathChallangeFrameImpl challenge = new PathChallangeFrameImpl( FrameType.PATH_CHALLENGE );
+        challenge.setData( new byte[]{1, 2, 3, 4, 5, 6, 7, 8} );
+        server.onPathChallengeReceived( challenge );
+        Frame frame = server.getPendingFrames( PacketNumberSpace.APPLICATION_DATA ).poll();
+        assertTrue( frame instanceof PathResponseFrameImpl );
+        assertArrayEquals( challenge.getData(), ( (PathResponseFrameImpl)frame ).getData() );
+    }
+
+    @Test
+    public void onFramesReceived_onlyProbingFramesFromNewAddress_answersWithoutMigrating() {
+        NetworkPath wifi = server.getActivePath();
+        PathChallangeFrameImpl challenge = new PathChallangeFrameImpl( FrameType.PATH_CHALLENGE );
+        challenge.setData( new byte[]{1, 2, 3, 4, 5, 6, 7, 8} );
+        server.onDatagramReceived( CELLULAR, 1200, 100 );
+        server.onPacketReceived( PacketNumberSpace.APPLICATION_DATA, 6, true, 100 );
+
+        server.onFramesReceived( CELLULAR, PacketNumberSpace.APPLICATION_DATA, 6, List.of( challenge ), 100 );
+
+        assertSame( wifi, server.getActivePath() );
+        Frame frame = server.getPendingFrames( PacketNumberSpace.APPLICATION_DATA ).poll();
+        assertTrue( frame instanceof PathResponseFrameImpl );
+        assertArrayEquals( challenge.getData(), ( (PathResponseFrameImpl)frame ).getData() );
+    }
+
+    @Test
+    public void onFramesReceived_nonProbingFrameFromNewAddress_migratesAndValidatesByResponse() {
+        NetworkPath wifi = server.getActivePath();
+        server.onDatagramReceived( CELLULAR, 1200, 100 );
+        server.onPacketReceived( PacketNumberSpace.APPLICATION_DATA, 6, true, 100 );
+
+        server.onFramesReceived( CELLULAR, PacketNumberSpace.APPLICATION_DATA, 6, List.of( new PingFrameImpl() ),
+                100 );
+
+        NetworkPath cellular = server.getActivePath();
+        assertNotSame( wifi, cellular );
+        assertEquals( CELLULAR, server.getRemoteAddress() );
+        byte[] challenge = pollPathChallenge();
+        server.onPacketReceived( PacketNumberSpace.APPLICATION_DATA, 7, false, 200 );
+        server.onFramesReceived( CELLULAR, PacketNumberSpace.APPLICATION_DATA, 7, List.of( response( challenge ) ),
+                200 );
+        assertTrue( cellular.isValidated() );
+    }
+}
@@ -0,0 +1,89 @@
+package com.timtrense.quic.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @see com.timtrense.quic.impl.QueueOverloadHandler
+ */
+public class QueueOverloadHandlerTest {
+
+    private final List<String> dropped = new ArrayList<>();
+
+    private QueueOverloadHandler<String> handler( OverloadPolicy policy ) {
+        return new QueueOverloadHandler<>( policy, s -> s.startsWith( "initial" ), dropped::add );
+    }
+
+    private static BlockingQueue<String> fullQueue( String... items ) {
+        BlockingQueue<String> queue = new ArrayBlockingQueue<>( items.length );
+        for ( String item : items ) {
+            queue.add( item );
+        }
+        return queue;
+    }
+
+    @Test
+    public void offer_fail_returnsFalse() throws InterruptedException {
+        assertFalse( handler( OverloadPolicy.FAIL ).offer( fullQueue( "a" ), "b", 1 ) );
+    }
+
+    @Test
+    public void offer_dropNewest_keepsQueue() throws InterruptedException {
+        QueueOverloadHandler<String> handler = handler( OverloadPolicy.DROP_NEWEST );
+        BlockingQueue<String> queue = fullQueue( "a", "b" );
+
+        assertTrue( handler.offer( queue, "c", 1 ) );
+
+        assertEquals( "[a, b]", queue.toString() );
+        assertEquals( 1, handler.getDroppedNewest() );
+        assertEquals( "[c]", dropped.toString() );
+    }
+
+    @Test
+    public void offer_dropOldest_replacesHead() throws InterruptedException {
+        QueueOverloadHandler<String> handler = handler( OverloadPolicy.DROP_OLDEST );
+        BlockingQueue<String> queue = fullQueue( "a", "b" );
+
+        assertTrue( handler.offer( queue, "c", 1 ) );
+
+        assertEquals( "[b, c]", queue.toString() );
+        assertEquals( 1, handler.getDroppedOldest() );
+        assertEquals( "[a]", dropped.toString() );
+    }
+
+    @Test
+    public void offer_shedNewConnections_dropsInitialsFirst() throws InterruptedException {
+        QueueOverloadHandler<String> handler = handler( OverloadPolicy.SHED_NEW_CONNECTIONS );
+        BlockingQueue<String> queue = fullQueue( "handshake", "initial1", "short" );
+
+        assertTrue( handler.offer( queue, "initial2", 1 ) );
+        assertTrue( handler.offer( queue, "short2", 1 ) );
+        assertTrue( handler.offer( queue, "short3", 1 ) );
+
+        assertEquals( "[handshake, short, short2]", queue.toString() );
+        assertEquals( 2, handler.getShedNewConnections() );
+        assertEquals( 1, handler.getDroppedNewest() );
+        assertEquals( "[initial2, initial1, short3]", dropped.toString() );
+    }
+
+    @Test
+    public void offer_givenLongTimeout_appliesPolicyWithoutBlocking() throws InterruptedException {
+        QueueOverloadHandler<String> handler = handler( OverloadPolicy.SHED_NEW_CONNECTIONS );
+        BlockingQueue<String> queue = fullQueue( "short" );
+        long start = System.nanoTime();
+
+        assertTrue( handler.offer( queue, "initial", 10_000 ) );
+        assertTrue( handler.offer( queue, "short2", 10_000 ) );
+
+        assertTrue( System.nanoTime() - start < 1_000_000_000L );
+        assertEquals( "[initial, short2]", dropped.toString() );
+    }
+}
@@ -0,0 +1,123 @@
+package com.timtrense.quic.impl;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.timtrense.quic.ConnectionId;
+import com.timtrense.quic.ProtocolVersion;
+import com.timtrense.quic.VariableLengthInteger;
+import com.timtrense.quic.impl.base.ConnectionIdImpl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @see com.timtrense.quic.impl.RetryTokenManager
+ * @see com.timtrense.quic.impl.RetryPacketWriter
+ */
+public class RetryTokenManagerTest {
+
+    private static final InetSocketAddress CLIENT = new InetSocketAddress( "192.0.2.1", 4433 );
+    private static final ConnectionId ORIGINAL = id( 1, 2, 3, 4, 5, 6, 7, 8 );
+    private static final ConnectionId RETRY = id( 9, 9, 9, 9 );
+    private static final ConnectionId CLIENT_ID = id( 7 );
+
+    private final RetryTokenManager manager = new RetryTokenManager( new Random( 42 ), 10_000, 4 );
+
+    private static ConnectionId id( int... bytes ) {
+        byte[] value = new byte[bytes.length];
+        for ( int i = 0; i < bytes.length; i++ ) {
+            value[i] = (byte)bytes[i];
+        }
+        return new ConnectionIdImpl( value, VariableLengthInteger.ZERO );
+    }
+
+    @Test
+    public void validateToken_issuedToken_givesOriginalConnectionId() throws GeneralSecurityException {
+        byte[] token = manager.issueToken( CLIENT, ORIGINAL, RETRY, 1000 );
+        ConnectionId original = manager.validateToken( token, CLIENT, RETRY, CLIENT_ID, 2000 );
+        assertNotNull( original );
+        assertArrayEquals( ORIGINAL.getValue(), original.getValue() );
+    }
+
+    @Test
+    public void validateToken_otherAddress_givesNull() throws GeneralSecurityException {
+        byte[] token = manager.issueToken( CLIENT, ORIGINAL, RETRY, 1000 );
+        assertNull( manager.validateToken( token, new InetSocketAddress( "192.0.2.2", 4433 ), RETRY, CLIENT_ID,
+                2000 ) );
+        assertNull( manager.validateToken( token, new InetSocketAddress( "192.0.2.1", 4434 ), RETRY, CLIENT_ID,
+                2000 ) );
+    }
+
+    @Test
+    public void validateToken_expiredOrFromFuture_givesNull() throws GeneralSecurityException {
+        byte[] token = manager.issueToken( CLIENT, ORIGINAL, RETRY, 1000 );
+        assertNull( manager.validateToken( token, CLIENT, RETRY, CLIENT_ID, 11_001 ) );
+        assertNull( manager.validateToken( token, CLIENT, RETRY, CLIENT_ID, 999 ) );
+    }
+
+    @Test
+    public void validateToken_tampered_givesNull() throws GeneralSecurityException {
+        byte[] token = manager.issueToken( CLIENT, ORIGINAL, RETRY, 1000 );
+        token[token.length / 2] ^= 1;
+        assertNull( manager.validateToken( token, CLIENT, RETRY, CLIENT_ID, 2000 ) );
+    }
+
+    @Test
+    public void validateToken_otherManager_givesNull() throws GeneralSecurityException {
+        byte[] token = new RetryTokenManager( new Random( 7 ), 10_000, 4 ).issueToken( CLIENT, ORIGINAL, RETRY, 1000 );
+        assertNull( manager.validateToken( token, CLIENT, RETRY, CLIENT_ID, 2000 ) );
+    }
+
+    @Test
+    public void validateToken_otherDestination_givesNull() throws GeneralSecurityException {
+        byte[] token = manager.issueToken( CLIENT, ORIGINAL, RETRY, 1000 );
+        assertNull( manager.validateToken( token, CLIENT, ORIGINAL, CLIENT_ID, 2000 ) );
+    }
+
+    @Test
+    public void validateToken_retransmission_isAccepted_replayIsRejected() throws GeneralSecurityException {
+        byte[] token = manager.issueToken( CLIENT, ORIGINAL, RETRY, 1000 );
+        assertNotNull( manager.validateToken( token, CLIENT, RETRY, CLIENT_ID, 2000 ) );
+        assertNotNull( manager.validateToken( token, CLIENT, RETRY, CLIENT_ID, 2500 ) );
+        assertNull( manager.validateToken( token, CLIENT, RETRY, id( 8 ), 3000 ) );
+    }
+
+    @Test
+    public void replayFilter_isBounded_andForgetsExpiredTokens() throws GeneralSecurityException {
+        for ( int i = 0; i < 10; i++ ) {
+            byte[] token = manager.issueToken( CLIENT, ORIGINAL, RETRY, 1000 );
+            assertNotNull( manager.validateToken( token, CLIENT, RETRY, CLIENT_ID, 1000 ) );
+        }
+        assertEquals( 4, manager.getReplayFilterSize() );
+
+        byte[] token = manager.issueToken( CLIENT, ORIGINAL, RETRY, 20_000 );
+        assertNotNull( manager.validateToken( token, CLIENT, RETRY, CLIENT_ID, 20_000 ) );
+        assertEquals( 1, manager.getReplayFilterSize() );
+    }
+
+    @Test
+    public void writeRetryPacket_hasVerifiableIntegrityTag() throws GeneralSecurityException {
+        byte[] token = manager.issueToken( CLIENT, ORIGINAL, RETRY, 1000 );
+        ByteBuffer buffer = ByteBuffer.allocate( 1200 );
+        int length = RetryPacketWriter.writeRetryPacket( buffer, ProtocolVersion.IETF_DRAFT_32, CLIENT_ID, RETRY,
+                ORIGINAL, token, new Random( 1 ) );
+
+        assertEquals( buffer.position(), length );
+        assertEquals( 0xF0, buffer.get( 0 ) & 0xF0 );
+        assertEquals( ProtocolVersion.IETF_DRAFT_32.getValue(), buffer.getInt( 1 ) );
+        assertTrue( RetryPacketWriter.verifyIntegrityTag( ORIGINAL, buffer.array(), 0, length ) );
+        assertFalse( RetryPacketWriter.verifyIntegrityTag( RETRY, buffer.array(), 0, length ) );
+
+        buffer.array()[length - RetryPacketWriter.INTEGRITY_TAG_LENGTH - 1] ^= 1;
+        assertFalse( RetryPacketWriter.verifyIntegrityTag( ORIGINAL, buffer.array(), 0, length ) );
+    }
+}
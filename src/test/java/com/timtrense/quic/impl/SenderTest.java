@@ -0,0 +1,92 @@
+package com.timtrense.quic.impl;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @see com.timtrense.quic.impl.Sender
+ */
+public class SenderTest {
+
+    private static final SocketAddress PEER = new InetSocketAddress( "127.0.0.1", 4433 );
+
+    /**
+     * a non-blocking transport whose socket buffer takes only one datagram per call, and none every other call
+     */
+    private static class CongestedTransport implements DatagramTransport {
+
+        private final boolean batching;
+        private final List<Byte> sent = new CopyOnWriteArrayList<>();
+        private boolean bufferFull;
+
+        CongestedTransport( boolean batching ) {
+            this.batching = batching;
+        }
+
+        @Override
+        public int send( DatagramBatch batch ) {
+            bufferFull = !bufferFull;
+            if ( bufferFull ) {
+                return 0;
+            }
+            sent.add( batch.getBuffer().get( 0 ) );
+            return 1;
+        }
+
+        @Override
+        public boolean send( OutgoingDatagram datagram ) {
+            bufferFull = !bufferFull;
+            if ( bufferFull ) {
+                return false;
+            }
+            sent.add( datagram.getBuffer().get( 0 ) );
+            return true;
+        }
+
+        @Override
+        public boolean isBatching() {
+            return batching;
+        }
+    }
+
+    private static void queueDatagrams( DatagramAssembler assembler, int count ) {
+        for ( int i = 0; i < count; i++ ) {
+            byte fill = (byte)i;
+            assembler.queueStatelessDatagram( PEER, buffer -> buffer.put( new byte[]{fill, fill, fill} ) );
+        }
+    }
+
+    private static List<Byte> sendAll( boolean batching ) throws InterruptedException {
+        EndpointConfiguration configuration = new EndpointConfiguration();
+        configuration.setSendDatagramQueueSizeLimit( 5 );
+        DatagramAssembler assembler = new DatagramAssembler( configuration );
+        CongestedTransport transport = new CongestedTransport( batching );
+        Sender sender = new Sender( transport, assembler, configuration );
+        queueDatagrams( assembler, 5 );
+        sender.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos( 5 );
+        while ( transport.sent.size() < 5 && System.nanoTime() < deadline ) {
+            Thread.sleep( 1 );
+        }
+        sender.interrupt();
+        sender.join( 1000 );
+        return transport.sent;
+    }
+
+    @Test
+    public void run_batchingTransportSendsPartially_retriesRemainingDatagramsInOrder() throws InterruptedException {
+        assertEquals( List.of( (byte)0, (byte)1, (byte)2, (byte)3, (byte)4 ), sendAll( true ) );
+    }
+
+    @Test
+    public void run_nonBatchingTransportWouldBlock_retriesEachDatagram() throws InterruptedException {
+        assertEquals( List.of( (byte)0, (byte)1, (byte)2, (byte)3, (byte)4 ), sendAll( false ) );
+    }
+}
@@ -0,0 +1,107 @@
+package com.timtrense.quic.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @see com.timtrense.quic.impl.TimerWheel
+ */
+public class TimerWheelTest {
+
+    private static final long TICK = TimeUnit.MILLISECONDS.toNanos( 1 );
+    private static final long START = 1_000_000_000L;
+
+    private TimerWheel wheel;
+    private List<Object> expired;
+    private TimerTask recordingTask;
+
+    @Before
+    public void setup() {
+        wheel = new TimerWheel( TICK, START );
+        expired = new ArrayList<>();
+        recordingTask = ( timer, now ) -> expired.add( timer.getAttachment() );
+    }
+
+    @Test
+    public void advance_expiresInOrderAndNeverEarly() {
+        WheelTimer a = new WheelTimer( recordingTask, "a" );
+        WheelTimer b = new WheelTimer( recordingTask, "b" );
+        wheel.arm( b, START + 20 * TICK );
+        wheel.arm( a, START + 10 * TICK + 1 );
+        assertEquals( 2, wheel.getArmedCount() );
+
+        wheel.advance( START + 10 * TICK );
+        assertTrue( expired.isEmpty() );
+        wheel.advance( START + 11 * TICK );
+        assertEquals( 1, expired.size() );
+        assertEquals( "a", expired.get( 0 ) );
+        assertFalse( a.isArmed() );
+
+        wheel.advance( START + 30 * TICK );
+        assertEquals( 2, expired.size() );
+        assertEquals( "b", expired.get( 1 ) );
+        assertTrue( wheel.isEmpty() );
+    }
+
+    @Test
+    public void cancelAndRearm_noExpiry() {
+        WheelTimer a = new WheelTimer( recordingTask, "a" );
+        wheel.arm( a, START + 5 * TICK );
+        assertTrue( a.cancel() );
+        assertFalse( a.cancel() );
+        wheel.advance( START + 10 * TICK );
+        assertTrue( expired.isEmpty() );
+
+        wheel.armAfter( a, START + 10 * TICK, 5 * TICK );
+        wheel.armAfter( a, START + 10 * TICK, 500 * TICK );
+        wheel.advance( START + 100 * TICK );
+        assertTrue( expired.isEmpty() );
+        wheel.advance( START + 510 * TICK );
+        assertEquals( 1, expired.size() );
+    }
+
+    @Test
+    public void advance_farDeadlines_cascadeDown() {
+        long[] delays = { 63, 64, 65, 4095, 4096, 4097, 300_000, 20_000_000 };
+        WheelTimer[] timers = new WheelTimer[delays.length];
+        for ( int i = 0; i < delays.length; i++ ) {
+            timers[i] = new WheelTimer( recordingTask, i );
+            wheel.arm( timers[i], START + delays[i] * TICK );
+        }
+        for ( int i = 0; i < delays.length; i++ ) {
+            wheel.advance( START + ( delays[i] - 1 ) * TICK );
+            assertEquals( "before " + delays[i], i, expired.size() );
+            wheel.advance( START + delays[i] * TICK );
+            assertEquals( "at " + delays[i], i + 1, expired.size() );
+        }
+    }
+
+    @Test
+    public void advance_taskRearmsAndCancelsOthers() {
+        WheelTimer other = new WheelTimer( recordingTask, "other" );
+        WheelTimer periodic = new WheelTimer( ( timer, now ) -> {
+            expired.add( "periodic" );
+            other.cancel();
+            wheel.armAfter( timer, now, TICK );
+        } );
+        // timers of the same slot expire in reverse order of arming
+        wheel.arm( other, START + TICK );
+        wheel.arm( periodic, START + TICK );
+
+        for ( int tick = 1; tick <= 3; tick++ ) {
+            wheel.advance( START + tick * TICK );
+        }
+        assertEquals( 3, expired.size() );
+        assertFalse( expired.contains( "other" ) );
+        assertTrue( periodic.isArmed() );
+        assertEquals( 1, wheel.getArmedCount() );
+    }
+}
@@ -0,0 +1,43 @@
+package com.timtrense.quic.impl.base;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @see com.timtrense.quic.impl.base.AmplificationLimit
+ */
+public class AmplificationLimitTest {
+
+    @Test
+    public void getAllowance_unvalidated_isThreeTimesReceivedMinusSent() {
+        AmplificationLimit limit = new AmplificationLimit( false );
+        assertTrue( limit.isBlocked() );
+
+        limit.onBytesReceived( 1200 );
+        assertEquals( 3600, limit.getAllowance() );
+        limit.onBytesSent( 1200 );
+        limit.onBytesSent( 1200 );
+        assertEquals( 1200, limit.getAllowance() );
+        limit.onBytesSent( 1300 );
+        assertEquals( 0, limit.getAllowance() );
+        assertTrue( limit.isBlocked() );
+
+        limit.onBytesReceived( 100 );
+        assertEquals( 200, limit.getAllowance() );
+    }
+
+    @Test
+    public void getAllowance_validated_isUnlimited() {
+        AmplificationLimit limit = new AmplificationLimit( false );
+        limit.onBytesReceived( 10 );
+        limit.onAddressValidated();
+        assertTrue( limit.isValidated() );
+        assertFalse( limit.isBlocked() );
+        assertEquals( Long.MAX_VALUE, limit.getAllowance() );
+
+        assertEquals( Long.MAX_VALUE, new AmplificationLimit( true ).getAllowance() );
+    }
+}
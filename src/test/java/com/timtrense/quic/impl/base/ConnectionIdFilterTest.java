@@ -0,0 +1,103 @@
+package com.timtrense.quic.impl.base;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @see com.timtrense.quic.impl.base.ConnectionIdFilter
+ */
+public class ConnectionIdFilterTest {
+
+    private static byte[] randomId( Random random ) {
+        byte[] id = new byte[8];
+        random.nextBytes( id );
+        return id;
+    }
+
+    @Test
+    public void mightContain_empty_givesFalse() {
+        assertFalse( new ConnectionIdFilter( 16 ).mightContain( new byte[]{1, 2, 3, 4, 5, 6, 7, 8} ) );
+    }
+
+    @Test
+    public void mightContain_addedIds_givesTrue_evenWithinDatagram() {
+        ConnectionIdFilter filter = new ConnectionIdFilter( 1000 );
+        Random random = new Random( 1 );
+        List<byte[]> ids = new ArrayList<>();
+        for ( int i = 0; i < 1000; i++ ) {
+            byte[] id = randomId( random );
+            ids.add( id );
+            filter.add( id );
+        }
+        for ( byte[] id : ids ) {
+            assertTrue( filter.mightContain( id ) );
+            byte[] datagram = new byte[1 + id.length + 20];
+            System.arraycopy( id, 0, datagram, 1, id.length );
+            assertTrue( filter.mightContain( datagram, 1, id.length ) );
+        }
+        assertEquals( 1000, filter.getSize() );
+    }
+
+    @Test
+    public void mightContain_unknownIds_mostlyGivesFalse() {
+        ConnectionIdFilter filter = new ConnectionIdFilter( 1000 );
+        Random random = new Random( 2 );
+        for ( int i = 0; i < 1000; i++ ) {
+            filter.add( randomId( random ) );
+        }
+        int falsePositives = 0;
+        for ( int i = 0; i < 10000; i++ ) {
+            if ( filter.mightContain( randomId( random ) ) ) {
+                falsePositives++;
+            }
+        }
+        assertTrue( "false positives: " + falsePositives, falsePositives < 600 );
+    }
+
+    @Test
+    public void remove_forgetsId_butKeepsOthers() {
+        ConnectionIdFilter filter = new ConnectionIdFilter( 16, new Random( 3 ) );
+        byte[] first = {1, 2, 3, 4, 5, 6, 7, 8};
+        byte[] second = {8, 7, 6, 5, 4, 3, 2, 1};
+        filter.add( first );
+        filter.add( second );
+        filter.remove( first );
+        assertFalse( filter.mightContain( first ) );
+        assertTrue( filter.mightContain( second ) );
+        assertEquals( 1, filter.getSize() );
+    }
+
+    @Test
+    public void mightContain_differentKeys_givesDifferentFalsePositives() {
+        ConnectionIdFilter first = new ConnectionIdFilter( 100, new Random( 4 ) );
+        ConnectionIdFilter second = new ConnectionIdFilter( 100, new Random( 5 ) );
+        Random random = new Random( 6 );
+        for ( int i = 0; i < 100; i++ ) {
+            byte[] id = randomId( random );
+            first.add( id );
+            second.add( id );
+        }
+        int falsePositivesOfBoth = 0;
+        int falsePositivesOfFirst = 0;
+        for ( int i = 0; i < 10000; i++ ) {
+            byte[] id = randomId( random );
+            if ( first.mightContain( id ) ) {
+                falsePositivesOfFirst++;
+                if ( second.mightContain( id ) ) {
+                    falsePositivesOfBoth++;
+                }
+            }
+        }
+        assertTrue( falsePositivesOfFirst > 0 );
+        // the key decides the slots, thus a false positive of one filter is rarely one of the other
+        assertTrue( "shared false positives: " + falsePositivesOfBoth,
+                falsePositivesOfBoth * 4 < falsePositivesOfFirst );
+    }
+}
@@ -0,0 +1,72 @@
+package com.timtrense.quic.impl.base;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @see com.timtrense.quic.impl.base.FlowControlImpl
+ */
+public class FlowControlImplTest {
+
+    @Test
+    public void tryReserve_composed_grantsMinimumOfBothLevels() {
+        FlowControlImpl connection = new FlowControlImpl( 100 );
+        FlowControlImpl streamA = new FlowControlImpl( 80, connection );
+        FlowControlImpl streamB = new FlowControlImpl( 80, connection );
+
+        assertEquals( 60, streamA.tryReserve( 60 ) );
+        assertEquals( 40, streamB.tryReserve( 60 ) );
+        assertEquals( 0, streamA.tryReserve( 10 ) );
+
+        assertEquals( 60, streamA.getTransferred() );
+        assertEquals( 40, streamB.getTransferred() );
+        assertEquals( 100, connection.getTransferred() );
+
+        assertTrue( connection.raiseLimit( 200 ) );
+        assertFalse( connection.raiseLimit( 150 ) );
+        assertEquals( 20, streamA.tryReserve( 50 ) );
+        assertEquals( 0, streamA.getCredit() );
+    }
+
+    @Test
+    public void tryReserve_concurrently_neverExceedsLimit() throws Exception {
+        FlowControlImpl connection = new FlowControlImpl( 100_000 );
+        FlowControlImpl[] streams = new FlowControlImpl[4];
+        Thread[] threads = new Thread[streams.length];
+        AtomicLong granted = new AtomicLong();
+        CountDownLatch start = new CountDownLatch( 1 );
+        for ( int i = 0; i < streams.length; i++ ) {
+            FlowControlImpl stream = streams[i] = new FlowControlImpl( 40_000, connection );
+            threads[i] = new Thread( () -> {
+                try {
+                    start.await();
+                }
+                catch ( InterruptedException e ) {
+                    return;
+                }
+                for ( int n = 0; n < 10_000; n++ ) {
+                    granted.addAndGet( stream.tryReserve( 7 ) );
+                }
+            } );
+            threads[i].start();
+        }
+        start.countDown();
+        for ( Thread thread : threads ) {
+            thread.join();
+        }
+        assertEquals( 100_000, granted.get() );
+        assertEquals( 100_000, connection.getTransferred() );
+        long sumOfStreams = 0;
+        for ( FlowControlImpl stream : streams ) {
+            assertTrue( stream.getTransferred() <= stream.getLimit() );
+            sumOfStreams += stream.getTransferred();
+        }
+        assertEquals( 100_000, sumOfStreams );
+    }
+}
@@ -0,0 +1,116 @@
+package com.timtrense.quic.impl.base;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @see com.timtrense.quic.impl.base.PacketNumberRangeSet
+ */
+public class PacketNumberRangeSetTest {
+
+    @Test
+    public void add_consecutivePacketNumbers_coalescesIntoOneRange() {
+        PacketNumberRangeSet set = new PacketNumberRangeSet();
+        for ( long pn = 0; pn < 100; pn++ ) {
+            assertTrue( set.add( pn ) );
+        }
+        assertEquals( 1, set.getRangeCount() );
+        assertEquals( 99, set.getLargest() );
+        assertEquals( 0, set.getSmallest() );
+    }
+
+    @Test
+    public void add_duplicatePacketNumber_returnsFalse() {
+        PacketNumberRangeSet set = new PacketNumberRangeSet();
+        assertTrue( set.add( 5 ) );
+        assertFalse( set.add( 5 ) );
+        assertEquals( 1, set.getRangeCount() );
+    }
+
+    @Test
+    public void add_packetNumberClosingGap_mergesAdjacentRanges() {
+        PacketNumberRangeSet set = new PacketNumberRangeSet();
+        set.addRange( 0, 4 );
+        set.addRange( 6, 9 );
+        set.add( 12 );
+        assertEquals( 3, set.getRangeCount() );
+        assertFalse( set.contains( 5 ) );
+
+        set.add( 5 );
+        assertEquals( 2, set.getRangeCount() );
+        assertEquals( 12, set.getLargest( 0 ) );
+        assertEquals( 9, set.getLargest( 1 ) );
+        assertEquals( 0, set.getSmallest( 1 ) );
+        assertTrue( set.contains( 5 ) );
+    }
+
+    @Test
+    public void addRange_overlappingSeveralRanges_mergesAllOfThem() {
+        PacketNumberRangeSet set = new PacketNumberRangeSet();
+        set.add( 1 );
+        set.add( 3 );
+        set.add( 5 );
+        set.add( 7 );
+        set.add( 20 );
+        set.addRange( 2, 8 );
+        assertEquals( 2, set.getRangeCount() );
+        assertEquals( 20, set.getLargest( 0 ) );
+        assertEquals( 8, set.getLargest( 1 ) );
+        assertEquals( 1, set.getSmallest( 1 ) );
+    }
+
+    @Test
+    public void add_moreRangesThanMaximum_dropsLowestRange() {
+        PacketNumberRangeSet set = new PacketNumberRangeSet( 3 );
+        set.add( 0 );
+        set.add( 2 );
+        set.add( 4 );
+        set.add( 6 );
+        assertEquals( 3, set.getRangeCount() );
+        assertEquals( 6, set.getLargest() );
+        assertEquals( 2, set.getSmallest() );
+        assertFalse( set.contains( 0 ) );
+    }
+
+    @Test
+    public void add_rangeBelowAllOfFullSet_dropsNewRange() {
+        PacketNumberRangeSet set = new PacketNumberRangeSet( 3 );
+        set.add( 2 );
+        set.add( 4 );
+        set.add( 6 );
+
+        assertFalse( set.add( 0 ) );
+
+        assertEquals( 3, set.getRangeCount() );
+        assertEquals( 6, set.getLargest() );
+        assertEquals( 2, set.getSmallest() );
+        assertFalse( set.contains( 0 ) );
+    }
+
+    @Test
+    public void removeBelow_packetNumberWithinRange_truncatesRange() {
+        PacketNumberRangeSet set = new PacketNumberRangeSet();
+        set.addRange( 0, 3 );
+        set.addRange( 10, 20 );
+        set.removeBelow( 15 );
+        assertEquals( 1, set.getRangeCount() );
+        assertEquals( 15, set.getSmallest() );
+        assertEquals( 20, set.getLargest() );
+    }
+
+    @Test
+    public void copyFrom_largerSet_keepsLargestRanges() {
+        PacketNumberRangeSet source = new PacketNumberRangeSet();
+        source.add( 1 );
+        source.add( 3 );
+        source.add( 5 );
+        PacketNumberRangeSet target = new PacketNumberRangeSet( 2 );
+        target.copyFrom( source );
+        assertEquals( 2, target.getRangeCount() );
+        assertEquals( 5, target.getLargest() );
+        assertEquals( 3, target.getSmallest() );
+    }
+}
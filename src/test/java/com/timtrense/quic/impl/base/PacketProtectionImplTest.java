@@ -0,0 +1,192 @@
+package com.timtrense.quic.impl.base;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import org.junit.Test;
+
+import com.timtrense.quic.EncryptionLevel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @see PacketProtectionImpl
+ * @see <a href="https://tools.ietf.org/html/draft-ietf-quic-tls-32#appendix-A.5">QUIC Spec-TLS/Appendix A.5</a>
+ */
+public class PacketProtectionImplTest {
+
+    private static final long PTO = 100_000_000L;
+    private static final byte[] PAYLOAD = new byte[]{(byte)0x01, (byte)0x02, (byte)0x03};
+
+    private static byte[] secret( int seed, int length ) {
+        byte[] secret = new byte[length];
+        Arrays.fill( secret, (byte)seed );
+        return secret;
+    }
+
+    private static PacketProtectionImpl[] createPair( CipherSuite suite ) throws GeneralSecurityException {
+        byte[] clientSecret = secret( 1, suite.getHashLength() );
+        byte[] serverSecret = secret( 2, suite.getHashLength() );
+        return new PacketProtectionImpl[]{
+                new PacketProtectionImpl( suite, EncryptionLevel.APPLICATION_DATA, clientSecret, serverSecret,
+                        Runnable::run ),
+                new PacketProtectionImpl( suite, EncryptionLevel.APPLICATION_DATA, serverSecret, clientSecret,
+                        Runnable::run )
+        };
+    }
+
+    /**
+     * @return a short header packet with a 4 bytes packet number and no destination connection id
+     */
+    private static byte[] seal( PacketProtectionImpl protection, long packetNumber ) throws GeneralSecurityException {
+        byte[] packet = new byte[5 + PAYLOAD.length + 16];
+        packet[0] = (byte)0x43;
+        for ( int i = 0; i < 4; i++ ) {
+            packet[1 + i] = (byte)( packetNumber >>> ( 24 - 8 * i ) );
+        }
+        System.arraycopy( PAYLOAD, 0, packet, 5, PAYLOAD.length );
+        protection.protectPacket( packet, 0, 1, 4, PAYLOAD.length, packetNumber );
+        return packet;
+    }
+
+    private static byte[] open( PacketProtectionImpl protection, byte[] packet, long nowNanos )
+            throws GeneralSecurityException {
+        byte[] copy = packet.clone();
+        byte[] mask = protection.deriveHeaderProtectionMask( copy, 5, 16 );
+        copy[0] ^= mask[0] & 0x1f;
+        long packetNumber = 0;
+        for ( int i = 0; i < 4; i++ ) {
+            copy[1 + i] ^= mask[1 + i];
+            packetNumber = packetNumber << 8 | ( copy[1 + i] & 0xFF );
+        }
+        int length = protection.unprotectPacket( copy, 0, 5, copy.length - 5, packetNumber, PTO, nowNanos );
+        return Arrays.copyOfRange( copy, 5, 5 + length );
+    }
+
+    @Test
+    public void protectPacket_givenAppendixAChaCha20Secret_matchesSpecExample() throws GeneralSecurityException {
+        byte[] secret = new byte[]{
+                (byte)0x9a, (byte)0xc3, (byte)0x12, (byte)0xa7, (byte)0xf8, (byte)0x77, (byte)0x46, (byte)0x8e,
+                (byte)0xbe, (byte)0x69, (byte)0x42, (byte)0x27, (byte)0x48, (byte)0xad, (byte)0x00, (byte)0xa1,
+                (byte)0x54, (byte)0x43, (byte)0xf1, (byte)0x82, (byte)0x03, (byte)0xa0, (byte)0x7d, (byte)0x60,
+                (byte)0x60, (byte)0xf6, (byte)0x88, (byte)0xf3, (byte)0x0f, (byte)0x21, (byte)0x63, (byte)0x2b
+        };
+        PacketProtectionImpl protection = new PacketProtectionImpl( CipherSuite.TLS_CHACHA20_POLY1305_SHA256,
+                EncryptionLevel.APPLICATION_DATA, secret, secret, Runnable::run );
+        byte[] packet = new byte[5 + 16];
+        packet[0] = (byte)0x42;
+        packet[1] = (byte)0x00;
+        packet[2] = (byte)0xbf;
+        packet[3] = (byte)0xf4;
+        packet[4] = (byte)0x01;
+
+        int length = protection.protectPacket( packet, 0, 1, 3, 1, 654360564L );
+
+        assertEquals( 17, length );
+        assertArrayEquals( new byte[]{
+                (byte)0x4c, (byte)0xfe, (byte)0x41, (byte)0x89, (byte)0x65, (byte)0x5e, (byte)0x5c, (byte)0xd5,
+                (byte)0x5c, (byte)0x41, (byte)0xf6, (byte)0x90, (byte)0x80, (byte)0x57, (byte)0x5d, (byte)0x79,
+                (byte)0x99, (byte)0xc2, (byte)0x5a, (byte)0x5b, (byte)0xfb
+        }, packet );
+    }
+
+    @Test
+    public void deriveNextSecret_givenAppendixAChaCha20Secret_matchesSpecExample() {
+        byte[] secret = new byte[]{
+                (byte)0x9a, (byte)0xc3, (byte)0x12, (byte)0xa7, (byte)0xf8, (byte)0x77, (byte)0x46, (byte)0x8e,
+                (byte)0xbe, (byte)0x69, (byte)0x42, (byte)0x27, (byte)0x48, (byte)0xad, (byte)0x00, (byte)0xa1,
+                (byte)0x54, (byte)0x43, (byte)0xf1, (byte)0x82, (byte)0x03, (byte)0xa0, (byte)0x7d, (byte)0x60,
+                (byte)0x60, (byte)0xf6, (byte)0x88, (byte)0xf3, (byte)0x0f, (byte)0x21, (byte)0x63, (byte)0x2b
+        };
+        assertArrayEquals( new byte[]{
+                (byte)0x12, (byte)0x23, (byte)0x50, (byte)0x47, (byte)0x55, (byte)0x03, (byte)0x6d, (byte)0x55,
+                (byte)0x63, (byte)0x42, (byte)0xee, (byte)0x93, (byte)0x61, (byte)0xd2, (byte)0x53, (byte)0x42,
+                (byte)0x1a, (byte)0x82, (byte)0x6c, (byte)0x9e, (byte)0xcd, (byte)0xf3, (byte)0xc7, (byte)0x14,
+                (byte)0x86, (byte)0x84, (byte)0xb3, (byte)0x6b, (byte)0x71, (byte)0x48, (byte)0x81, (byte)0xf9
+        }, CipherSuite.TLS_CHACHA20_POLY1305_SHA256.deriveNextSecret( secret ) );
+    }
+
+    @Test
+    public void unprotectPacket_givenAnySuite_restoresPayload() throws GeneralSecurityException {
+        for ( CipherSuite suite : CipherSuite.values() ) {
+            PacketProtectionImpl[] pair = createPair( suite );
+            assertArrayEquals( suite.name(), PAYLOAD, open( pair[1], seal( pair[0], 7 ), 0 ) );
+            assertArrayEquals( suite.name(), PAYLOAD, open( pair[0], seal( pair[1], 7 ), 0 ) );
+        }
+    }
+
+    @Test
+    public void initiateKeyUpdate_givenAcknowledgedPacket_peerFollowsAndRetainsPreviousKeys()
+            throws GeneralSecurityException {
+        PacketProtectionImpl[] pair = createPair( CipherSuite.TLS_AES_256_GCM_SHA384 );
+        PacketProtectionImpl client = pair[0];
+        PacketProtectionImpl server = pair[1];
+        open( server, seal( client, 0 ), 0 );
+        byte[] reordered = seal( client, 1 );
+        assertFalse( client.initiateKeyUpdate( 0 ) );
+        client.onPacketAcknowledged( 0 );
+
+        assertTrue( client.initiateKeyUpdate( 0 ) );
+        assertEquals( 1, client.getKeyPhase() );
+        assertArrayEquals( PAYLOAD, open( server, seal( client, 2 ), 0 ) );
+        assertEquals( 1, server.getKeyUpdates() );
+        assertEquals( 1, server.getKeyPhase() );
+        assertTrue( server.hasPreviousKeys() );
+
+        // the client learns about the completed key update from the response of the server
+        assertArrayEquals( PAYLOAD, open( client, seal( server, 0 ), 0 ) );
+        assertEquals( 1, client.getKeyUpdates() );
+        assertArrayEquals( PAYLOAD, open( server, reordered, PTO ) );
+    }
+
+    @Test
+    public void unprotectPacket_givenOldKeyPhaseAfterRetention_fails() throws GeneralSecurityException {
+        PacketProtectionImpl[] pair = createPair( CipherSuite.TLS_AES_128_GCM_SHA256 );
+        PacketProtectionImpl client = pair[0];
+        PacketProtectionImpl server = pair[1];
+        open( server, seal( client, 0 ), 0 );
+        byte[] reordered = seal( client, 1 );
+        client.onPacketAcknowledged( 0 );
+        client.initiateKeyUpdate( 0 );
+        open( server, seal( client, 2 ), 0 );
+
+        try {
+            open( server, reordered, PacketProtectionImpl.PREVIOUS_KEYS_RETENTION_PTOS * PTO );
+            fail( "packets of the previous key phase must not be accepted after their keys were discarded" );
+        }
+        catch ( GeneralSecurityException e ) {
+            assertFalse( server.hasPreviousKeys() );
+        }
+    }
+
+    @Test
+    public void unprotectPacket_givenForgedKeyPhase_doesNotUpdateKeys() throws GeneralSecurityException {
+        PacketProtectionImpl[] pair = createPair( CipherSuite.TLS_CHACHA20_POLY1305_SHA256 );
+        byte[] packet = seal( pair[0], 3 );
+        // flip the Key Phase bit underneath the header protection
+        packet[0] ^= PacketProtectionImpl.KEY_PHASE_BIT;
+
+        try {
+            open( pair[1], packet, 0 );
+            fail( "a packet with a forged Key Phase bit must not be accepted" );
+        }
+        catch ( GeneralSecurityException e ) {
+            assertEquals( 0, pair[1].getKeyUpdates() );
+        }
+    }
+
+    @Test
+    public void initiateKeyUpdate_givenHandshakeLevel_isRefused() throws GeneralSecurityException {
+        CipherSuite suite = CipherSuite.TLS_AES_128_GCM_SHA256;
+        PacketProtectionImpl protection = new PacketProtectionImpl( suite, EncryptionLevel.HANDSHAKE,
+                secret( 1, suite.getHashLength() ), secret( 2, suite.getHashLength() ), Runnable::run );
+        seal( protection, 0 );
+        protection.onPacketAcknowledged( 0 );
+
+        assertFalse( protection.initiateKeyUpdate( 0 ) );
+        assertEquals( 0, protection.getKeyPhase() );
+    }
+}
@@ -0,0 +1,116 @@
+package com.timtrense.quic.impl.base;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static com.timtrense.quic.HexByteStringConvertHelper.hexStringToByteArray;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * @see com.timtrense.quic.impl.base.QuicLbConnectionIdGenerator
+ */
+public class QuicLbConnectionIdGeneratorTest {
+
+    private static final byte[] SERVER_ID = {0x31, 0x44, 0x1a};
+    private static final byte[] KEY = {
+            0x4d, (byte)0x9d, 0x0f, (byte)0xf5, (byte)0xe3, 0x74, 0x27, 0x1c,
+            0x6a, 0x2b, 0x5f, 0x10, 0x01, (byte)0xc2, 0x33, (byte)0x8e};
+    private static final byte[] FOUR_PASS_KEY = hexStringToByteArray( "8f95f09245765f80256934e50c66207f" );
+
+    @Test
+    public void generateConnectionId_plaintext_encodesServerAndShard() {
+        QuicLbConnectionIdGenerator generator = new QuicLbConnectionIdGenerator(
+                QuicLbMode.PLAINTEXT, 2, SERVER_ID, 4, null, new Random( 1 ) );
+        assertEquals( 9, generator.getConnectionIdLength() );
+
+        byte[] connectionId = generator.generateConnectionId( 7 );
+        assertEquals( 9, connectionId.length );
+        assertEquals( 2 << 5 | 8, connectionId[0] & 0xFF );
+        assertArrayEquals( SERVER_ID, Arrays.copyOfRange( connectionId, 1, 4 ) );
+        assertEquals( 7, generator.decodeShardId( connectionId, 0, connectionId.length ) );
+    }
+
+    @Test
+    public void decodeShardId_encrypted_reversesEncryption() {
+        Random random = new Random( 1 );
+        // 16 bytes after the first octet use a single block, all other lengths the Feistel network
+        for ( int nonceLength : new int[]{3, 4, 12, 15} ) {
+            QuicLbConnectionIdGenerator generator = new QuicLbConnectionIdGenerator(
+                    QuicLbMode.ENCRYPTED, 0, SERVER_ID, nonceLength, KEY, random );
+            for ( int shardId = 0; shardId < 256; shardId += 15 ) {
+                byte[] connectionId = generator.generateConnectionId( shardId );
+                assertEquals( shardId, generator.decodeShardId( connectionId, 0, connectionId.length ) );
+                assertFalse( Arrays.equals( SERVER_ID, Arrays.copyOfRange( connectionId, 1, 4 ) ) );
+            }
+        }
+    }
+
+    @Test
+    public void generateConnectionId_encryptedOddLength_splitsMiddleByte() {
+        QuicLbConnectionIdGenerator generator = new QuicLbConnectionIdGenerator(
+                QuicLbMode.ENCRYPTED, 0, hexStringToByteArray( "ed793a" ), 3, FOUR_PASS_KEY,
+                new FixedRandom( hexStringToByteArray( "080dbf" ) ) );
+
+        byte[] connectionId = generator.generateConnectionId( 0xee );
+        assertArrayEquals( hexStringToByteArray( "071cbc468b6bbcaf" ), connectionId );
+        assertEquals( 0xee, generator.decodeShardId( connectionId, 0, connectionId.length ) );
+
+        generator = new QuicLbConnectionIdGenerator( QuicLbMode.ENCRYPTED, 0, SERVER_ID, 11, FOUR_PASS_KEY,
+                new FixedRandom( hexStringToByteArray( "9fa2b1c4d5e6f708192a3b" ) ) );
+        connectionId = generator.generateConnectionId( 0x0c );
+        assertArrayEquals( hexStringToByteArray( "0f708bee9007d061be569161e0818e02" ), connectionId );
+        assertEquals( 0x0c, generator.decodeShardId( connectionId, 0, connectionId.length ) );
+    }
+
+    @Test
+    public void generateConnectionId_encryptedEvenLength_matchesFourPasses() {
+        QuicLbConnectionIdGenerator generator = new QuicLbConnectionIdGenerator(
+                QuicLbMode.ENCRYPTED, 0, hexStringToByteArray( "ed793a" ), 4, FOUR_PASS_KEY,
+                new FixedRandom( hexStringToByteArray( "080dbf42" ) ) );
+
+        byte[] connectionId = generator.generateConnectionId( 0x07 );
+        assertArrayEquals( hexStringToByteArray( "083e9b301ff2ece42e" ), connectionId );
+        assertEquals( 0x07, generator.decodeShardId( connectionId, 0, connectionId.length ) );
+    }
+
+    @Test
+    public void decodeShardId_foreignConnectionId_givesMinusOne() {
+        QuicLbConnectionIdGenerator generator = new QuicLbConnectionIdGenerator(
+                QuicLbMode.ENCRYPTED, 1, SERVER_ID, 4, KEY, new Random( 1 ) );
+        byte[] connectionId = generator.generateConnectionId( 3 );
+
+        // other config rotation
+        connectionId[0] = (byte)( connectionId[0] ^ 0b00100000 );
+        assertEquals( -1, generator.decodeShardId( connectionId, 0, connectionId.length ) );
+        // truncated
+        assertEquals( -1, generator.decodeShardId( connectionId, 0, connectionId.length - 1 ) );
+        assertEquals( -1, new RandomConnectionIdGenerator( new Random( 1 ), 8 )
+                .decodeShardId( connectionId, 0, connectionId.length ) );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void constructor_tooLongConnectionId_throws() {
+        new QuicLbConnectionIdGenerator( QuicLbMode.PLAINTEXT, 0, SERVER_ID, 16, null, new Random( 1 ) );
+    }
+
+    /**
+     * Draws the given nonce instead of random bytes
+     */
+    private static class FixedRandom extends Random {
+
+        private final byte[] nonce;
+
+        private FixedRandom( byte[] nonce ) {
+            this.nonce = nonce;
+        }
+
+        @Override
+        public void nextBytes( byte[] bytes ) {
+            System.arraycopy( nonce, 0, bytes, 0, bytes.length );
+        }
+    }
+}
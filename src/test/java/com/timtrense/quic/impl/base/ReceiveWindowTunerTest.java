@@ -0,0 +1,68 @@
+package com.timtrense.quic.impl.base;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @see com.timtrense.quic.impl.base.ReceiveWindowTuner
+ */
+public class ReceiveWindowTunerTest {
+
+    private static final long RTT = 10_000_000L;
+
+    @Test
+    public void update_lessThanHalfConsumed_noUpdate() {
+        FlowControlImpl flowControl = new FlowControlImpl( 1000 );
+        ReceiveWindowTuner tuner = new ReceiveWindowTuner( flowControl, 10_000 );
+
+        tuner.onDataConsumed( 400 );
+
+        assertFalse( tuner.isUpdateDue() );
+        assertEquals( -1, tuner.update( 0, RTT ) );
+        assertEquals( 1000, flowControl.getLimit() );
+    }
+
+    @Test
+    public void update_consumedSlowly_keepsWindow() {
+        FlowControlImpl flowControl = new FlowControlImpl( 1000 );
+        ReceiveWindowTuner tuner = new ReceiveWindowTuner( flowControl, 10_000 );
+
+        tuner.onDataConsumed( 500 );
+        assertEquals( 1500, tuner.update( 0, RTT ) );
+        tuner.onDataConsumed( 500 );
+        assertEquals( 2000, tuner.update( 10 * RTT, RTT ) );
+
+        assertEquals( 1000, tuner.getWindow() );
+        assertEquals( 2000, flowControl.getLimit() );
+    }
+
+    @Test
+    public void update_consumedWithinTwoRtt_doublesWindowUpToMax() {
+        FlowControlImpl flowControl = new FlowControlImpl( 1000 );
+        ReceiveWindowTuner tuner = new ReceiveWindowTuner( flowControl, 3000 );
+
+        tuner.onDataConsumed( 500 );
+        tuner.update( 0, RTT );
+        tuner.onDataConsumed( 500 );
+        assertEquals( 3000, tuner.update( RTT, RTT ) );
+        assertEquals( 2000, tuner.getWindow() );
+
+        tuner.onDataConsumed( 1000 );
+        assertEquals( 5000, tuner.update( 2 * RTT, RTT ) );
+        assertEquals( 3000, tuner.getWindow() );
+    }
+
+    @Test
+    public void ensureWindow_boundedByMaxWindow() {
+        ReceiveWindowTuner tuner = new ReceiveWindowTuner( new FlowControlImpl( 1000 ), 4000 );
+
+        tuner.ensureWindow( 1500 );
+        assertEquals( 1500, tuner.getWindow() );
+        tuner.ensureWindow( 1_000_000 );
+        assertEquals( 4000, tuner.getWindow() );
+        assertTrue( tuner.getMaxWindow() >= tuner.getWindow() );
+    }
+}
@@ -0,0 +1,54 @@
+package com.timtrense.quic.impl.base;
+
+import org.junit.Test;
+
+import com.timtrense.quic.PacketNumberSpace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @see com.timtrense.quic.impl.base.ReceivedPacketTracker
+ */
+public class ReceivedPacketTrackerTest {
+
+    @Test
+    public void onPacketReceived_duplicatePacketNumber_returnsFalse() {
+        ReceivedPacketTracker tracker = new ReceivedPacketTracker( PacketNumberSpace.APPLICATION_DATA );
+
+        assertTrue( tracker.onPacketReceived( 3, true, 0 ) );
+        assertFalse( tracker.onPacketReceived( 3, true, 0 ) );
+    }
+
+    @Test
+    public void onPacketReceived_packetOfEvictedRange_isDroppedAfterMerges() {
+        ReceivedPacketTracker tracker = new ReceivedPacketTracker( PacketNumberSpace.APPLICATION_DATA, 2 );
+        assertTrue( tracker.onPacketReceived( 0, true, 0 ) );
+        assertTrue( tracker.onPacketReceived( 2, true, 0 ) );
+        // evicts the range of packet 0
+        assertTrue( tracker.onPacketReceived( 4, true, 0 ) );
+        assertEquals( 0, tracker.getDuplicateThreshold() );
+        // merges the ranges of packets 2 and 4, leaving room for another range
+        assertTrue( tracker.onPacketReceived( 3, true, 0 ) );
+        assertEquals( 1, tracker.getReceivedPacketNumbers().getRangeCount() );
+
+        assertFalse( tracker.onPacketReceived( 0, true, 0 ) );
+        // never received and above the evicted range
+        assertTrue( tracker.onPacketReceived( 1, true, 0 ) );
+    }
+
+    @Test
+    public void onAckFrameAcknowledged_packetsBelowLargestAcknowledged_areDropped() {
+        ReceivedPacketTracker tracker = new ReceivedPacketTracker( PacketNumberSpace.APPLICATION_DATA );
+        assertTrue( tracker.onPacketReceived( 0, true, 0 ) );
+        assertTrue( tracker.onPacketReceived( 5, true, 0 ) );
+
+        tracker.onAckFrameAcknowledged( 5 );
+
+        assertEquals( 5, tracker.getReceivedPacketNumbers().getSmallest() );
+        assertFalse( tracker.onPacketReceived( 3, true, 0 ) );
+        assertFalse( tracker.onPacketReceived( 0, true, 0 ) );
+        assertTrue( tracker.onPacketReceived( 6, true, 0 ) );
+    }
+}
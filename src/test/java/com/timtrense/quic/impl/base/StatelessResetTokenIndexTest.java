@@ -0,0 +1,82 @@
+package com.timtrense.quic.impl.base;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.timtrense.quic.ConnectionId;
+import com.timtrense.quic.StatelessResetToken;
+import com.timtrense.quic.VariableLengthInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @see com.timtrense.quic.impl.base.StatelessResetTokenIndex
+ * @see com.timtrense.quic.impl.base.StatelessResetTokenGenerator
+ */
+public class StatelessResetTokenIndexTest {
+
+    private static final byte[] KEY = new byte[32];
+
+    private static StatelessResetToken token( int id ) {
+        ConnectionId connectionId = new ConnectionIdImpl( new byte[]{(byte)id, 1, 2, 3, 4, 5, 6, 7},
+                VariableLengthInteger.ZERO );
+        return new StatelessResetTokenGenerator( KEY ).generate( connectionId );
+    }
+
+    private static byte[] datagramEndingWith( StatelessResetToken token, int length ) {
+        byte[] datagram = new byte[length + 3];
+        datagram[2] = 0x45;
+        System.arraycopy( token.getValue(), 0, datagram, 2 + length - token.getValue().length,
+                token.getValue().length );
+        return datagram;
+    }
+
+    @Test
+    public void generate_sameConnectionId_givesSameToken() {
+        assertArrayEquals( token( 1 ).getValue(), token( 1 ).getValue() );
+        assertFalse( Arrays.equals( token( 1 ).getValue(), token( 2 ).getValue() ) );
+        assertEquals( StatelessResetTokenGenerator.TOKEN_LENGTH, token( 1 ).getValue().length );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void generator_shortKey_throws() {
+        new StatelessResetTokenGenerator( new byte[8] );
+    }
+
+    @Test
+    public void find_datagramEndingWithToken_givesOwner() {
+        StatelessResetTokenIndex<String> index = new StatelessResetTokenIndex<>( new Random( 1 ) );
+        for ( int i = 0; i < 100; i++ ) {
+            index.add( token( i ), "connection" + i );
+        }
+        assertEquals( 100, index.size() );
+
+        assertEquals( "connection42", index.find( datagramEndingWith( token( 42 ), 30 ), 2, 30 ) );
+        assertNull( index.find( datagramEndingWith( token( 100 ), 30 ), 2, 30 ) );
+        // too short to be a stateless reset
+        assertNull( index.find( datagramEndingWith( token( 42 ), 20 ), 2, 20 ) );
+    }
+
+    @Test
+    public void remove_tokenOrOwner_forgetsTokens() {
+        StatelessResetTokenIndex<String> index = new StatelessResetTokenIndex<>( new Random( 1 ) );
+        String owner = "owner";
+        index.add( token( 1 ), owner );
+        index.add( token( 2 ), owner );
+        index.add( token( 3 ), "other" );
+
+        assertTrue( index.remove( token( 3 ) ) );
+        assertFalse( index.remove( token( 3 ) ) );
+        assertSame( owner, index.find( datagramEndingWith( token( 2 ), 21 ), 2, 21 ) );
+        assertEquals( 2, index.removeAll( owner ) );
+        assertEquals( 0, index.size() );
+        assertNull( index.find( datagramEndingWith( token( 2 ), 21 ), 2, 21 ) );
+    }
+}
@@ -0,0 +1,150 @@
+package com.timtrense.quic.impl.base;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.timtrense.quic.FrameType;
+import com.timtrense.quic.VariableLengthInteger;
+import com.timtrense.quic.impl.exception.QuicTransportException;
+import com.timtrense.quic.impl.frames.StreamFrameImpl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @see com.timtrense.quic.impl.base.StreamImpl
+ */
+public class StreamImplTest {
+
+    private static StreamImpl createStream() {
+        StreamImpl stream = new StreamImpl(
+                new StreamIdImpl( new VariableLengthInteger( 0 ) ),
+                new FlowControlImpl( 1000 ),
+                new FlowControlImpl( 1000 )
+        );
+        stream.setReceiveBuffer( new StreamReceiveBuffer( new ReassemblyMemoryBudget( 1000 ), 1000 ) );
+        stream.setSendBuffer( new StreamSendBuffer() );
+        return stream;
+    }
+
+    private static StreamFrameImpl frame( long offset, byte[] data, boolean fin ) {
+        StreamFrameImpl frame = new StreamFrameImpl( fin ? FrameType.STREAM_OFF_LEN_FIN : FrameType.STREAM_OFF_LEN );
+        frame.setStreamId( new StreamIdImpl( new VariableLengthInteger( 0 ) ) );
+        frame.setOffset( new VariableLengthInteger( offset ) );
+        frame.setLength( new VariableLengthInteger( data.length ) );
+        frame.setData( data );
+        return frame;
+    }
+
+    @Test( timeout = 5000 )
+    public void read_noDataYet_blocksUntilReceived() throws Exception {
+        StreamImpl stream = createStream();
+        CompletableFuture<byte[]> result = CompletableFuture.supplyAsync( () -> {
+            try {
+                InputStream in = stream.getInputStream();
+                byte[] buffer = new byte[3];
+                int count = in.read( buffer );
+                return count == 3 ? buffer : null;
+            }
+            catch ( IOException e ) {
+                throw new IllegalStateException( e );
+            }
+        } );
+        Thread.sleep( 50 );
+        assertFalse( result.isDone() );
+
+        stream.onFrameReceived( frame( 0, new byte[]{ 1, 2, 3 }, true ) );
+
+        assertArrayEquals( new byte[]{ 1, 2, 3 }, result.get( 1, TimeUnit.SECONDS ) );
+        assertEquals( -1, stream.read( ByteBuffer.allocate( 1 ) ) );
+        assertEquals( ReceivingStreamStateImpl.DATA_READ, stream.getCurrentReceivingState() );
+    }
+
+    @Test( timeout = 5000 )
+    public void read_resetWhileBlocked_throws() throws Exception {
+        StreamImpl stream = createStream();
+        CompletableFuture<Boolean> failed = CompletableFuture.supplyAsync( () -> {
+            try {
+                stream.read( ByteBuffer.allocate( 1 ) );
+                return false;
+            }
+            catch ( IOException e ) {
+                return true;
+            }
+        } );
+        Thread.sleep( 50 );
+        stream.onResetReceived();
+
+        assertTrue( failed.get( 1, TimeUnit.SECONDS ) );
+    }
+
+    @Test( timeout = 5000 )
+    public void write_sendBufferFull_blocksUntilAcknowledged() throws Exception {
+        StreamImpl stream = createStream();
+        stream.setMaxSendBuffer( 4 );
+        stream.write( ByteBuffer.wrap( new byte[]{ 1, 2, 3, 4 } ) );
+
+        CompletableFuture<Void> secondWrite = CompletableFuture.runAsync( () -> {
+            try {
+                stream.getOutputStream().write( 5 );
+            }
+            catch ( IOException e ) {
+                throw new IllegalStateException( e );
+            }
+        } );
+        Thread.sleep( 50 );
+        assertFalse( secondWrite.isDone() );
+
+        StreamFrameImpl sent = stream.nextFrame( 100 );
+        stream.onFrameAcknowledged( sent );
+
+        secondWrite.get( 1, TimeUnit.SECONDS );
+        assertTrue( stream.hasDataToSend() );
+    }
+
+    @Test
+    public void write_afterFinish_throws() throws IOException, QuicTransportException {
+        StreamImpl stream = createStream();
+        stream.getOutputStream().close();
+        try {
+            stream.write( ByteBuffer.allocate( 1 ) );
+            fail();
+        }
+        catch ( IOException expected ) {
+            assertEquals( SendingStreamStateImpl.SEND, stream.getCurrentSendingState() );
+        }
+    }
+
+    @Test
+    public void read_sendOnlyStream_throws() {
+        StreamImpl stream = createStream();
+        stream.setReceiveBuffer( null );
+
+        try {
+            stream.read( ByteBuffer.allocate( 1 ) );
+            fail( "a stream without receiving part must not be read from" );
+        }
+        catch ( IOException e ) {
+            assertEquals( ReceivingStreamStateImpl.NEW, stream.getCurrentReceivingState() );
+        }
+    }
+
+    @Test
+    public void equals_sameIdDifferentState_givesTrue() {
+        StreamImpl stream = createStream();
+        StreamImpl other = createStream();
+        other.setPriority( DefaultStreamPriority.MAX_PRIORITY );
+        other.setCurrentSendingState( SendingStreamStateImpl.SEND );
+
+        assertEquals( stream, other );
+        assertEquals( stream.hashCode(), other.hashCode() );
+    }
+}
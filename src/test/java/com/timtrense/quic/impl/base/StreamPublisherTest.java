@@ -0,0 +1,107 @@
+package com.timtrense.quic.impl.base;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+import org.junit.Test;
+
+import com.timtrense.quic.FrameType;
+import com.timtrense.quic.VariableLengthInteger;
+import com.timtrense.quic.impl.frames.StreamFrameImpl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @see com.timtrense.quic.impl.base.StreamPublisher
+ */
+public class StreamPublisherTest {
+
+    private static class RecordingSubscriber implements Flow.Subscriber<ByteBuffer> {
+
+        private final List<ByteBuffer> items = new ArrayList<>();
+        private Flow.Subscription subscription;
+        private boolean completed;
+
+        @Override
+        public void onSubscribe( Flow.Subscription subscription ) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext( ByteBuffer item ) {
+            items.add( item );
+        }
+
+        @Override
+        public void onError( Throwable throwable ) {
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+
+    private static class RecordingListener implements StreamEventListener {
+
+        private long grantedLimit = -1;
+
+        @Override
+        public void onStreamDataRead( StreamImpl stream, int numberOfBytes ) {
+        }
+
+        @Override
+        public void onStreamDataWritten( StreamImpl stream ) {
+        }
+
+        @Override
+        public void onStreamCreditGranted( StreamImpl stream, long newLimit ) {
+            grantedLimit = newLimit;
+        }
+    }
+
+    private static StreamFrameImpl frame( long offset, int length, boolean fin ) {
+        StreamFrameImpl frame = new StreamFrameImpl( fin ? FrameType.STREAM_OFF_LEN_FIN : FrameType.STREAM_OFF_LEN );
+        frame.setStreamId( new StreamIdImpl( new VariableLengthInteger( 0 ) ) );
+        frame.setOffset( new VariableLengthInteger( offset ) );
+        frame.setLength( new VariableLengthInteger( length ) );
+        frame.setData( new byte[length] );
+        return frame;
+    }
+
+    @Test
+    public void request_grantsCreditPerChunkAndDeliversOnlyDemanded() throws Exception {
+        StreamImpl stream = new StreamImpl(
+                new StreamIdImpl( new VariableLengthInteger( 0 ) ),
+                new FlowControlImpl( 0 ),
+                new FlowControlImpl( 0 )
+        );
+        stream.setReceiveBuffer( new StreamReceiveBuffer( new ReassemblyMemoryBudget( 1000 ), 1000 ) );
+        RecordingListener listener = new RecordingListener();
+        stream.setEventListener( listener );
+        StreamPublisher publisher = new StreamPublisher( stream, 10, Runnable::run );
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe( subscriber );
+
+        subscriber.subscription.request( 2 );
+        assertEquals( 20, listener.grantedLimit );
+        assertEquals( 20, stream.getReceivingFlowControl().getLimit() );
+
+        stream.onFrameReceived( frame( 0, 15, false ) );
+        assertEquals( 2, subscriber.items.size() );
+        assertEquals( 10, subscriber.items.get( 0 ).remaining() );
+        assertEquals( 5, subscriber.items.get( 1 ).remaining() );
+
+        stream.onFrameReceived( frame( 15, 5, true ) );
+        assertEquals( 2, subscriber.items.size() );
+        assertFalse( subscriber.completed );
+
+        subscriber.subscription.request( 1 );
+        assertEquals( 3, subscriber.items.size() );
+        assertTrue( subscriber.completed );
+    }
+}
@@ -0,0 +1,101 @@
+package com.timtrense.quic.impl.base;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import com.timtrense.quic.TransportErrorCode;
+import com.timtrense.quic.impl.exception.QuicTransportException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @see com.timtrense.quic.impl.base.StreamReceiveBuffer
+ */
+public class StreamReceiveBufferTest {
+
+    private static byte[] bytes( int from, int to ) {
+        byte[] result = new byte[to - from];
+        for ( int i = 0; i < result.length; i++ ) {
+            result[i] = (byte)( from + i );
+        }
+        return result;
+    }
+
+    private static byte[] readAll( StreamReceiveBuffer buffer ) {
+        ByteBuffer target = ByteBuffer.allocate( 1024 );
+        buffer.read( target );
+        target.flip();
+        byte[] result = new byte[target.remaining()];
+        target.get( result );
+        return result;
+    }
+
+    @Test
+    public void read_outOfOrderAndOverlapping_deliversInOrder() throws QuicTransportException {
+        ReassemblyMemoryBudget budget = new ReassemblyMemoryBudget( 1000 );
+        StreamReceiveBuffer buffer = new StreamReceiveBuffer( budget, 1000 );
+
+        assertTrue( buffer.onDataReceived( 20, bytes( 20, 30 ), 0, 10, true ) );
+        assertTrue( buffer.onDataReceived( 5, bytes( 5, 15 ), 0, 10, false ) );
+        assertEquals( 0, buffer.getReadableBytes() );
+        assertEquals( 0, readAll( buffer ).length );
+
+        // overlaps both held segments and fills the gaps
+        assertTrue( buffer.onDataReceived( 0, bytes( 0, 25 ), 0, 25, false ) );
+        assertEquals( 30, buffer.getBufferedBytes() );
+        assertEquals( 30, budget.getUsedBytes() );
+        assertTrue( buffer.isAllDataReceived() );
+
+        assertArrayEquals( bytes( 0, 30 ), readAll( buffer ) );
+        assertTrue( buffer.isAllDataRead() );
+        assertEquals( 0, budget.getUsedBytes() );
+    }
+
+    @Test
+    public void read_partially_keepsRemainder() throws QuicTransportException {
+        StreamReceiveBuffer buffer = new StreamReceiveBuffer( new ReassemblyMemoryBudget( 1000 ), 1000 );
+        buffer.onDataReceived( 0, bytes( 0, 10 ), 0, 10, false );
+
+        ByteBuffer target = ByteBuffer.allocate( 4 );
+        assertEquals( 4, buffer.read( target ) );
+        assertEquals( 6, buffer.getReadableBytes() );
+
+        // retransmission of delivered data is ignored
+        assertTrue( buffer.onDataReceived( 0, bytes( 0, 10 ), 0, 10, false ) );
+        assertEquals( 6, buffer.getBufferedBytes() );
+        assertArrayEquals( bytes( 4, 10 ), readAll( buffer ) );
+    }
+
+    @Test
+    public void onDataReceived_exceedingBudgets_rejected() throws QuicTransportException {
+        ReassemblyMemoryBudget budget = new ReassemblyMemoryBudget( 15 );
+        StreamReceiveBuffer streamA = new StreamReceiveBuffer( budget, 10 );
+        StreamReceiveBuffer streamB = new StreamReceiveBuffer( budget, 10 );
+
+        assertFalse( streamA.onDataReceived( 100, bytes( 0, 11 ), 0, 11, false ) );
+        assertTrue( streamA.onDataReceived( 100, bytes( 0, 10 ), 0, 10, false ) );
+        assertFalse( streamB.onDataReceived( 100, bytes( 0, 6 ), 0, 6, false ) );
+        assertTrue( streamB.onDataReceived( 100, bytes( 0, 5 ), 0, 5, false ) );
+
+        streamA.discard();
+        assertEquals( 5, budget.getUsedBytes() );
+    }
+
+    @Test
+    public void onDataReceived_changedFinalSize_finalSizeError() throws QuicTransportException {
+        StreamReceiveBuffer buffer = new StreamReceiveBuffer( new ReassemblyMemoryBudget( 1000 ), 1000 );
+        buffer.onDataReceived( 0, bytes( 0, 10 ), 0, 10, true );
+        try {
+            buffer.onDataReceived( 10, bytes( 10, 12 ), 0, 2, false );
+            fail();
+        }
+        catch ( QuicTransportException e ) {
+            assertEquals( TransportErrorCode.FINAL_SIZE_ERROR, e.getErrorCode() );
+        }
+    }
+}
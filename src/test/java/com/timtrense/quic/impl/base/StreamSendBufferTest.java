@@ -0,0 +1,134 @@
+package com.timtrense.quic.impl.base;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.timtrense.quic.StreamId;
+import com.timtrense.quic.VariableLengthInteger;
+import com.timtrense.quic.impl.frames.StreamFrameImpl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @see com.timtrense.quic.impl.base.StreamSendBuffer
+ */
+public class StreamSendBufferTest {
+
+    private static final StreamId STREAM_ID = new StreamIdImpl( new VariableLengthInteger( 4 ) );
+
+    private static void acknowledge( StreamSendBuffer buffer, StreamFrameImpl frame ) {
+        buffer.onAcknowledged( frame.getOffset().longValue(), frame.getLength().longValue(), frame.isFinBitSet() );
+    }
+
+    @Test
+    public void nextFrame_slicesWrittenBufferWithoutCopy() {
+        StreamSendBuffer buffer = new StreamSendBuffer();
+        ByteBuffer written = ByteBuffer.wrap( new byte[]{ 1, 2, 3, 4, 5 } );
+        buffer.write( written, null );
+        buffer.finish();
+
+        StreamFrameImpl frame = buffer.nextFrame( STREAM_ID, 3, new FlowControlImpl( 1000 ) );
+
+        assertEquals( 0, frame.getOffset().longValue() );
+        assertEquals( 3, frame.getDataLength() );
+        // a view on the written array rather than a copy
+        written.array()[0] = 42;
+        assertEquals( 42, frame.getDataBuffer().get( 0 ) );
+        assertFalse( frame.isFinBitSet() );
+        assertEquals( 2, frame.getChunk().getReferenceCount() );
+        frame.releaseChunk();
+
+        StreamFrameImpl last = buffer.nextFrame( STREAM_ID, 3, new FlowControlImpl( 1000 ) );
+        assertEquals( 3, last.getOffset().longValue() );
+        assertEquals( 2, last.getDataLength() );
+        assertTrue( last.isFinBitSet() );
+        assertTrue( buffer.isAllDataSent() );
+        assertFalse( buffer.hasDataToSend() );
+    }
+
+    @Test
+    public void onAcknowledged_outOfOrder_releasesChunksOnceContiguous() {
+        StreamSendBuffer buffer = new StreamSendBuffer();
+        List<ByteBuffer> released = new ArrayList<>();
+        buffer.write( ByteBuffer.allocate( 10 ), released::add );
+        buffer.write( ByteBuffer.allocate( 10 ), released::add );
+        FlowControlImpl flowControl = new FlowControlImpl( 1000 );
+
+        StreamFrameImpl first = buffer.nextFrame( STREAM_ID, 100, flowControl );
+        StreamFrameImpl second = buffer.nextFrame( STREAM_ID, 100, flowControl );
+        first.releaseChunk();
+        second.releaseChunk();
+
+        acknowledge( buffer, second );
+        assertEquals( 0, released.size() );
+        assertEquals( 0, buffer.getAcknowledgedOffset() );
+
+        acknowledge( buffer, first );
+        assertEquals( 2, released.size() );
+        assertEquals( 20, buffer.getAcknowledgedOffset() );
+        assertEquals( 0, buffer.getBufferedBytes() );
+    }
+
+    @Test
+    public void onLost_retransmitsBeforeNewData() {
+        StreamSendBuffer buffer = new StreamSendBuffer();
+        buffer.write( ByteBuffer.allocate( 30 ), null );
+        FlowControlImpl flowControl = new FlowControlImpl( 1000 );
+
+        StreamFrameImpl first = buffer.nextFrame( STREAM_ID, 10, flowControl );
+        StreamFrameImpl second = buffer.nextFrame( STREAM_ID, 10, flowControl );
+        buffer.onLost( 0, 10, false );
+        acknowledge( buffer, second );
+
+        StreamFrameImpl retransmission = buffer.nextFrame( STREAM_ID, 100, flowControl );
+        assertEquals( 0, retransmission.getOffset().longValue() );
+        assertEquals( 10, retransmission.getDataLength() );
+        StreamFrameImpl next = buffer.nextFrame( STREAM_ID, 100, flowControl );
+        assertEquals( 20, next.getOffset().longValue() );
+        assertEquals( 30, flowControl.getTransferred() );
+    }
+
+    @Test
+    public void nextFrame_noCredit_returnsNull() {
+        StreamSendBuffer buffer = new StreamSendBuffer();
+        buffer.write( ByteBuffer.allocate( 30 ), null );
+        FlowControlImpl flowControl = new FlowControlImpl( 8 );
+
+        assertEquals( 8, buffer.nextFrame( STREAM_ID, 100, flowControl ).getDataLength() );
+        assertNull( buffer.nextFrame( STREAM_ID, 100, flowControl ) );
+        assertTrue( buffer.hasDataToSend() );
+    }
+
+    @Test
+    public void onAcknowledged_moreGapsThanDefaultRanges_keepsAllRanges() {
+        int length = 2 * PacketNumberRangeSet.DEFAULT_MAX_RANGES + 2;
+        StreamSendBuffer buffer = new StreamSendBuffer();
+        List<ByteBuffer> released = new ArrayList<>();
+        buffer.write( ByteBuffer.allocate( length ), released::add );
+        FlowControlImpl flowControl = new FlowControlImpl( length );
+        // send every byte in its own frame
+        for ( StreamFrameImpl frame; ( frame = buffer.nextFrame( STREAM_ID, 1, flowControl ) ) != null; ) {
+            frame.releaseChunk();
+        }
+
+        for ( int offset = length - 1; offset > 0; offset -= 2 ) {
+            buffer.onAcknowledged( offset, 1, false );
+            buffer.onLost( offset - 1, 1, false );
+        }
+        for ( int offset = 0; offset < length; offset += 2 ) {
+            StreamFrameImpl retransmission = buffer.nextFrame( STREAM_ID, 1, flowControl );
+            assertEquals( offset, retransmission.getOffset().longValue() );
+            retransmission.releaseChunk();
+            acknowledge( buffer, retransmission );
+        }
+
+        assertEquals( length, buffer.getAcknowledgedOffset() );
+        assertEquals( 1, released.size() );
+    }
+}
@@ -0,0 +1,89 @@
+package com.timtrense.quic.impl.base;
+
+import org.junit.Test;
+
+import com.timtrense.quic.VariableLengthInteger;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @see com.timtrense.quic.impl.base.StreamSendScheduler
+ */
+public class StreamSendSchedulerTest {
+
+    private static StreamImpl stream( long id, int urgency, boolean incremental ) {
+        StreamImpl stream = new StreamImpl(
+                new StreamIdImpl( new VariableLengthInteger( id ) ),
+                new FlowControlImpl( 1000 ),
+                new FlowControlImpl( 1000 )
+        );
+        stream.setPriority( new ExtensiblePriority( urgency, incremental ) );
+        return stream;
+    }
+
+    @Test
+    public void next_differentUrgencies_servesMostUrgentFirst() {
+        StreamSendScheduler scheduler = new StreamSendScheduler();
+        StreamImpl background = stream( 0, 6, false );
+        StreamImpl api = stream( 4, 1, false );
+        scheduler.activate( background );
+        scheduler.activate( api );
+
+        assertSame( api, scheduler.next() );
+        scheduler.deactivate( api );
+        assertSame( background, scheduler.next() );
+        scheduler.deactivate( background );
+        assertNull( scheduler.next() );
+    }
+
+    @Test
+    public void next_nonIncrementalSameUrgency_servesInIdOrderToCompletion() {
+        StreamSendScheduler scheduler = new StreamSendScheduler( 10 );
+        StreamImpl first = stream( 0, 3, false );
+        StreamImpl second = stream( 4, 3, false );
+        scheduler.activate( second );
+        scheduler.activate( first );
+
+        assertSame( first, scheduler.next() );
+        scheduler.onDataSent( first, 100 );
+        assertSame( first, scheduler.next() );
+        scheduler.remove( first );
+        assertSame( second, scheduler.next() );
+    }
+
+    @Test
+    public void next_incrementalSameUrgency_roundRobinPerQuantum() {
+        StreamSendScheduler scheduler = new StreamSendScheduler( 10 );
+        StreamImpl a = stream( 0, 3, true );
+        StreamImpl b = stream( 4, 3, true );
+        scheduler.activate( a );
+        scheduler.activate( b );
+
+        assertSame( a, scheduler.next() );
+        scheduler.onDataSent( a, 5 );
+        assertSame( a, scheduler.next() );
+        scheduler.onDataSent( a, 5 );
+        assertSame( b, scheduler.next() );
+        scheduler.onDataSent( b, 10 );
+        assertSame( a, scheduler.next() );
+    }
+
+    @Test
+    public void onPriorityChanged_activeStream_movesToNewUrgency() {
+        StreamSendScheduler scheduler = new StreamSendScheduler();
+        StreamImpl a = stream( 0, 3, false );
+        StreamImpl b = stream( 4, 4, false );
+        scheduler.activate( a );
+        scheduler.activate( b );
+
+        b.setPriority( new ExtensiblePriority( 0, false ) );
+        scheduler.onPriorityChanged( b );
+
+        assertSame( b, scheduler.next() );
+        scheduler.deactivate( b );
+        assertSame( a, scheduler.next() );
+        scheduler.activate( b );
+        assertSame( b, scheduler.next() );
+    }
+}
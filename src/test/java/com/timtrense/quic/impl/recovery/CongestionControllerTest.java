@@ -0,0 +1,132 @@
+package com.timtrense.quic.impl.recovery;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @see com.timtrense.quic.impl.recovery.CongestionController
+ */
+public class CongestionControllerTest {
+
+    private static final int MDS = 1200;
+    private static final long RTT = TimeUnit.MILLISECONDS.toNanos( 20 );
+
+    private static RttEstimator sampledRtt() {
+        RttEstimator rttEstimator = new RttEstimator();
+        rttEstimator.onSample( RTT, 0, 0, true );
+        return rttEstimator;
+    }
+
+    @Test
+    public void newReno_slowStartThenRecovery() {
+        NewRenoCongestionController controller = new NewRenoCongestionController( MDS );
+        RttEstimator rtt = sampledRtt();
+        assertEquals( 10 * MDS, controller.getCongestionWindow() );
+
+        for ( int i = 0; i < 10; i++ ) {
+            assertTrue( controller.canSend( MDS ) );
+            controller.onPacketSent( MDS, i );
+        }
+        assertFalse( controller.canSend( MDS ) );
+        for ( int i = 0; i < 10; i++ ) {
+            controller.onPacketAcknowledged( MDS, i, rtt, RTT + i );
+        }
+        assertEquals( 20 * MDS, controller.getCongestionWindow() );
+        assertEquals( 0, controller.getBytesInFlight() );
+
+        controller.onPacketSent( MDS, 100 );
+        controller.onPacketSent( MDS, 101 );
+        controller.onPacketLost( MDS, 100, 200 );
+        assertEquals( 10 * MDS, controller.getCongestionWindow() );
+        // a second loss of a packet sent before the recovery period does not reduce again
+        controller.onPacketLost( MDS, 101, 201 );
+        assertEquals( 10 * MDS, controller.getCongestionWindow() );
+        assertFalse( controller.isInSlowStart() );
+
+        // congestion avoidance grows by one datagram per window
+        for ( int i = 0; i < 10; i++ ) {
+            controller.onPacketSent( MDS, 300 + i );
+        }
+        for ( int i = 0; i < 10; i++ ) {
+            controller.onPacketAcknowledged( MDS, 300 + i, rtt, 400 + i );
+        }
+        // slightly less, because the window already grows while being acknowledged
+        assertEquals( 11 * MDS, controller.getCongestionWindow(), MDS / 10 );
+
+        controller.onPersistentCongestion( 500 );
+        assertEquals( 2 * MDS, controller.getCongestionWindow() );
+    }
+
+    @Test
+    public void bbr_persistentCongestion_collapsesWindowAndUnboundsInflight() {
+        BbrCongestionController controller = new BbrCongestionController( MDS );
+        RttEstimator rtt = sampledRtt();
+        for ( int i = 0; i < 10; i++ ) {
+            controller.onPacketSent( MDS, i );
+        }
+        for ( int i = 0; i < 3; i++ ) {
+            controller.onPacketLost( MDS, i, RTT );
+        }
+        assertNotEquals( Long.MAX_VALUE, controller.getInflightHigh() );
+
+        controller.onPersistentCongestion( 2 * RTT );
+        assertEquals( Long.MAX_VALUE, controller.getInflightHigh() );
+        assertEquals( 4 * MDS, controller.getCongestionWindow() );
+        // packets sent before the persistent congestion do not end the collapse
+        controller.onPacketAcknowledged( MDS, 3, rtt, 2 * RTT + 1 );
+        assertTrue( controller.isWindowCollapsed() );
+
+        controller.onPacketSent( MDS, 2 * RTT + 2 );
+        controller.onPacketAcknowledged( MDS, 2 * RTT + 2, rtt, 3 * RTT );
+        assertFalse( controller.isWindowCollapsed() );
+    }
+
+    @Test
+    public void cubic_reducesByBetaAndGrowsBack() {
+        CubicCongestionController controller = new CubicCongestionController( MDS );
+        RttEstimator rtt = sampledRtt();
+        controller.onPacketSent( MDS, 0 );
+        controller.onPacketLost( MDS, 0, 1 );
+        long reduced = controller.getCongestionWindow();
+        assertEquals( (long)( 10 * MDS * CubicCongestionController.BETA ), reduced );
+
+        long now = 2;
+        for ( int round = 0; round < 200; round++ ) {
+            now += RTT;
+            long window = controller.getCongestionWindow();
+            for ( long sent = 0; sent < window; sent += MDS ) {
+                controller.onPacketSent( MDS, now );
+                controller.onPacketAcknowledged( MDS, now, rtt, now + RTT );
+            }
+        }
+        assertTrue( controller.getCongestionWindow() > 10 * MDS );
+    }
+
+    @Test
+    public void bbr_estimatesBandwidthAndLeavesStartup() {
+        BbrCongestionController controller = new BbrCongestionController( MDS );
+        RttEstimator rtt = sampledRtt();
+        long now = 0;
+        // a bottleneck of 100 datagrams per round trip
+        for ( int round = 0; round < 20; round++ ) {
+            long roundStart = now;
+            for ( int i = 0; i < 100; i++ ) {
+                controller.onPacketSent( MDS, roundStart );
+            }
+            now += RTT;
+            for ( int i = 0; i < 100; i++ ) {
+                controller.onPacketAcknowledged( MDS, roundStart, rtt, now );
+            }
+        }
+        assertNotEquals( BbrCongestionController.Mode.STARTUP, controller.getMode() );
+        long expectedBandwidth = 100L * MDS * 1_000_000_000L / RTT;
+        assertEquals( expectedBandwidth, controller.getMaxBandwidth(), expectedBandwidth / 100 );
+        assertEquals( 100L * MDS, controller.getBandwidthDelayProduct(), MDS );
+    }
+}
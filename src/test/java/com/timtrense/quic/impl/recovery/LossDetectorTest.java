@@ -0,0 +1,190 @@
+package com.timtrense.quic.impl.recovery;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.timtrense.quic.EndpointRole;
+import com.timtrense.quic.PacketNumberSpace;
+import com.timtrense.quic.impl.TimerWheel;
+import com.timtrense.quic.impl.WheelTimer;
+import com.timtrense.quic.impl.base.PacketNumberRangeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @see com.timtrense.quic.impl.recovery.LossDetector
+ */
+public class LossDetectorTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos( 1 );
+    private static final PacketNumberSpace SPACE = PacketNumberSpace.APPLICATION_DATA;
+
+    private TimerWheel wheel;
+    private LossDetector lossDetector;
+    private List<Long> acknowledged;
+    private List<Long> lost;
+    private List<PacketNumberSpace> probes;
+    private List<Object> attachments;
+    private int persistentCongestion;
+
+    @Before
+    public void setup() {
+        wheel = new TimerWheel( MS, 0 );
+        acknowledged = new ArrayList<>();
+        lost = new ArrayList<>();
+        probes = new ArrayList<>();
+        attachments = new ArrayList<>();
+        WheelTimer timer = new WheelTimer( ( t, now ) -> lossDetector.onLossDetectionTimeout( now ) );
+        lossDetector = new LossDetector( EndpointRole.SERVER, timer );
+        lossDetector.setTimerWheel( wheel );
+        lossDetector.setHandshakeConfirmed( true );
+        lossDetector.setListener( new LossDetectionListener() {
+            @Override
+            public void onPacketAcknowledged( PacketNumberSpace space, long packetNumber, int sentBytes,
+                    long sentTimeNanos, boolean inFlight, long nowNanos ) {
+                acknowledged.add( packetNumber );
+                attachments.add( lossDetector.getSentPackets( space ).getAttachment( packetNumber ) );
+            }
+
+            @Override
+            public void onPacketLost( PacketNumberSpace space, long packetNumber, int sentBytes,
+                    long sentTimeNanos, boolean inFlight, long nowNanos ) {
+                lost.add( packetNumber );
+                attachments.add( lossDetector.getSentPackets( space ).getAttachment( packetNumber ) );
+            }
+
+            @Override
+            public void onPersistentCongestion( PacketNumberSpace space, long nowNanos ) {
+                persistentCongestion++;
+            }
+
+            @Override
+            public void onPacketsDiscarded( PacketNumberSpace space, long discardedBytesInFlight ) {
+            }
+
+            @Override
+            public void onProbeTimeout( PacketNumberSpace space, long nowNanos ) {
+                probes.add( space );
+            }
+        } );
+    }
+
+    private static PacketNumberRangeSet ranges( long smallest, long largest ) {
+        PacketNumberRangeSet set = new PacketNumberRangeSet();
+        set.addRange( smallest, largest );
+        return set;
+    }
+
+    @Test
+    public void onAckReceived_packetThreshold_declaresLost() {
+        for ( int i = 0; i < 6; i++ ) {
+            lossDetector.onPacketSent( SPACE, i, 1000, true, true, i * MS );
+        }
+        assertEquals( 6000, lossDetector.getBytesInFlight() );
+
+        lossDetector.onAckReceived( SPACE, ranges( 5, 5 ), 0, 50 * MS );
+
+        assertEquals( 1, acknowledged.size() );
+        assertEquals( 45 * MS, lossDetector.getRttEstimator().getSmoothedRtt() );
+        // 0, 1 and 2 are 3 or more packets below the largest acknowledged
+        assertEquals( 3, lost.size() );
+        assertEquals( 2000, lossDetector.getBytesInFlight() );
+        SentPacketHistory history = lossDetector.getSentPackets( SPACE );
+        assertTrue( history.isOutstanding( 3 ) );
+        assertFalse( history.isOutstanding( 2 ) );
+    }
+
+    @Test
+    public void onAckReceived_attachedPackets_reportsAttachmentsBeforeRemoval() {
+        SentPacketHistory history = lossDetector.getSentPackets( SPACE );
+        for ( int i = 0; i < 4; i++ ) {
+            lossDetector.onPacketSent( SPACE, i, 1000, true, true, i * MS );
+            history.setAttachment( i, "packet " + i );
+        }
+
+        lossDetector.onAckReceived( SPACE, ranges( 3, 3 ), 0, 50 * MS );
+
+        assertEquals( 2, attachments.size() );
+        assertEquals( "packet 3", attachments.get( 0 ) );
+        assertEquals( "packet 0", attachments.get( 1 ) );
+        assertEquals( "packet 1", history.getAttachment( 1 ) );
+    }
+
+    @Test
+    public void onLossDetectionTimeout_timeThreshold_declaresLost() {
+        lossDetector.onPacketSent( SPACE, 0, 1000, true, true, 0 );
+        lossDetector.onPacketSent( SPACE, 1, 1000, true, true, MS );
+        lossDetector.onAckReceived( SPACE, ranges( 1, 1 ), 0, 31 * MS );
+        assertTrue( lost.isEmpty() );
+
+        // loss delay = 9/8 * 30ms = 33.75ms after sending packet 0
+        wheel.advance( 33 * MS );
+        assertTrue( lost.isEmpty() );
+        wheel.advance( 35 * MS );
+        assertEquals( 1, lost.size() );
+        assertEquals( 0L, (long)lost.get( 0 ) );
+        assertTrue( lossDetector.getSentPackets( SPACE ).isEmpty() );
+    }
+
+    @Test
+    public void onLossDetectionTimeout_probeTimeout_backsOff() {
+        lossDetector.onPacketSent( SPACE, 0, 1000, true, true, 0 );
+        long pto = lossDetector.getProbeTimeout() + lossDetector.getPeerMaxAckDelay();
+        wheel.advance( pto - MS );
+        assertTrue( probes.isEmpty() );
+        wheel.advance( pto + MS );
+        assertEquals( 1, probes.size() );
+        assertEquals( 1, lossDetector.getPtoCount() );
+
+        lossDetector.onAckReceived( SPACE, ranges( 0, 0 ), 0, pto + 2 * MS );
+        assertEquals( 0, lossDetector.getPtoCount() );
+        // nothing is outstanding anymore
+        assertTrue( wheel.isEmpty() );
+    }
+
+    @Test
+    public void onAckReceived_longLossSpan_declaresPersistentCongestion() {
+        lossDetector.onPacketSent( SPACE, 0, 1000, true, true, 0 );
+        lossDetector.onAckReceived( SPACE, ranges( 0, 0 ), 0, 10 * MS );
+        long span = lossDetector.getPersistentCongestionDuration();
+        lossDetector.onPacketSent( SPACE, 1, 1000, true, true, 11 * MS );
+        lossDetector.onPacketSent( SPACE, 2, 1000, true, true, 12 * MS + span );
+        for ( int i = 3; i < 6; i++ ) {
+            lossDetector.onPacketSent( SPACE, i, 1000, true, true, 13 * MS + span );
+        }
+        assertEquals( 0, persistentCongestion );
+
+        lossDetector.onAckReceived( SPACE, ranges( 5, 5 ), 0, 20 * MS + span );
+
+        assertEquals( 1, persistentCongestion );
+        assertTrue( lost.contains( 1L ) );
+        assertTrue( lost.contains( 2L ) );
+    }
+
+    @Test
+    public void sentPacketHistory_grows_keepsOrder() {
+        SentPacketHistory history = new SentPacketHistory( SPACE, 4 );
+        for ( int i = 0; i < 3; i++ ) {
+            history.onPacketSent( i, i, 10, true, true );
+        }
+        history.remove( 0 );
+        history.remove( 1 );
+        for ( int i = 3; i < 20; i++ ) {
+            history.onPacketSent( i, i, 10, i % 2 == 0, true );
+        }
+        assertEquals( 2, history.getFirstPacketNumber() );
+        assertEquals( 19, history.getLastPacketNumber() );
+        for ( int i = 2; i < 20; i++ ) {
+            assertTrue( history.isOutstanding( i ) );
+            assertEquals( i, history.getSentTime( i ) );
+        }
+        assertEquals( 180, history.getBytesInFlight() );
+        assertEquals( 9, history.getAckElicitingOutstanding() );
+    }
+}
@@ -0,0 +1,39 @@
+package com.timtrense.quic.impl.recovery;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @see com.timtrense.quic.impl.recovery.Pacer
+ */
+public class PacerTest {
+
+    private static final int MDS = 1000;
+    /**
+     * one datagram per millisecond
+     */
+    private static final long RATE = 1_000_000;
+
+    @Test
+    public void getDelay_burstThenPaced() {
+        Pacer pacer = new Pacer( 2 * MDS );
+        long now = 0;
+        assertEquals( 0, pacer.getDelay( now, MDS, RATE ) );
+        pacer.onPacketSent( now, MDS, RATE );
+        assertEquals( 0, pacer.getDelay( now, MDS, RATE ) );
+        pacer.onPacketSent( now, MDS, RATE );
+
+        assertEquals( 1_000_000, pacer.getDelay( now, MDS, RATE ) );
+        assertEquals( 500_000, pacer.getDelay( now + 500_000, MDS, RATE ) );
+        assertEquals( 0, pacer.getDelay( now + 1_000_000, MDS, RATE ) );
+    }
+
+    @Test
+    public void getDelay_longIdle_onlyFullBurst() {
+        Pacer pacer = new Pacer( 2 * MDS );
+        pacer.onPacketSent( 0, MDS, RATE );
+        pacer.getDelay( Long.MAX_VALUE / 2, MDS, RATE );
+        assertEquals( 2 * MDS, pacer.getTokens() );
+    }
+}